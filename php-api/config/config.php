@@ -6,6 +6,8 @@
 // Gemini API Configuration
 define('GEMINI_API_KEY', getenv('GEMINI_API_KEY') ?: 'YOUR_GEMINI_API_KEY_HERE');
 define('GEMINI_API_URL', 'https://generativelanguage.googleapis.com/v1beta/models/gemini-pro:generateContent');
+// Voice commands ask for a JSON schema reply, which gemini-pro does not support
+define('GEMINI_COMMAND_API_URL', 'https://generativelanguage.googleapis.com/v1beta/models/gemini-2.0-flash:generateContent');
 
 // Email Server Configuration (Optimum)
 define('DEFAULT_IMAP_SERVER', 'mail.optimum.net');
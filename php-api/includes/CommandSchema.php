@@ -0,0 +1,92 @@
+<?php
+/**
+ * Response schema, decoding and validation for voice commands
+ * Gemini is asked for JSON constrained to the schema; replies that still do not describe
+ * a usable command are classified from keywords instead of asking the user again.
+ * Mirrors com.myemailapp.ai.CommandSchema.
+ */
+
+class CommandSchema {
+    const ACTIONS = ['READ_EMAIL', 'SUMMARIZE_EMAIL', 'COMPOSE_EMAIL', 'SEND_EMAIL', 'CHECK_NEW', 'FIND_EMAIL', 'HELP'];
+    const PARAMETERS = ['recipient', 'subject', 'message', 'folder', 'query'];
+    const MAX_PARAMETER_LENGTH = 2000;
+    
+    /**
+     * generationConfig asking for JSON that matches the schema
+     */
+    public static function generationConfig() {
+        $parameters = [];
+        foreach (self::PARAMETERS as $name) {
+            $parameters[$name] = ['type' => 'STRING', 'nullable' => true];
+        }
+        return [
+            'responseMimeType' => 'application/json',
+            'responseSchema' => [
+                'type' => 'OBJECT',
+                'properties' => [
+                    'action' => ['type' => 'STRING', 'format' => 'enum', 'enum' => self::ACTIONS],
+                    'parameters' => ['type' => 'OBJECT', 'properties' => $parameters]
+                ],
+                'required' => ['action']
+            ],
+            // Classification should be repeatable, not creative
+            'temperature' => 0
+        ];
+    }
+    
+    /**
+     * Decode and validate a structured reply; null if it is not a usable command
+     */
+    public static function decode($json) {
+        $reply = json_decode($json, true);
+        if (!is_array($reply) || !isset($reply['action']) || !is_string($reply['action'])) {
+            return null;
+        }
+        $action = strtoupper(trim($reply['action']));
+        if (!in_array($action, self::ACTIONS, true)) {
+            return null;
+        }
+        $parameters = [];
+        if (isset($reply['parameters']) && is_array($reply['parameters'])) {
+            foreach ($reply['parameters'] as $key => $value) {
+                // Unknown keys and empty values are dropped rather than rejected
+                if (in_array($key, self::PARAMETERS, true) && is_scalar($value) && trim((string) $value) !== '') {
+                    $parameters[$key] = mb_substr(trim((string) $value), 0, self::MAX_PARAMETER_LENGTH, 'UTF-8');
+                }
+            }
+        }
+        if ($action === 'SEND_EMAIL' &&
+            (!isset($parameters['recipient']) || !filter_var($parameters['recipient'], FILTER_VALIDATE_EMAIL))) {
+            // Never send on a guessed recipient; open the composer instead
+            $action = 'COMPOSE_EMAIL';
+        }
+        if ($action === 'FIND_EMAIL' && !isset($parameters['query'])) {
+            return null;
+        }
+        return ['action' => $action, 'parameters' => $parameters];
+    }
+    
+    /**
+     * Keyword classification of the spoken text, used when the model's reply is unusable
+     */
+    public static function classifyLocally($command) {
+        $text = (string) $command;
+        $parameters = [];
+        if (preg_match('/\b(summar\w*|gist|what is .* about)\b/i', $text)) {
+            $action = 'SUMMARIZE_EMAIL';
+        } elseif (preg_match('/\b(find|search|look(ing)? for|where is)\b/i', $text)) {
+            $action = 'FIND_EMAIL';
+            $parameters['query'] = trim($text);
+        } elseif (preg_match('/\b(write|compose|reply|answer|new (email|message|letter))\b/i', $text)) {
+            $action = 'COMPOSE_EMAIL';
+        } elseif (preg_match('/\b(check|new|any)\b.*\b(mail|email|message)s?\b/i', $text)) {
+            $action = 'CHECK_NEW';
+        } elseif (preg_match('/\b(read|open|show|inbox)\b/i', $text)) {
+            $action = 'READ_EMAIL';
+        } else {
+            $action = 'HELP';
+        }
+        return ['action' => $action, 'parameters' => $parameters];
+    }
+}
+?>
@@ -5,8 +5,13 @@
  */
 
 class GeminiAI {
+    // Input token budgets for gemini-pro
+    const SUMMARY_TOKEN_BUDGET = 3000;
+    const COMPOSE_TOKEN_BUDGET = 1500;
+    
     private $apiKey;
     private $apiUrl;
+    private $lastPromptStats = null;
     
     public function __construct($apiKey) {
         $this->apiKey = $apiKey;
@@ -16,7 +21,7 @@ class GeminiAI {
     /**
      * Make a request to Gemini API
      */
-    private function makeRequest($prompt) {
+    private function makeRequest($prompt, $generationConfig = null, $apiUrl = null) {
         $data = [
             'contents' => [
                 [
@@ -26,8 +31,11 @@ class GeminiAI {
                 ]
             ]
         ];
+        if ($generationConfig !== null) {
+            $data['generationConfig'] = $generationConfig;
+        }
         
-        $ch = curl_init($this->apiUrl . '?key=' . $this->apiKey);
+        $ch = curl_init(($apiUrl ?: $this->apiUrl) . '?key=' . $this->apiKey);
         curl_setopt($ch, CURLOPT_RETURNTRANSFER, true);
         curl_setopt($ch, CURLOPT_POST, true);
         curl_setopt($ch, CURLOPT_HTTPHEADER, [
@@ -61,9 +69,11 @@ class GeminiAI {
      * Compose an email using AI
      */
     public function composeEmail($instructions) {
+        $prepared = $this->track('compose',
+            PromptPreprocessor::prepareInstructions($instructions, self::COMPOSE_TOKEN_BUDGET));
         $prompt = "You are helping an elderly person compose an email. " .
                  "Based on these instructions, write a clear, polite email:\n\n" .
-                 $instructions . "\n\nEmail:";
+                 $prepared['text'] . "\n\nEmail:";
         
         return $this->makeRequest($prompt);
     }
@@ -72,35 +82,58 @@ class GeminiAI {
      * Summarize an email
      */
     public function summarizeEmail($emailText) {
+        $prepared = $this->track('summarize',
+            PromptPreprocessor::prepareEmail($emailText, self::SUMMARY_TOKEN_BUDGET));
         $prompt = "Summarize this email in simple terms for an elderly person:\n\n" .
-                 $emailText . "\n\nSimple summary:";
+                 $prepared['text'] . "\n\nSimple summary:";
         
         return $this->makeRequest($prompt);
     }
     
+    /**
+     * Token estimates for the last summarize/compose prompt (null before the first)
+     */
+    public function getLastPromptStats() {
+        return $this->lastPromptStats;
+    }
+    
+    private function track($task, $prepared) {
+        $this->lastPromptStats = [
+            'task' => $task,
+            'original_tokens' => $prepared['original_tokens'],
+            'tokens' => $prepared['tokens'],
+            'tokens_saved' => $prepared['tokens_saved'],
+            'truncated' => $prepared['truncated']
+        ];
+        if ($prepared['tokens_saved'] > 0) {
+            error_log("Prompt ($task): ~{$prepared['original_tokens']} -> ~{$prepared['tokens']} tokens");
+        }
+        return $prepared;
+    }
+    
     /**
      * Process a voice/text command
+     * The reply is constrained to CommandSchema; a failed call or unusable reply is classified from keywords
      */
     public function processCommand($command) {
         $prompt = "You are helping an elderly person control their email app with voice commands. " .
-                 "Analyze this voice command and respond with a JSON object containing:\n" .
-                 "- action: one of [READ_EMAIL, COMPOSE_EMAIL, SEND_EMAIL, CHECK_NEW, HELP]\n" .
-                 "- parameters: any relevant details (recipient, subject, message, etc.)\n\n" .
-                 "Voice command: \"" . $command . "\"\n\n" .
-                 "Respond ONLY with valid JSON, no other text.";
+                 "Pick the action that matches this voice command and fill in any details it " .
+                 "mentions (recipient, subject, message, folder, or a search query when they want to find an email).\n\n" .
+                 "Voice command: \"" . $command . "\"";
         
-        $response = $this->makeRequest($prompt);
-        
-        // Extract JSON from response
-        preg_match('/\{.*\}/s', $response, $matches);
-        if (!empty($matches)) {
-            return json_decode($matches[0], true);
+        try {
+            $response = $this->makeRequest($prompt, CommandSchema::generationConfig(), GEMINI_COMMAND_API_URL);
+        } catch (Exception $e) {
+            error_log('Command request failed (' . $e->getMessage() . '), classifying locally');
+            return CommandSchema::classifyLocally($command);
         }
         
-        return [
-            'action' => 'HELP',
-            'parameters' => []
-        ];
+        $decoded = CommandSchema::decode($response);
+        if ($decoded !== null) {
+            return $decoded;
+        }
+        error_log('Unusable command reply, classifying locally');
+        return CommandSchema::classifyLocally($command);
     }
     
     /**
@@ -0,0 +1,189 @@
+<?php
+/**
+ * Prompt preprocessing for PHP API
+ * Shrinks email text before it is sent to Gemini: quoted history, signatures and
+ * boilerplate are removed, URLs reduced to their host, whitespace collapsed, and the
+ * rest cut to a token budget. Mirrors com.myemailapp.ai.PromptPreprocessor.
+ */
+
+class PromptPreprocessor {
+    const REPLY_HEADER = '/^(On .{0,200}wrote:|Am .{0,200}schrieb.*:|Le .{0,200}a écrit ?:|-{2,}\s*Original Message\s*-{2,}|_{10,})\s*$/iu';
+    const OUTLOOK_HEADER = '/^From:\s.+/i';
+    const OUTLOOK_FIELD = '/^(Sent|Date|To|Subject|Cc):\s.*/i';
+    const SIGNATURE_DELIMITER = '/^--\s?$/';
+    const DEVICE_FOOTER = '/^(Sent from my .{1,40}|Get Outlook for .{1,40}|Sent from (Yahoo )?Mail for .{1,40})$/i';
+    const VALEDICTION = '/^(best|kind|warm)?\s*(regards|wishes)|^(thanks|thank you|cheers|sincerely|love|best)[,!.]?$/i';
+    const BOILERPLATE = '/(confidential.{0,120}intended|intended (solely )?for the (use|addressee)|unsubscribe|privacy policy|you are receiving this|manage (your )?preferences|view (it|this email) in your browser|this (e-?mail|message) (and any attachments )?(is|may be) (confidential|privileged)|please consider the environment before printing)/is';
+    const URL = '/\b(?:https?:\/\/|www\.)([^\/\s<>"\')]+)[^\s<>"\')]*/i';
+    const MAX_SIGNOFF_LINES = 6;
+    // Footer paragraphs are short; longer ones mentioning "unsubscribe" are real content
+    const MAX_FOOTER_CHARS = 400;
+    const TRUNCATION_MARK = "\n[...]";
+    
+    /**
+     * Clean an email body for summarizing
+     * Returns ['text' => ..., 'original_tokens' => ..., 'tokens' => ..., 'truncated' => ...]
+     */
+    public static function prepareEmail($body, $tokenBudget) {
+        $originalTokens = self::estimateTokens($body);
+        $normalized = self::normalize($body);
+        $text = self::stripBoilerplate(self::stripSignature(self::stripQuotedHistory($normalized)));
+        if (trim($text) === '') {
+            // Nothing but a forward or a quote: better to summarize that than nothing
+            $text = $normalized;
+        }
+        return self::finish($text, $originalTokens, $tokenBudget);
+    }
+    
+    /**
+     * Clean free-form instructions (for composing): keep all content, only compact it
+     */
+    public static function prepareInstructions($instructions, $tokenBudget) {
+        return self::finish(self::normalize($instructions), self::estimateTokens($instructions), $tokenBudget);
+    }
+    
+    /**
+     * Fast token estimate: one token per punctuation mark, one per four characters of a word
+     */
+    public static function estimateTokens($text) {
+        if ($text === null || $text === '') {
+            return 0;
+        }
+        $tokens = 0;
+        preg_match_all('/[\p{L}\p{N}]+|[^\p{L}\p{N}\s]/u', $text, $matches);
+        foreach ($matches[0] as $piece) {
+            $length = mb_strlen($piece, 'UTF-8');
+            $tokens += preg_match('/^[\p{L}\p{N}]/u', $piece) ? intdiv($length + 3, 4) : 1;
+        }
+        return $tokens;
+    }
+    
+    private static function finish($text, $originalTokens, $tokenBudget) {
+        $text = trim($text);
+        $tokens = self::estimateTokens($text);
+        $truncated = false;
+        if ($tokens > $tokenBudget) {
+            $text = self::truncate($text, $tokenBudget);
+            $tokens = self::estimateTokens($text);
+            $truncated = true;
+        }
+        return [
+            'text' => $text,
+            'original_tokens' => $originalTokens,
+            'tokens' => $tokens,
+            'tokens_saved' => $originalTokens - $tokens,
+            'truncated' => $truncated
+        ];
+    }
+    
+    private static function normalize($text) {
+        $text = str_replace(["\r\n", "\r"], "\n", (string) $text);
+        $text = preg_replace_callback(self::URL, function ($m) {
+            return '[link: ' . $m[1] . ']';
+        }, $text);
+        $text = preg_replace('/[ \t\x0B\f\x{00A0}]+/u', ' ', $text);
+        $lines = array_map('trim', explode("\n", $text));
+        return preg_replace('/\n{3,}/', "\n\n", implode("\n", $lines));
+    }
+    
+    private static function stripQuotedHistory($text) {
+        $lines = explode("\n", $text);
+        $kept = [];
+        foreach ($lines as $i => $line) {
+            if (preg_match(self::REPLY_HEADER, $line) || self::isOutlookHeader($lines, $i)) {
+                // Everything from here on is the earlier conversation
+                break;
+            }
+            if (strpos($line, '>') !== 0) {
+                $kept[] = $line;
+            }
+        }
+        return implode("\n", $kept);
+    }
+    
+    private static function isOutlookHeader($lines, $index) {
+        if (!preg_match(self::OUTLOOK_HEADER, $lines[$index])) {
+            return false;
+        }
+        $fields = 0;
+        for ($i = $index + 1; $i < min(count($lines), $index + 5); $i++) {
+            if (preg_match(self::OUTLOOK_FIELD, $lines[$i])) {
+                $fields++;
+            }
+        }
+        return $fields >= 2;
+    }
+    
+    private static function stripSignature($text) {
+        $lines = [];
+        foreach (explode("\n", $text) as $line) {
+            if (preg_match(self::SIGNATURE_DELIMITER, $line)) {
+                break;
+            }
+            if (!preg_match(self::DEVICE_FOOTER, $line)) {
+                $lines[] = $line;
+            }
+        }
+        // A sign-off near the end ("Best regards,") starts the signature block
+        $nonBlank = 0;
+        for ($i = count($lines) - 1; $i > 0 && $nonBlank <= self::MAX_SIGNOFF_LINES; $i--) {
+            if ($lines[$i] === '') {
+                continue;
+            }
+            $nonBlank++;
+            if (preg_match(self::VALEDICTION, $lines[$i]) && strlen($lines[$i]) < 40) {
+                $lines = array_slice($lines, 0, $i);
+                break;
+            }
+        }
+        return implode("\n", $lines);
+    }
+    
+    /**
+     * Drop the legal/marketing footer: short paragraphs at the end that look like boilerplate
+     */
+    private static function stripBoilerplate($text) {
+        $paragraphs = explode("\n\n", $text);
+        while (!empty($paragraphs)) {
+            $paragraph = end($paragraphs);
+            $footer = trim($paragraph) === '' ||
+                (mb_strlen($paragraph, 'UTF-8') <= self::MAX_FOOTER_CHARS && preg_match(self::BOILERPLATE, $paragraph));
+            if (!$footer) {
+                break;
+            }
+            array_pop($paragraphs);
+        }
+        return implode("\n\n", $paragraphs);
+    }
+    
+    /**
+     * Cut to the budget, preferring a paragraph break, then a sentence end, then a word end
+     */
+    private static function truncate($text, $tokenBudget) {
+        $budget = max(1, $tokenBudget - self::estimateTokens(self::TRUNCATION_MARK));
+        $low = 0;
+        $high = mb_strlen($text, 'UTF-8');
+        while ($low < $high) {
+            $mid = intdiv($low + $high + 1, 2);
+            if (self::estimateTokens(mb_substr($text, 0, $mid, 'UTF-8')) <= $budget) {
+                $low = $mid;
+            } else {
+                $high = $mid - 1;
+            }
+        }
+        $prefix = mb_substr($text, 0, $low, 'UTF-8');
+        $length = strlen($prefix);
+        $cut = strrpos($prefix, "\n\n");
+        if ($cut === false || $cut < $length / 2) {
+            $cut = max((int) strrpos($prefix, '. '), (int) strrpos($prefix, '! '), (int) strrpos($prefix, '? ')) + 1;
+        }
+        if ($cut < $length / 2) {
+            $cut = (int) strrpos($prefix, ' ');
+        }
+        if ($cut < $length / 2) {
+            $cut = $length;
+        }
+        return trim(substr($prefix, 0, $cut)) . self::TRUNCATION_MARK;
+    }
+}
+?>
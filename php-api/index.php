@@ -17,6 +17,8 @@ if ($_SERVER['REQUEST_METHOD'] === 'OPTIONS') {
 }
 
 require_once 'config/config.php';
+require_once 'includes/PromptPreprocessor.php';
+require_once 'includes/CommandSchema.php';
 require_once 'includes/GeminiAI.php';
 require_once 'includes/EmailClient.php';
 require_once 'includes/AuthManager.php';
@@ -130,7 +132,7 @@ try {
                 
                 $response['success'] = true;
                 $response['message'] = 'Email summarized successfully';
-                $response['data'] = ['summary' => $summary];
+                $response['data'] = ['summary' => $summary, 'prompt' => $ai->getLastPromptStats()];
             }
             break;
             
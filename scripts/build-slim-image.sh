@@ -0,0 +1,73 @@
+#!/usr/bin/env bash
+# Builds the slim runtime image (invoked by `mvn -Pslim package`).
+#
+#   build-slim-image.sh <app-jar> <lib-dir> <image-dir> <extra-modules>
+#
+# 1. jdeps computes the JDK modules the app and its runtime libraries need
+# 2. jlink produces a trimmed runtime with only those modules (plus the
+#    provider modules jdeps cannot see, e.g. TLS elliptic curves)
+# 3. a training launch records a dynamic AppCDS archive of the classes
+#    loaded up to the first window
+set -euo pipefail
+
+APP_JAR="$1"
+LIB_DIR="$2"
+IMAGE_DIR="$3"
+EXTRA_MODULES="$4"
+
+JAVA_BIN="${JAVA_HOME:+$JAVA_HOME/bin/}"
+
+MODULES="$("${JAVA_BIN}jdeps" --multi-release base --ignore-missing-deps --print-module-deps \
+    --class-path "$LIB_DIR/*" "$APP_JAR" "$LIB_DIR"/*.jar 2>/dev/null | tail -n 1)"
+MODULES="$MODULES,$EXTRA_MODULES"
+echo "[slim] modules: $MODULES"
+
+rm -rf "$IMAGE_DIR"
+"${JAVA_BIN}jlink" \
+    --add-modules "$MODULES" \
+    --strip-debug \
+    --no-header-files \
+    --no-man-pages \
+    --compress=2 \
+    --output "$IMAGE_DIR"
+
+# Base CDS archive for the JDK classes; the dynamic app archive layers on top
+# (jlink only gained --generate-cds-archive after JDK 17)
+"$IMAGE_DIR/bin/java" -Xshare:dump > /dev/null
+
+# The jar manifest's Class-Path points at lib/, so keep that layout
+mkdir -p "$IMAGE_DIR/app/lib"
+cp "$APP_JAR" "$IMAGE_DIR/app/ai-email-app.jar"
+cp "$LIB_DIR"/*.jar "$IMAGE_DIR/app/lib/"
+
+cat > "$IMAGE_DIR/bin/ai-email-app" <<'LAUNCHER'
+#!/bin/sh
+# Launches the app on the bundled runtime. The AppCDS archive is recorded on
+# the first launch when the build could not train it (or after the image was
+# moved, in which case delete app/app.jsa to re-record it).
+HOME_DIR="$(cd "$(dirname "$0")/.." && pwd)"
+ARCHIVE="$HOME_DIR/app/app.jsa"
+if [ -f "$ARCHIVE" ]; then
+    CDS="-XX:SharedArchiveFile=$ARCHIVE"
+else
+    CDS="-XX:ArchiveClassesAtExit=$ARCHIVE"
+fi
+exec "$HOME_DIR/bin/java" -Xshare:auto $CDS $JAVA_OPTS \
+    -jar "$HOME_DIR/app/ai-email-app.jar" "$@"
+LAUNCHER
+chmod +x "$IMAGE_DIR/bin/ai-email-app"
+
+# Training run: StartupProbe exits right after the first window is shown (or as
+# soon as window creation fails on a headless build machine)
+IMAGE_HOME="$(cd "$IMAGE_DIR" && pwd)"
+if "$IMAGE_HOME/bin/java" -XX:ArchiveClassesAtExit="$IMAGE_HOME/app/app.jsa" \
+        -Dmyemailapp.startupProbe=true -Xlog:cds=off -Xlog:cds+dynamic=off \
+        -jar "$IMAGE_HOME/app/ai-email-app.jar" > /dev/null 2>&1 \
+        && [ -f "$IMAGE_HOME/app/app.jsa" ]; then
+    echo "[slim] AppCDS archive: $IMAGE_HOME/app/app.jsa"
+else
+    rm -f "$IMAGE_HOME/app/app.jsa"
+    echo "[slim] training run failed; the archive will be recorded on first launch"
+fi
+
+du -sh "$IMAGE_DIR" | sed 's/^/[slim] image size: /'
@@ -0,0 +1,54 @@
+#!/usr/bin/env bash
+# Compares time-to-window of the fat jar against the slim jlink/AppCDS image.
+#
+#   scripts/startup-benchmark.sh [runs] [fat-jar] [slim-image-dir]
+#
+# Build both first; the fat jar must come from a default (non-slim) build:
+#   mvn package && cp target/ai-email-app-1.0.0-jar-with-dependencies.jar /tmp/fat.jar
+#   mvn -Pslim package
+#   scripts/startup-benchmark.sh 10 /tmp/fat.jar
+#
+# Each launch runs with -Dmyemailapp.startupProbe=true, which prints the time
+# from process start until the main window is visible and exits. Needs a display.
+set -euo pipefail
+
+RUNS="${1:-10}"
+FAT_JAR="${2:-target/ai-email-app-1.0.0-jar-with-dependencies.jar}"
+SLIM_IMAGE="${3:-target/slim-image}"
+JAVA_BIN="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+
+measure() {
+    local label="$1"; shift
+    local samples=()
+    for _ in $(seq "$RUNS"); do
+        local ms
+        ms="$("$@" -Dmyemailapp.startupProbe=true 2>/dev/null \
+            | sed -n 's/^time-to-window-ms=\([0-9-]*\).*/\1/p')"
+        if [ -z "$ms" ] || [ "$ms" -lt 0 ]; then
+            echo "$label: no window (is a display available?)" >&2
+            return 1
+        fi
+        samples+=("$ms")
+    done
+    printf '%s\n' "${samples[@]}" | sort -n | awk -v label="$label" '
+        { v[NR] = $1; sum += $1 }
+        END {
+            median = (NR % 2) ? v[(NR + 1) / 2] : (v[NR / 2] + v[NR / 2 + 1]) / 2
+            printf "%-10s runs=%d min=%dms median=%dms mean=%.0fms max=%dms\n",
+                   label, NR, v[1], median, sum / NR, v[NR]
+        }'
+}
+
+# JVM options (the probe flag) are passed through and must precede -jar
+fat() { "$JAVA_BIN" "$@" -jar "$FAT_JAR"; }
+slim() {
+    local archive="$SLIM_IMAGE/app/app.jsa"
+    local cds=()
+    [ -f "$archive" ] && cds=("-XX:SharedArchiveFile=$archive")
+    "$SLIM_IMAGE/bin/java" "${cds[@]}" "$@" -jar "$SLIM_IMAGE/app/ai-email-app.jar"
+}
+
+echo "fat jar:    $FAT_JAR ($(du -h "$FAT_JAR" | cut -f1))"
+echo "slim image: $SLIM_IMAGE ($(du -sh "$SLIM_IMAGE" | cut -f1))"
+measure "fat-jar" fat
+measure "slim+cds" slim
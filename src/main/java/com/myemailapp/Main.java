@@ -1,9 +1,14 @@
 package com.myemailapp;
 
+import com.myemailapp.api.ApiServer;
+import com.myemailapp.batch.BatchMode;
+import com.myemailapp.daemon.MailDaemon;
 import com.myemailapp.gui.EmailAppGUI;
 import com.myemailapp.startup.StartupManager;
 import com.myemailapp.startup.DesktopIconManager;
+import com.myemailapp.startup.StartupProbe;
 import javax.swing.*;
+import java.util.Arrays;
 
 /**
  * Main entry point for the AI-powered Email Application
@@ -12,16 +17,38 @@ import javax.swing.*;
 public class Main {
     
     public static void main(String[] args) {
+        // Headless bulk jobs (cron/overnight) never touch AWT or Swing
+        if (args.length > 0 && args[0].equals("--batch")) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(BatchMode.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        // Resident mail process the window connects to (started by the window on demand)
+        if (args.length > 0 && args[0].equals("--daemon")) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(MailDaemon.run());
+        }
+        // REST gateway serving the PHP API's endpoints (server deployments)
+        if (args.length > 0 && args[0].equals("--api")) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(ApiServer.run(Arrays.copyOfRange(args, 1, args.length)));
+        }
+        launchGUI();
+    }
+    
+    private static void launchGUI() {
         // Set system properties for better GUI experience
         System.setProperty("awt.useSystemAAFontSettings", "on");
         System.setProperty("swing.aatext", "true");
         
-        // Enable auto-startup on first run if not already configured
-        StartupManager.enableAutoStartup();
-        
-        // Create desktop icon on first run
-        if (!DesktopIconManager.desktopIconExists()) {
-            DesktopIconManager.createDesktopIcon();
+        // Measurement/training launches must not touch the user's desktop
+        if (!StartupProbe.isEnabled()) {
+            // Enable auto-startup on first run if not already configured
+            StartupManager.enableAutoStartup();
+            
+            // Create desktop icon on first run
+            if (!DesktopIconManager.desktopIconExists()) {
+                DesktopIconManager.createDesktopIcon();
+            }
         }
         
         // Launch GUI on Event Dispatch Thread
@@ -32,7 +59,9 @@ public class Main {
                 
                 EmailAppGUI gui = new EmailAppGUI();
                 gui.setVisible(true);
+                SwingUtilities.invokeLater(StartupProbe::windowShown);
             } catch (Exception e) {
+                StartupProbe.windowUnavailable(e);
                 e.printStackTrace();
                 JOptionPane.showMessageDialog(null, 
                     "Error starting application: " + e.getMessage(),
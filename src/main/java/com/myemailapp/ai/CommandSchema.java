@@ -0,0 +1,172 @@
+package com.myemailapp.ai;
+
+import com.google.gson.*;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Response schema, typed decoding and validation for voice commands
+ *
+ * processVoiceCommand asks Gemini for JSON constrained to {@link #responseSchema()}, so the
+ * reply is decoded directly instead of being scraped out of free text. Decoded commands
+ * are then checked against what the app can actually do; anything that still does not
+ * fit is classified from keywords in the spoken text rather than asking the user again.
+ */
+public class CommandSchema {
+    public static final List<String> ACTIONS = Collections.unmodifiableList(Arrays.asList(
+        "READ_EMAIL", "SUMMARIZE_EMAIL", "COMPOSE_EMAIL", "SEND_EMAIL", "CHECK_NEW", "FIND_EMAIL", "HELP"));
+    public static final List<String> PARAMETERS = Collections.unmodifiableList(Arrays.asList(
+        "recipient", "subject", "message", "folder", "query"));
+    private static final int MAX_PARAMETER_LENGTH = 2000;
+    private static final Pattern EMAIL_ADDRESS = Pattern.compile("[^@\\s]+@[^@\\s]+\\.[^@\\s]+");
+    private static final Pattern SUMMARIZE_WORDS = Pattern.compile("\\b(summar\\w*|gist|what is .* about)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern FIND_WORDS = Pattern.compile("\\b(find|search|look(ing)? for|where is)\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern COMPOSE_WORDS = Pattern.compile("\\b(write|compose|reply|answer|new (email|message|letter))\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern CHECK_WORDS = Pattern.compile("\\b(check|new|any)\\b.*\\b(mail|email|message)s?\\b", Pattern.CASE_INSENSITIVE);
+    private static final Pattern READ_WORDS = Pattern.compile("\\b(read|open|show|inbox)\\b", Pattern.CASE_INSENSITIVE);
+    
+    /**
+     * Reply shape as decoded from Gemini's JSON
+     */
+    static final class Reply {
+        String action;
+        Map<String, String> parameters;
+    }
+    
+    /**
+     * Thrown when a reply decodes but does not describe a usable command
+     */
+    public static class InvalidCommandException extends Exception {
+        private static final long serialVersionUID = 1L;
+        
+        public InvalidCommandException(String message) {
+            super(message);
+        }
+    }
+    
+    /**
+     * OpenAPI-style schema for generationConfig.responseSchema
+     */
+    public static JsonObject responseSchema() {
+        JsonArray actions = new JsonArray();
+        for (String action : ACTIONS) {
+            actions.add(action);
+        }
+        JsonObject action = new JsonObject();
+        action.addProperty("type", "STRING");
+        action.addProperty("format", "enum");
+        action.add("enum", actions);
+        
+        JsonObject parameterProperties = new JsonObject();
+        for (String name : PARAMETERS) {
+            JsonObject parameter = new JsonObject();
+            parameter.addProperty("type", "STRING");
+            parameter.addProperty("nullable", true);
+            parameterProperties.add(name, parameter);
+        }
+        JsonObject parameters = new JsonObject();
+        parameters.addProperty("type", "OBJECT");
+        parameters.add("properties", parameterProperties);
+        
+        JsonObject properties = new JsonObject();
+        properties.add("action", action);
+        properties.add("parameters", parameters);
+        JsonArray required = new JsonArray();
+        required.add("action");
+        
+        JsonObject schema = new JsonObject();
+        schema.addProperty("type", "OBJECT");
+        schema.add("properties", properties);
+        schema.add("required", required);
+        return schema;
+    }
+    
+    /**
+     * generationConfig asking for JSON that matches the schema
+     */
+    public static JsonObject generationConfig() {
+        JsonObject config = new JsonObject();
+        config.addProperty("responseMimeType", "application/json");
+        config.add("responseSchema", responseSchema());
+        // Classification should be repeatable, not creative
+        config.addProperty("temperature", 0);
+        return config;
+    }
+    
+    /**
+     * Decode and validate a structured reply
+     */
+    public static AICommand decode(Gson gson, String json) throws InvalidCommandException {
+        Reply reply;
+        try {
+            reply = gson.fromJson(json, Reply.class);
+        } catch (JsonParseException e) {
+            throw new InvalidCommandException("Reply is not command JSON: " + e.getMessage());
+        }
+        if (reply == null) {
+            throw new InvalidCommandException("Empty reply");
+        }
+        return validate(reply);
+    }
+    
+    /**
+     * Check a decoded reply against the actions and parameters the app supports
+     */
+    static AICommand validate(Reply reply) throws InvalidCommandException {
+        String action = reply.action != null ? reply.action.trim().toUpperCase(Locale.ROOT) : "";
+        if (!ACTIONS.contains(action)) {
+            throw new InvalidCommandException("Unknown action: " + reply.action);
+        }
+        JsonObject parameters = new JsonObject();
+        if (reply.parameters != null) {
+            for (Map.Entry<String, String> entry : reply.parameters.entrySet()) {
+                String value = entry.getValue() != null ? entry.getValue().trim() : "";
+                // Unknown keys and empty values are dropped rather than rejected
+                if (PARAMETERS.contains(entry.getKey()) && !value.isEmpty()) {
+                    if (value.length() > MAX_PARAMETER_LENGTH) {
+                        value = value.substring(0, MAX_PARAMETER_LENGTH);
+                    }
+                    parameters.addProperty(entry.getKey(), value);
+                }
+            }
+        }
+        if (action.equals("SEND_EMAIL") && !isAddress(parameters.get("recipient"))) {
+            // Never send on a guessed recipient; open the composer instead
+            action = "COMPOSE_EMAIL";
+        }
+        if (action.equals("FIND_EMAIL") && !parameters.has("query")) {
+            throw new InvalidCommandException("FIND_EMAIL without a query");
+        }
+        return new AICommand(action, parameters);
+    }
+    
+    /**
+     * Keyword classification of the spoken text, used when the model's reply is unusable
+     */
+    public static AICommand classifyLocally(String voiceText) {
+        String text = voiceText != null ? voiceText : "";
+        String action;
+        JsonObject parameters = new JsonObject();
+        if (SUMMARIZE_WORDS.matcher(text).find()) {
+            action = "SUMMARIZE_EMAIL";
+        } else if (FIND_WORDS.matcher(text).find()) {
+            // The whole sentence is a fine query; embeddings do not need it trimmed
+            action = "FIND_EMAIL";
+            parameters.addProperty("query", text.trim());
+        } else if (COMPOSE_WORDS.matcher(text).find()) {
+            action = "COMPOSE_EMAIL";
+        } else if (CHECK_WORDS.matcher(text).find()) {
+            action = "CHECK_NEW";
+        } else if (READ_WORDS.matcher(text).find()) {
+            action = "READ_EMAIL";
+        } else {
+            action = "HELP";
+        }
+        return new AICommand(action, parameters);
+    }
+    
+    private static boolean isAddress(JsonElement value) {
+        return value != null && EMAIL_ADDRESS.matcher(value.getAsString()).matches();
+    }
+}
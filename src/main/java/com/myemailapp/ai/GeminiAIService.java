@@ -3,29 +3,91 @@ package com.myemailapp.ai;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonArray;
+import com.myemailapp.email.FingerprintIndex;
+import com.myemailapp.trace.Span;
+import com.myemailapp.trace.Tracer;
 import okhttp3.*;
 import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Service for interacting with Google Gemini AI API
  * Handles email composition, summarization, and voice commands
  */
 public class GeminiAIService {
-    private static final String GEMINI_API_URL = "https://generativelanguage.googleapis.com/v1beta/models/gemini-pro:generateContent";
+    // Input token budgets per model; summaries rarely need more than the first few pages
+    private static final Map<String, Integer> SUMMARY_TOKEN_BUDGETS = new HashMap<>();
+    // A call may run this many times its route's SLA before the next model is tried
+    private static final int TIMEOUT_SLA_MULTIPLE = 4;
+    private static final int DEFAULT_SUMMARY_TOKEN_BUDGET = 2000;
+    private static final int COMPOSE_TOKEN_BUDGET = 1500;
+    // Summaries kept for reuse by near-identical mails (newsletters, receipts, notifications)
+    private static final int SUMMARY_INDEX_CAPACITY = 5000;
+    private static final JsonObject COMMAND_GENERATION_CONFIG = CommandSchema.generationConfig();
+    private static final String PARSE_ERROR = "Error parsing AI response";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+    // batchEmbedContents accepts at most 100 texts per request
+    private static final int EMBED_BATCH_SIZE = 100;
+    // Reduced from the model's 768; plenty for ranking a mailbox, and a third of the storage
+    public static final int EMBEDDING_DIMENSIONS = 256;
+    private static final Pattern NUMBER = Pattern.compile("\\d+(?:[.,:/-]\\d+)*");
+    
+    static {
+        SUMMARY_TOKEN_BUDGETS.put("gemini-1.5-pro", 4000);
+        SUMMARY_TOKEN_BUDGETS.put("gemini-2.0-flash", 3000);
+        SUMMARY_TOKEN_BUDGETS.put("gemini-2.0-flash-lite", 2000);
+    }
+    
     private final String apiKey;
+    private final ModelRouter router;
     private final OkHttpClient client;
+    private final Map<ModelRouter.Task, OkHttpClient> routeClients = new EnumMap<>(ModelRouter.Task.class);
     private final Gson gson;
+    private final AtomicLong promptTokens = new AtomicLong();
+    private final AtomicLong promptTokensSaved = new AtomicLong();
+    private final FingerprintIndex<CachedSummary> summaryIndex = new FingerprintIndex<>(SUMMARY_INDEX_CAPACITY);
+    private final AtomicLong reusedSummaries = new AtomicLong();
+    private final AtomicLong patchedSummaries = new AtomicLong();
+    private final AtomicLong invalidCommands = new AtomicLong();
+    private final AtomicLong failedCommands = new AtomicLong();
+    private volatile boolean reuseSummaries = true;
     
     public GeminiAIService(String apiKey) {
+        this(apiKey, new ModelRouter());
+    }
+    
+    public GeminiAIService(String apiKey, ModelRouter router) {
         this.apiKey = apiKey;
+        this.router = router;
         this.client = new OkHttpClient();
         this.gson = new Gson();
+        for (ModelRouter.Task task : ModelRouter.Task.values()) {
+            // Same connection pool, but a slow model gives way to the next one
+            long timeout = router.getStats(task).getSlaMillis() * TIMEOUT_SLA_MULTIPLE;
+            routeClients.put(task, client.newBuilder().callTimeout(timeout, TimeUnit.MILLISECONDS).build());
+        }
     }
     
     /**
      * Generate AI response for general queries
      */
     public String generateResponse(String prompt) throws IOException {
+        return generate(ModelRouter.Task.GENERAL, prompt);
+    }
+    
+    /**
+     * Send a prompt to the best model for the task, falling back along the route on errors
+     */
+    private String generate(ModelRouter.Task task, String prompt) throws IOException {
+        return generate(task, prompt, null);
+    }
+    
+    private String generate(ModelRouter.Task task, String prompt, JsonObject generationConfig) throws IOException {
         JsonObject requestBody = new JsonObject();
         JsonArray contents = new JsonArray();
         JsonObject content = new JsonObject();
@@ -37,61 +99,296 @@ public class GeminiAIService {
         content.add("parts", parts);
         contents.add(content);
         requestBody.add("contents", contents);
+        if (generationConfig != null) {
+            requestBody.add("generationConfig", generationConfig);
+        }
         
-        RequestBody body = RequestBody.create(
-            requestBody.toString(),
-            MediaType.get("application/json; charset=utf-8")
-        );
-        
-        Request request = new Request.Builder()
-            .url(GEMINI_API_URL + "?key=" + apiKey)
-            .post(body)
-            .build();
-        
-        try (Response response = client.newCall(request).execute()) {
-            if (!response.isSuccessful()) {
-                throw new IOException("Gemini API error: " + response.code());
+        JsonObject response = call(task, "generateContent", model -> requestBody);
+        return extractTextFromResponse(response);
+    }
+    
+    /**
+     * Embed texts for semantic search, up to EMBED_BATCH_SIZE per request. Documents and
+     * queries are embedded slightly differently (taskType), so say which these are.
+     * Returns one vector per text, in order.
+     */
+    public float[][] embed(List<String> texts, boolean query) throws IOException {
+        float[][] vectors = new float[texts.size()][];
+        for (int from = 0; from < texts.size(); from += EMBED_BATCH_SIZE) {
+            List<String> batch = texts.subList(from, Math.min(texts.size(), from + EMBED_BATCH_SIZE));
+            JsonObject response = call(ModelRouter.Task.EMBED, "batchEmbedContents", model -> {
+                JsonArray requests = new JsonArray();
+                for (String text : batch) {
+                    JsonObject part = new JsonObject();
+                    part.addProperty("text", text);
+                    JsonArray parts = new JsonArray();
+                    parts.add(part);
+                    JsonObject content = new JsonObject();
+                    content.add("parts", parts);
+                    JsonObject request = new JsonObject();
+                    request.addProperty("model", "models/" + model);
+                    request.add("content", content);
+                    request.addProperty("taskType", query ? "RETRIEVAL_QUERY" : "RETRIEVAL_DOCUMENT");
+                    request.addProperty("outputDimensionality", EMBEDDING_DIMENSIONS);
+                    requests.add(request);
+                }
+                JsonObject body = new JsonObject();
+                body.add("requests", requests);
+                return body;
+            });
+            JsonArray embeddings = response.getAsJsonArray("embeddings");
+            if (embeddings == null || embeddings.size() != batch.size()) {
+                throw new IOException("Unexpected embedding response");
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                JsonArray values = embeddings.get(i).getAsJsonObject().getAsJsonArray("values");
+                float[] vector = new float[values.size()];
+                for (int d = 0; d < vector.length; d++) {
+                    vector[d] = values.get(d).getAsFloat();
+                }
+                vectors[from + i] = vector;
             }
-            
-            String responseBody = response.body().string();
-            JsonObject jsonResponse = gson.fromJson(responseBody, JsonObject.class);
-            
-            return extractTextFromResponse(jsonResponse);
         }
+        return vectors;
+    }
+    
+    /**
+     * POST to the task's models in route order until one answers; returns its JSON reply
+     */
+    private JsonObject call(ModelRouter.Task task, String method, Function<String, JsonObject> requestFor) throws IOException {
+        IOException failure = null;
+        try (Span span = Tracer.start("gemini." + task.name().toLowerCase())) {
+            for (String model : router.candidates(task)) {
+                JsonObject requestBody = requestFor.apply(model);
+                Request request = new Request.Builder()
+                    .url(router.url(model, method) + "?key=" + apiKey)
+                    .post(RequestBody.create(requestBody.toString(), JSON))
+                    .build();
+                
+                long start = System.nanoTime();
+                try (Span attempt = Tracer.start("gemini.call").tag("model", model);
+                     Response response = routeClients.get(task).newCall(request).execute()) {
+                    attempt.tag("status", response.code());
+                    if (!response.isSuccessful()) {
+                        throw new GeminiException(response.code());
+                    }
+                    
+                    String responseBody = response.body().string();
+                    JsonObject jsonResponse = gson.fromJson(responseBody, JsonObject.class);
+                    router.recordSuccess(task, model, (System.nanoTime() - start) / 1_000_000);
+                    span.tag("model", model);
+                    return jsonResponse;
+                } catch (GeminiException e) {
+                    if (e.code == 401 || e.code == 403) {
+                        // A bad key fails the same way on every model
+                        span.fail(e);
+                        throw e;
+                    }
+                    router.recordFailure(task, model);
+                    failure = e;
+                } catch (IOException e) {
+                    router.recordFailure(task, model);
+                    failure = e;
+                }
+                System.err.println("Gemini " + model + " failed for " + task + ": " + failure.getMessage());
+            }
+            IOException error = failure != null ? failure : new IOException("No Gemini model configured for " + task);
+            span.fail(error);
+            throw error;
+        }
+    }
+    
+    /**
+     * Routing and latency metrics per task
+     */
+    public ModelRouter getRouter() {
+        return router;
     }
     
     /**
      * Compose email with AI assistance
      */
     public String composeEmail(String instructions) throws IOException {
+        PromptPreprocessor.Result prepared = track("compose",
+            PromptPreprocessor.prepareInstructions(instructions, COMPOSE_TOKEN_BUDGET));
         String prompt = "You are helping an elderly person compose an email. " +
                        "Based on these instructions, write a clear, polite email:\n\n" +
-                       instructions + "\n\nEmail:";
-        return generateResponse(prompt);
+                       prepared.getText() + "\n\nEmail:";
+        return generate(ModelRouter.Task.COMPOSE, prompt);
     }
     
     /**
      * Summarize an email for easy understanding
+     *
+     * An email whose text was summarized before with only its numbers different (another
+     * receipt or notification from the same template) reuses that summary, with its
+     * numbers swapped for this email's, instead of calling the API.
      */
     public String summarizeEmail(String emailContent) throws IOException {
+        return summarizeEmail(prepareSummary(emailContent));
+    }
+    
+    /**
+     * Clean and trim an email to the summary budget of the model that would be asked first
+     */
+    public PromptPreprocessor.Result prepareSummary(String emailContent) {
+        String model = router.preferred(ModelRouter.Task.SUMMARIZE);
+        int budget = SUMMARY_TOKEN_BUDGETS.getOrDefault(model, DEFAULT_SUMMARY_TOKEN_BUDGET);
+        return PromptPreprocessor.prepareEmail(emailContent, budget);
+    }
+    
+    /**
+     * Whether summaries are kept and reused for near-identical mails (on by default).
+     * Turn it off before use when one service summarizes mail of several people.
+     */
+    public void setSummaryReuse(boolean reuseSummaries) {
+        this.reuseSummaries = reuseSummaries;
+    }
+    
+    /**
+     * Summarize an email already prepared with {@link #prepareSummary}
+     */
+    public String summarizeEmail(PromptPreprocessor.Result prepared) throws IOException {
+        FingerprintIndex.Fingerprint fingerprint = reuseSummaries ? FingerprintIndex.fingerprint(prepared.getText()) : null;
+        if (fingerprint != null) {
+            FingerprintIndex.Match<CachedSummary> match = summaryIndex.find(fingerprint);
+            // Only the same text with other numbers: any other difference (a name, a product,
+            // a place) could make the old summary confidently wrong
+            String reused = match != null && match.isExact() && match.getValue().sameWordsAs(prepared.getText())
+                ? match.getValue().patchFor(prepared.getText()) : null;
+            if (reused != null) {
+                reusedSummaries.incrementAndGet();
+                if (!reused.equals(match.getValue().summary)) {
+                    patchedSummaries.incrementAndGet();
+                }
+                return reused;
+            }
+        }
+        track("summarize", prepared);
         String prompt = "Summarize this email in simple terms for an elderly person:\n\n" +
-                       emailContent + "\n\nSimple summary:";
-        return generateResponse(prompt);
+                       prepared.getText() + "\n\nSimple summary:";
+        String summary = generate(ModelRouter.Task.SUMMARIZE, prompt);
+        if (fingerprint != null && !summary.equals(PARSE_ERROR)) {
+            summaryIndex.put(fingerprint, new CachedSummary(prepared.getText(), summary));
+        }
+        return summary;
+    }
+    
+    /**
+     * Summarize a whole conversation; messages are already cleaned, oldest first
+     */
+    public String summarizeConversation(String transcript) throws IOException {
+        String prompt = "Summarize this email conversation in simple terms for an elderly person. " +
+                       "Say who wrote, what was decided and what is still open. Messages, oldest first:\n\n" +
+                       transcript + "\n\nSimple summary:";
+        return generate(ModelRouter.Task.SUMMARIZE, prompt);
+    }
+    
+    /**
+     * Fold new messages into an existing conversation summary
+     */
+    public String updateSummary(String previousSummary, String newMessages) throws IOException {
+        String prompt = "Here is a simple summary of an email conversation, written for an elderly person:\n\n" +
+                       previousSummary + "\n\n" +
+                       "These new messages have arrived since, oldest first:\n\n" +
+                       newMessages + "\n\n" +
+                       "Rewrite the summary so it includes the new messages. Keep it short and simple, " +
+                       "and say what changed.\n\nUpdated summary:";
+        return generate(ModelRouter.Task.SUMMARIZE, prompt);
+    }
+    
+    /**
+     * Estimated prompt tokens sent for email content so far
+     */
+    public long getPromptTokens() {
+        return promptTokens.get();
+    }
+    
+    /**
+     * Estimated tokens removed by preprocessing so far
+     */
+    public long getPromptTokensSaved() {
+        return promptTokensSaved.get();
+    }
+    
+    /**
+     * Summary requests that were checked against earlier summaries
+     */
+    public long getSummaryLookups() {
+        return summaryIndex.getLookups();
+    }
+    
+    /**
+     * Summary requests answered from a near-identical earlier email, without an API call
+     */
+    public long getSummaryReuses() {
+        return reusedSummaries.get();
+    }
+    
+    /**
+     * Reused summaries whose numbers (amounts, dates, order numbers) were updated
+     */
+    public long getPatchedSummaries() {
+        return patchedSummaries.get();
+    }
+    
+    public double getSummaryReuseRate() {
+        long lookups = summaryIndex.getLookups();
+        return lookups > 0 ? reusedSummaries.get() / (double) lookups : 0;
+    }
+    
+    PromptPreprocessor.Result track(String task, PromptPreprocessor.Result prepared) {
+        promptTokens.addAndGet(prepared.getTokens());
+        promptTokensSaved.addAndGet(prepared.getTokensSaved());
+        if (prepared.getTokensSaved() > 0) {
+            System.err.println("Prompt (" + task + "): ~" + prepared.getOriginalTokens() + " -> ~" +
+                               prepared.getTokens() + " tokens" + (prepared.isTruncated() ? ", truncated" : ""));
+        }
+        return prepared;
     }
     
     /**
      * Process voice command
+     *
+     * The reply is constrained to {@link CommandSchema}; if it still cannot be used, or no
+     * model answered in time, the command is classified from its keywords instead of
+     * asking the user to repeat it.
      */
-    public AICommand processVoiceCommand(String voiceText) throws IOException {
+    public AICommand processVoiceCommand(String voiceText) {
         String prompt = "You are helping an elderly person control their email app with voice commands. " +
-                       "Analyze this voice command and respond with a JSON object containing:\n" +
-                       "- action: one of [READ_EMAIL, COMPOSE_EMAIL, SEND_EMAIL, CHECK_NEW, HELP]\n" +
-                       "- parameters: any relevant details (recipient, subject, message, etc.)\n\n" +
-                       "Voice command: \"" + voiceText + "\"\n\n" +
-                       "Respond ONLY with valid JSON, no other text.";
+                       "Pick the action that matches this voice command and fill in any details it " +
+                       "mentions (recipient, subject, message, folder, or a search query when they want to find an email).\n\n" +
+                       "Voice command: \"" + voiceText + "\"";
         
-        String response = generateResponse(prompt);
-        return parseCommand(response);
+        String response;
+        try {
+            response = generate(ModelRouter.Task.COMMAND, prompt, COMMAND_GENERATION_CONFIG);
+        } catch (IOException e) {
+            failedCommands.incrementAndGet();
+            System.err.println("Command request failed (" + e.getMessage() + "), classifying locally");
+            return CommandSchema.classifyLocally(voiceText);
+        }
+        try {
+            return CommandSchema.decode(gson, response);
+        } catch (CommandSchema.InvalidCommandException e) {
+            invalidCommands.incrementAndGet();
+            System.err.println("Unusable command reply (" + e.getMessage() + "), classifying locally");
+            return CommandSchema.classifyLocally(voiceText);
+        }
+    }
+    
+    /**
+     * Command replies that failed validation and were classified locally
+     */
+    public long getInvalidCommands() {
+        return invalidCommands.get();
+    }
+    
+    /**
+     * Command requests that failed (no model answered) and were classified locally
+     */
+    public long getFailedCommands() {
+        return failedCommands.get();
     }
     
     /**
@@ -106,31 +403,89 @@ public class GeminiAIService {
                 .get(0).getAsJsonObject()
                 .get("text").getAsString();
         } catch (Exception e) {
-            return "Error parsing AI response";
+            return PARSE_ERROR;
         }
     }
     
     /**
-     * Parse AI command response
+     * A summary together with the email text it was made from
      */
-    private AICommand parseCommand(String jsonResponse) {
-        try {
-            // Extract JSON from response if wrapped in text
-            int jsonStart = jsonResponse.indexOf("{");
-            int jsonEnd = jsonResponse.lastIndexOf("}") + 1;
-            if (jsonStart >= 0 && jsonEnd > jsonStart) {
-                jsonResponse = jsonResponse.substring(jsonStart, jsonEnd);
+    private static final class CachedSummary {
+        final String source;
+        final String summary;
+        
+        CachedSummary(String source, String summary) {
+            this.source = source;
+            this.summary = summary;
+        }
+        
+        /**
+         * True if the email has exactly the source's text apart from its numbers
+         */
+        boolean sameWordsAs(String text) {
+            return NUMBER.matcher(source).replaceAll("0").equals(NUMBER.matcher(text).replaceAll("0"));
+        }
+        
+        /**
+         * This summary adjusted for an email with other numbers, or null if it cannot be reused safely.
+         * Numbers are matched up by position; a summary that quotes a number which changed
+         * in a way that cannot be mapped is not reused.
+         */
+        String patchFor(String text) {
+            List<String> before = numbers(source);
+            List<String> after = numbers(text);
+            Map<String, String> replacements = new HashMap<>();
+            if (before.size() == after.size()) {
+                for (int i = 0; i < before.size(); i++) {
+                    String previous = replacements.putIfAbsent(before.get(i), after.get(i));
+                    if (previous != null && !previous.equals(after.get(i))) {
+                        // The same number became two different ones: ambiguous
+                        replacements.put(before.get(i), null);
+                    }
+                }
+            } else {
+                for (String number : before) {
+                    replacements.put(number, after.contains(number) ? number : null);
+                }
             }
-            
-            JsonObject json = gson.fromJson(jsonResponse, JsonObject.class);
-            String action = json.get("action").getAsString();
-            JsonObject params = json.has("parameters") ? 
-                              json.getAsJsonObject("parameters") : new JsonObject();
-            
-            return new AICommand(action, params);
-        } catch (Exception e) {
-            // Default to help if parsing fails
-            return new AICommand("HELP", new JsonObject());
+            Matcher matcher = NUMBER.matcher(summary);
+            StringBuffer patched = new StringBuffer();
+            while (matcher.find()) {
+                String number = matcher.group();
+                if (replacements.containsKey(number)) {
+                    String replacement = replacements.get(number);
+                    if (replacement == null) {
+                        return null;
+                    }
+                    number = replacement;
+                }
+                matcher.appendReplacement(patched, Matcher.quoteReplacement(number));
+            }
+            matcher.appendTail(patched);
+            return patched.toString();
+        }
+        
+        private static List<String> numbers(String text) {
+            List<String> numbers = new ArrayList<>();
+            Matcher matcher = NUMBER.matcher(text);
+            while (matcher.find()) {
+                numbers.add(matcher.group());
+            }
+            return numbers;
+        }
+    }
+    
+    /**
+     * Non-2xx reply from the API
+     */
+    private static final class GeminiException extends IOException {
+        private static final long serialVersionUID = 1L;
+        
+        final int code;
+        
+        GeminiException(int code) {
+            super("Gemini API error: " + code);
+            this.code = code;
         }
     }
 }
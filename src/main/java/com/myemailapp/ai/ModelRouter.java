@@ -0,0 +1,415 @@
+package com.myemailapp.ai;
+
+import com.myemailapp.config.ConfigSnapshot;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks the Gemini model for each kind of request
+ *
+ * Every task has an ordered list of models and a latency SLA. Requests go to the first
+ * model whose recent latency (an exponentially weighted average) is within the SLA; a
+ * model that keeps breaching it is skipped until a cool-down has passed, after which one
+ * request probes it again. Failed calls move on to the next model in the list. Routes
+ * can be overridden in config.properties:
+ *
+ * <pre>
+ * gemini.endpoint=https://generativelanguage.googleapis.com/v1beta/models/
+ * gemini.route.command.models=gemini-2.0-flash-lite,gemini-2.0-flash
+ * gemini.route.command.sla.ms=1500
+ * </pre>
+ */
+public class ModelRouter {
+    public static final String DEFAULT_ENDPOINT = "https://generativelanguage.googleapis.com/v1beta/models/";
+    private static final long PROBE_INTERVAL_MS = 60_000;
+    private static final double LATENCY_WEIGHT = 0.3;
+    private static final int RECENT_SAMPLES = 64;
+    
+    /**
+     * Kinds of request, each with its own route
+     */
+    public enum Task {
+        // Intent classification: short prompt, short answer, the user is waiting
+        COMMAND("gemini-2.0-flash-lite,gemini-2.0-flash", 1500),
+        SUMMARIZE("gemini-2.0-flash,gemini-2.0-flash-lite", 6000),
+        COMPOSE("gemini-1.5-pro,gemini-2.0-flash", 10000),
+        GENERAL("gemini-2.0-flash,gemini-2.0-flash-lite", 10000),
+        // Vectors from different models are not comparable, so this route has one model
+        EMBED("text-embedding-004", 5000);
+        
+        private final String defaultModels;
+        private final long defaultSlaMillis;
+        
+        Task(String defaultModels, long defaultSlaMillis) {
+            this.defaultModels = defaultModels;
+            this.defaultSlaMillis = defaultSlaMillis;
+        }
+        
+        String key() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+    
+    private final String endpoint;
+    private final Map<Task, Route> routes = new EnumMap<>(Task.class);
+    
+    public ModelRouter() {
+        this(DEFAULT_ENDPOINT, Collections.emptyMap(), Collections.emptyMap());
+    }
+    
+    public ModelRouter(String endpoint, Map<Task, List<String>> models, Map<Task, Long> slaMillis) {
+        this.endpoint = endpoint.endsWith("/") ? endpoint : endpoint + "/";
+        for (Task task : Task.values()) {
+            List<String> taskModels = models.get(task);
+            if (taskModels == null || taskModels.isEmpty()) {
+                taskModels = Arrays.asList(task.defaultModels.split(","));
+            }
+            routes.put(task, new Route(task, taskModels, slaMillis.getOrDefault(task, task.defaultSlaMillis)));
+        }
+    }
+    
+    /**
+     * Router with the routes configured in config.properties (defaults for anything missing)
+     */
+    public static ModelRouter fromConfig(ConfigSnapshot config) {
+        Map<Task, List<String>> models = new EnumMap<>(Task.class);
+        Map<Task, Long> slaMillis = new EnumMap<>(Task.class);
+        for (Task task : Task.values()) {
+            String list = config.get(modelsKey(task), "").trim();
+            if (!list.isEmpty()) {
+                List<String> names = new ArrayList<>();
+                for (String name : list.split(",")) {
+                    if (!name.trim().isEmpty()) {
+                        names.add(name.trim());
+                    }
+                }
+                models.put(task, names);
+            }
+            try {
+                String sla = config.get(slaKey(task), "").trim();
+                if (!sla.isEmpty()) {
+                    slaMillis.put(task, Long.parseLong(sla));
+                }
+            } catch (NumberFormatException e) {
+                System.err.println("Ignoring invalid " + slaKey(task) + ": " + e.getMessage());
+            }
+        }
+        return new ModelRouter(config.get(ConfigSnapshot.GEMINI_ENDPOINT, DEFAULT_ENDPOINT), models, slaMillis);
+    }
+    
+    /**
+     * Every config key that affects routing, for change detection
+     */
+    public static String[] configKeys() {
+        List<String> keys = new ArrayList<>();
+        keys.add(ConfigSnapshot.GEMINI_ENDPOINT);
+        for (Task task : Task.values()) {
+            keys.add(modelsKey(task));
+            keys.add(slaKey(task));
+        }
+        return keys.toArray(new String[0]);
+    }
+    
+    private static String modelsKey(Task task) {
+        return ConfigSnapshot.GEMINI_ROUTE_PREFIX + task.key() + ".models";
+    }
+    
+    private static String slaKey(Task task) {
+        return ConfigSnapshot.GEMINI_ROUTE_PREFIX + task.key() + ".sla.ms";
+    }
+    
+    /**
+     * Models to try for a task, best first: within-SLA models in configured order, then
+     * the rest by observed latency
+     */
+    public List<String> candidates(Task task) {
+        return routes.get(task).candidates(System.currentTimeMillis());
+    }
+    
+    /**
+     * The model candidates() would put first, without using up a slow model's probe
+     * (for sizing a prompt before the call is made)
+     */
+    public String preferred(Task task) {
+        return routes.get(task).preferred(System.currentTimeMillis());
+    }
+    
+    /**
+     * generateContent URL of a model
+     */
+    public String url(String model) {
+        return url(model, "generateContent");
+    }
+    
+    /**
+     * URL of another method of a model, e.g. batchEmbedContents
+     */
+    public String url(String model, String method) {
+        return endpoint + model + ":" + method;
+    }
+    
+    /**
+     * Record a completed call
+     */
+    public void recordSuccess(Task task, String model, long millis) {
+        routes.get(task).recordSuccess(model, millis);
+    }
+    
+    /**
+     * Record a failed call (the next candidate will be tried)
+     */
+    public void recordFailure(Task task, String model) {
+        Route route = routes.get(task);
+        route.stats(model).recordFailure(route.slaMillis, System.currentTimeMillis());
+    }
+    
+    public RouteStats getStats(Task task) {
+        return routes.get(task).snapshot();
+    }
+    
+    /**
+     * One line per route, for logs
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Task task : Task.values()) {
+            sb.append(getStats(task)).append('\n');
+        }
+        return sb.toString().trim();
+    }
+    
+    /**
+     * Point-in-time metrics of one route
+     */
+    public static final class RouteStats {
+        private final Task task;
+        private final long slaMillis;
+        private final long requests;
+        private final long fallbacks;
+        private final long slaBreaches;
+        private final Map<String, ModelStats> models;
+        
+        RouteStats(Task task, long slaMillis, long requests, long fallbacks, long slaBreaches, Map<String, ModelStats> models) {
+            this.task = task;
+            this.slaMillis = slaMillis;
+            this.requests = requests;
+            this.fallbacks = fallbacks;
+            this.slaBreaches = slaBreaches;
+            this.models = models;
+        }
+        
+        public Task getTask() {
+            return task;
+        }
+        
+        public long getSlaMillis() {
+            return slaMillis;
+        }
+        
+        public long getRequests() {
+            return requests;
+        }
+        
+        /**
+         * Requests answered by a model other than the route's first choice
+         */
+        public long getFallbacks() {
+            return fallbacks;
+        }
+        
+        public long getSlaBreaches() {
+            return slaBreaches;
+        }
+        
+        public Map<String, ModelStats> getModels() {
+            return models;
+        }
+        
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(task).append(" (SLA ").append(slaMillis).append(" ms): ").append(requests).append(" requests, ")
+              .append(fallbacks).append(" fallbacks, ").append(slaBreaches).append(" over SLA");
+            for (Map.Entry<String, ModelStats> entry : models.entrySet()) {
+                sb.append("; ").append(entry.getKey()).append(' ').append(entry.getValue());
+            }
+            return sb.toString();
+        }
+    }
+    
+    /**
+     * Point-in-time metrics of one model on one route
+     */
+    public static final class ModelStats {
+        private final long calls;
+        private final long failures;
+        private final long averageMillis;
+        private final long p95Millis;
+        
+        ModelStats(long calls, long failures, long averageMillis, long p95Millis) {
+            this.calls = calls;
+            this.failures = failures;
+            this.averageMillis = averageMillis;
+            this.p95Millis = p95Millis;
+        }
+        
+        public long getCalls() {
+            return calls;
+        }
+        
+        public long getFailures() {
+            return failures;
+        }
+        
+        /**
+         * Exponentially weighted average latency, recent calls counting most
+         */
+        public long getAverageMillis() {
+            return averageMillis;
+        }
+        
+        public long getP95Millis() {
+            return p95Millis;
+        }
+        
+        @Override
+        public String toString() {
+            return calls + " calls, " + failures + " failed, avg " + averageMillis + " ms, p95 " + p95Millis + " ms";
+        }
+    }
+    
+    private static final class Route {
+        final Task task;
+        final List<String> models;
+        final long slaMillis;
+        final Map<String, Latency> latencies = new ConcurrentHashMap<>();
+        final AtomicLong requests = new AtomicLong();
+        final AtomicLong fallbacks = new AtomicLong();
+        final AtomicLong slaBreaches = new AtomicLong();
+        
+        Route(Task task, List<String> models, long slaMillis) {
+            this.task = task;
+            this.models = Collections.unmodifiableList(new ArrayList<>(models));
+            this.slaMillis = slaMillis;
+            for (String model : models) {
+                latencies.put(model, new Latency());
+            }
+        }
+        
+        Latency stats(String model) {
+            return latencies.computeIfAbsent(model, m -> new Latency());
+        }
+        
+        List<String> candidates(long now) {
+            List<String> within = new ArrayList<>();
+            List<String> slow = new ArrayList<>();
+            for (String model : models) {
+                Latency latency = stats(model);
+                if (latency.withinSla(slaMillis) || latency.probeDue(now)) {
+                    within.add(model);
+                } else {
+                    slow.add(model);
+                }
+            }
+            slow.sort(Comparator.comparingDouble(model -> stats(model).average()));
+            within.addAll(slow);
+            return within;
+        }
+        
+        String preferred(long now) {
+            String fastest = null;
+            for (String model : models) {
+                Latency latency = stats(model);
+                if (latency.withinSla(slaMillis) || latency.isProbeDue(now)) {
+                    return model;
+                }
+                if (fastest == null || latency.average() < stats(fastest).average()) {
+                    fastest = model;
+                }
+            }
+            return fastest;
+        }
+        
+        void recordSuccess(String model, long millis) {
+            requests.incrementAndGet();
+            if (!model.equals(models.get(0))) {
+                fallbacks.incrementAndGet();
+            }
+            if (millis > slaMillis) {
+                slaBreaches.incrementAndGet();
+            }
+            stats(model).record(millis, System.currentTimeMillis());
+        }
+        
+        RouteStats snapshot() {
+            Map<String, ModelStats> models = new LinkedHashMap<>();
+            for (String model : this.models) {
+                models.put(model, stats(model).snapshot());
+            }
+            return new RouteStats(task, slaMillis, requests.get(), fallbacks.get(), slaBreaches.get(), models);
+        }
+    }
+    
+    private static final class Latency {
+        private final long[] recent = new long[RECENT_SAMPLES];
+        private long calls;
+        private long failures;
+        private double average = -1;
+        private long lastUsed;
+        
+        synchronized void record(long millis, long now) {
+            recent[(int) (calls++ % RECENT_SAMPLES)] = millis;
+            average = average < 0 ? millis : average + LATENCY_WEIGHT * (millis - average);
+            lastUsed = now;
+        }
+        
+        /**
+         * A failed call counts as slow, so a failing model drops behind working ones
+         */
+        synchronized void recordFailure(long slaMillis, long now) {
+            failures++;
+            average = Math.max(average, 2.0 * slaMillis);
+            lastUsed = now;
+        }
+        
+        synchronized boolean withinSla(long slaMillis) {
+            // Never measured counts as fast, so every model gets tried
+            return average < 0 || average <= slaMillis;
+        }
+        
+        /**
+         * True once per cool-down for a model that was skipped for being slow
+         */
+        synchronized boolean probeDue(long now) {
+            if (now - lastUsed < PROBE_INTERVAL_MS) {
+                return false;
+            }
+            lastUsed = now;
+            return true;
+        }
+        
+        /**
+         * Whether probeDue would say yes, without claiming the probe
+         */
+        synchronized boolean isProbeDue(long now) {
+            return now - lastUsed >= PROBE_INTERVAL_MS;
+        }
+        
+        synchronized double average() {
+            return average < 0 ? 0 : average;
+        }
+        
+        synchronized ModelStats snapshot() {
+            int samples = (int) Math.min(calls, RECENT_SAMPLES);
+            long p95 = 0;
+            if (samples > 0) {
+                long[] sorted = Arrays.copyOf(recent, samples);
+                Arrays.sort(sorted);
+                p95 = sorted[Math.min(samples - 1, (int) Math.ceil(samples * 0.95) - 1)];
+            }
+            return new ModelStats(calls, failures, Math.round(average()), p95);
+        }
+    }
+}
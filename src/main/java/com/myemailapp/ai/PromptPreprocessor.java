@@ -0,0 +1,266 @@
+package com.myemailapp.ai;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Shrinks email text before it goes into a prompt
+ *
+ * Quoted reply history, signatures and legal/marketing footers are removed, URLs are
+ * reduced to their host, whitespace is collapsed, and what is left is cut to a token
+ * budget at a paragraph or sentence boundary. Token counts come from a cheap local
+ * estimate, close enough to Gemini's tokenizer to budget against.
+ */
+public class PromptPreprocessor {
+    private static final Pattern REPLY_HEADER = Pattern.compile(
+        "^(On .{0,200}wrote:|Am .{0,200}schrieb.*:|Le .{0,200}a écrit ?:|-{2,}\\s*Original Message\\s*-{2,}|_{10,})\\s*$",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern OUTLOOK_HEADER = Pattern.compile("^From:\\s.+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern OUTLOOK_FIELD = Pattern.compile("^(Sent|Date|To|Subject|Cc):\\s.*", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SIGNATURE_DELIMITER = Pattern.compile("^--\\s?$");
+    private static final Pattern DEVICE_FOOTER = Pattern.compile(
+        "^(Sent from my .{1,40}|Get Outlook for .{1,40}|Sent from (Yahoo )?Mail for .{1,40})$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern VALEDICTION = Pattern.compile(
+        "^(best|kind|warm)?\\s*(regards|wishes)|^(thanks|thank you|cheers|sincerely|love|best)[,!.]?$",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern BOILERPLATE = Pattern.compile(
+        "(confidential.{0,120}intended|intended (solely )?for the (use|addressee)|unsubscribe|" +
+        "privacy policy|you are receiving this|manage (your )?preferences|view (it|this email) in your browser|" +
+        "this (e-?mail|message) (and any attachments )?(is|may be) (confidential|privileged)|" +
+        "please consider the environment before printing)",
+        Pattern.CASE_INSENSITIVE);
+    private static final Pattern URL = Pattern.compile("(?i)\\b(?:https?://|www\\.)([^/\\s<>\"')]+)[^\\s<>\"')]*");
+    private static final Pattern HORIZONTAL_SPACE = Pattern.compile("[ \\t\\x0B\\f\\u00A0]+");
+    private static final Pattern BLANK_LINES = Pattern.compile("\\n{3,}");
+    private static final int MAX_SIGNOFF_LINES = 6;
+    // Footer paragraphs are short; longer ones mentioning "unsubscribe" are real content
+    private static final int MAX_FOOTER_CHARS = 400;
+    private static final String TRUNCATION_MARK = "\n[...]";
+    
+    /**
+     * Outcome of preprocessing, with before/after token estimates
+     */
+    public static class Result {
+        private final String text;
+        private final int originalTokens;
+        private final int tokens;
+        private final boolean truncated;
+        
+        Result(String text, int originalTokens, int tokens, boolean truncated) {
+            this.text = text;
+            this.originalTokens = originalTokens;
+            this.tokens = tokens;
+            this.truncated = truncated;
+        }
+        
+        public String getText() {
+            return text;
+        }
+        
+        public int getOriginalTokens() {
+            return originalTokens;
+        }
+        
+        public int getTokens() {
+            return tokens;
+        }
+        
+        public int getTokensSaved() {
+            return originalTokens - tokens;
+        }
+        
+        public boolean isTruncated() {
+            return truncated;
+        }
+    }
+    
+    /**
+     * Clean an email body for summarizing: drop quoted history, signature and boilerplate
+     */
+    public static Result prepareEmail(String body, int tokenBudget) {
+        String text = body != null ? body : "";
+        int originalTokens = estimateTokens(text);
+        String normalized = normalize(text);
+        text = stripBoilerplate(stripSignature(stripQuotedHistory(normalized)));
+        if (text.trim().isEmpty()) {
+            // Nothing but a forward or a quote: better to summarize that than nothing
+            text = normalized;
+        }
+        return finish(text, originalTokens, tokenBudget);
+    }
+    
+    /**
+     * Clean free-form instructions (for composing): keep all content, only compact it
+     */
+    public static Result prepareInstructions(String instructions, int tokenBudget) {
+        String text = instructions != null ? instructions : "";
+        return finish(normalize(text), estimateTokens(text), tokenBudget);
+    }
+    
+    /**
+     * Fast token estimate: roughly one token per short word or punctuation mark, and one per
+     * four characters inside longer words, which tracks SentencePiece-style tokenizers well
+     * for English mail.
+     */
+    public static int estimateTokens(String text) {
+        if (text == null || text.isEmpty()) {
+            return 0;
+        }
+        int tokens = 0;
+        int wordLength = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                wordLength++;
+                continue;
+            }
+            if (wordLength > 0) {
+                tokens += (wordLength + 3) / 4;
+                wordLength = 0;
+            }
+            if (!Character.isWhitespace(c)) {
+                tokens++;
+            }
+        }
+        if (wordLength > 0) {
+            tokens += (wordLength + 3) / 4;
+        }
+        return tokens;
+    }
+    
+    private static Result finish(String text, int originalTokens, int tokenBudget) {
+        text = text.trim();
+        int tokens = estimateTokens(text);
+        boolean truncated = false;
+        if (tokens > tokenBudget) {
+            text = truncate(text, tokenBudget);
+            tokens = estimateTokens(text);
+            truncated = true;
+        }
+        return new Result(text, originalTokens, tokens, truncated);
+    }
+    
+    private static String normalize(String text) {
+        text = text.replace("\r\n", "\n").replace('\r', '\n');
+        Matcher urls = URL.matcher(text);
+        StringBuffer shortened = new StringBuffer();
+        while (urls.find()) {
+            urls.appendReplacement(shortened, Matcher.quoteReplacement("[link: " + urls.group(1) + "]"));
+        }
+        urls.appendTail(shortened);
+        text = HORIZONTAL_SPACE.matcher(shortened).replaceAll(" ");
+        StringBuilder lines = new StringBuilder(text.length());
+        for (String line : text.split("\n", -1)) {
+            lines.append(line.trim()).append('\n');
+        }
+        return BLANK_LINES.matcher(lines).replaceAll("\n\n");
+    }
+    
+    private static String stripQuotedHistory(String text) {
+        String[] lines = text.split("\n", -1);
+        StringBuilder kept = new StringBuilder(text.length());
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i];
+            if (REPLY_HEADER.matcher(line).matches() || isOutlookHeader(lines, i)) {
+                // Everything from here on is the earlier conversation
+                break;
+            }
+            if (!line.startsWith(">")) {
+                kept.append(line).append('\n');
+            }
+        }
+        return kept.toString();
+    }
+    
+    private static boolean isOutlookHeader(String[] lines, int index) {
+        if (!OUTLOOK_HEADER.matcher(lines[index]).matches()) {
+            return false;
+        }
+        int fields = 0;
+        for (int i = index + 1; i < Math.min(lines.length, index + 5); i++) {
+            if (OUTLOOK_FIELD.matcher(lines[i]).matches()) {
+                fields++;
+            }
+        }
+        return fields >= 2;
+    }
+    
+    private static String stripSignature(String text) {
+        List<String> lines = new ArrayList<>();
+        for (String line : text.split("\n", -1)) {
+            if (SIGNATURE_DELIMITER.matcher(line).matches()) {
+                break;
+            }
+            if (!DEVICE_FOOTER.matcher(line).matches()) {
+                lines.add(line);
+            }
+        }
+        // A sign-off near the end ("Best regards,") starts the signature block
+        int nonBlank = 0;
+        for (int i = lines.size() - 1; i > 0 && nonBlank <= MAX_SIGNOFF_LINES; i--) {
+            String line = lines.get(i);
+            if (line.isEmpty()) {
+                continue;
+            }
+            nonBlank++;
+            if (VALEDICTION.matcher(line).find() && line.length() < 40) {
+                lines = lines.subList(0, i);
+                break;
+            }
+        }
+        return String.join("\n", lines);
+    }
+    
+    /**
+     * Drop the legal/marketing footer: short paragraphs at the end that look like
+     * boilerplate. The same words in the message itself ("I want to unsubscribe my son
+     * from the club") are left alone.
+     */
+    private static String stripBoilerplate(String text) {
+        String[] paragraphs = text.split("\n\n");
+        int end = paragraphs.length;
+        while (end > 0) {
+            String paragraph = paragraphs[end - 1];
+            boolean footer = paragraph.trim().isEmpty() ||
+                (paragraph.length() <= MAX_FOOTER_CHARS && BOILERPLATE.matcher(paragraph).find());
+            if (!footer) {
+                break;
+            }
+            end--;
+        }
+        return String.join("\n\n", Arrays.asList(paragraphs).subList(0, end));
+    }
+    
+    /**
+     * Cut to the budget, preferring a paragraph break, then a sentence end, then a word end
+     */
+    private static String truncate(String text, int tokenBudget) {
+        int budget = Math.max(1, tokenBudget - estimateTokens(TRUNCATION_MARK));
+        // Binary search the longest prefix that fits
+        int low = 0;
+        int high = text.length();
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (estimateTokens(text.substring(0, mid)) <= budget) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        String prefix = text.substring(0, low);
+        int cut = prefix.lastIndexOf("\n\n");
+        if (cut < low / 2) {
+            cut = Math.max(prefix.lastIndexOf(". "), Math.max(prefix.lastIndexOf("! "), prefix.lastIndexOf("? "))) + 1;
+        }
+        if (cut < low / 2) {
+            cut = prefix.lastIndexOf(' ');
+        }
+        if (cut < low / 2) {
+            cut = low;
+        }
+        return prefix.substring(0, cut).trim() + TRUNCATION_MARK;
+    }
+}
@@ -0,0 +1,424 @@
+package com.myemailapp.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import com.myemailapp.email.EmailMessage;
+import com.myemailapp.email.HnswIndex;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Search the mailbox by meaning ("the email about the plumber") instead of exact words
+ *
+ * Each message's subject and cleaned body are embedded once by Gemini and stored in a
+ * local HNSW index under ~/.myemailapp/semantic, so a query costs one small embedding call
+ * plus a graph walk over the local index. Messages are embedded in batches on a background
+ * thread as sync delivers them; a message whose text was embedded before (the same mail
+ * in two folders, or after a move) reuses the stored vector. Recent query vectors are
+ * cached too, so a repeated question does not go to the network at all.
+ */
+public class SemanticSearch implements Closeable {
+    private static final String STORE_DIR = System.getProperty("user.home") +
+                                            File.separator + ".myemailapp" +
+                                            File.separator + "semantic";
+    private static final int BODY_TOKEN_BUDGET = 512;
+    private static final int BATCH_SIZE = 100;
+    private static final int SAVE_EVERY = 500;
+    private static final int QUERY_CACHE_SIZE = 128;
+    
+    private final Path dir;
+    private final Path docsFile;
+    private final Gson gson = new Gson();
+    private final HnswIndex index;
+    // Message key -> document; node -> documents sharing that vector
+    private final Map<String, Doc> docs = new ConcurrentHashMap<>();
+    private final Map<Integer, List<Doc>> docsByNode = new ConcurrentHashMap<>();
+    private final Map<String, Integer> nodesByHash = new ConcurrentHashMap<>();
+    private final Map<String, float[]> queryCache = Collections.synchronizedMap(
+        new LinkedHashMap<String, float[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                return size() > QUERY_CACHE_SIZE;
+            }
+        });
+    private final Map<String, EmailMessage> queued = new LinkedHashMap<>();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "semantic-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile GeminiAIService ai;
+    private boolean drainScheduled;
+    private int unsaved;
+    
+    /**
+     * One search result
+     */
+    public static final class Hit {
+        private final String accountId;
+        private final String folder;
+        private final long uid;
+        private final String from;
+        private final String subject;
+        private final long date;
+        private final float score;
+        
+        Hit(Doc doc, float score) {
+            this.accountId = doc.accountId;
+            this.folder = doc.folder;
+            this.uid = doc.uid;
+            this.from = doc.from;
+            this.subject = doc.subject;
+            this.date = doc.date;
+            this.score = score;
+        }
+        
+        public String getAccountId() {
+            return accountId;
+        }
+        
+        public String getFolder() {
+            return folder;
+        }
+        
+        public long getUid() {
+            return uid;
+        }
+        
+        public String getFrom() {
+            return from;
+        }
+        
+        public String getSubject() {
+            return subject;
+        }
+        
+        public Date getDate() {
+            return date > 0 ? new Date(date) : null;
+        }
+        
+        /**
+         * Cosine similarity to the query, 1 for identical meaning
+         */
+        public float getScore() {
+            return score;
+        }
+    }
+    
+    public SemanticSearch() throws IOException {
+        this(Paths.get(STORE_DIR));
+    }
+    
+    public SemanticSearch(Path dir) throws IOException {
+        this.dir = dir;
+        this.docsFile = dir.resolve("docs.json");
+        this.index = new HnswIndex(dir, GeminiAIService.EMBEDDING_DIMENSIONS);
+        load();
+    }
+    
+    /**
+     * Service used for embeddings; null pauses indexing until one is set
+     */
+    public void setAIService(GeminiAIService ai) {
+        this.ai = ai;
+        if (ai != null) {
+            scheduleDrain();
+        }
+    }
+    
+    /**
+     * Queue messages for indexing; ones already indexed only have their location updated
+     */
+    public void enqueue(Collection<EmailMessage> messages) {
+        synchronized (queued) {
+            for (EmailMessage message : messages) {
+                String key = ThreadSummarizer.messageKey(message);
+                Doc doc = docs.get(key);
+                if (doc != null) {
+                    doc.moveTo(message);
+                } else {
+                    queued.put(key, message);
+                }
+            }
+        }
+        scheduleDrain();
+    }
+    
+    /**
+     * Number of messages in the index
+     */
+    public int size() {
+        return docs.size();
+    }
+    
+    /**
+     * Messages waiting to be embedded
+     */
+    public int getPending() {
+        synchronized (queued) {
+            return queued.size();
+        }
+    }
+    
+    /**
+     * The k messages closest in meaning to the query, best first
+     */
+    public List<Hit> search(String query, int k) throws IOException {
+        String normalized = query.trim().toLowerCase(Locale.ROOT);
+        float[] vector = queryCache.get(normalized);
+        if (vector == null) {
+            GeminiAIService service = ai;
+            if (service == null) {
+                throw new IOException("Semantic search needs a Gemini API key");
+            }
+            vector = service.embed(Collections.singletonList(query), true)[0];
+            queryCache.put(normalized, vector);
+        }
+        List<Hit> hits = new ArrayList<>();
+        // Several messages can share a vector, so ask for a few more nodes than needed
+        for (HnswIndex.Neighbor neighbor : index.search(vector, k + k / 2)) {
+            for (Doc doc : docsByNode.getOrDefault(neighbor.getNode(), Collections.emptyList())) {
+                if (hits.size() < k) {
+                    hits.add(new Hit(doc, neighbor.getSimilarity()));
+                }
+            }
+        }
+        return hits;
+    }
+    
+    @Override
+    public void close() {
+        worker.shutdownNow();
+        try {
+            worker.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            save();
+            index.close();
+        } catch (IOException e) {
+            System.err.println("Error saving semantic index: " + e.getMessage());
+        }
+    }
+    
+    private void scheduleDrain() {
+        synchronized (queued) {
+            if (drainScheduled || queued.isEmpty() || ai == null) {
+                return;
+            }
+            drainScheduled = true;
+        }
+        worker.execute(this::drain);
+    }
+    
+    /**
+     * Embed queued messages in batches until the queue is empty or embedding fails
+     */
+    private void drain() {
+        while (!Thread.currentThread().isInterrupted()) {
+            List<EmailMessage> batch = new ArrayList<>();
+            synchronized (queued) {
+                Iterator<EmailMessage> it = queued.values().iterator();
+                while (it.hasNext() && batch.size() < BATCH_SIZE) {
+                    batch.add(it.next());
+                    it.remove();
+                }
+                if (batch.isEmpty()) {
+                    drainScheduled = false;
+                    return;
+                }
+            }
+            try {
+                indexBatch(batch);
+            } catch (IOException e) {
+                // Keep them for the next sync rather than retrying in a loop
+                System.err.println("Error embedding messages: " + e.getMessage());
+                synchronized (queued) {
+                    for (EmailMessage message : batch) {
+                        queued.putIfAbsent(ThreadSummarizer.messageKey(message), message);
+                    }
+                    drainScheduled = false;
+                }
+                return;
+            }
+        }
+    }
+    
+    private void indexBatch(List<EmailMessage> batch) throws IOException {
+        List<String> texts = new ArrayList<>(batch.size());
+        for (EmailMessage message : batch) {
+            texts.add(documentText(message));
+        }
+        add(batch, texts);
+    }
+    
+    /**
+     * Embed and insert messages now, on the calling thread (bulk jobs run several of these
+     * at once); texts[i] must be documentText(messages[i]). Not saved until flush or close.
+     */
+    public void add(List<EmailMessage> messages, List<String> texts) throws IOException {
+        List<EmailMessage> toEmbed = new ArrayList<>();
+        List<String> toEmbedTexts = new ArrayList<>();
+        List<String> hashes = new ArrayList<>();
+        for (int i = 0; i < messages.size(); i++) {
+            String hash = hash(texts.get(i));
+            Integer node = nodesByHash.get(hash);
+            if (node != null) {
+                addDoc(new Doc(messages.get(i), hash, node));
+            } else if (!hashes.contains(hash)) {
+                toEmbed.add(messages.get(i));
+                toEmbedTexts.add(texts.get(i));
+                hashes.add(hash);
+            }
+        }
+        if (toEmbedTexts.isEmpty()) {
+            return;
+        }
+        GeminiAIService service = ai;
+        if (service == null) {
+            throw new IOException("No Gemini API key");
+        }
+        float[][] vectors = service.embed(toEmbedTexts, false);
+        for (int i = 0; i < vectors.length; i++) {
+            int node = index.add(vectors[i]);
+            nodesByHash.put(hashes.get(i), node);
+            addDoc(new Doc(toEmbed.get(i), hashes.get(i), node));
+        }
+        // Messages whose text duplicated another in the same batch
+        for (int i = 0; i < messages.size(); i++) {
+            if (!docs.containsKey(ThreadSummarizer.messageKey(messages.get(i)))) {
+                String hash = hash(texts.get(i));
+                addDoc(new Doc(messages.get(i), hash, nodesByHash.get(hash)));
+            }
+        }
+        boolean saveNow;
+        synchronized (this) {
+            unsaved += vectors.length;
+            saveNow = unsaved >= SAVE_EVERY;
+            if (saveNow) {
+                unsaved = 0;
+            }
+        }
+        if (saveNow) {
+            flush();
+        }
+    }
+    
+    /**
+     * True if the message is in the index
+     */
+    public boolean contains(EmailMessage message) {
+        return docs.containsKey(ThreadSummarizer.messageKey(message));
+    }
+    
+    /**
+     * Make everything indexed so far durable
+     */
+    public void flush() throws IOException {
+        save();
+        index.save();
+    }
+    
+    private void addDoc(Doc doc) {
+        docs.put(doc.key, doc);
+        docsByNode.computeIfAbsent(doc.node, k -> new CopyOnWriteArrayList<>()).add(doc);
+    }
+    
+    /**
+     * What is embedded for a message: its subject and cleaned, shortened body
+     */
+    public static String documentText(EmailMessage message) {
+        String subject = message.getSubject() != null ? message.getSubject() : "";
+        String body = PromptPreprocessor.prepareEmail(message.getBody(), BODY_TOKEN_BUDGET).getText();
+        return subject + "\n\n" + body;
+    }
+    
+    private static String hash(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                sb.append(String.format("%02x", digest[i]));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    private void load() {
+        if (!Files.exists(docsFile)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(docsFile, StandardCharsets.UTF_8)) {
+            List<Doc> stored = gson.fromJson(reader, new TypeToken<List<Doc>>() {}.getType());
+            if (stored != null) {
+                for (Doc doc : stored) {
+                    // Documents past the saved index (or from a reset one) are embedded again
+                    if (doc.key != null && doc.node >= 0 && doc.node < index.size()) {
+                        addDoc(doc);
+                        nodesByHash.put(doc.textHash, doc.node);
+                    }
+                }
+            }
+        } catch (IOException | JsonSyntaxException e) {
+            System.err.println("Error loading semantic index: " + e.getMessage());
+        }
+    }
+    
+    private synchronized void save() throws IOException {
+        Files.createDirectories(dir);
+        Path temp = docsFile.resolveSibling(docsFile.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            gson.toJson(new ArrayList<>(docs.values()), writer);
+        }
+        try {
+            Files.move(temp, docsFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, docsFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * An indexed message: where it lives, what to show for it, and its vector's node
+     */
+    private static final class Doc {
+        String key;
+        String accountId;
+        String folder;
+        long uid;
+        String from;
+        String subject;
+        long date;
+        String textHash;
+        int node;
+        
+        Doc(EmailMessage message, String textHash, int node) {
+            this.key = ThreadSummarizer.messageKey(message);
+            this.from = message.getFrom();
+            this.subject = message.getSubject();
+            this.date = message.getDate() != null ? message.getDate().getTime() : 0;
+            this.textHash = textHash;
+            this.node = node;
+            moveTo(message);
+        }
+        
+        void moveTo(EmailMessage message) {
+            accountId = message.getAccountId();
+            folder = message.getFolder();
+            uid = message.getUid();
+        }
+    }
+}
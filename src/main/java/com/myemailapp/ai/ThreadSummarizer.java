@@ -0,0 +1,289 @@
+package com.myemailapp.ai;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import com.myemailapp.email.EmailMessage;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rolling per-thread conversation summaries
+ *
+ * The first summary of a thread is built from all of its messages. After that only the
+ * messages the summary has not seen yet are sent, together with the previous summary,
+ * and the model folds them in. Because every fold can lose a little detail, a thread is
+ * summarized from scratch again after a number of folds or once its summary gets old.
+ * Summaries are kept in ~/.myemailapp/thread-summaries.json so they survive restarts.
+ */
+public class ThreadSummarizer {
+    private static final String STORE_FILE = System.getProperty("user.home") +
+                                             File.separator + ".myemailapp" +
+                                             File.separator + "thread-summaries.json";
+    private static final int MAX_DELTAS_BEFORE_REFRESH = 10;
+    private static final long MAX_SUMMARY_AGE_MS = TimeUnit.DAYS.toMillis(7);
+    private static final int MAX_STORED_THREADS = 2000;
+    // Input budgets: a full pass shares one budget across the thread, a delta gets one per message
+    private static final int FULL_TOKEN_BUDGET = 3000;
+    private static final int MIN_MESSAGE_TOKEN_BUDGET = 80;
+    private static final int DELTA_MESSAGE_TOKEN_BUDGET = 600;
+    
+    private final Path storePath;
+    private final Gson gson = new Gson();
+    private final Map<String, ThreadSummary> summaries = new ConcurrentHashMap<>();
+    private final Map<String, Object> locks = new ConcurrentHashMap<>();
+    private final AtomicLong fullSummaries = new AtomicLong();
+    private final AtomicLong deltaSummaries = new AtomicLong();
+    private final AtomicLong reusedSummaries = new AtomicLong();
+    private volatile boolean saveEachChange = true;
+    
+    public ThreadSummarizer() {
+        this(Paths.get(STORE_FILE));
+    }
+    
+    public ThreadSummarizer(Path storePath) {
+        this.storePath = storePath;
+        load();
+    }
+    
+    /**
+     * Summary of a thread, updated with whatever arrived since the last call
+     *
+     * @param threadKey stable thread key ({@code ThreadIndex.getThreadKey})
+     * @param thread    the thread's messages, oldest first
+     */
+    public String summarize(GeminiAIService ai, String threadKey, List<EmailMessage> thread) throws IOException {
+        synchronized (locks.computeIfAbsent(threadKey, k -> new Object())) {
+            ThreadSummary state = summaries.get(threadKey);
+            long now = System.currentTimeMillis();
+            if (state == null || needsRefresh(state, now)) {
+                return store(threadKey, fullSummary(ai, thread, now));
+            }
+            List<EmailMessage> fresh = unseen(state, thread);
+            if (fresh.isEmpty()) {
+                reusedSummaries.incrementAndGet();
+                return state.summary;
+            }
+            String update = ai.updateSummary(state.summary, transcript(ai, "thread update", fresh, DELTA_MESSAGE_TOKEN_BUDGET));
+            deltaSummaries.incrementAndGet();
+            ThreadSummary next = new ThreadSummary(update, state.refreshedAt, now, state.deltas + 1, state.messageKeys);
+            for (EmailMessage message : fresh) {
+                next.messageKeys.add(messageKey(message));
+            }
+            return store(threadKey, next);
+        }
+    }
+    
+    /**
+     * Stored summary text, or null if the thread was never summarized
+     */
+    public String getSummary(String threadKey) {
+        ThreadSummary state = summaries.get(threadKey);
+        return state != null ? state.summary : null;
+    }
+    
+    /**
+     * True if the stored summary is missing, due for a full refresh, or has not seen every message
+     */
+    public boolean isStale(String threadKey, List<EmailMessage> thread) {
+        ThreadSummary state = summaries.get(threadKey);
+        return state == null || needsRefresh(state, System.currentTimeMillis()) || !unseen(state, thread).isEmpty();
+    }
+    
+    /**
+     * Number of messages in the thread that the stored summary does not cover yet
+     */
+    public int getUnseenCount(String threadKey, List<EmailMessage> thread) {
+        ThreadSummary state = summaries.get(threadKey);
+        return state == null ? thread.size() : unseen(state, thread).size();
+    }
+    
+    /**
+     * Messages whose text the next summarize call reads: all of them for a full summary,
+     * otherwise the ones the stored summary does not cover yet
+     */
+    public List<EmailMessage> messagesToRead(String threadKey, List<EmailMessage> thread) {
+        ThreadSummary state = summaries.get(threadKey);
+        return state == null || needsRefresh(state, System.currentTimeMillis()) ? thread : unseen(state, thread);
+    }
+    
+    /**
+     * Drop a thread's summary so the next call rebuilds it from all messages
+     */
+    public void invalidate(String threadKey) {
+        if (summaries.remove(threadKey) != null) {
+            save();
+        }
+    }
+    
+    /**
+     * Bulk jobs turn off saving after every summary and call flush now and then instead
+     */
+    public void setSaveEachChange(boolean saveEachChange) {
+        this.saveEachChange = saveEachChange;
+    }
+    
+    /**
+     * Write all summaries to disk now
+     */
+    public void flush() {
+        save();
+    }
+    
+    public long getFullSummaries() {
+        return fullSummaries.get();
+    }
+    
+    public long getDeltaSummaries() {
+        return deltaSummaries.get();
+    }
+    
+    public long getReusedSummaries() {
+        return reusedSummaries.get();
+    }
+    
+    /**
+     * Identity of a message inside a summary: its Message-ID, or its mailbox position without one
+     */
+    public static String messageKey(EmailMessage message) {
+        if (message.getMessageId() != null) {
+            return message.getMessageId();
+        }
+        return message.getAccountId() + "/" + message.getFolder() + "/" + message.getUid();
+    }
+    
+    private boolean needsRefresh(ThreadSummary state, long now) {
+        return state.deltas >= MAX_DELTAS_BEFORE_REFRESH || now - state.refreshedAt > MAX_SUMMARY_AGE_MS;
+    }
+    
+    private ThreadSummary fullSummary(GeminiAIService ai, List<EmailMessage> thread, long now) throws IOException {
+        int perMessage = Math.max(MIN_MESSAGE_TOKEN_BUDGET, FULL_TOKEN_BUDGET / Math.max(1, thread.size()));
+        List<EmailMessage> included = thread;
+        if (perMessage * thread.size() > FULL_TOKEN_BUDGET) {
+            // Too long to send whole: the most recent messages matter most
+            included = thread.subList(thread.size() - FULL_TOKEN_BUDGET / perMessage, thread.size());
+        }
+        String summary;
+        if (thread.size() == 1) {
+            // A lone message is usually a newsletter or notification; near-duplicates reuse a summary
+            summary = ai.summarizeEmail(thread.get(0).getBody());
+        } else {
+            summary = ai.summarizeConversation(transcript(ai, "thread", included, perMessage));
+        }
+        fullSummaries.incrementAndGet();
+        Set<String> keys = new HashSet<>();
+        for (EmailMessage message : thread) {
+            keys.add(messageKey(message));
+        }
+        return new ThreadSummary(summary, now, now, 0, keys);
+    }
+    
+    private List<EmailMessage> unseen(ThreadSummary state, List<EmailMessage> thread) {
+        List<EmailMessage> fresh = new ArrayList<>();
+        for (EmailMessage message : thread) {
+            if (!state.messageKeys.contains(messageKey(message))) {
+                fresh.add(message);
+            }
+        }
+        return fresh;
+    }
+    
+    /**
+     * Messages as prompt text, each body cleaned and cut to its own budget
+     */
+    private String transcript(GeminiAIService ai, String task, List<EmailMessage> messages, int tokenBudget) {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE d MMM yyyy HH:mm", Locale.ENGLISH);
+        StringBuilder sb = new StringBuilder();
+        int originalTokens = 0;
+        boolean truncated = false;
+        for (EmailMessage message : messages) {
+            PromptPreprocessor.Result body = PromptPreprocessor.prepareEmail(message.getBody(), tokenBudget);
+            originalTokens += body.getOriginalTokens();
+            truncated |= body.isTruncated();
+            sb.append("[").append(message.getFrom());
+            if (message.getDate() != null) {
+                sb.append(", ").append(dateFormat.format(message.getDate()));
+            }
+            sb.append("]\n").append(body.getText()).append("\n\n");
+        }
+        String text = sb.toString().trim();
+        ai.track(task, new PromptPreprocessor.Result(text, originalTokens, PromptPreprocessor.estimateTokens(text), truncated));
+        return text;
+    }
+    
+    private String store(String threadKey, ThreadSummary state) {
+        summaries.put(threadKey, state);
+        if (summaries.size() > MAX_STORED_THREADS) {
+            // Forget the threads that have been quiet longest
+            List<Map.Entry<String, ThreadSummary>> entries = new ArrayList<>(summaries.entrySet());
+            entries.sort(Comparator.comparingLong(e -> e.getValue().updatedAt));
+            for (int i = 0; i < entries.size() - MAX_STORED_THREADS; i++) {
+                summaries.remove(entries.get(i).getKey());
+            }
+        }
+        if (saveEachChange) {
+            save();
+        }
+        return state.summary;
+    }
+    
+    private void load() {
+        if (!Files.exists(storePath)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(storePath, StandardCharsets.UTF_8)) {
+            Map<String, ThreadSummary> stored = gson.fromJson(reader, new TypeToken<Map<String, ThreadSummary>>() {}.getType());
+            if (stored != null) {
+                stored.values().removeIf(state -> state.summary == null || state.messageKeys == null);
+                summaries.putAll(stored);
+            }
+        } catch (IOException | JsonSyntaxException e) {
+            System.err.println("Error loading thread summaries: " + e.getMessage());
+        }
+    }
+    
+    private synchronized void save() {
+        try {
+            Files.createDirectories(storePath.getParent());
+            Path temp = storePath.resolveSibling(storePath.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                gson.toJson(new HashMap<>(summaries), writer);
+            }
+            try {
+                Files.move(temp, storePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, storePath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            System.err.println("Error saving thread summaries: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Stored state of one thread's summary
+     */
+    private static final class ThreadSummary {
+        final String summary;
+        // When the summary was last rebuilt from the whole thread, and last changed at all
+        final long refreshedAt;
+        final long updatedAt;
+        // Delta updates folded in since the last full rebuild
+        final int deltas;
+        final Set<String> messageKeys;
+        
+        ThreadSummary(String summary, long refreshedAt, long updatedAt, int deltas, Set<String> messageKeys) {
+            this.summary = summary;
+            this.refreshedAt = refreshedAt;
+            this.updatedAt = updatedAt;
+            this.deltas = deltas;
+            this.messageKeys = new HashSet<>(messageKeys);
+        }
+    }
+}
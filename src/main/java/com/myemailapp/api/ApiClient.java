@@ -8,7 +8,7 @@ import okhttp3.*;
 import java.io.IOException;
 
 /**
- * Client for communicating with the PHP REST API
+ * Client for communicating with the REST API (the PHP API or the Java gateway)
  * Handles authorization and session management
  */
 public class ApiClient {
@@ -0,0 +1,478 @@
+package com.myemailapp.api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.myemailapp.ai.AICommand;
+import com.myemailapp.ai.GeminiAIService;
+import com.myemailapp.ai.ModelRouter;
+import com.myemailapp.ai.PromptPreprocessor;
+import com.myemailapp.config.AppConfig;
+import com.myemailapp.email.EmailMessage;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.mail.MessagingException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * REST gateway with the same endpoints and replies as the PHP API
+ *
+ * Started with {@code --api}. Unlike the PHP API, which connects to the mail server and
+ * builds a new AI client on every request, the gateway is one long-running process:
+ * each signed-in user keeps pooled IMAP/SMTP connections (see ApiSessions), and all
+ * users share one AI client with its connection pool and summary cache. Every reply is
+ * {"success":..., "message":..., "data":...}; every endpoint except health needs
+ * "Authorization: Bearer &lt;api.auth.secret&gt;".
+ */
+public class ApiServer {
+    static final String VERSION = "1.0.0";
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_THREADS = 64;
+    private static final int MAX_BODY_BYTES = 2 * 1024 * 1024;
+    private static final int DEFAULT_FETCH_COUNT = 10;
+    private static final int MAX_FETCH_COUNT = 100;
+    // fetch-emails returns a preview, like the PHP API
+    private static final int PREVIEW_CHARS = 500;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String USAGE =
+        "Usage: --api [--port N] [--bind ADDRESS] [--threads N]\n" +
+        "  --port N        port to listen on (default " + DEFAULT_PORT + ")\n" +
+        "  --bind ADDRESS  address to listen on (default all interfaces)\n" +
+        "  --threads N     requests handled at the same time (default " + DEFAULT_THREADS + ")";
+    
+    private final byte[] authSecret;
+    private final GeminiAIService ai;
+    private final ApiSessions sessions;
+    
+    private int port = DEFAULT_PORT;
+    private String bind;
+    private int threads = DEFAULT_THREADS;
+    
+    /**
+     * A failed request; answered with the status and the message
+     */
+    private static final class ApiError extends Exception {
+        private static final long serialVersionUID = 1L;
+        
+        final int status;
+        
+        ApiError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+        
+        ApiError(String message) {
+            this(400, message);
+        }
+    }
+    
+    /**
+     * What a successful endpoint answers with
+     */
+    private static final class Reply {
+        final String message;
+        final JsonElement data;
+        
+        Reply(String message, JsonElement data) {
+            this.message = message;
+            this.data = data;
+        }
+    }
+    
+    private ApiServer(AppConfig config) {
+        this.authSecret = config.getApiAuthSecret().getBytes(StandardCharsets.UTF_8);
+        String apiKey = config.getGeminiApiKey();
+        this.ai = apiKey.isEmpty() ? null : new GeminiAIService(apiKey, ModelRouter.fromConfig(config.snapshot()));
+        if (ai != null) {
+            // Shared by every user of the gateway; a reused summary could show one user's mail to another
+            ai.setSummaryReuse(false);
+        }
+        this.sessions = new ApiSessions(config);
+    }
+    
+    /**
+     * Serve the API until the process is stopped; returns the process exit code
+     */
+    public static int run(String[] args) {
+        AppConfig config = new AppConfig();
+        if (config.getApiAuthSecret().isEmpty()) {
+            System.err.println("No API auth secret configured (api.auth.secret)");
+            return 1;
+        }
+        ApiServer api = new ApiServer(config);
+        try {
+            api.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        if (api.ai == null) {
+            System.err.println("No Gemini API key configured; the ai-* endpoints will fail");
+        }
+        try {
+            api.serve();
+            return 0;
+        } catch (IOException e) {
+            System.err.println("API gateway stopped: " + e.getMessage());
+            return 1;
+        } catch (InterruptedException e) {
+            return 0;
+        }
+    }
+    
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--port":
+                    port = number(args, ++i, arg);
+                    break;
+                case "--bind":
+                    bind = value(args, ++i, arg);
+                    break;
+                case "--threads":
+                    threads = number(args, ++i, arg);
+                    break;
+                case "--help":
+                    throw new IllegalArgumentException("API gateway");
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+    }
+    
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[i];
+    }
+    
+    private static int number(String[] args, int i, String option) {
+        try {
+            int n = Integer.parseInt(value(args, i, option));
+            if (n < 1) {
+                throw new NumberFormatException();
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " needs a positive number");
+        }
+    }
+    
+    private void serve() throws IOException, InterruptedException {
+        InetSocketAddress address = bind != null ? new InetSocketAddress(bind, port) : new InetSocketAddress(port);
+        HttpServer server = HttpServer.create(address, 0);
+        AtomicInteger threadCount = new AtomicInteger();
+        // Mail and AI calls block, so requests get their own threads rather than the dispatcher's
+        ExecutorService requests = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "api-request-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(requests);
+        server.createContext("/", this::handle);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop(1);
+            requests.shutdown();
+            sessions.shutdown();
+        }, "api-shutdown"));
+        server.start();
+        System.out.println("API gateway listening on " + server.getAddress());
+        // Serve until the process is stopped
+        Thread.currentThread().join();
+    }
+    
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", "application/json");
+            headers.set("Access-Control-Allow-Origin", "*");
+            headers.set("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS");
+            headers.set("Access-Control-Allow-Headers", "Content-Type, Authorization");
+            if (exchange.getRequestMethod().equals("OPTIONS")) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            
+            JsonObject response = new JsonObject();
+            int status = 200;
+            try {
+                Reply reply = dispatch(exchange);
+                response.addProperty("success", true);
+                response.addProperty("message", reply.message);
+                response.add("data", reply.data != null ? reply.data : JsonNull.INSTANCE);
+            } catch (ApiError e) {
+                status = e.status;
+                fail(response, e.getMessage());
+            } catch (MessagingException | IOException e) {
+                status = 400;
+                fail(response, e.getMessage());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                status = 500;
+                fail(response, "Internal error");
+            }
+            byte[] body = response.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+    
+    private static void fail(JsonObject response, String message) {
+        response.addProperty("success", false);
+        response.addProperty("message", message != null ? message : "Request failed");
+        response.add("data", JsonNull.INSTANCE);
+    }
+    
+    /**
+     * Route a request by the last segment of its path, like the PHP API
+     */
+    private Reply dispatch(HttpExchange exchange) throws ApiError, MessagingException, IOException {
+        String path = exchange.getRequestURI().getPath();
+        String[] parts = path.replaceAll("^/+|/+$", "").split("/");
+        String endpoint = parts[parts.length - 1];
+        
+        if (!endpoint.equals("health")) {
+            authorize(exchange);
+        }
+        switch (endpoint) {
+            case "login":
+                return login(post(exchange));
+            case "logout":
+                return logout(post(exchange));
+            case "ai-compose":
+                return compose(post(exchange));
+            case "ai-summarize":
+                return summarize(post(exchange));
+            case "ai-command":
+                return command(post(exchange));
+            case "send-email":
+                return send(post(exchange));
+            case "fetch-emails":
+                return fetch(post(exchange));
+            case "health":
+                return health(exchange);
+            default:
+                throw new ApiError("Invalid endpoint");
+        }
+    }
+    
+    private void authorize(HttpExchange exchange) throws ApiError {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || header.isEmpty()) {
+            throw new ApiError(401, "Authorization header missing");
+        }
+        if (!header.startsWith("Bearer ")) {
+            throw new ApiError(401, "Invalid authorization format");
+        }
+        byte[] provided = header.substring(7).getBytes(StandardCharsets.UTF_8);
+        // Constant time, so the secret cannot be guessed byte by byte
+        if (!MessageDigest.isEqual(authSecret, provided)) {
+            throw new ApiError(401, "Invalid authorization token");
+        }
+    }
+    
+    /**
+     * The JSON body of a POST request (empty if there is none)
+     */
+    private static JsonObject post(HttpExchange exchange) throws ApiError, IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            throw new ApiError(405, "Method not allowed");
+        }
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = in.read(chunk)) != -1) {
+                if (buffer.size() + n > MAX_BODY_BYTES) {
+                    throw new ApiError(413, "Request body too large");
+                }
+                buffer.write(chunk, 0, n);
+            }
+        }
+        String body = buffer.toString(StandardCharsets.UTF_8);
+        if (body.trim().isEmpty()) {
+            return new JsonObject();
+        }
+        try {
+            JsonElement json = JsonParser.parseString(body);
+            return json.isJsonObject() ? json.getAsJsonObject() : new JsonObject();
+        } catch (JsonParseException e) {
+            throw new ApiError("Invalid JSON body");
+        }
+    }
+    
+    private Reply login(JsonObject input) throws ApiError {
+        String email = string(input, "email");
+        String password = string(input, "password");
+        if (email.isEmpty() || password.isEmpty()) {
+            throw new ApiError("Email and password are required");
+        }
+        String token;
+        try {
+            token = sessions.login(email, password);
+        } catch (MessagingException e) {
+            throw new ApiError("Invalid email credentials");
+        }
+        JsonObject data = new JsonObject();
+        data.addProperty("session_token", token);
+        return new Reply("Login successful", data);
+    }
+    
+    private Reply logout(JsonObject input) {
+        String token = string(input, "session_token");
+        if (!token.isEmpty()) {
+            sessions.logout(token);
+        }
+        return new Reply("Logout successful", null);
+    }
+    
+    private Reply compose(JsonObject input) throws ApiError, IOException {
+        String instructions = string(input, "instructions");
+        if (instructions.isEmpty()) {
+            throw new ApiError("Instructions are required");
+        }
+        JsonObject data = new JsonObject();
+        data.addProperty("email_content", ai().composeEmail(instructions));
+        return new Reply("Email composed successfully", data);
+    }
+    
+    private Reply summarize(JsonObject input) throws ApiError, IOException {
+        String emailText = string(input, "email_text");
+        if (emailText.isEmpty()) {
+            throw new ApiError("Email text is required");
+        }
+        PromptPreprocessor.Result prepared = ai().prepareSummary(emailText);
+        JsonObject prompt = new JsonObject();
+        prompt.addProperty("task", "summarize");
+        prompt.addProperty("original_tokens", prepared.getOriginalTokens());
+        prompt.addProperty("tokens", prepared.getTokens());
+        prompt.addProperty("tokens_saved", prepared.getTokensSaved());
+        prompt.addProperty("truncated", prepared.isTruncated());
+        JsonObject data = new JsonObject();
+        data.addProperty("summary", ai().summarizeEmail(prepared));
+        data.add("prompt", prompt);
+        return new Reply("Email summarized successfully", data);
+    }
+    
+    private Reply command(JsonObject input) throws ApiError, IOException {
+        String text = string(input, "command");
+        if (text.isEmpty()) {
+            throw new ApiError("Command is required");
+        }
+        AICommand command = ai().processVoiceCommand(text);
+        JsonObject data = new JsonObject();
+        data.addProperty("action", command.getAction());
+        data.add("parameters", command.getParameters() != null ? command.getParameters() : new JsonObject());
+        return new Reply("Command processed successfully", data);
+    }
+    
+    private Reply send(JsonObject input) throws ApiError, MessagingException {
+        String to = string(input, "to");
+        String subject = string(input, "subject");
+        String body = string(input, "body");
+        if (to.isEmpty() || subject.isEmpty() || body.isEmpty()) {
+            throw new ApiError("To, subject, and body are required");
+        }
+        session(input).mail().sendEmail(to, subject, body);
+        return new Reply("Email sent successfully", null);
+    }
+    
+    private Reply fetch(JsonObject input) throws ApiError, MessagingException {
+        int count = DEFAULT_FETCH_COUNT;
+        if (input.has("count")) {
+            try {
+                count = Math.max(1, Math.min(MAX_FETCH_COUNT, input.get("count").getAsInt()));
+            } catch (RuntimeException e) {
+                throw new ApiError("Count must be a number");
+            }
+        }
+        JsonArray emails = new JsonArray();
+        for (EmailMessage message : session(input).mail().fetchRecentEmails(count)) {
+            JsonObject email = new JsonObject();
+            email.addProperty("from", message.getFrom() != null ? message.getFrom() : "Unknown");
+            email.addProperty("subject", message.getSubject() != null ? message.getSubject() : "No Subject");
+            LocalDateTime date = message.getDate() != null
+                ? LocalDateTime.ofInstant(message.getDate().toInstant(), ZoneId.systemDefault())
+                : LocalDateTime.now();
+            email.addProperty("date", date.format(DATE_FORMAT));
+            String body = message.getBody() != null ? message.getBody() : "";
+            email.addProperty("body", body.length() > PREVIEW_CHARS ? body.substring(0, PREVIEW_CHARS) : body);
+            emails.add(email);
+        }
+        JsonObject data = new JsonObject();
+        data.add("emails", emails);
+        return new Reply("Emails fetched successfully", data);
+    }
+    
+    private Reply health(HttpExchange exchange) throws ApiError {
+        if (!exchange.getRequestMethod().equals("GET")) {
+            throw new ApiError(405, "Method not allowed");
+        }
+        JsonObject data = new JsonObject();
+        data.addProperty("version", VERSION);
+        data.addProperty("timestamp", LocalDateTime.now().format(DATE_FORMAT));
+        return new Reply("API is running", data);
+    }
+    
+    /**
+     * The session named by session_token, or a pooled one for the credentials sent along
+     */
+    private ApiSessions.Session session(JsonObject input) throws ApiError {
+        String token = string(input, "session_token");
+        if (!token.isEmpty()) {
+            ApiSessions.Session session = sessions.get(token);
+            if (session == null) {
+                throw new ApiError("Invalid or expired session");
+            }
+            return session;
+        }
+        JsonElement credentials = input.get("credentials");
+        if (credentials != null && credentials.isJsonObject()) {
+            String email = string(credentials.getAsJsonObject(), "email");
+            String password = string(credentials.getAsJsonObject(), "password");
+            if (!email.isEmpty() && !password.isEmpty()) {
+                return sessions.forCredentials(email, password);
+            }
+        }
+        throw new ApiError("Session token or credentials required");
+    }
+    
+    private GeminiAIService ai() throws ApiError {
+        if (ai == null) {
+            throw new ApiError("Gemini API key not configured");
+        }
+        return ai;
+    }
+    
+    /**
+     * A string field of the request, or "" if it is missing
+     */
+    private static String string(JsonObject json, String name) {
+        JsonElement element = json.get(name);
+        return element != null && element.isJsonPrimitive() ? element.getAsString() : "";
+    }
+}
@@ -0,0 +1,220 @@
+package com.myemailapp.api;
+
+import com.myemailapp.config.AccountSettings;
+import com.myemailapp.config.AppConfig;
+import com.myemailapp.email.EmailService;
+
+import javax.mail.MessagingException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signed-in users of the API gateway, each with its own pooled mail connections
+ *
+ * Sessions live in memory only, so passwords never reach the disk; a restarted gateway
+ * asks everyone to sign in again. A session keeps its EmailService (IMAP store with a
+ * folder connection pool, SMTP session) open between requests and closes it after a few
+ * idle minutes; the next request reconnects. Requests that pass credentials instead of a
+ * session token share a pooled service per email address and password the same way.
+ */
+class ApiSessions {
+    // Same lifetime as the PHP API's sessions
+    static final long SESSION_LIFETIME_MS = TimeUnit.DAYS.toMillis(30);
+    private static final long IDLE_DISCONNECT_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long SWEEP_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+    
+    private final AppConfig config;
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    // Keyed by address and password hash; dropped once idle
+    private final Map<String, Session> credentialSessions = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+    private final ScheduledExecutorService sweeper;
+    
+    /**
+     * One signed-in account; the mail service is opened on demand and closed when idle
+     */
+    static final class Session {
+        final AccountSettings account;
+        final long createdAt = System.currentTimeMillis();
+        private final AppConfig config;
+        private volatile long lastUsed = createdAt;
+        private EmailService mail;
+        
+        Session(AppConfig config, AccountSettings account) {
+            this.config = config;
+            this.account = account;
+        }
+        
+        /**
+         * The session's mail service, connected on first use after being idle
+         */
+        synchronized EmailService mail() {
+            touch();
+            if (mail == null) {
+                mail = new EmailService(config, account);
+            }
+            return mail;
+        }
+        
+        synchronized void close() {
+            if (mail != null) {
+                mail.shutdown();
+                mail = null;
+            }
+        }
+        
+        /**
+         * Close the mail service if it has not been used lately
+         */
+        synchronized void closeIfIdle(long now) {
+            if (now - lastUsed >= IDLE_DISCONNECT_MS) {
+                close();
+            }
+        }
+        
+        boolean isExpired(long now) {
+            return now - createdAt > SESSION_LIFETIME_MS;
+        }
+        
+        void touch() {
+            lastUsed = System.currentTimeMillis();
+        }
+        
+        long getLastUsed() {
+            return lastUsed;
+        }
+    }
+    
+    ApiSessions(AppConfig config) {
+        this.config = config;
+        sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "api-session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, SWEEP_INTERVAL_MS, SWEEP_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Check the credentials against the mail server and open a session; returns its token
+     */
+    String login(String email, String password) throws MessagingException {
+        Session session = new Session(config, account(email, password));
+        try {
+            session.mail().connect();
+        } catch (MessagingException e) {
+            session.close();
+            throw e;
+        }
+        String token = newToken();
+        sessions.put(token, session);
+        return token;
+    }
+    
+    void logout(String token) {
+        Session session = sessions.remove(token);
+        if (session != null) {
+            session.close();
+        }
+    }
+    
+    /**
+     * The session for a token, or null if it is unknown or has expired
+     */
+    Session get(String token) {
+        Session session = sessions.get(token);
+        if (session != null && session.isExpired(System.currentTimeMillis())) {
+            logout(token);
+            return null;
+        }
+        return session;
+    }
+    
+    /**
+     * A pooled session for callers that send their credentials with each request
+     */
+    Session forCredentials(String email, String password) {
+        // compute() keeps this atomic with the sweeper dropping the same entry
+        return credentialSessions.compute(email + "\n" + sha256(password), (key, session) -> {
+            Session current = session != null ? session : new Session(config, account(email, password));
+            current.touch();
+            return current;
+        });
+    }
+    
+    int size() {
+        return sessions.size();
+    }
+    
+    /**
+     * Close every mail connection (the gateway is stopping)
+     */
+    void shutdown() {
+        sweeper.shutdownNow();
+        for (Session session : sessions.values()) {
+            session.close();
+        }
+        for (Session session : credentialSessions.values()) {
+            session.close();
+        }
+    }
+    
+    /**
+     * Close idle connections, forget expired sessions and idle credential callers
+     */
+    private void sweep() {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Session>> it = sessions.entrySet().iterator();
+        while (it.hasNext()) {
+            Session session = it.next().getValue();
+            if (session.isExpired(now)) {
+                it.remove();
+                session.close();
+            } else {
+                session.closeIfIdle(now);
+            }
+        }
+        for (String key : credentialSessions.keySet()) {
+            credentialSessions.computeIfPresent(key, (k, session) -> {
+                if (now - session.getLastUsed() < IDLE_DISCONNECT_MS) {
+                    return session;
+                }
+                session.close();
+                return null;
+            });
+        }
+    }
+    
+    /**
+     * Account settings for a gateway user; servers are the configured ones
+     */
+    private AccountSettings account(String email, String password) {
+        return new AccountSettings("api-" + email, email, password,
+                                   config.getImapServer(), config.getImapPort(),
+                                   config.getSmtpServer(), config.getSmtpPort());
+    }
+    
+    private String newToken() {
+        byte[] bytes = new byte[32];
+        random.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+    
+    private static String sha256(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(text.getBytes(StandardCharsets.UTF_8));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
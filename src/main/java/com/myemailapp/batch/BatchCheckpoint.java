@@ -0,0 +1,114 @@
+package com.myemailapp.batch;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.reflect.TypeToken;
+import com.myemailapp.email.UidSet;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Which messages a batch job has finished, per account and folder, so a stopped job
+ * resumes where it left off
+ *
+ * Messages finish out of order (stages run in parallel), so the finished UIDs are kept
+ * as a UID set rather than a high-water mark; as ranges it stays small. The set only
+ * applies under the UIDVALIDITY it was recorded with. Finished UIDs are only written
+ * after the job's results were saved, so a crash repeats work rather than losing it.
+ */
+class BatchCheckpoint {
+    private final Path file;
+    private final Gson gson = new Gson();
+    private final Map<String, FolderProgress> folders = new HashMap<>();
+    // Finished since the last save, not yet merged into the ranges
+    private final Map<String, List<Long>> pending = new HashMap<>();
+    
+    BatchCheckpoint(Path file) {
+        this.file = file;
+        load();
+    }
+    
+    /**
+     * UIDs already finished in a folder; empty if the folder was rebuilt since
+     */
+    synchronized UidSet finished(String accountId, String folder, long uidValidity) {
+        FolderProgress progress = folders.get(key(accountId, folder));
+        if (progress == null || progress.uidValidity != uidValidity || progress.done == null) {
+            folders.put(key(accountId, folder), new FolderProgress(uidValidity, ""));
+            return UidSet.EMPTY;
+        }
+        return UidSet.parse(progress.done);
+    }
+    
+    synchronized void markFinished(String accountId, String folder, long uid) {
+        pending.computeIfAbsent(key(accountId, folder), k -> new ArrayList<>()).add(uid);
+    }
+    
+    /**
+     * Forget all progress (a fresh run)
+     */
+    synchronized void clear() {
+        folders.clear();
+        pending.clear();
+    }
+    
+    synchronized void save() throws IOException {
+        for (Map.Entry<String, List<Long>> entry : pending.entrySet()) {
+            FolderProgress progress = folders.get(entry.getKey());
+            if (progress == null) {
+                continue;
+            }
+            long[] uids = new long[entry.getValue().size()];
+            for (int i = 0; i < uids.length; i++) {
+                uids[i] = entry.getValue().get(i);
+            }
+            progress.done = UidSet.parse(progress.done).union(UidSet.of(uids)).toString();
+        }
+        pending.clear();
+        
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            gson.toJson(folders, writer);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Map<String, FolderProgress> stored = gson.fromJson(reader, new TypeToken<Map<String, FolderProgress>>() {}.getType());
+            if (stored != null) {
+                folders.putAll(stored);
+            }
+        } catch (IOException | JsonSyntaxException e) {
+            System.err.println("Error loading batch checkpoint, starting over: " + e.getMessage());
+        }
+    }
+    
+    private static String key(String accountId, String folder) {
+        return accountId + "/" + folder;
+    }
+    
+    /**
+     * Finished UIDs of one folder, as an IMAP sequence set
+     */
+    private static final class FolderProgress {
+        long uidValidity;
+        String done;
+        
+        FolderProgress(long uidValidity, String done) {
+            this.uidValidity = uidValidity;
+            this.done = done;
+        }
+    }
+}
@@ -0,0 +1,438 @@
+package com.myemailapp.batch;
+
+import com.myemailapp.ai.GeminiAIService;
+import com.myemailapp.ai.ModelRouter;
+import com.myemailapp.ai.SemanticSearch;
+import com.myemailapp.ai.ThreadSummarizer;
+import com.myemailapp.config.AccountSettings;
+import com.myemailapp.config.AppConfig;
+import com.myemailapp.email.*;
+
+import java.io.File;
+import javax.mail.MessagingException;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Headless bulk processing of whole mailboxes, e.g. overnight from cron
+ *
+ * Runs as {@code java -jar app.jar --batch [options]} without loading any GUI classes.
+ * Messages flow through a staged pipeline: fetch (raw IMAP, a few connections), decode
+ * (MIME, all cores), preprocess, AI (semantic index) and persist (index and checkpoint).
+ * Conversation summaries come last, once every message is in and the threads are
+ * complete, so each conversation costs one AI call. New mail is threaded together with
+ * the headers of mail finished by earlier runs, so a late reply updates its old
+ * conversation's summary; older bodies are fetched only when the summary needs them. Progress is checkpointed, so a job
+ * that was stopped picks up with the messages it had not finished; a report of throughput
+ * and per-stage timing is printed at the end.
+ */
+public class BatchMode {
+    private static final String CHECKPOINT_DIR = System.getProperty("user.home") +
+                                                 File.separator + ".myemailapp";
+    private static final int UIDS_PER_FETCH = 50;
+    private static final int HEADER_UIDS_PER_FETCH = 1000;
+    private static final int QUEUE_CAPACITY = 500;
+    // One embedding request covers up to 100 texts
+    private static final int AI_BATCH_SIZE = 100;
+    private static final int PERSIST_EVERY = 500;
+    private static final long PERSIST_INTERVAL_MS = 30_000;
+    private static final String USAGE =
+        "Usage: --batch [--index] [--summarize] [--account ID] [--folders INBOX,Archive|all]\n" +
+        "               [--limit N] [--fetch-workers N] [--workers N] [--ai-workers N] [--restart]\n" +
+        "  --index       add messages to the semantic search index (default)\n" +
+        "  --summarize   pre-compute conversation summaries\n" +
+        "  --limit N     only the newest N messages of each folder\n" +
+        "  --restart     ignore the checkpoint and process everything again";
+    
+    private boolean index;
+    private boolean summarize;
+    private String accountId;
+    private List<String> folderNames = Collections.singletonList("INBOX");
+    private int limit = Integer.MAX_VALUE;
+    private int fetchWorkers = 2;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int aiWorkers = 4;
+    private boolean restart;
+    
+    /**
+     * One UID FETCH worth of messages
+     */
+    private static final class FetchTask {
+        final EmailService service;
+        final String folder;
+        final long uidValidity;
+        final long[] uids;
+        
+        FetchTask(EmailService service, String folder, long uidValidity, long[] uids) {
+            this.service = service;
+            this.folder = folder;
+            this.uidValidity = uidValidity;
+            this.uids = uids;
+        }
+    }
+    
+    /**
+     * A decoded message with the text that gets embedded
+     */
+    private static final class Document {
+        final EmailMessage message;
+        final String text;
+        
+        Document(EmailMessage message, String text) {
+            this.message = message;
+            this.text = text;
+        }
+    }
+    
+    /**
+     * One conversation to summarize, as threaded after the whole run
+     */
+    private static final class Conversation {
+        final String key;
+        final List<EmailMessage> messages;
+        
+        Conversation(String key, List<EmailMessage> messages) {
+            this.key = key;
+            this.messages = messages;
+        }
+    }
+    
+    /**
+     * Run a batch job; returns the process exit code
+     */
+    public static int run(String[] args) {
+        BatchMode job = new BatchMode();
+        try {
+            job.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        try {
+            return job.execute();
+        } catch (Exception e) {
+            e.printStackTrace();
+            return 1;
+        }
+    }
+    
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--index":
+                    index = true;
+                    break;
+                case "--summarize":
+                    summarize = true;
+                    break;
+                case "--restart":
+                    restart = true;
+                    break;
+                case "--account":
+                    accountId = value(args, ++i, arg);
+                    break;
+                case "--folders":
+                    folderNames = Arrays.asList(value(args, ++i, arg).split(","));
+                    break;
+                case "--limit":
+                    limit = number(args, ++i, arg);
+                    break;
+                case "--fetch-workers":
+                    fetchWorkers = number(args, ++i, arg);
+                    break;
+                case "--workers":
+                    workers = number(args, ++i, arg);
+                    break;
+                case "--ai-workers":
+                    aiWorkers = number(args, ++i, arg);
+                    break;
+                case "--help":
+                    throw new IllegalArgumentException("Batch mode");
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        if (!index && !summarize) {
+            index = true;
+        }
+    }
+    
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[i];
+    }
+    
+    private static int number(String[] args, int i, String option) {
+        try {
+            int n = Integer.parseInt(value(args, i, option));
+            if (n < 1) {
+                throw new NumberFormatException();
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " needs a positive number");
+        }
+    }
+    
+    private int execute() throws Exception {
+        AppConfig config = new AppConfig();
+        if (config.getGeminiApiKey().isEmpty()) {
+            System.err.println("No Gemini API key configured; run the app once to set it up");
+            return 1;
+        }
+        GeminiAIService ai = new GeminiAIService(config.getGeminiApiKey(), ModelRouter.fromConfig(config.snapshot()));
+        SemanticSearch semanticSearch = index ? new SemanticSearch() : null;
+        if (semanticSearch != null) {
+            semanticSearch.setAIService(ai);
+        }
+        ThreadSummarizer summarizer = summarize ? new ThreadSummarizer() : null;
+        if (summarizer != null) {
+            summarizer.setSaveEachChange(false);
+        }
+        ThreadIndex threads = new ThreadIndex();
+        // One checkpoint per kind of job: indexing a folder doesn't mean it was summarized
+        String job = index && summarize ? "index-summarize" : index ? "index" : "summarize";
+        BatchCheckpoint checkpoint = new BatchCheckpoint(Paths.get(CHECKPOINT_DIR, "batch-" + job + ".json"));
+        if (restart) {
+            checkpoint.clear();
+        }
+        
+        List<EmailService> services = new ArrayList<>();
+        for (AccountSettings settings : config.snapshot().getAccounts()) {
+            if (accountId == null || accountId.equals(settings.getId())) {
+                services.add(new EmailService(config, settings.getId()));
+            }
+        }
+        if (services.isEmpty()) {
+            System.err.println(accountId != null ? "No account with id " + accountId : "No email account configured");
+            return 1;
+        }
+        
+        List<FetchTask> tasks = new ArrayList<>();
+        long skipped = 0;
+        // Mail finished by earlier runs, threaded from its headers only
+        Set<EmailMessage> headerOnly = Collections.newSetFromMap(new IdentityHashMap<>());
+        Map<String, Long> uidValidities = new HashMap<>();
+        for (EmailService service : services) {
+            List<String> names = folderNames;
+            if (names.size() == 1 && names.get(0).equalsIgnoreCase("all")) {
+                names = new ArrayList<>(service.listFolders().keySet());
+            }
+            for (String folder : names) {
+                SearchResult all = service.search(folder, new MailQuery());
+                UidSet finished = checkpoint.finished(service.getAccountId(), folder, all.getUidValidity());
+                UidSet todo = all.getUids().minus(finished);
+                skipped += all.getCount() - todo.size();
+                // Newest first, so a limited or interrupted run covers the mail that matters most
+                long count = Math.min(todo.size(), limit);
+                for (long end = todo.size(); end > todo.size() - count; end -= UIDS_PER_FETCH) {
+                    long start = Math.max(todo.size() - count, end - UIDS_PER_FETCH);
+                    tasks.add(new FetchTask(service, folder, all.getUidValidity(), todo.slice(start, end)));
+                }
+                uidValidities.put(service.getAccountId() + "/" + folder, all.getUidValidity());
+                if (summarizer != null && count > 0) {
+                    UidSet done = all.getUids().minus(todo);
+                    for (long start = 0; start < done.size(); start += HEADER_UIDS_PER_FETCH) {
+                        long[] uids = done.slice(start, Math.min(done.size(), start + HEADER_UIDS_PER_FETCH));
+                        for (EmailMessage message : service.fetchHeaders(folder, all.getUidValidity(), uids)) {
+                            threads.add(message);
+                            headerOnly.add(message);
+                        }
+                    }
+                }
+                System.out.println(service.getAccountId() + "/" + folder + ": " + count + " to process, " +
+                                   (all.getCount() - todo.size()) + " already done");
+            }
+        }
+        
+        Runnable persist = () -> {
+            try {
+                if (semanticSearch != null) {
+                    semanticSearch.flush();
+                }
+                if (summarizer != null) {
+                    summarizer.flush();
+                }
+                // Only after the results it vouches for are on disk
+                checkpoint.save();
+            } catch (IOException e) {
+                System.err.println("Error saving batch results: " + e.getMessage());
+            }
+        };
+        // Keep finished work when the job is stopped (Ctrl+C, cron timeout)
+        Thread onStop = new Thread(persist, "batch-persist");
+        Runtime.getRuntime().addShutdownHook(onStop);
+        
+        long[] persistedAt = {System.currentTimeMillis()};
+        int[] sincePersist = {0};
+        StagedPipeline.StageFunction<EmailMessage, Void> persistStage = (batch, emit) -> {
+            for (EmailMessage message : batch) {
+                checkpoint.markFinished(message.getAccountId(), message.getFolder(), message.getUid());
+            }
+            sincePersist[0] += batch.size();
+            long now = System.currentTimeMillis();
+            if (sincePersist[0] >= PERSIST_EVERY || now - persistedAt[0] >= PERSIST_INTERVAL_MS) {
+                persist.run();
+                sincePersist[0] = 0;
+                persistedAt[0] = now;
+            }
+        };
+        StagedPipeline pipeline = new StagedPipeline(QUEUE_CAPACITY)
+            .<FetchTask, RawMessage>stage("fetch", fetchWorkers, 1, (batch, emit) -> {
+                for (FetchTask task : batch) {
+                    for (RawMessage raw : task.service.fetchRaw(task.folder, task.uidValidity, task.uids)) {
+                        emit.accept(raw);
+                    }
+                }
+            })
+            .<RawMessage, EmailMessage>stage("decode", workers, 1, (batch, emit) -> {
+                for (RawMessage raw : batch) {
+                    emit.accept(raw.decode());
+                }
+            })
+            .<EmailMessage, Document>stage("preprocess", workers, 1, (batch, emit) -> {
+                for (EmailMessage message : batch) {
+                    threads.add(message);
+                    emit.accept(new Document(message, index ? SemanticSearch.documentText(message) : null));
+                }
+            })
+            .<Document, EmailMessage>stage("ai", aiWorkers, AI_BATCH_SIZE, (batch, emit) -> {
+                if (semanticSearch != null) {
+                    List<EmailMessage> messages = new ArrayList<>(batch.size());
+                    List<String> texts = new ArrayList<>(batch.size());
+                    for (Document document : batch) {
+                        messages.add(document.message);
+                        texts.add(document.text);
+                    }
+                    semanticSearch.add(messages, texts);
+                }
+                for (Document document : batch) {
+                    emit.accept(document.message);
+                }
+            });
+        // With --summarize a message is finished once its conversation is summarized
+        if (summarizer == null) {
+            pipeline.<EmailMessage, Void>stage("persist", 1, PERSIST_EVERY, persistStage);
+        }
+        
+        long startedAt = System.nanoTime();
+        List<StagedPipeline.StageStats> stats = new ArrayList<>(pipeline.run(tasks));
+        long finished = stats.get(stats.size() - 1).getIn() - stats.get(stats.size() - 1).getFailed();
+        if (summarizer != null) {
+            stats.addAll(new StagedPipeline(QUEUE_CAPACITY)
+                .<Conversation, EmailMessage>stage("summarize", aiWorkers, 1, (batch, emit) -> {
+                    for (Conversation conversation : batch) {
+                        List<EmailMessage> needed = summarizer.messagesToRead(conversation.key, conversation.messages);
+                        summarizer.summarize(ai, conversation.key,
+                                             withBodies(conversation.messages, needed, headerOnly, services, uidValidities));
+                        for (EmailMessage message : conversation.messages) {
+                            if (!headerOnly.contains(message)) {
+                                emit.accept(message);
+                            }
+                        }
+                    }
+                })
+                .<EmailMessage, Void>stage("checkpoint", 1, PERSIST_EVERY, persistStage)
+                .run(conversations(threads, headerOnly)));
+        }
+        long elapsedNanos = System.nanoTime() - startedAt;
+        persist.run();
+        Runtime.getRuntime().removeShutdownHook(onStop);
+        if (semanticSearch != null) {
+            semanticSearch.close();
+        }
+        for (EmailService service : services) {
+            service.shutdown();
+        }
+        
+        report(stats, finished, elapsedNanos, skipped);
+        long failed = 0;
+        for (StagedPipeline.StageStats stage : stats) {
+            failed += stage.getFailed();
+        }
+        return failed > 0 ? 3 : 0;
+    }
+    
+    /**
+     * Every thread with mail from this run, each once with all of its messages
+     */
+    private static List<Conversation> conversations(ThreadIndex threads, Set<EmailMessage> headerOnly) {
+        List<Conversation> conversations = new ArrayList<>();
+        Set<Integer> seen = new HashSet<>();
+        threads.forEachMessage(message -> {
+            if (headerOnly.contains(message)) {
+                return;
+            }
+            int thread = threads.threadOf(message);
+            String key = thread >= 0 ? threads.getThreadKey(thread) : null;
+            if (key == null) {
+                conversations.add(new Conversation(ThreadSummarizer.messageKey(message), Collections.singletonList(message)));
+            } else if (seen.add(thread)) {
+                conversations.add(new Conversation(key, threads.getThread(thread)));
+            }
+        });
+        return conversations;
+    }
+    
+    /**
+     * The conversation with full text for the header-only messages the summary will read
+     */
+    private static List<EmailMessage> withBodies(List<EmailMessage> messages, List<EmailMessage> needed,
+                                                 Set<EmailMessage> headerOnly, List<EmailService> services,
+                                                 Map<String, Long> uidValidities) throws MessagingException {
+        Map<String, List<EmailMessage>> missing = new LinkedHashMap<>();
+        for (EmailMessage message : needed) {
+            if (headerOnly.contains(message)) {
+                missing.computeIfAbsent(message.getAccountId() + "/" + message.getFolder(), k -> new ArrayList<>()).add(message);
+            }
+        }
+        if (missing.isEmpty()) {
+            return messages;
+        }
+        Map<EmailMessage, EmailMessage> full = new IdentityHashMap<>();
+        for (List<EmailMessage> group : missing.values()) {
+            EmailMessage first = group.get(0);
+            EmailService service = null;
+            for (EmailService candidate : services) {
+                if (candidate.getAccountId().equals(first.getAccountId())) {
+                    service = candidate;
+                }
+            }
+            long[] uids = new long[group.size()];
+            Map<Long, EmailMessage> byUid = new HashMap<>();
+            for (int i = 0; i < uids.length; i++) {
+                uids[i] = group.get(i).getUid();
+                byUid.put(uids[i], group.get(i));
+            }
+            long uidValidity = uidValidities.get(first.getAccountId() + "/" + first.getFolder());
+            for (RawMessage raw : service.fetchRaw(first.getFolder(), uidValidity, uids)) {
+                EmailMessage decoded = raw.decode();
+                full.put(byUid.get(decoded.getUid()), decoded);
+            }
+        }
+        List<EmailMessage> result = new ArrayList<>(messages.size());
+        for (EmailMessage message : messages) {
+            result.add(full.getOrDefault(message, message));
+        }
+        return result;
+    }
+    
+    private static void report(List<StagedPipeline.StageStats> stats, long finished, long elapsedNanos, long skipped) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.println();
+        System.out.printf("Batch finished in %.1f s: %d messages (%.1f/s), %d skipped from earlier runs%n",
+                          seconds, finished, seconds > 0 ? finished / seconds : 0, skipped);
+        System.out.printf("%-11s %7s %8s %8s %7s %9s %8s %5s%n",
+                          "stage", "workers", "in", "out", "failed", "busy s", "ms/item", "util");
+        for (StagedPipeline.StageStats stage : stats) {
+            System.out.printf("%-11s %7d %8d %8d %7d %9.1f %8.2f %4.0f%%%n",
+                              stage.getName(), stage.getWorkers(), stage.getIn(), stage.getOut(), stage.getFailed(),
+                              stage.getBusyMillis() / 1000.0, stage.getMillisPerItem(), stage.getUtilization() * 100);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.myemailapp.batch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Chain of processing stages connected by bounded queues
+ *
+ * Each stage has its own worker threads and takes items from the queue in front of it,
+ * optionally several at a time (so e.g. an AI stage can send one request per batch).
+ * Bounded queues give backpressure: a fast stage blocks instead of piling up items in
+ * memory while a slow one catches up. An item that fails is logged and dropped; the rest
+ * keep flowing. Per-stage counts and busy time are kept for the end-of-run report.
+ */
+public class StagedPipeline {
+    // Marks the end of the input; passed on once every worker of a stage has seen it
+    private static final Object END = new Object();
+    
+    private final int queueCapacity;
+    private final List<Stage> stages = new ArrayList<>();
+    
+    /**
+     * Work done by one stage on a batch of items; call emit for each output item
+     */
+    public interface StageFunction<I, O> {
+        void process(List<I> batch, Consumer<O> emit) throws Exception;
+    }
+    
+    public StagedPipeline(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+    
+    /**
+     * Append a stage
+     *
+     * @param workers   threads running the function in parallel
+     * @param batchSize most items handed to one call (1 for item-at-a-time stages)
+     */
+    @SuppressWarnings("unchecked")
+    public <I, O> StagedPipeline stage(String name, int workers, int batchSize, StageFunction<I, O> function) {
+        stages.add(new Stage(name, Math.max(1, workers), Math.max(1, batchSize), (StageFunction<Object, Object>) function,
+                             new ArrayBlockingQueue<>(queueCapacity)));
+        return this;
+    }
+    
+    /**
+     * Feed the inputs through every stage and wait until all of them are processed.
+     * The calling thread produces the input, so it blocks whenever the first stage is full.
+     */
+    public List<StageStats> run(Iterable<?> inputs) throws InterruptedException {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("Pipeline has no stages");
+        }
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            BlockingQueue<Object> output = i + 1 < stages.size() ? stages.get(i + 1).input : null;
+            for (int w = 0; w < stage.workers; w++) {
+                Thread thread = new Thread(() -> stage.work(output), "batch-" + stage.name + "-" + (w + 1));
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+        long startedAt = System.nanoTime();
+        try {
+            BlockingQueue<Object> first = stages.get(0).input;
+            for (Object input : inputs) {
+                first.put(input);
+            }
+            first.put(END);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            throw e;
+        }
+        long wallNanos = System.nanoTime() - startedAt;
+        List<StageStats> stats = new ArrayList<>();
+        for (Stage stage : stages) {
+            stats.add(new StageStats(stage.name, stage.workers, stage.in.get(), stage.out.get(), stage.failed.get(),
+                                     stage.busyNanos.get(), wallNanos));
+        }
+        return stats;
+    }
+    
+    /**
+     * One stage: its function, workers, input queue and counters
+     */
+    private static final class Stage {
+        private final String name;
+        private final int workers;
+        private final int batchSize;
+        private final StageFunction<Object, Object> function;
+        private final BlockingQueue<Object> input;
+        private final AtomicInteger running;
+        private final AtomicLong in = new AtomicLong();
+        private final AtomicLong out = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong busyNanos = new AtomicLong();
+        
+        Stage(String name, int workers, int batchSize, StageFunction<Object, Object> function, BlockingQueue<Object> input) {
+            this.name = name;
+            this.workers = workers;
+            this.batchSize = batchSize;
+            this.function = function;
+            this.input = input;
+            this.running = new AtomicInteger(workers);
+        }
+        
+        void work(BlockingQueue<Object> output) {
+            Consumer<Object> emit = item -> {
+                out.incrementAndGet();
+                if (output != null) {
+                    try {
+                        output.put(item);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("Pipeline interrupted");
+                    }
+                }
+            };
+            try {
+                boolean ended = false;
+                while (!ended) {
+                    List<Object> batch = new ArrayList<>(batchSize);
+                    batch.add(input.take());
+                    input.drainTo(batch, batchSize - 1);
+                    int end = batch.indexOf(END);
+                    if (end >= 0) {
+                        // Everything after the marker belongs to nobody; hand the marker on to siblings
+                        batch.subList(end, batch.size()).clear();
+                        input.put(END);
+                        ended = true;
+                    }
+                    if (batch.isEmpty()) {
+                        continue;
+                    }
+                    in.addAndGet(batch.size());
+                    long started = System.nanoTime();
+                    try {
+                        function.process(batch, emit);
+                    } catch (InterruptedException e) {
+                        throw e;
+                    } catch (Exception e) {
+                        failed.addAndGet(batch.size());
+                        System.err.println("Batch stage " + name + " failed on " + batch.size() + " item(s): " + e);
+                    } finally {
+                        busyNanos.addAndGet(System.nanoTime() - started);
+                    }
+                }
+                if (running.decrementAndGet() == 0 && output != null) {
+                    output.put(END);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /**
+     * Counts and timing of one stage over a run
+     */
+    public static final class StageStats {
+        private final String name;
+        private final int workers;
+        private final long in;
+        private final long out;
+        private final long failed;
+        private final long busyNanos;
+        private final long wallNanos;
+        
+        StageStats(String name, int workers, long in, long out, long failed, long busyNanos, long wallNanos) {
+            this.name = name;
+            this.workers = workers;
+            this.in = in;
+            this.out = out;
+            this.failed = failed;
+            this.busyNanos = busyNanos;
+            this.wallNanos = wallNanos;
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        public int getWorkers() {
+            return workers;
+        }
+        
+        public long getIn() {
+            return in;
+        }
+        
+        public long getOut() {
+            return out;
+        }
+        
+        public long getFailed() {
+            return failed;
+        }
+        
+        public long getBusyMillis() {
+            return busyNanos / 1_000_000;
+        }
+        
+        /**
+         * Busy time per input item
+         */
+        public double getMillisPerItem() {
+            return in > 0 ? busyNanos / 1e6 / in : 0;
+        }
+        
+        /**
+         * Share of the run its workers spent working; the stage near 100% is the bottleneck
+         */
+        public double getUtilization() {
+            return wallNanos > 0 ? (double) busyNanos / ((double) wallNanos * workers) : 0;
+        }
+    }
+}
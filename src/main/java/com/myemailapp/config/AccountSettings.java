@@ -0,0 +1,87 @@
+package com.myemailapp.config;
+
+/**
+ * Connection settings for one mail account
+ *
+ * The primary account comes from the top-level email.* / imap.* / smtp.* keys.
+ * Additional accounts are listed in "accounts" (comma separated ids) and configured
+ * with account.&lt;id&gt;.email.address, account.&lt;id&gt;.email.password and optionally
+ * account.&lt;id&gt;.imap.server / imap.port / smtp.server / smtp.port, which default
+ * to the primary account's servers.
+ */
+public final class AccountSettings {
+    public static final String PRIMARY_ID = "primary";
+    
+    private final String id;
+    private final String emailAddress;
+    private final String emailPassword;
+    private final String imapServer;
+    private final int imapPort;
+    private final String smtpServer;
+    private final int smtpPort;
+    
+    public AccountSettings(String id, String emailAddress, String emailPassword,
+                           String imapServer, int imapPort, String smtpServer, int smtpPort) {
+        this.id = id;
+        this.emailAddress = emailAddress;
+        this.emailPassword = emailPassword;
+        this.imapServer = imapServer;
+        this.imapPort = imapPort;
+        this.smtpServer = smtpServer;
+        this.smtpPort = smtpPort;
+    }
+    
+    public String getId() {
+        return id;
+    }
+    
+    public String getEmailAddress() {
+        return emailAddress;
+    }
+    
+    public String getEmailPassword() {
+        return emailPassword;
+    }
+    
+    public String getImapServer() {
+        return imapServer;
+    }
+    
+    public int getImapPort() {
+        return imapPort;
+    }
+    
+    public String getSmtpServer() {
+        return smtpServer;
+    }
+    
+    public int getSmtpPort() {
+        return smtpPort;
+    }
+    
+    public boolean isPrimary() {
+        return PRIMARY_ID.equals(id);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof AccountSettings)) {
+            return false;
+        }
+        AccountSettings other = (AccountSettings) o;
+        return id.equals(other.id) && emailAddress.equals(other.emailAddress) &&
+               emailPassword.equals(other.emailPassword) && imapServer.equals(other.imapServer) &&
+               imapPort == other.imapPort && smtpServer.equals(other.smtpServer) &&
+               smtpPort == other.smtpPort;
+    }
+    
+    @Override
+    public int hashCode() {
+        return id.hashCode() * 31 + emailAddress.hashCode();
+    }
+    
+    @Override
+    public String toString() {
+        return id + " <" + emailAddress + ">";
+    }
+}
@@ -1,25 +1,49 @@
 package com.myemailapp.config;
 
 import java.io.*;
+import java.nio.file.*;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Configuration manager for the email application
  * Stores user settings, API keys, and email credentials
+ *
+ * Settings live in an immutable {@link ConfigSnapshot} that is swapped atomically on
+ * every change. Saving is write-behind: changes are debounced and written to a temp
+ * file that is atomically moved over config.properties, off the calling thread.
  */
 public class AppConfig {
-    private static final String CONFIG_FILE = System.getProperty("user.home") + 
-                                              File.separator + ".myemailapp" + 
+    private static final String CONFIG_FILE = System.getProperty("user.home") +
+                                              File.separator + ".myemailapp" +
                                               File.separator + "config.properties";
-    private Properties properties;
+    private static final long SAVE_DELAY_MS = 500;
+    
+    private static final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "config-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final Path configPath;
+    private final AtomicReference<ConfigSnapshot> snapshot = new AtomicReference<>();
+    private final List<ConfigChangeListener> listeners = new CopyOnWriteArrayList<>();
+    private final Object saveLock = new Object();
+    private ScheduledFuture<?> pendingSave;
+    private volatile boolean dirty;
+    private Thread watcher;
     
     public AppConfig() {
-        properties = new Properties();
-        loadConfig();
+        configPath = Paths.get(CONFIG_FILE);
+        snapshot.set(loadConfig());
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush, "config-flush"));
     }
     
-    private void loadConfig() {
-        File configFile = new File(CONFIG_FILE);
+    private ConfigSnapshot loadConfig() {
+        Properties properties = new Properties();
+        File configFile = configPath.toFile();
         if (configFile.exists()) {
             try (FileInputStream fis = new FileInputStream(configFile)) {
                 properties.load(fis);
@@ -30,107 +54,233 @@ public class AppConfig {
             // Create default config directory
             configFile.getParentFile().mkdirs();
         }
+        return ConfigSnapshot.of(properties);
+    }
+    
+    /**
+     * Current settings; the returned snapshot never changes
+     */
+    public ConfigSnapshot snapshot() {
+        return snapshot.get();
+    }
+    
+    public void addChangeListener(ConfigChangeListener listener) {
+        listeners.add(listener);
+    }
+    
+    public void removeChangeListener(ConfigChangeListener listener) {
+        listeners.remove(listener);
     }
     
+    /**
+     * Schedule the current settings to be written to disk.
+     * Repeated calls within a short window are coalesced into one write.
+     */
     public void saveConfig() {
-        File configFile = new File(CONFIG_FILE);
-        try (FileOutputStream fos = new FileOutputStream(configFile)) {
-            properties.store(fos, "AI Email App Configuration");
+        synchronized (saveLock) {
+            dirty = true;
+            if (pendingSave != null) {
+                pendingSave.cancel(false);
+            }
+            pendingSave = writer.schedule(this::flush, SAVE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Write pending changes now (used on shutdown)
+     */
+    public void flush() {
+        synchronized (saveLock) {
+            if (!dirty) {
+                return;
+            }
+            dirty = false;
+            pendingSave = null;
+            try {
+                writeAtomically(snapshot.get().toProperties());
+            } catch (IOException e) {
+                System.err.println("Error saving config: " + e.getMessage());
+            }
+        }
+    }
+    
+    private void writeAtomically(Properties properties) throws IOException {
+        Path dir = configPath.getParent();
+        Files.createDirectories(dir);
+        Path temp = Files.createTempFile(dir, "config", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "AI Email App Configuration");
+            }
+            try {
+                Files.move(temp, configPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, configPath, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    /**
+     * Reload config.properties whenever it is changed on disk by someone else.
+     * Our own writes reload to an identical snapshot and are ignored.
+     */
+    public synchronized void startWatching() {
+        if (watcher != null) {
+            return;
+        }
+        watcher = new Thread(this::watchLoop, "config-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+    
+    private void watchLoop() {
+        Path dir = configPath.getParent();
+        try (WatchService watchService = dir.getFileSystem().newWatchService()) {
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                boolean touched = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (configPath.getFileName().equals(event.context())) {
+                        touched = true;
+                    }
+                }
+                key.reset();
+                // Unsaved local edits win over the file until they are written
+                if (touched && !dirty) {
+                    replace(loadConfig());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } catch (IOException e) {
-            System.err.println("Error saving config: " + e.getMessage());
+            System.err.println("Config hot reload unavailable: " + e.getMessage());
+        }
+    }
+    
+    private void set(String key, String value) {
+        ConfigSnapshot previous;
+        ConfigSnapshot current;
+        do {
+            previous = snapshot.get();
+            current = previous.with(key, value);
+        } while (!snapshot.compareAndSet(previous, current));
+        if (current != previous) {
+            // Keeps the watcher from reloading over the edit before it is saved
+            dirty = true;
+            fireChanged(previous, current);
+        }
+    }
+    
+    private void replace(ConfigSnapshot loaded) {
+        ConfigSnapshot previous = snapshot.get();
+        if (!loaded.equals(previous) && snapshot.compareAndSet(previous, loaded)) {
+            fireChanged(previous, loaded);
+        }
+    }
+    
+    private void fireChanged(ConfigSnapshot previous, ConfigSnapshot current) {
+        for (ConfigChangeListener listener : listeners) {
+            try {
+                listener.configChanged(previous, current);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
         }
     }
     
     // Email settings
     public String getEmailAddress() {
-        return properties.getProperty("email.address", "");
+        return snapshot().getEmailAddress();
     }
     
     public void setEmailAddress(String email) {
-        properties.setProperty("email.address", email);
+        set(ConfigSnapshot.EMAIL_ADDRESS, email);
     }
     
     public String getEmailPassword() {
-        return properties.getProperty("email.password", "");
+        return snapshot().getEmailPassword();
     }
     
     public void setEmailPassword(String password) {
-        properties.setProperty("email.password", password);
+        set(ConfigSnapshot.EMAIL_PASSWORD, password);
     }
     
     // Optimum email server settings
     public String getImapServer() {
-        return properties.getProperty("imap.server", "mail.optimum.net");
+        return snapshot().getImapServer();
     }
     
     public int getImapPort() {
-        return Integer.parseInt(properties.getProperty("imap.port", "993"));
+        return snapshot().getImapPort();
     }
     
     public String getSmtpServer() {
-        return properties.getProperty("smtp.server", "mail.optimum.net");
+        return snapshot().getSmtpServer();
     }
     
     public int getSmtpPort() {
-        return Integer.parseInt(properties.getProperty("smtp.port", "465"));
+        return snapshot().getSmtpPort();
     }
     
     // AI settings
     public String getGeminiApiKey() {
-        return properties.getProperty("gemini.api.key", "");
+        return snapshot().getGeminiApiKey();
     }
     
     public void setGeminiApiKey(String apiKey) {
-        properties.setProperty("gemini.api.key", apiKey);
+        set(ConfigSnapshot.GEMINI_API_KEY, apiKey);
     }
     
     // API Authorization settings
     public String getApiAuthSecret() {
-        return properties.getProperty("api.auth.secret", "");
+        return snapshot().getApiAuthSecret();
     }
     
     public void setApiAuthSecret(String secret) {
-        properties.setProperty("api.auth.secret", secret);
+        set(ConfigSnapshot.API_AUTH_SECRET, secret);
     }
     
     public String getApiBaseUrl() {
-        return properties.getProperty("api.base.url", "");
+        return snapshot().getApiBaseUrl();
     }
     
     public void setApiBaseUrl(String url) {
-        properties.setProperty("api.base.url", url);
+        set(ConfigSnapshot.API_BASE_URL, url);
     }
     
     // Session management
     public String getSessionToken() {
-        return properties.getProperty("session.token", "");
+        return snapshot().getSessionToken();
     }
     
     public void setSessionToken(String token) {
-        properties.setProperty("session.token", token);
+        set(ConfigSnapshot.SESSION_TOKEN, token);
     }
     
     public boolean isRememberLogin() {
-        return Boolean.parseBoolean(properties.getProperty("remember.login", "true"));
+        return snapshot().isRememberLogin();
     }
     
     public void setRememberLogin(boolean remember) {
-        properties.setProperty("remember.login", String.valueOf(remember));
+        set(ConfigSnapshot.REMEMBER_LOGIN, String.valueOf(remember));
     }
     
     public boolean isVoiceEnabled() {
-        return Boolean.parseBoolean(properties.getProperty("voice.enabled", "true"));
+        return snapshot().isVoiceEnabled();
     }
     
     public void setVoiceEnabled(boolean enabled) {
-        properties.setProperty("voice.enabled", String.valueOf(enabled));
+        set(ConfigSnapshot.VOICE_ENABLED, String.valueOf(enabled));
     }
     
     public int getFontSize() {
-        return Integer.parseInt(properties.getProperty("font.size", "18"));
+        return snapshot().getFontSize();
     }
     
     public void setFontSize(int size) {
-        properties.setProperty("font.size", String.valueOf(size));
+        set(ConfigSnapshot.FONT_SIZE, String.valueOf(size));
     }
 }
@@ -0,0 +1,9 @@
+package com.myemailapp.config;
+
+/**
+ * Notified after the active configuration snapshot has been replaced.
+ * Called on the thread that made the change (or the config watcher thread on reload).
+ */
+public interface ConfigChangeListener {
+    void configChanged(ConfigSnapshot previous, ConfigSnapshot current);
+}
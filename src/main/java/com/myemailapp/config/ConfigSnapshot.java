@@ -0,0 +1,280 @@
+package com.myemailapp.config;
+
+import java.util.*;
+
+/**
+ * Immutable, typed view of the configuration at one point in time.
+ * Values are parsed once when the snapshot is built, so getters are plain field reads.
+ */
+public final class ConfigSnapshot {
+    public static final String EMAIL_ADDRESS = "email.address";
+    public static final String EMAIL_PASSWORD = "email.password";
+    public static final String IMAP_SERVER = "imap.server";
+    public static final String IMAP_PORT = "imap.port";
+    public static final String SMTP_SERVER = "smtp.server";
+    public static final String SMTP_PORT = "smtp.port";
+    public static final String GEMINI_API_KEY = "gemini.api.key";
+    public static final String GEMINI_ENDPOINT = "gemini.endpoint";
+    public static final String GEMINI_ROUTE_PREFIX = "gemini.route.";
+    public static final String API_AUTH_SECRET = "api.auth.secret";
+    public static final String API_BASE_URL = "api.base.url";
+    public static final String SESSION_TOKEN = "session.token";
+    public static final String REMEMBER_LOGIN = "remember.login";
+    public static final String VOICE_ENABLED = "voice.enabled";
+    public static final String FONT_SIZE = "font.size";
+    public static final String MAIL_CONNECT_TIMEOUT = "mail.timeout.connect";
+    public static final String MAIL_READ_TIMEOUT = "mail.timeout.read";
+    public static final String MAIL_WRITE_TIMEOUT = "mail.timeout.write";
+    public static final String ACCOUNTS = "accounts";
+    public static final String ACCOUNT_PREFIX = "account.";
+    
+    private final Map<String, String> values;
+    
+    private final String emailAddress;
+    private final String emailPassword;
+    private final String imapServer;
+    private final int imapPort;
+    private final String smtpServer;
+    private final int smtpPort;
+    private final String geminiApiKey;
+    private final String apiAuthSecret;
+    private final String apiBaseUrl;
+    private final String sessionToken;
+    private final boolean rememberLogin;
+    private final boolean voiceEnabled;
+    private final int fontSize;
+    private final int mailConnectTimeout;
+    private final int mailReadTimeout;
+    private final int mailWriteTimeout;
+    private final List<AccountSettings> accounts;
+    
+    private ConfigSnapshot(Map<String, String> values) {
+        this.values = Collections.unmodifiableMap(values);
+        
+        emailAddress = string(EMAIL_ADDRESS, "");
+        emailPassword = string(EMAIL_PASSWORD, "");
+        imapServer = string(IMAP_SERVER, "mail.optimum.net");
+        imapPort = integer(IMAP_PORT, 993);
+        smtpServer = string(SMTP_SERVER, "mail.optimum.net");
+        smtpPort = integer(SMTP_PORT, 465);
+        geminiApiKey = string(GEMINI_API_KEY, "");
+        apiAuthSecret = string(API_AUTH_SECRET, "");
+        apiBaseUrl = string(API_BASE_URL, "");
+        sessionToken = string(SESSION_TOKEN, "");
+        rememberLogin = bool(REMEMBER_LOGIN, true);
+        voiceEnabled = bool(VOICE_ENABLED, true);
+        fontSize = integer(FONT_SIZE, 18);
+        mailConnectTimeout = integer(MAIL_CONNECT_TIMEOUT, 15_000);
+        mailReadTimeout = integer(MAIL_READ_TIMEOUT, 30_000);
+        mailWriteTimeout = integer(MAIL_WRITE_TIMEOUT, 30_000);
+        accounts = parseAccounts();
+    }
+    
+    /**
+     * Build a snapshot from loaded properties
+     */
+    static ConfigSnapshot of(Properties properties) {
+        Map<String, String> values = new TreeMap<>();
+        for (String key : properties.stringPropertyNames()) {
+            values.put(key, properties.getProperty(key));
+        }
+        return new ConfigSnapshot(values);
+    }
+    
+    /**
+     * Copy of this snapshot with one value replaced
+     */
+    ConfigSnapshot with(String key, String value) {
+        if (Objects.equals(values.get(key), value)) {
+            return this;
+        }
+        Map<String, String> copy = new TreeMap<>(values);
+        copy.put(key, value);
+        return new ConfigSnapshot(copy);
+    }
+    
+    /**
+     * Raw properties for persistence
+     */
+    Properties toProperties() {
+        Properties properties = new Properties();
+        properties.putAll(values);
+        return properties;
+    }
+    
+    /**
+     * Raw value lookup for settings without a typed accessor
+     */
+    public String get(String key, String defaultValue) {
+        return values.getOrDefault(key, defaultValue);
+    }
+    
+    /**
+     * Check whether any of the given keys differ from another snapshot
+     */
+    public boolean changed(ConfigSnapshot other, String... keys) {
+        for (String key : keys) {
+            if (!Objects.equals(values.get(key), other.values.get(key))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public String getEmailAddress() {
+        return emailAddress;
+    }
+    
+    public String getEmailPassword() {
+        return emailPassword;
+    }
+    
+    public String getImapServer() {
+        return imapServer;
+    }
+    
+    public int getImapPort() {
+        return imapPort;
+    }
+    
+    public String getSmtpServer() {
+        return smtpServer;
+    }
+    
+    public int getSmtpPort() {
+        return smtpPort;
+    }
+    
+    public String getGeminiApiKey() {
+        return geminiApiKey;
+    }
+    
+    public String getApiAuthSecret() {
+        return apiAuthSecret;
+    }
+    
+    public String getApiBaseUrl() {
+        return apiBaseUrl;
+    }
+    
+    public String getSessionToken() {
+        return sessionToken;
+    }
+    
+    public boolean isRememberLogin() {
+        return rememberLogin;
+    }
+    
+    public boolean isVoiceEnabled() {
+        return voiceEnabled;
+    }
+    
+    public int getFontSize() {
+        return fontSize;
+    }
+    
+    /**
+     * IMAP/SMTP socket connect timeout in milliseconds
+     */
+    public int getMailConnectTimeout() {
+        return mailConnectTimeout;
+    }
+    
+    /**
+     * IMAP/SMTP socket read timeout in milliseconds
+     */
+    public int getMailReadTimeout() {
+        return mailReadTimeout;
+    }
+    
+    /**
+     * IMAP/SMTP socket write timeout in milliseconds
+     */
+    public int getMailWriteTimeout() {
+        return mailWriteTimeout;
+    }
+    
+    /**
+     * Configured mail accounts, primary first; accounts without an address are skipped
+     */
+    public List<AccountSettings> getAccounts() {
+        return accounts;
+    }
+    
+    /**
+     * Look up an account by id, or null if it is not configured
+     */
+    public AccountSettings getAccount(String id) {
+        for (AccountSettings account : accounts) {
+            if (account.getId().equals(id)) {
+                return account;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Check whether any setting of any account differs from another snapshot
+     */
+    public boolean accountsChanged(ConfigSnapshot other) {
+        return !accounts.equals(other.accounts);
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ConfigSnapshot && values.equals(((ConfigSnapshot) o).values);
+    }
+    
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+    
+    private List<AccountSettings> parseAccounts() {
+        List<AccountSettings> result = new ArrayList<>();
+        if (!emailAddress.isEmpty()) {
+            result.add(new AccountSettings(AccountSettings.PRIMARY_ID, emailAddress, emailPassword,
+                                           imapServer, imapPort, smtpServer, smtpPort));
+        }
+        for (String id : string(ACCOUNTS, "").split(",")) {
+            id = id.trim();
+            if (id.isEmpty() || id.equals(AccountSettings.PRIMARY_ID)) {
+                continue;
+            }
+            String prefix = ACCOUNT_PREFIX + id + ".";
+            String address = string(prefix + EMAIL_ADDRESS, "");
+            if (address.isEmpty()) {
+                continue;
+            }
+            result.add(new AccountSettings(id, address,
+                                           string(prefix + EMAIL_PASSWORD, ""),
+                                           string(prefix + IMAP_SERVER, imapServer),
+                                           integer(prefix + IMAP_PORT, imapPort),
+                                           string(prefix + SMTP_SERVER, smtpServer),
+                                           integer(prefix + SMTP_PORT, smtpPort)));
+        }
+        return Collections.unmodifiableList(result);
+    }
+    
+    private String string(String key, String defaultValue) {
+        return values.getOrDefault(key, defaultValue);
+    }
+    
+    private int integer(String key, int defaultValue) {
+        String value = values.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid number for " + key + ": " + value);
+            return defaultValue;
+        }
+    }
+    
+    private boolean bool(String key, boolean defaultValue) {
+        String value = values.get(key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
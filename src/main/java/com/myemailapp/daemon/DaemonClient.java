@@ -0,0 +1,536 @@
+package com.myemailapp.daemon;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.myemailapp.email.EmailMessage;
+import com.myemailapp.email.MailAccess;
+import com.myemailapp.email.MailEngine;
+
+import javax.mail.MessagingException;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The window's side of the mail daemon: MailAccess calls forwarded over its local connection
+ *
+ * Requests are pipelined on one connection and matched to replies by id, so a slow
+ * refresh does not hold up the quick reads the window makes on the event thread. Those
+ * reads give up after a short wait and never start a daemon themselves; if the daemon
+ * goes away (crash, update) the next refresh or send starts a new one and reconnects.
+ * Conversation keys and sizes come along with each message, since the conversation index
+ * lives in the daemon.
+ */
+public class DaemonClient implements MailAccess {
+    private static final int CONNECT_TIMEOUT_MS = 500;
+    private static final long START_TIMEOUT_MS = 8_000;
+    private static final long START_POLL_MS = 100;
+    // Longest a quick read (possibly on the event thread) waits, connecting included
+    private static final long QUICK_CALL_TIMEOUT_MS = 2_000;
+    private static final String MAIN_CLASS = "com.myemailapp.Main";
+    
+    private final AtomicLong nextId = new AtomicLong();
+    private final Map<Long, CompletableFuture<JsonElement>> pending = new ConcurrentHashMap<>();
+    // Per received message; entries go when the window lets go of the message
+    private final Map<EmailMessage, Conversation> conversations = Collections.synchronizedMap(new WeakHashMap<>());
+    private final ReentrantLock connectLock = new ReentrantLock();
+    private volatile Socket socket;
+    private volatile Writer out;
+    private volatile MailEngine.Listener listener;
+    private volatile boolean closed;
+    private volatile long snapshotSavedAt;
+    
+    private DaemonClient() {
+    }
+    
+    /**
+     * Connect to the running daemon, starting one if there is none.
+     * Returns null if no daemon could be reached, so the caller can run the engine itself.
+     */
+    public static DaemonClient connectOrStart() {
+        DaemonClient client = new DaemonClient();
+        try {
+            client.connect(true);
+            JsonObject status = client.call(request(DaemonProtocol.STATUS)).getAsJsonObject();
+            client.snapshotSavedAt = status.get("snapshotSavedAt").getAsLong();
+            return client;
+        } catch (IOException | MessagingException e) {
+            System.err.println("Mail daemon unavailable, running mail in the app: " + e.getMessage());
+            client.shutdown();
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+    
+    @Override
+    public List<String> getFolderNames() {
+        List<String> names = new ArrayList<>();
+        JsonElement result = callQuietly(request(DaemonProtocol.FOLDERS));
+        if (result != null) {
+            for (JsonElement name : result.getAsJsonArray()) {
+                names.add(name.getAsString());
+            }
+        }
+        return names;
+    }
+    
+    @Override
+    public List<EmailMessage> getFolderMessages(String folderName, int perAccount) {
+        JsonObject request = request(DaemonProtocol.MESSAGES);
+        request.addProperty("folder", folderName);
+        request.addProperty("limit", perAccount);
+        JsonElement result = callQuietly(request);
+        return result != null ? messages(result.getAsJsonArray()) : new ArrayList<>();
+    }
+    
+    @Override
+    public List<EmailMessage> getFolderMessagesAfter(String folderName, Map<String, Long> lastUids) {
+        JsonObject request = request(DaemonProtocol.MESSAGES_AFTER);
+        request.addProperty("folder", folderName);
+        JsonObject uids = new JsonObject();
+        for (Map.Entry<String, Long> entry : lastUids.entrySet()) {
+            uids.addProperty(entry.getKey(), entry.getValue());
+        }
+        request.add("lastUids", uids);
+        JsonElement result = callQuietly(request);
+        return result != null ? messages(result.getAsJsonArray()) : new ArrayList<>();
+    }
+    
+    @Override
+    public EmailMessage getMessage(String accountId, String folderName, long uid) {
+        JsonObject request = request(DaemonProtocol.MESSAGE);
+        request.addProperty("account", accountId);
+        request.addProperty("folder", folderName);
+        request.addProperty("uid", uid);
+        JsonElement result = callQuietly(request);
+        return result != null && result.isJsonObject() ? message(result.getAsJsonObject()) : null;
+    }
+    
+    @Override
+    public MailEngine.UnifiedInbox refreshFolder(String folderName, int perAccount) throws MessagingException, InterruptedException {
+        JsonObject request = request(DaemonProtocol.REFRESH);
+        request.addProperty("folder", folderName);
+        request.addProperty("limit", perAccount);
+        JsonObject result = call(request).getAsJsonObject();
+        List<String> failed = new ArrayList<>();
+        for (JsonElement account : result.getAsJsonArray("failed")) {
+            failed.add(account.getAsString());
+        }
+        return new MailEngine.UnifiedInbox(messages(result.getAsJsonArray("messages")), failed,
+                                           result.get("accounts").getAsInt());
+    }
+    
+    @Override
+    public String getConversationKey(EmailMessage message) {
+        Conversation conversation = conversations.get(message);
+        return conversation != null ? conversation.key : null;
+    }
+    
+    @Override
+    public int getConversationSize(EmailMessage message) {
+        Conversation conversation = conversations.get(message);
+        return conversation != null ? conversation.size : 0;
+    }
+    
+    @Override
+    public List<EmailMessage> getConversation(EmailMessage message) {
+        JsonObject request = DaemonProtocol.location(message);
+        request.addProperty("op", DaemonProtocol.CONVERSATION);
+        JsonElement result = callQuietly(request);
+        List<EmailMessage> messages = result != null ? messages(result.getAsJsonArray()) : new ArrayList<>();
+        return !messages.isEmpty() ? messages : Collections.singletonList(message);
+    }
+    
+    /**
+     * Changes the local copies at once; the daemon queues the change for the server
+     */
+    @Override
+    public void setSeen(Collection<EmailMessage> messages, boolean seen) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        JsonArray locations = new JsonArray();
+        for (EmailMessage message : messages) {
+            message.setFlags(seen ? message.getFlags() | EmailMessage.SEEN : message.getFlags() & ~EmailMessage.SEEN);
+            locations.add(DaemonProtocol.location(message));
+        }
+        JsonObject request = request(DaemonProtocol.SEEN);
+        request.add("messages", locations);
+        request.addProperty("seen", seen);
+        callQuietly(request);
+    }
+    
+    @Override
+    public void sendEmail(String to, String subject, String body) throws MessagingException {
+        JsonObject request = request(DaemonProtocol.SEND);
+        request.addProperty("to", to);
+        request.addProperty("subject", subject);
+        request.addProperty("body", body);
+        try {
+            call(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Sending was interrupted");
+        }
+    }
+    
+    @Override
+    public boolean isOffline() {
+        JsonElement result = callQuietly(request(DaemonProtocol.STATUS));
+        return result == null || result.getAsJsonObject().get("offline").getAsBoolean();
+    }
+    
+    @Override
+    public long getSnapshotSavedAt() {
+        return snapshotSavedAt;
+    }
+    
+    /**
+     * The daemon syncs on its own; this only subscribes to its updates
+     */
+    @Override
+    public void startBackgroundSync(MailEngine.Listener listener) {
+        this.listener = listener;
+        callQuietly(request(DaemonProtocol.SUBSCRIBE));
+    }
+    
+    /**
+     * Hang up; the daemon keeps syncing
+     */
+    @Override
+    public void shutdown() {
+        closed = true;
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Already closed
+            }
+        }
+    }
+    
+    /**
+     * Connect (and authenticate) to the published daemon; start one first if asked and
+     * none answers. A daemon of another version is stopped and replaced, also only if asked.
+     */
+    private void connect(boolean start) throws IOException, InterruptedException {
+        connectLock.lockInterruptibly();
+        try {
+            connectLocked(start);
+        } finally {
+            connectLock.unlock();
+        }
+    }
+    
+    /**
+     * Connect without starting anything, waiting at most timeoutMs for a connect in progress
+     */
+    private void connectQuickly(long timeoutMs) throws IOException, InterruptedException {
+        if (!connectLock.tryLock(timeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new IOException("Still connecting to the mail daemon");
+        }
+        try {
+            connectLocked(false);
+        } finally {
+            connectLock.unlock();
+        }
+    }
+    
+    private void connectLocked(boolean start) throws IOException, InterruptedException {
+        if (socket != null && !socket.isClosed()) {
+            return;
+        }
+        DaemonProtocol.Endpoint endpoint = DaemonProtocol.readEndpoint();
+        if (endpoint != null && endpoint.version != DaemonProtocol.VERSION) {
+            if (!start) {
+                throw new IOException("Mail daemon is outdated");
+            }
+            stopOutdated(endpoint);
+            endpoint = null;
+        }
+        if (endpoint != null && tryConnect(endpoint)) {
+            return;
+        }
+        if (!start) {
+            throw new IOException("Mail daemon is not running");
+        }
+        startDaemon();
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(START_POLL_MS);
+            endpoint = DaemonProtocol.readEndpoint();
+            if (endpoint != null && endpoint.version == DaemonProtocol.VERSION && tryConnect(endpoint)) {
+                return;
+            }
+        }
+        throw new IOException("Mail daemon did not start; see " + DaemonProtocol.LOG_FILE);
+    }
+    
+    private boolean tryConnect(DaemonProtocol.Endpoint endpoint) {
+        Socket candidate = new Socket();
+        try {
+            candidate.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), endpoint.port), CONNECT_TIMEOUT_MS);
+            candidate.setTcpNoDelay(true);
+            Writer writer = new BufferedWriter(new OutputStreamWriter(candidate.getOutputStream(), StandardCharsets.UTF_8));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(candidate.getInputStream(), StandardCharsets.UTF_8));
+            JsonObject hello = request(DaemonProtocol.HELLO);
+            hello.addProperty("token", endpoint.token);
+            writer.write(hello + "\n");
+            writer.flush();
+            // A stale endpoint can point at a port someone else reuses; time the reply out
+            candidate.setSoTimeout(CONNECT_TIMEOUT_MS * 4);
+            String line = reader.readLine();
+            candidate.setSoTimeout(0);
+            if (line == null || !JsonParser.parseString(line).getAsJsonObject().has("result")) {
+                candidate.close();
+                return false;
+            }
+            socket = candidate;
+            out = writer;
+            Thread thread = new Thread(() -> readReplies(candidate, reader), "daemon-client");
+            thread.setDaemon(true);
+            thread.start();
+            return true;
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            try {
+                candidate.close();
+            } catch (IOException ignored) {
+                // Nothing to release
+            }
+            return false;
+        }
+    }
+    
+    /**
+     * Ask a daemon from an older or newer install to exit and wait until it has, so the
+     * one started next can take the lock
+     */
+    private void stopOutdated(DaemonProtocol.Endpoint endpoint) throws InterruptedException {
+        if (!tryConnect(endpoint)) {
+            return;
+        }
+        try {
+            send(request(DaemonProtocol.STOP));
+            Optional<ProcessHandle> process = ProcessHandle.of(endpoint.pid);
+            if (process.isPresent()) {
+                process.get().onExit().get(START_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (IOException | ExecutionException | TimeoutException e) {
+            System.err.println("Could not stop the old mail daemon: " + e.getMessage());
+        } finally {
+            Socket current = socket;
+            socket = null;
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+        }
+    }
+    
+    private static void startDaemon() throws IOException {
+        String bin = System.getProperty("java.home") + File.separator + "bin" + File.separator;
+        // javaw on Windows, so no console window opens
+        String java = new File(bin + "javaw.exe").exists() ? bin + "javaw.exe" : bin + "java";
+        // Same home as this process, so both use the same settings and endpoint file
+        List<String> command = Arrays.asList(java, "-Djava.awt.headless=true",
+                                             "-Duser.home=" + System.getProperty("user.home"), "-cp",
+                                             System.getProperty("java.class.path"), MAIN_CLASS, "--daemon");
+        File log = DaemonProtocol.LOG_FILE.toFile();
+        log.getParentFile().mkdirs();
+        new ProcessBuilder(command)
+            .redirectErrorStream(true)
+            .redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+            .start();
+    }
+    
+    private void readReplies(Socket from, BufferedReader reader) {
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                JsonObject message = JsonParser.parseString(line).getAsJsonObject();
+                if (message.has("event")) {
+                    dispatch(message);
+                    continue;
+                }
+                CompletableFuture<JsonElement> future = pending.remove(message.get("id").getAsLong());
+                if (future == null) {
+                    continue;
+                }
+                if (message.has("error")) {
+                    future.completeExceptionally(new MessagingException(message.get("error").getAsString()));
+                } else {
+                    future.complete(message.get("result"));
+                }
+            }
+        } catch (IOException | JsonParseException | IllegalStateException e) {
+            // Connection lost
+        }
+        connectLock.lock();
+        try {
+            if (socket == from) {
+                socket = null;
+            }
+        } finally {
+            connectLock.unlock();
+        }
+        // Replies for these will never come; callers retry on a new connection
+        for (Long id : new ArrayList<>(pending.keySet())) {
+            CompletableFuture<JsonElement> future = pending.remove(id);
+            if (future != null) {
+                future.completeExceptionally(new IOException("Connection to the mail daemon was lost"));
+            }
+        }
+    }
+    
+    private void dispatch(JsonObject event) {
+        MailEngine.Listener current = listener;
+        if (current != null && DaemonProtocol.FOLDERS_UPDATED.equals(event.get("event").getAsString())) {
+            Set<String> folders = new HashSet<>();
+            for (JsonElement folder : event.getAsJsonArray("folders")) {
+                folders.add(folder.getAsString());
+            }
+            current.foldersUpdated(folders);
+        }
+    }
+    
+    /**
+     * Send a request and wait for its result. A lost connection is retried once on a new
+     * one (starting the daemon again if needed), resubscribing to updates on the way.
+     */
+    private JsonElement call(JsonObject request) throws MessagingException, InterruptedException {
+        return call(request, 0);
+    }
+    
+    /**
+     * Like call(request), but with a timeout above 0 it gives up after that long and only
+     * reconnects to a daemon that is already running
+     */
+    private JsonElement call(JsonObject request, long timeoutMs) throws MessagingException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        IOException lost = null;
+        for (int attempt = 0; attempt < 2 && !closed; attempt++) {
+            try {
+                if (attempt > 0 || socket == null) {
+                    if (timeoutMs > 0) {
+                        connectQuickly(Math.max(1, deadline - System.currentTimeMillis()));
+                    } else {
+                        connect(true);
+                    }
+                    if (listener != null && !DaemonProtocol.SUBSCRIBE.equals(DaemonProtocol.string(request, "op"))) {
+                        send(request(DaemonProtocol.SUBSCRIBE));
+                    }
+                }
+                CompletableFuture<JsonElement> future = send(request);
+                if (timeoutMs <= 0) {
+                    return future.get();
+                }
+                return future.get(Math.max(1, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                pending.remove(request.get("id").getAsLong());
+                throw new MessagingException("Mail daemon did not answer within " + timeoutMs + " ms");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof MessagingException) {
+                    throw (MessagingException) e.getCause();
+                }
+                lost = e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+            } catch (IOException e) {
+                lost = e;
+            }
+        }
+        throw new MessagingException("Mail daemon unavailable: " + (lost != null ? lost.getMessage() : "closed"));
+    }
+    
+    /**
+     * For quick reads whose interface has no checked exceptions: bounded wait, log and
+     * return null
+     */
+    private JsonElement callQuietly(JsonObject request) {
+        try {
+            return call(request, QUICK_CALL_TIMEOUT_MS);
+        } catch (MessagingException e) {
+            System.err.println("Mail daemon request " + DaemonProtocol.string(request, "op") + " failed: " + e.getMessage());
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+    
+    private CompletableFuture<JsonElement> send(JsonObject request) throws IOException {
+        long id = nextId.incrementAndGet();
+        request.addProperty("id", id);
+        CompletableFuture<JsonElement> future = new CompletableFuture<>();
+        pending.put(id, future);
+        Writer writer = out;
+        Socket current = socket;
+        try {
+            if (writer == null || current == null || current.isClosed()) {
+                throw new IOException("Not connected to the mail daemon");
+            }
+            synchronized (writer) {
+                writer.write(request.toString());
+                writer.write('\n');
+                writer.flush();
+            }
+        } catch (IOException e) {
+            pending.remove(id);
+            throw e;
+        }
+        return future;
+    }
+    
+    private static JsonObject request(String op) {
+        JsonObject request = new JsonObject();
+        request.addProperty("op", op);
+        return request;
+    }
+    
+    private List<EmailMessage> messages(JsonArray array) {
+        List<EmailMessage> messages = new ArrayList<>(array.size());
+        for (JsonElement element : array) {
+            messages.add(message(element.getAsJsonObject()));
+        }
+        return messages;
+    }
+    
+    private EmailMessage message(JsonObject json) {
+        EmailMessage message = DaemonProtocol.fromJson(json);
+        String key = DaemonProtocol.string(json, "conversation");
+        if (key != null) {
+            conversations.put(message, new Conversation(key, json.get("conversationSize").getAsInt()));
+        }
+        return message;
+    }
+    
+    /**
+     * Conversation a received message belongs to, as the daemon's index saw it
+     */
+    private static final class Conversation {
+        final String key;
+        final int size;
+        
+        Conversation(String key, int size) {
+            this.key = key;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.myemailapp.daemon;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.myemailapp.email.EmailMessage;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * Wire format shared by the mail daemon and its client
+ *
+ * One JSON object per line over a loopback TCP connection. A request looks like
+ * {"id":7,"op":"messages","folder":"INBOX","limit":10} and is answered with
+ * {"id":7,"result":...} or {"id":7,"error":"..."}; pushed events carry "event" instead
+ * of "id". The first line on a connection must be a hello with the daemon's token. The
+ * port and token are published in an owner-only file in the app directory, so only the
+ * same user can talk to the daemon.
+ */
+final class DaemonProtocol {
+    // Bump when requests or replies change; a client replaces a daemon of another version
+    static final int VERSION = 2;
+    static final String DIR = System.getProperty("user.home") + File.separator + ".myemailapp";
+    static final Path ENDPOINT_FILE = Paths.get(DIR, "daemon.properties");
+    static final Path LOCK_FILE = Paths.get(DIR, "daemon.lock");
+    static final Path LOG_FILE = Paths.get(DIR, "daemon.log");
+    
+    static final String HELLO = "hello";
+    static final String STATUS = "status";
+    static final String FOLDERS = "folders";
+    static final String MESSAGES = "messages";
+    static final String MESSAGES_AFTER = "messages-after";
+    static final String MESSAGE = "message";
+    static final String REFRESH = "refresh";
+    static final String CONVERSATION = "conversation";
+    static final String SEEN = "seen";
+    static final String SEND = "send";
+    static final String SUBSCRIBE = "subscribe";
+    static final String STOP = "stop";
+    static final String FOLDERS_UPDATED = "folders-updated";
+    
+    private DaemonProtocol() {
+    }
+    
+    /**
+     * Where a running daemon listens
+     */
+    static final class Endpoint {
+        final int port;
+        final String token;
+        final int version;
+        final long pid;
+        
+        Endpoint(int port, String token, int version, long pid) {
+            this.port = port;
+            this.token = token;
+            this.version = version;
+            this.pid = pid;
+        }
+    }
+    
+    /**
+     * The published endpoint, or null if no daemon has published one
+     */
+    static Endpoint readEndpoint() {
+        if (!Files.exists(ENDPOINT_FILE)) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(ENDPOINT_FILE)) {
+            properties.load(in);
+            return new Endpoint(Integer.parseInt(properties.getProperty("port")), properties.getProperty("token"),
+                                Integer.parseInt(properties.getProperty("version")),
+                                Long.parseLong(properties.getProperty("pid")));
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+    
+    static void writeEndpoint(Endpoint endpoint) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("port", String.valueOf(endpoint.port));
+        properties.setProperty("token", endpoint.token);
+        properties.setProperty("version", String.valueOf(endpoint.version));
+        properties.setProperty("pid", String.valueOf(endpoint.pid));
+        Path dir = ENDPOINT_FILE.getParent();
+        Files.createDirectories(dir);
+        // Temp files are created readable by the owner only, which keeps the token private
+        Path temp = Files.createTempFile(dir, "daemon", ".tmp");
+        try {
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "Mail daemon endpoint");
+            }
+            try {
+                Files.move(temp, ENDPOINT_FILE, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, ENDPOINT_FILE, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+    
+    /**
+     * A message with its conversation key and size, which the client cannot work out itself
+     */
+    static JsonObject toJson(EmailMessage message, String conversation, int conversationSize) {
+        JsonObject json = new JsonObject();
+        json.addProperty("account", message.getAccountId());
+        json.addProperty("folder", message.getFolder());
+        json.addProperty("uid", message.getUid());
+        json.addProperty("from", message.getFrom());
+        json.addProperty("subject", message.getSubject());
+        json.addProperty("body", message.getBody());
+        if (message.getDate() != null) {
+            json.addProperty("date", message.getDate().getTime());
+        }
+        json.addProperty("flags", message.getFlags());
+        json.addProperty("messageId", message.getMessageId());
+        json.addProperty("inReplyTo", message.getInReplyTo());
+        if (message.getReferences() != null) {
+            JsonArray references = new JsonArray();
+            for (String reference : message.getReferences()) {
+                references.add(reference);
+            }
+            json.add("references", references);
+        }
+        json.addProperty("conversation", conversation);
+        json.addProperty("conversationSize", conversationSize);
+        return json;
+    }
+    
+    static EmailMessage fromJson(JsonObject json) {
+        EmailMessage message = new EmailMessage(string(json, "account"), string(json, "folder"), json.get("uid").getAsLong(),
+                                                string(json, "from"), string(json, "subject"), string(json, "body"),
+                                                json.has("date") ? new Date(json.get("date").getAsLong()) : null);
+        message.setFlags(json.get("flags").getAsInt());
+        String[] references = null;
+        if (json.has("references")) {
+            JsonArray array = json.getAsJsonArray("references");
+            references = new String[array.size()];
+            for (int i = 0; i < references.length; i++) {
+                references[i] = array.get(i).getAsString();
+            }
+        }
+        message.setThreadHeaders(string(json, "messageId"), string(json, "inReplyTo"), references);
+        return message;
+    }
+    
+    /**
+     * Just enough to find a message the daemon sent earlier
+     */
+    static JsonObject location(EmailMessage message) {
+        JsonObject json = new JsonObject();
+        json.addProperty("account", message.getAccountId());
+        json.addProperty("folder", message.getFolder());
+        json.addProperty("uid", message.getUid());
+        return json;
+    }
+    
+    static String string(JsonObject json, String name) {
+        JsonElement element = json.get(name);
+        return element != null && !element.isJsonNull() ? element.getAsString() : null;
+    }
+}
@@ -0,0 +1,306 @@
+package com.myemailapp.daemon;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.myemailapp.config.AppConfig;
+import com.myemailapp.email.EmailMessage;
+import com.myemailapp.email.MailEngine;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resident background process that owns the mail side of the app
+ *
+ * Started with {@code --daemon} (the window starts it on demand). It keeps the account
+ * connections, background sync, the cached folders and queued changes alive between
+ * launches, so a new window shows current mail at once and sync continues while no
+ * window is open. Windows talk to it through DaemonClient over loopback TCP; only one
+ * daemon runs per user, guarded by a file lock.
+ */
+public class MailDaemon {
+    // Held for the life of the process; a collected channel would release the lock
+    private static FileLock instanceLock;
+    
+    private final MailEngine engine;
+    private final List<Connection> subscribers = new CopyOnWriteArrayList<>();
+    private final ExecutorService requests;
+    private final byte[] token;
+    
+    private MailDaemon(MailEngine engine, String token) {
+        this.engine = engine;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        AtomicInteger threadCount = new AtomicInteger();
+        // Unbounded on purpose: a slow refresh must not hold up a quick read from the same window
+        requests = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "daemon-request-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Run the daemon until it is stopped; returns the process exit code
+     */
+    public static int run() {
+        try {
+            Files.createDirectories(DaemonProtocol.LOCK_FILE.getParent());
+            FileChannel lockChannel = FileChannel.open(DaemonProtocol.LOCK_FILE,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            instanceLock = lockChannel.tryLock();
+            if (instanceLock == null) {
+                System.err.println("Mail daemon is already running");
+                return 0;
+            }
+            
+            AppConfig config = new AppConfig();
+            config.startWatching();
+            MailEngine engine = new MailEngine(config);
+            String token = newToken();
+            MailDaemon daemon = new MailDaemon(engine, token);
+            ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                engine.shutdown();
+                try {
+                    Files.deleteIfExists(DaemonProtocol.ENDPOINT_FILE);
+                } catch (IOException e) {
+                    // The next daemon overwrites it
+                }
+            }, "daemon-shutdown"));
+            DaemonProtocol.writeEndpoint(new DaemonProtocol.Endpoint(server.getLocalPort(), token, DaemonProtocol.VERSION,
+                                                                     ProcessHandle.current().pid()));
+            engine.startBackgroundSync(daemon::broadcast);
+            System.out.println("Mail daemon listening on port " + server.getLocalPort());
+            
+            while (true) {
+                Socket socket = server.accept();
+                Thread thread = new Thread(daemon.new Connection(socket), "daemon-connection-" + socket.getPort());
+                thread.setDaemon(true);
+                thread.start();
+            }
+        } catch (IOException e) {
+            System.err.println("Mail daemon stopped: " + e.getMessage());
+            return 1;
+        }
+    }
+    
+    private static String newToken() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+    
+    private void broadcast(Set<String> folderNames) {
+        JsonObject event = new JsonObject();
+        event.addProperty("event", DaemonProtocol.FOLDERS_UPDATED);
+        event.add("folders", strings(folderNames));
+        for (Connection connection : subscribers) {
+            connection.send(event);
+        }
+    }
+    
+    /**
+     * Run one request against the engine and return its result
+     */
+    private JsonElement handle(Connection connection, JsonObject request) throws Exception {
+        String op = DaemonProtocol.string(request, "op");
+        switch (op != null ? op : "") {
+            case DaemonProtocol.STATUS: {
+                JsonObject status = new JsonObject();
+                status.addProperty("offline", engine.isOffline());
+                status.addProperty("snapshotSavedAt", engine.getSnapshotSavedAt());
+                return status;
+            }
+            case DaemonProtocol.FOLDERS:
+                return strings(engine.getFolderNames());
+            case DaemonProtocol.MESSAGES:
+                return messages(engine.getFolderMessages(request.get("folder").getAsString(), request.get("limit").getAsInt()));
+            case DaemonProtocol.MESSAGES_AFTER: {
+                Map<String, Long> lastUids = new HashMap<>();
+                for (Map.Entry<String, JsonElement> entry : request.getAsJsonObject("lastUids").entrySet()) {
+                    lastUids.put(entry.getKey(), entry.getValue().getAsLong());
+                }
+                return messages(engine.getFolderMessagesAfter(request.get("folder").getAsString(), lastUids));
+            }
+            case DaemonProtocol.MESSAGE: {
+                EmailMessage message = find(request);
+                return message != null ? message(message) : JsonNull.INSTANCE;
+            }
+            case DaemonProtocol.REFRESH: {
+                MailEngine.UnifiedInbox inbox = engine.refreshFolder(request.get("folder").getAsString(),
+                                                                     request.get("limit").getAsInt());
+                JsonObject result = new JsonObject();
+                result.add("messages", messages(inbox.getMessages()));
+                result.add("failed", strings(inbox.getFailedAccounts()));
+                result.addProperty("accounts", inbox.getAccountCount());
+                return result;
+            }
+            case DaemonProtocol.CONVERSATION: {
+                EmailMessage message = find(request);
+                return messages(message != null ? engine.getConversation(message) : Collections.emptyList());
+            }
+            case DaemonProtocol.SEEN: {
+                List<EmailMessage> found = new ArrayList<>();
+                for (JsonElement location : request.getAsJsonArray("messages")) {
+                    EmailMessage message = find(location.getAsJsonObject());
+                    if (message != null) {
+                        found.add(message);
+                    }
+                }
+                engine.setSeen(found, request.get("seen").getAsBoolean());
+                return JsonNull.INSTANCE;
+            }
+            case DaemonProtocol.SEND:
+                engine.sendEmail(request.get("to").getAsString(), request.get("subject").getAsString(),
+                                 request.get("body").getAsString());
+                return JsonNull.INSTANCE;
+            case DaemonProtocol.SUBSCRIBE:
+                if (!subscribers.contains(connection)) {
+                    subscribers.add(connection);
+                }
+                return JsonNull.INSTANCE;
+            case DaemonProtocol.STOP:
+                // After the reply is out; the shutdown hook saves and disconnects
+                requests.execute(() -> System.exit(0));
+                return JsonNull.INSTANCE;
+            default:
+                throw new IllegalArgumentException("Unknown request: " + op);
+        }
+    }
+    
+    private EmailMessage find(JsonObject location) {
+        return engine.getMessage(DaemonProtocol.string(location, "account"), DaemonProtocol.string(location, "folder"),
+                                 location.get("uid").getAsLong());
+    }
+    
+    private JsonObject message(EmailMessage message) {
+        return DaemonProtocol.toJson(message, engine.getConversationKey(message), engine.getConversationSize(message));
+    }
+    
+    private JsonArray messages(List<EmailMessage> messages) {
+        JsonArray array = new JsonArray();
+        for (EmailMessage message : messages) {
+            array.add(message(message));
+        }
+        return array;
+    }
+    
+    private static JsonArray strings(Collection<String> values) {
+        JsonArray array = new JsonArray();
+        for (String value : values) {
+            array.add(new JsonPrimitive(value));
+        }
+        return array;
+    }
+    
+    /**
+     * One window's connection: authenticates, then runs each request on the pool and
+     * writes the replies back in whatever order they finish
+     */
+    private final class Connection implements Runnable {
+        private final Socket socket;
+        private final Writer out;
+        
+        Connection(Socket socket) throws IOException {
+            this.socket = socket;
+            this.out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+        }
+        
+        @Override
+        public void run() {
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8))) {
+                if (!authenticate(in.readLine())) {
+                    return;
+                }
+                String line;
+                while ((line = in.readLine()) != null) {
+                    JsonObject request;
+                    try {
+                        request = JsonParser.parseString(line).getAsJsonObject();
+                    } catch (JsonParseException | IllegalStateException e) {
+                        System.err.println("Mail daemon: bad request: " + e.getMessage());
+                        continue;
+                    }
+                    requests.execute(() -> reply(request));
+                }
+            } catch (IOException e) {
+                // Window went away
+            } finally {
+                subscribers.remove(this);
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // Already closed
+                }
+            }
+        }
+        
+        private boolean authenticate(String line) {
+            JsonObject hello;
+            try {
+                hello = line != null ? JsonParser.parseString(line).getAsJsonObject() : null;
+            } catch (JsonParseException | IllegalStateException e) {
+                hello = null;
+            }
+            String offered = hello != null ? DaemonProtocol.string(hello, "token") : null;
+            boolean valid = hello != null && DaemonProtocol.HELLO.equals(DaemonProtocol.string(hello, "op")) &&
+                            offered != null && MessageDigest.isEqual(token, offered.getBytes(StandardCharsets.UTF_8));
+            JsonObject reply = new JsonObject();
+            reply.add("id", hello != null ? hello.get("id") : JsonNull.INSTANCE);
+            if (valid) {
+                reply.addProperty("result", DaemonProtocol.VERSION);
+            } else {
+                reply.addProperty("error", "Not authorized");
+            }
+            send(reply);
+            return valid;
+        }
+        
+        private void reply(JsonObject request) {
+            JsonObject reply = new JsonObject();
+            reply.add("id", request.get("id"));
+            try {
+                reply.add("result", handle(this, request));
+            } catch (Exception e) {
+                String message = e.getMessage();
+                reply.addProperty("error", message != null ? message : e.toString());
+            }
+            send(reply);
+        }
+        
+        void send(JsonObject message) {
+            synchronized (out) {
+                try {
+                    out.write(message.toString());
+                    out.write('\n');
+                    out.flush();
+                } catch (IOException e) {
+                    // The reader side notices and cleans up
+                }
+            }
+        }
+    }
+}
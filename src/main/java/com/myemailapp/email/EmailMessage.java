@@ -4,39 +4,182 @@ import java.util.Date;
 
 /**
  * Simple email message data structure
+ *
+ * A message is either detached (fields held directly, as created after a fetch) or a
+ * lightweight view of a MessageTable row, which decodes fields from the table on access.
  */
 public class EmailMessage {
-    private String from;
-    private String subject;
-    private String body;
-    private Date date;
+    public static final int SEEN = 1;
+    public static final int ANSWERED = 1 << 1;
+    public static final int FLAGGED = 1 << 2;
+    public static final int DELETED = 1 << 3;
+    public static final int DRAFT = 1 << 4;
+    
+    private final MessageTable table;
+    private final int row;
+    private final Fields fields;
     
     public EmailMessage(String from, String subject, String body, Date date) {
-        this.from = from;
-        this.subject = subject;
-        this.body = body;
-        this.date = date;
+        this(null, null, 0, from, subject, body, date);
+    }
+    
+    public EmailMessage(String accountId, String folder, long uid,
+                        String from, String subject, String body, Date date) {
+        this.table = null;
+        this.row = -1;
+        this.fields = new Fields();
+        fields.accountId = accountId;
+        fields.folder = folder;
+        fields.uid = uid;
+        fields.from = from;
+        fields.subject = subject;
+        fields.body = body;
+        fields.date = date;
+    }
+    
+    EmailMessage(MessageTable table, int row) {
+        this.table = table;
+        this.row = row;
+        this.fields = null;
+    }
+    
+    /**
+     * Id of the account the message was fetched from (null if unknown)
+     */
+    public String getAccountId() {
+        return table != null ? table.accountId(row) : fields.accountId;
+    }
+    
+    /**
+     * Full name of the folder the message is in (null if unknown)
+     */
+    public String getFolder() {
+        return table != null ? table.folder(row) : fields.folder;
+    }
+    
+    /**
+     * IMAP UID within its folder (0 if unknown)
+     */
+    public long getUid() {
+        return table != null ? table.uid(row) : fields.uid;
     }
     
     public String getFrom() {
-        return from;
+        return table != null ? table.from(row) : fields.from;
     }
     
     public String getSubject() {
-        return subject;
+        return table != null ? table.subject(row) : fields.subject;
     }
     
     public String getBody() {
-        return body;
+        return table != null ? table.body(row) : fields.body;
     }
     
     public Date getDate() {
-        return date;
+        return table != null ? table.date(row) : fields.date;
+    }
+    
+    /**
+     * Message-ID header (null if unknown)
+     */
+    public String getMessageId() {
+        return table != null ? table.messageId(row) : fields.messageId;
+    }
+    
+    /**
+     * In-Reply-To header (null if not a reply)
+     */
+    public String getInReplyTo() {
+        return table != null ? table.inReplyTo(row) : fields.inReplyTo;
+    }
+    
+    /**
+     * Message-IDs from the References header, oldest first (null if absent)
+     */
+    public String[] getReferences() {
+        return table != null ? table.references(row) : fields.references;
+    }
+    
+    /**
+     * Attach the headers used for conversation threading (detached messages only)
+     */
+    public void setThreadHeaders(String messageId, String inReplyTo, String[] references) {
+        if (table != null) {
+            throw new IllegalStateException("Thread headers of a stored message cannot change");
+        }
+        fields.messageId = messageId;
+        fields.inReplyTo = inReplyTo;
+        fields.references = references;
+    }
+    
+    /**
+     * IMAP system flags as a bit set of SEEN, ANSWERED, FLAGGED, DELETED and DRAFT
+     */
+    public int getFlags() {
+        return table != null ? table.flags(row) : fields.flags;
+    }
+    
+    public void setFlags(int flags) {
+        if (table != null) {
+            table.setFlags(row, flags);
+        } else {
+            fields.flags = flags;
+        }
+    }
+    
+    public boolean isSeen() {
+        return (getFlags() & SEEN) != 0;
+    }
+    
+    boolean isViewOf(MessageTable table) {
+        return this.table != null && this.table == table;
+    }
+    
+    /**
+     * Row of this view in a table, or -1 if it is not a view of that table
+     */
+    int rowIn(MessageTable table) {
+        return isViewOf(table) ? row : -1;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (table == null || !(o instanceof EmailMessage)) {
+            return false;
+        }
+        EmailMessage other = (EmailMessage) o;
+        return table == other.table && row == other.row;
+    }
+    
+    @Override
+    public int hashCode() {
+        return table != null ? System.identityHashCode(table) * 31 + row : System.identityHashCode(this);
     }
     
     @Override
     public String toString() {
-        return String.format("From: %s\nSubject: %s\nDate: %s\n\n%s", 
-                           from, subject, date, body);
+        return String.format("From: %s\nSubject: %s\nDate: %s\n\n%s",
+                           getFrom(), getSubject(), getDate(), getBody());
+    }
+    
+    /**
+     * Field storage of a detached message
+     */
+    private static final class Fields {
+        private String accountId;
+        private String folder;
+        private long uid;
+        private String from;
+        private String subject;
+        private String body;
+        private Date date;
+        private String messageId;
+        private String inReplyTo;
+        private String[] references;
+        private int flags;
     }
 }
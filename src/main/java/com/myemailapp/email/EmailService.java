@@ -1,73 +1,201 @@
 package com.myemailapp.email;
 
+import com.myemailapp.config.AccountSettings;
 import com.myemailapp.config.AppConfig;
+import com.myemailapp.config.ConfigSnapshot;
+import com.myemailapp.trace.Span;
+import com.myemailapp.trace.Tracer;
+import com.sun.mail.iap.Argument;
+import com.sun.mail.iap.ProtocolException;
+import com.sun.mail.iap.Response;
+import com.sun.mail.imap.IMAPFolder;
+import com.sun.mail.imap.IMAPStore;
+import com.sun.mail.imap.MessageVanishedEvent;
+import com.sun.mail.imap.ResyncData;
+import com.sun.mail.imap.protocol.BASE64MailboxEncoder;
+import com.sun.mail.imap.protocol.BODY;
+import com.sun.mail.imap.protocol.FLAGS;
+import com.sun.mail.imap.protocol.FetchResponse;
+import com.sun.mail.imap.protocol.IMAPProtocol;
+import com.sun.mail.imap.protocol.IMAPResponse;
+import com.sun.mail.imap.protocol.SearchSequence;
+import com.sun.mail.imap.protocol.Status;
+import com.sun.mail.imap.protocol.UID;
 import javax.mail.*;
+import javax.mail.event.ConnectionAdapter;
+import javax.mail.event.ConnectionEvent;
+import javax.mail.event.MailEvent;
+import javax.mail.event.MessageChangedEvent;
 import javax.mail.internet.*;
+import javax.mail.search.SearchException;
+import javax.mail.search.SearchTerm;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Email service for connecting to Optimum email accounts
  * Handles IMAP and SMTP operations
  */
 public class EmailService {
-    private AppConfig config;
-    private Store store;
-    private Session session;
-    private boolean isConnected = false;
+    /** IMAP connections per account, so several folders can sync in parallel */
+    static final int FOLDER_CONNECTIONS = 8;
+    // UIDs per FLAGS fetch when diffing flags without CONDSTORE
+    private static final int FLAG_FETCH_CHUNK = 500;
+    // UID ranges per SEARCH/STORE/MOVE command, so command lines stay a sane length
+    private static final int RANGES_PER_COMMAND = 200;
+    // Bytes of each message kept by fetchRaw; enough for the text of nearly any mail
+    private static final int MAX_RAW_BYTES = 256 * 1024;
+    private static final Pattern ESEARCH_ALL = Pattern.compile("\\bALL\\s+([0-9:,]+)", Pattern.CASE_INSENSITIVE);
+    
+    private final AppConfig config;
+    private final String accountId;
+    // Set for accounts that are not in the config (API gateway sessions)
+    private final AccountSettings fixedAccount;
+    // Connection lifecycle (connect, disconnect, send) is owned by one thread per account;
+    // folder operations may run on any thread, each on its own pooled folder connection
+    private final ExecutorService owner;
+    private volatile Thread ownerThread;
+    private volatile Store store;
+    private volatile Session session;
+    private volatile boolean isConnected = false;
+    private volatile String archiveFolder;
     
     public EmailService(AppConfig config) {
+        this(config, AccountSettings.PRIMARY_ID);
+    }
+    
+    public EmailService(AppConfig config, String accountId) {
+        this(config, accountId, null);
+    }
+    
+    /**
+     * Service for an account that is not configured; the config only supplies timeouts
+     */
+    public EmailService(AppConfig config, AccountSettings account) {
+        this(config, account.getId(), account);
+    }
+    
+    private EmailService(AppConfig config, String accountId, AccountSettings fixedAccount) {
         this.config = config;
+        this.accountId = accountId;
+        this.fixedAccount = fixedAccount;
+        this.owner = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "mail-owner-" + accountId);
+            thread.setDaemon(true);
+            ownerThread = thread;
+            return thread;
+        });
+    }
+    
+    public String getAccountId() {
+        return accountId;
+    }
+    
+    /**
+     * Current settings for this service's account
+     */
+    private AccountSettings currentAccount() throws MessagingException {
+        if (fixedAccount != null) {
+            return fixedAccount;
+        }
+        AccountSettings settings = config.snapshot().getAccount(accountId);
+        if (settings == null) {
+            throw new MessagingException("Email account not configured: " + accountId);
+        }
+        return settings;
     }
     
     /**
-     * Connect to Optimum email server using IMAP
+     * Connect to Optimum email server using IMAP (blocks until connected; interruptible)
      */
     public boolean connect() throws MessagingException {
+        return onOwner(this::doConnect);
+    }
+    
+    /**
+     * Connect in the background; cancelling the future interrupts the attempt
+     */
+    public Future<Boolean> connectAsync() {
+        return owner.submit(Tracer.wrap(this::doConnect));
+    }
+    
+    private boolean doConnect() throws MessagingException {
         // If already connected, just return true
-        if (isConnected && store != null && store.isConnected()) {
+        if (isConnected()) {
             return true;
         }
-        
-        Properties props = new Properties();
-        props.put("mail.store.protocol", "imaps");
-        props.put("mail.imaps.host", config.getImapServer());
-        props.put("mail.imaps.port", config.getImapPort());
-        props.put("mail.imaps.ssl.enable", "true");
-        props.put("mail.imaps.ssl.trust", "*");
-        
-        // SMTP properties
-        props.put("mail.smtp.host", config.getSmtpServer());
-        props.put("mail.smtp.port", config.getSmtpPort());
-        props.put("mail.smtp.ssl.enable", "true");
-        props.put("mail.smtp.auth", "true");
-        props.put("mail.smtp.ssl.trust", "*");
-        
-        session = Session.getInstance(props, new Authenticator() {
-            @Override
-            protected PasswordAuthentication getPasswordAuthentication() {
-                return new PasswordAuthentication(
-                    config.getEmailAddress(), 
-                    config.getEmailPassword()
-                );
+        return traced("imap.connect", null, span -> {
+            
+            AccountSettings settings = currentAccount();
+            ConfigSnapshot snapshot = config.snapshot();
+            
+            Properties props = new Properties();
+            props.put("mail.store.protocol", "imaps");
+            props.put("mail.imaps.host", settings.getImapServer());
+            props.put("mail.imaps.port", settings.getImapPort());
+            props.put("mail.imaps.ssl.enable", "true");
+            props.put("mail.imaps.ssl.trust", "*");
+            props.put("mail.imaps.connectionpoolsize", String.valueOf(FOLDER_CONNECTIONS));
+            
+            // SMTP properties
+            props.put("mail.smtp.host", settings.getSmtpServer());
+            props.put("mail.smtp.port", settings.getSmtpPort());
+            props.put("mail.smtp.ssl.enable", "true");
+            props.put("mail.smtp.auth", "true");
+            props.put("mail.smtp.ssl.trust", "*");
+            
+            // Without timeouts a hung server blocks a thread forever
+            for (String protocol : new String[] {"imaps", "smtp"}) {
+                props.put("mail." + protocol + ".connectiontimeout", String.valueOf(snapshot.getMailConnectTimeout()));
+                props.put("mail." + protocol + ".timeout", String.valueOf(snapshot.getMailReadTimeout()));
+                props.put("mail." + protocol + ".writetimeout", String.valueOf(snapshot.getMailWriteTimeout()));
             }
+            
+            Session newSession = Session.getInstance(props, new Authenticator() {
+                @Override
+                protected PasswordAuthentication getPasswordAuthentication() {
+                    return new PasswordAuthentication(
+                        settings.getEmailAddress(), 
+                        settings.getEmailPassword()
+                    );
+                }
+            });
+            
+            Store newStore = newSession.getStore("imaps");
+            newStore.addConnectionListener(new ConnectionAdapter() {
+                @Override
+                public void closed(ConnectionEvent e) {
+                    isConnected = false;
+                }
+                
+                @Override
+                public void disconnected(ConnectionEvent e) {
+                    isConnected = false;
+                }
+            });
+            newStore.connect(
+                settings.getImapServer(),
+                settings.getEmailAddress(),
+                settings.getEmailPassword()
+            );
+            checkCancelled();
+            
+            session = newSession;
+            store = newStore;
+            isConnected = newStore.isConnected();
+            return isConnected;
         });
-        
-        store = session.getStore("imaps");
-        store.connect(
-            config.getImapServer(),
-            config.getEmailAddress(),
-            config.getEmailPassword()
-        );
-        
-        isConnected = store.isConnected();
-        return isConnected;
     }
     
     /**
-     * Check if currently connected
+     * Check if currently connected (no network round trip; a dropped
+     * connection is noticed through the store's connection events)
      */
     public boolean isConnected() {
-        return isConnected && store != null && store.isConnected();
+        return isConnected && store != null;
     }
     
     /**
@@ -81,15 +209,115 @@ public class EmailService {
     
     /**
      * Disconnect from email server
+     * Queued behind any running connection work, so it never blocks the caller.
      */
     public void disconnect() {
         try {
-            if (store != null && store.isConnected()) {
-                store.close();
+            owner.execute(this::doDisconnect);
+        } catch (RejectedExecutionException e) {
+            // Already shut down
+        }
+    }
+    
+    private void doDisconnect() {
+        try {
+            Store current = store;
+            if (current != null && current.isConnected()) {
+                current.close();
             }
-            isConnected = false;
         } catch (MessagingException e) {
             e.printStackTrace();
+        } finally {
+            isConnected = false;
+            archiveFolder = null;
+        }
+    }
+    
+    /**
+     * Disconnect and release the owner thread; the service cannot be used afterwards
+     */
+    public void shutdown() {
+        disconnect();
+        owner.shutdown();
+    }
+    
+    /**
+     * Run a lifecycle operation on the owner thread and wait for it.
+     * If the waiting thread is interrupted the operation is cancelled too.
+     */
+    private <T> T onOwner(Callable<T> operation) throws MessagingException {
+        if (Thread.currentThread() == ownerThread) {
+            try {
+                return operation.call();
+            } catch (MessagingException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new MessagingException(e.getMessage(), e);
+            }
+        }
+        Future<T> future;
+        try {
+            future = owner.submit(Tracer.wrap(operation));
+        } catch (RejectedExecutionException e) {
+            throw new MessagingException("Email service has been shut down");
+        }
+        return await(future);
+    }
+    
+    /**
+     * Mail operation run inside a trace span
+     */
+    private interface MailOperation<T> {
+        T run(Span span) throws MessagingException;
+    }
+    
+    /**
+     * Run one network operation in its own trace span, recording a failure on the span
+     */
+    private <T> T traced(String name, String folder, MailOperation<T> operation) throws MessagingException {
+        try (Span span = Tracer.start(name).tag("account", accountId)) {
+            if (folder != null) {
+                span.tag("folder", folder);
+            }
+            try {
+                return operation.run(span);
+            } catch (MessagingException | RuntimeException e) {
+                span.fail(e);
+                throw e;
+            }
+        }
+    }
+    
+    /**
+     * Wait for an operation's result, cancelling it if the waiting thread is interrupted
+     */
+    static <T> T await(Future<T> future) throws MessagingException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new MessagingException("Operation cancelled", e);
+        } catch (CancellationException e) {
+            throw new MessagingException("Operation cancelled", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof MessagingException) {
+                throw (MessagingException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new MessagingException(String.valueOf(cause), (Exception) cause);
+        }
+    }
+    
+    /**
+     * Cooperative cancellation point for long-running loops
+     */
+    static void checkCancelled() throws MessagingException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new MessagingException("Operation cancelled", new InterruptedException());
         }
     }
     
@@ -97,10 +325,212 @@ public class EmailService {
      * Get inbox folder
      */
     public Folder getInbox() throws MessagingException {
-        ensureConnected();
-        Folder inbox = store.getFolder("INBOX");
-        inbox.open(Folder.READ_ONLY);
-        return inbox;
+        return openFolder("INBOX");
+    }
+    
+    /**
+     * Open a folder read-only; each open folder uses its own pooled connection
+     */
+    public Folder openFolder(String fullName) throws MessagingException {
+        return openFolder(fullName, Folder.READ_ONLY);
+    }
+    
+    /**
+     * Open a folder in the given mode (Folder.READ_ONLY or Folder.READ_WRITE)
+     */
+    public Folder openFolder(String fullName, int mode) throws MessagingException {
+        Folder folder = connectedStore().getFolder(fullName);
+        folder.open(mode);
+        return folder;
+    }
+    
+    /**
+     * Discover all folders that can hold messages, with their sync priority
+     */
+    public Map<String, FolderPriority> listFolders() throws MessagingException {
+        Store current = connectedStore();
+        Map<String, FolderPriority> folders = new LinkedHashMap<>();
+        folders.put("INBOX", FolderPriority.HIGH);
+        for (Folder folder : current.getDefaultFolder().list("*")) {
+            if ((folder.getType() & Folder.HOLDS_MESSAGES) == 0) {
+                continue;
+            }
+            String[] attributes = folder instanceof IMAPFolder ? ((IMAPFolder) folder).getAttributes() : null;
+            if (attributes != null && Arrays.asList(attributes).contains("\\Noselect")) {
+                continue;
+            }
+            folders.putIfAbsent(folder.getFullName(), FolderPriority.of(folder.getFullName(), attributes));
+        }
+        return folders;
+    }
+    
+    /**
+     * Cheap check (one STATUS command, no SELECT) whether a folder may have mail past the cursor
+     */
+    public boolean mayHaveNewMail(String fullName, SyncCursor cursor) throws MessagingException {
+        Folder folder = connectedStore().getFolder(fullName);
+        if (!(folder instanceof IMAPFolder) || cursor.getLastUid() == 0) {
+            return true;
+        }
+        Status status = (Status) ((IMAPFolder) folder).doCommand(protocol ->
+            protocol.status(fullName, new String[] {"UIDNEXT", "UIDVALIDITY"}));
+        return status == null || status.uidvalidity != cursor.getUidValidity() ||
+               status.uidnext <= 0 || status.uidnext - 1 > cursor.getLastUid();
+    }
+    
+    /**
+     * Whether the server supports CONDSTORE (RFC 7162) mod-sequences
+     */
+    public boolean hasCondstore() throws MessagingException {
+        Store current = connectedStore();
+        return current instanceof IMAPStore &&
+               (((IMAPStore) current).hasCapability("CONDSTORE") || ((IMAPStore) current).hasCapability("QRESYNC"));
+    }
+    
+    /**
+     * Cheap check (one STATUS command) whether flags changed or messages were expunged since
+     * the last resync; always true without CONDSTORE or before the first resync
+     */
+    public boolean mayHaveFlagChanges(String fullName, SyncCursor cursor) throws MessagingException {
+        Folder folder = connectedStore().getFolder(fullName);
+        if (!(folder instanceof IMAPFolder) || cursor.getHighestModSeq() == 0 || !hasCondstore()) {
+            return true;
+        }
+        Status status = (Status) ((IMAPFolder) folder).doCommand(protocol ->
+            protocol.status(fullName, new String[] {"HIGHESTMODSEQ", "UIDVALIDITY"}));
+        return status == null || status.uidvalidity != cursor.getUidValidity() ||
+               status.highestmodseq != cursor.getHighestModSeq();
+    }
+    
+    /**
+     * Bring cached flags up to date and find which known UIDs were expunged, using the
+     * cheapest method the server offers (see FolderChanges.Mode). The folder's
+     * HIGHESTMODSEQ is recorded in the cursor so the next resync only covers newer changes.
+     */
+    public FolderChanges resync(String fullName, SyncCursor cursor, UidSet known) throws MessagingException {
+        return traced("imap.resync", fullName, span -> {
+            Store current = connectedStore();
+            Folder folder = current.getFolder(fullName);
+            boolean imap = folder instanceof IMAPFolder;
+            boolean qresync = imap && ((IMAPStore) current).hasCapability("QRESYNC");
+            boolean condstore = imap && hasCondstore();
+            long modSeq = cursor.getHighestModSeq();
+            try {
+                FolderChanges.Mode mode;
+                List<MailEvent> events = null;
+                if (qresync && modSeq > 0) {
+                    mode = FolderChanges.Mode.QRESYNC;
+                    events = ((IMAPFolder) folder).open(Folder.READ_ONLY, new ResyncData(cursor.getUidValidity(), modSeq));
+                } else if (condstore) {
+                    mode = modSeq > 0 ? FolderChanges.Mode.CONDSTORE : FolderChanges.Mode.FLAGS;
+                    ((IMAPFolder) folder).open(Folder.READ_ONLY, ResyncData.CONDSTORE);
+                } else {
+                    mode = FolderChanges.Mode.FLAGS;
+                    folder.open(Folder.READ_ONLY);
+                }
+                span.tag("mode", mode);
+                if (((UIDFolder) folder).getUIDValidity() != cursor.getUidValidity()) {
+                    return FolderChanges.invalidated(mode);
+                }
+                
+                FolderChanges changes;
+                if (mode == FolderChanges.Mode.QRESYNC) {
+                    changes = changesFromEvents((IMAPFolder) folder, known, events);
+                } else if (mode == FolderChanges.Mode.CONDSTORE) {
+                    changes = changesSince((IMAPFolder) folder, known, modSeq);
+                } else {
+                    changes = diffFlags(folder, known);
+                }
+                if (condstore) {
+                    cursor.setHighestModSeq(((IMAPFolder) folder).getHighestModSeq());
+                }
+                span.tag("changed", changes.getFlags().size()).tag("vanished", changes.getVanished().size());
+                return changes;
+            } finally {
+                closeQuietly(folder);
+            }
+        });
+    }
+    
+    /**
+     * QRESYNC: the SELECT already reported changed messages (FETCH) and expunged UIDs (VANISHED)
+     */
+    private FolderChanges changesFromEvents(IMAPFolder folder, UidSet known, List<MailEvent> events) throws MessagingException {
+        Map<Long, Integer> flags = new HashMap<>();
+        List<Long> vanished = new ArrayList<>();
+        if (events != null) {
+            for (MailEvent event : events) {
+                if (event instanceof MessageVanishedEvent) {
+                    for (long uid : ((MessageVanishedEvent) event).getUIDs()) {
+                        vanished.add(uid);
+                    }
+                } else if (event instanceof MessageChangedEvent) {
+                    Message message = ((MessageChangedEvent) event).getMessage();
+                    flags.put(folder.getUID(message), toFlags(message.getFlags()));
+                }
+            }
+        }
+        long[] vanishedUids = new long[vanished.size()];
+        for (int i = 0; i < vanishedUids.length; i++) {
+            vanishedUids[i] = vanished.get(i);
+        }
+        // VANISHED (EARLIER) may cover UIDs that were never cached
+        return new FolderChanges(FolderChanges.Mode.QRESYNC, flags, known.intersect(UidSet.of(vanishedUids)), false);
+    }
+    
+    /**
+     * CONDSTORE without QRESYNC: fetch flags changed since the mod-sequence, and find
+     * expunges by asking which known UIDs still exist
+     */
+    private FolderChanges changesSince(IMAPFolder folder, UidSet known, long modSeq) throws MessagingException {
+        Map<Long, Integer> flags = new HashMap<>();
+        for (Message message : folder.getMessagesByUIDChangedSince(1, UIDFolder.LASTUID, modSeq)) {
+            flags.put(folder.getUID(message), toFlags(message.getFlags()));
+        }
+        UidSet present = UidSet.EMPTY;
+        for (UidSet chunk : known.chunks(RANGES_PER_COMMAND)) {
+            if (chunk.isEmpty()) {
+                continue;
+            }
+            Argument args = new Argument();
+            args.writeAtom("UID");
+            args.writeAtom(chunk.toString());
+            present = present.union((UidSet) folder.doCommand(protocol -> uidSearch(protocol, args)));
+        }
+        return new FolderChanges(FolderChanges.Mode.CONDSTORE, flags, known.minus(present), false);
+    }
+    
+    /**
+     * No CONDSTORE: fetch the flags of every known message in chunks; the caller compares
+     * them with its copies. UIDs the server no longer has are expunged.
+     */
+    private FolderChanges diffFlags(Folder folder, UidSet known) throws MessagingException {
+        UIDFolder uidFolder = (UIDFolder) folder;
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.FLAGS);
+        profile.add(UIDFolder.FetchProfileItem.UID);
+        Map<Long, Integer> flags = new HashMap<>();
+        UidSet.Builder vanished = new UidSet.Builder();
+        for (long from = 0; from < known.size(); from += FLAG_FETCH_CHUNK) {
+            checkCancelled();
+            long[] uids = known.slice(from, from + FLAG_FETCH_CHUNK);
+            Message[] messages = uidFolder.getMessagesByUID(uids);
+            List<Message> existing = new ArrayList<>();
+            for (Message message : messages) {
+                if (message != null && !message.isExpunged()) {
+                    existing.add(message);
+                }
+            }
+            folder.fetch(existing.toArray(new Message[0]), profile);
+            for (int i = 0; i < uids.length; i++) {
+                if (messages[i] == null || messages[i].isExpunged()) {
+                    vanished.add(uids[i]);
+                } else {
+                    flags.put(uids[i], toFlags(messages[i].getFlags()));
+                }
+            }
+        }
+        return new FolderChanges(FolderChanges.Mode.FLAGS, flags, vanished.build(), false);
     }
     
     /**
@@ -109,30 +539,549 @@ public class EmailService {
     public List<EmailMessage> fetchRecentEmails(int count) throws MessagingException {
         List<EmailMessage> emails = new ArrayList<>();
         Folder inbox = getInbox();
+        try {
+            int messageCount = inbox.getMessageCount();
+            int start = Math.max(1, messageCount - count + 1);
+            
+            Message[] messages = inbox.getMessages(start, messageCount);
+            prefetchHeaders(inbox, messages);
+            
+            for (int i = messages.length - 1; i >= 0; i--) {
+                checkCancelled();
+                emails.add(toEmailMessage(inbox, messages[i]));
+            }
+        } finally {
+            closeQuietly(inbox);
+        }
+        return emails;
+    }
+    
+    /**
+     * Fetch recent emails on the account's owner thread; cancel(true) stops the fetch
+     */
+    public Future<List<EmailMessage>> fetchRecentEmailsAsync(int count) {
+        return owner.submit(Tracer.wrap(() -> fetchRecentEmails(count)));
+    }
+    
+    /**
+     * Fetch only mail that arrived after the cursor position (newest first, at most max).
+     * Falls back to the most recent messages when the cursor is new or UIDVALIDITY changed.
+     */
+    public List<EmailMessage> fetchNewEmails(SyncCursor cursor, int max) throws MessagingException {
+        return fetchNewEmails("INBOX", cursor, max);
+    }
+    
+    /**
+     * Fetch only mail that arrived in a folder after the cursor position (newest first, at most max).
+     * A backlog of more than max messages is taken oldest first and the cursor only moves
+     * past what was fetched, so the rest comes with the following syncs instead of being skipped.
+     */
+    public List<EmailMessage> fetchNewEmails(String fullName, SyncCursor cursor, int max) throws MessagingException {
+        return traced("imap.fetch-new", fullName, span -> {
+            List<EmailMessage> emails = new ArrayList<>();
+            Folder folder = openFolder(fullName);
+            try {
+                UIDFolder uidFolder = (UIDFolder) folder;
+                long uidValidity = uidFolder.getUIDValidity();
+                
+                Message[] messages;
+                if (cursor.isValidFor(uidValidity)) {
+                    // UIDs only; headers are fetched below for the messages actually taken
+                    messages = uidFolder.getMessagesByUID(cursor.getLastUid() + 1, UIDFolder.LASTUID);
+                } else {
+                    int messageCount = folder.getMessageCount();
+                    messages = folder.getMessages(Math.max(1, messageCount - max + 1), messageCount);
+                    FetchProfile uids = new FetchProfile();
+                    uids.add(UIDFolder.FetchProfileItem.UID);
+                    folder.fetch(messages, uids);
+                }
+                List<Message> taken = new ArrayList<>();
+                int remaining = 0;
+                for (Message message : messages) {
+                    // "n:*" always matches the last message, even when its UID is below n
+                    if (uidFolder.getUID(message) > cursor.getLastUid() || !cursor.isValidFor(uidValidity)) {
+                        if (taken.size() < max) {
+                            taken.add(message);
+                        } else {
+                            remaining++;
+                        }
+                    }
+                }
+                Message[] batch = taken.toArray(new Message[0]);
+                prefetchHeaders(folder, batch);
+                
+                for (int i = batch.length - 1; i >= 0; i--) {
+                    checkCancelled();
+                    emails.add(toEmailMessage(folder, batch[i]));
+                }
+                for (Message message : batch) {
+                    cursor.advance(uidValidity, uidFolder.getUID(message));
+                }
+                if (batch.length == 0) {
+                    cursor.advance(uidValidity, 0);
+                }
+                span.tag("remaining", remaining);
+            } finally {
+                closeQuietly(folder);
+            }
+            span.tag("fetched", emails.size());
+            return emails;
+        });
+    }
+    
+    /**
+     * Search a folder on the server; only the matching UIDs are transferred, and messages
+     * are fetched later a page at a time through the result
+     */
+    public SearchResult search(String fullName, MailQuery query) throws MessagingException {
+        return traced("imap.search", fullName, span -> {
+            Folder folder = openFolder(fullName);
+            try {
+                long uidValidity = ((UIDFolder) folder).getUIDValidity();
+                SearchTerm term = query.toSearchTerm();
+                UidSet uids;
+                if (folder instanceof IMAPFolder) {
+                    uids = (UidSet) ((IMAPFolder) folder).doCommand(protocol -> uidSearch(protocol, term));
+                } else {
+                    Message[] found = term != null ? folder.search(term) : folder.getMessages();
+                    long[] foundUids = new long[found.length];
+                    for (int i = 0; i < found.length; i++) {
+                        foundUids[i] = ((UIDFolder) folder).getUID(found[i]);
+                    }
+                    uids = UidSet.of(foundUids);
+                }
+                span.tag("matches", uids.size());
+                return new SearchResult(this, fullName, uidValidity, uids);
+            } finally {
+                closeQuietly(folder);
+            }
+        });
+    }
+    
+    /**
+     * UID SEARCH in the selected folder. With ESEARCH (RFC 4731) the server answers with a
+     * compact sequence set instead of listing every UID.
+     */
+    private static UidSet uidSearch(IMAPProtocol protocol, SearchTerm term) throws ProtocolException {
+        Argument args = new Argument();
+        if (term == null) {
+            args.writeAtom("ALL");
+        } else {
+            String charset = SearchSequence.isAscii(term) ? null : "UTF-8";
+            if (charset != null) {
+                args.writeAtom("CHARSET");
+                args.writeAtom(charset);
+            }
+            try {
+                args.append(new SearchSequence(protocol).generateSequence(term, charset));
+            } catch (SearchException | IOException e) {
+                throw new ProtocolException("Cannot search: " + e.getMessage());
+            }
+        }
+        return uidSearch(protocol, args);
+    }
+    
+    /**
+     * UID SEARCH with already encoded criteria
+     */
+    private static UidSet uidSearch(IMAPProtocol protocol, Argument criteria) throws ProtocolException {
+        Argument args = new Argument();
+        if (protocol.hasCapability("ESEARCH")) {
+            args.writeAtom("RETURN");
+            args.writeAtom("(ALL)");
+        }
+        args.append(criteria);
         
-        int messageCount = inbox.getMessageCount();
-        int start = Math.max(1, messageCount - count + 1);
-        
-        Message[] messages = inbox.getMessages(start, messageCount);
-        
-        for (int i = messages.length - 1; i >= 0; i--) {
-            Message msg = messages[i];
-            emails.add(new EmailMessage(
-                msg.getFrom()[0].toString(),
-                msg.getSubject(),
-                getTextContent(msg),
-                msg.getSentDate()
-            ));
+        Response[] responses = protocol.command("UID SEARCH", args);
+        Response result = responses[responses.length - 1];
+        UidSet uids = UidSet.EMPTY;
+        List<Long> listed = new ArrayList<>();
+        if (result.isOK()) {
+            for (int i = 0; i < responses.length; i++) {
+                if (!(responses[i] instanceof IMAPResponse)) {
+                    continue;
+                }
+                IMAPResponse response = (IMAPResponse) responses[i];
+                if (response.keyEquals("SEARCH")) {
+                    long uid;
+                    while ((uid = response.readLong()) != -1) {
+                        listed.add(uid);
+                    }
+                    responses[i] = null;
+                } else if (response.keyEquals("ESEARCH")) {
+                    Matcher all = ESEARCH_ALL.matcher(response.getRest());
+                    if (all.find()) {
+                        uids = uids.union(UidSet.parse(all.group(1)));
+                    }
+                    responses[i] = null;
+                }
+            }
         }
+        protocol.notifyResponseHandlers(responses);
+        protocol.handleResult(result);
         
-        inbox.close(false);
-        return emails;
+        long[] listedUids = new long[listed.size()];
+        for (int i = 0; i < listedUids.length; i++) {
+            listedUids[i] = listed.get(i);
+        }
+        return uids.union(UidSet.of(listedUids));
+    }
+    
+    /**
+     * Send queued changes for one folder: one UID STORE per distinct flag change and one
+     * UID MOVE per target, each over compressed UID ranges. The folder is opened read-write
+     * for this only and closed without an implicit expunge.
+     */
+    void mutate(String fullName, long uidValidity, MutationQueue.Batch batch) throws MessagingException {
+        traced("imap.mutate", fullName, span -> {
+            Folder folder = openFolder(fullName, Folder.READ_WRITE);
+            try {
+                if (!(folder instanceof IMAPFolder)) {
+                    throw new MessagingException("Folder " + fullName + " does not support UID commands");
+                }
+                if (((UIDFolder) folder).getUIDValidity() != uidValidity) {
+                    throw new MessagingException("Folder " + fullName + " was rebuilt on the server; changes dropped");
+                }
+                Map<String, UidSet> moved = new LinkedHashMap<>();
+                for (Map.Entry<String, UidSet> entry : batch.moved.entrySet()) {
+                    String target = MutationQueue.ARCHIVE.equals(entry.getKey()) ? resolveArchiveFolder() : entry.getKey();
+                    moved.merge(target, entry.getValue(), UidSet::union);
+                }
+                ((IMAPFolder) folder).doCommand(protocol -> {
+                    for (Map.Entry<Integer, UidSet> entry : batch.added.entrySet()) {
+                        for (UidSet chunk : entry.getValue().chunks(RANGES_PER_COMMAND)) {
+                            uidStore(protocol, chunk, "+FLAGS.SILENT", entry.getKey());
+                        }
+                    }
+                    for (Map.Entry<Integer, UidSet> entry : batch.removed.entrySet()) {
+                        for (UidSet chunk : entry.getValue().chunks(RANGES_PER_COMMAND)) {
+                            uidStore(protocol, chunk, "-FLAGS.SILENT", entry.getKey());
+                        }
+                    }
+                    for (Map.Entry<String, UidSet> entry : moved.entrySet()) {
+                        for (UidSet chunk : entry.getValue().chunks(RANGES_PER_COMMAND)) {
+                            if (MutationQueue.EXPUNGE.equals(entry.getKey())) {
+                                uidStore(protocol, chunk, "+FLAGS.SILENT", EmailMessage.DELETED);
+                                uidExpunge(protocol, chunk);
+                            } else {
+                                uidMove(protocol, chunk, entry.getKey());
+                            }
+                        }
+                    }
+                    return null;
+                });
+            } finally {
+                closeQuietly(folder);
+            }
+            return null;
+        });
+    }
+    
+    private static void uidStore(IMAPProtocol protocol, UidSet uids, String item, int flags) throws ProtocolException {
+        if (uids.isEmpty()) {
+            return;
+        }
+        protocol.simpleCommand("UID STORE " + uids + " " + item + " " + toFlagList(flags), null);
+    }
+    
+    /**
+     * Expunge exactly these UIDs. Without UIDPLUS a plain EXPUNGE would also remove other
+     * clients' deleted messages, so they are left flagged \Deleted instead.
+     */
+    private static void uidExpunge(IMAPProtocol protocol, UidSet uids) throws ProtocolException {
+        if (!uids.isEmpty() && protocol.hasCapability("UIDPLUS")) {
+            protocol.simpleCommand("UID EXPUNGE " + uids, null);
+        }
+    }
+    
+    /**
+     * UID MOVE (RFC 6851), or COPY + \Deleted + UID EXPUNGE where MOVE is not supported
+     */
+    private static void uidMove(IMAPProtocol protocol, UidSet uids, String target) throws ProtocolException {
+        if (uids.isEmpty()) {
+            return;
+        }
+        Argument args = new Argument();
+        args.writeAtom(uids.toString());
+        args.writeString(BASE64MailboxEncoder.encode(target));
+        if (protocol.hasCapability("MOVE")) {
+            protocol.simpleCommand("UID MOVE", args);
+        } else {
+            protocol.simpleCommand("UID COPY", args);
+            uidStore(protocol, uids, "+FLAGS.SILENT", EmailMessage.DELETED);
+            uidExpunge(protocol, uids);
+        }
+    }
+    
+    private static String toFlagList(int flags) {
+        List<String> names = new ArrayList<>();
+        if ((flags & EmailMessage.SEEN) != 0) {
+            names.add("\\Seen");
+        }
+        if ((flags & EmailMessage.ANSWERED) != 0) {
+            names.add("\\Answered");
+        }
+        if ((flags & EmailMessage.FLAGGED) != 0) {
+            names.add("\\Flagged");
+        }
+        if ((flags & EmailMessage.DELETED) != 0) {
+            names.add("\\Deleted");
+        }
+        if ((flags & EmailMessage.DRAFT) != 0) {
+            names.add("\\Draft");
+        }
+        return "(" + String.join(" ", names) + ")";
+    }
+    
+    /**
+     * The account's archive folder: the one with the \Archive SPECIAL-USE attribute, else
+     * one named "Archive", created if there is none
+     */
+    private String resolveArchiveFolder() throws MessagingException {
+        String cached = archiveFolder;
+        if (cached != null) {
+            return cached;
+        }
+        Store current = connectedStore();
+        String named = null;
+        for (Folder folder : current.getDefaultFolder().list("*")) {
+            String[] attributes = folder instanceof IMAPFolder ? ((IMAPFolder) folder).getAttributes() : null;
+            if (attributes != null && Arrays.asList(attributes).contains(MutationQueue.ARCHIVE)) {
+                archiveFolder = folder.getFullName();
+                return archiveFolder;
+            }
+            if (folder.getName().equalsIgnoreCase("Archive")) {
+                named = folder.getFullName();
+            }
+        }
+        if (named == null) {
+            Folder created = current.getDefaultFolder().getFolder("Archive");
+            if (!created.exists() && !created.create(Folder.HOLDS_MESSAGES)) {
+                throw new MessagingException("Could not create an Archive folder");
+            }
+            named = created.getFullName();
+        }
+        archiveFolder = named;
+        return named;
+    }
+    
+    /**
+     * Fetch specific messages by UID, in the order given; UIDs that no longer exist are skipped
+     */
+    List<EmailMessage> fetchByUid(String fullName, long uidValidity, long[] uids) throws MessagingException {
+        return traced("imap.fetch-page", fullName, span -> {
+            List<EmailMessage> emails = new ArrayList<>();
+            if (uids.length == 0) {
+                return emails;
+            }
+            Folder folder = openFolder(fullName);
+            try {
+                UIDFolder uidFolder = (UIDFolder) folder;
+                if (uidFolder.getUIDValidity() != uidValidity) {
+                    throw new MessagingException("Folder " + fullName + " was rebuilt on the server; search again");
+                }
+                Message[] found = uidFolder.getMessagesByUID(uids);
+                List<Message> existing = new ArrayList<>();
+                for (Message message : found) {
+                    if (message != null && !message.isExpunged()) {
+                        existing.add(message);
+                    }
+                }
+                Message[] messages = existing.toArray(new Message[0]);
+                prefetchHeaders(folder, messages);
+                for (Message message : messages) {
+                    checkCancelled();
+                    emails.add(toEmailMessage(folder, message));
+                }
+            } finally {
+                closeQuietly(folder);
+            }
+            return emails;
+        });
+    }
+    
+    /**
+     * Fetch only the envelope, flags and threading headers of messages by UID; the messages
+     * come back with an empty body. UIDs that no longer exist are skipped.
+     */
+    public List<EmailMessage> fetchHeaders(String fullName, long uidValidity, long[] uids) throws MessagingException {
+        return traced("imap.fetch-headers", fullName, span -> {
+            List<EmailMessage> headers = new ArrayList<>();
+            if (uids.length == 0) {
+                return headers;
+            }
+            Folder folder = openFolder(fullName);
+            try {
+                UIDFolder uidFolder = (UIDFolder) folder;
+                if (uidFolder.getUIDValidity() != uidValidity) {
+                    throw new MessagingException("Folder " + fullName + " was rebuilt on the server; list it again");
+                }
+                List<Message> found = new ArrayList<>();
+                for (Message message : uidFolder.getMessagesByUID(uids)) {
+                    // Null for UIDs expunged in the meantime
+                    if (message != null) {
+                        found.add(message);
+                    }
+                }
+                Message[] messages = found.toArray(new Message[0]);
+                prefetchHeaders(folder, messages);
+                for (Message message : messages) {
+                    checkCancelled();
+                    headers.add(toEmailMessage(accountId, fullName, uidFolder.getUID(message), message, ""));
+                }
+            } finally {
+                closeQuietly(folder);
+            }
+            span.tag("fetched", headers.size());
+            return headers;
+        });
+    }
+    
+    /**
+     * Fetch messages by UID in RFC 822 form, for decoding elsewhere (see RawMessage). One
+     * UID FETCH per chunk of ranges; only the first MAX_RAW_BYTES of each message are
+     * transferred, and nothing is marked read. UIDs that no longer exist are skipped.
+     */
+    public List<RawMessage> fetchRaw(String fullName, long uidValidity, long[] uids) throws MessagingException {
+        return traced("imap.fetch-raw", fullName, span -> {
+            List<RawMessage> raw = new ArrayList<>();
+            if (uids.length == 0) {
+                return raw;
+            }
+            Folder folder = openFolder(fullName);
+            try {
+                if (!(folder instanceof IMAPFolder)) {
+                    throw new MessagingException("Folder " + fullName + " does not support UID commands");
+                }
+                if (((UIDFolder) folder).getUIDValidity() != uidValidity) {
+                    throw new MessagingException("Folder " + fullName + " was rebuilt on the server; list it again");
+                }
+                ((IMAPFolder) folder).doCommand(protocol -> {
+                    for (UidSet chunk : UidSet.of(uids).chunks(RANGES_PER_COMMAND)) {
+                        Response[] responses = protocol.command("UID FETCH " + chunk +
+                            " (UID FLAGS BODY.PEEK[]<0." + MAX_RAW_BYTES + ">)", null);
+                        for (int i = 0; i < responses.length; i++) {
+                            if (!(responses[i] instanceof FetchResponse)) {
+                                continue;
+                            }
+                            FetchResponse response = (FetchResponse) responses[i];
+                            UID uid = response.getItem(UID.class);
+                            BODY body = response.getItem(BODY.class);
+                            if (uid != null && body != null) {
+                                FLAGS flags = response.getItem(FLAGS.class);
+                                raw.add(new RawMessage(accountId, fullName, uid.uid, flags != null ? toFlags(flags) : 0,
+                                                       body.getByteArray().getNewBytes()));
+                                responses[i] = null;
+                            }
+                        }
+                        protocol.notifyResponseHandlers(responses);
+                        protocol.handleResult(responses[responses.length - 1]);
+                    }
+                    return null;
+                });
+            } finally {
+                closeQuietly(folder);
+            }
+            span.tag("fetched", raw.size());
+            return raw;
+        });
+    }
+    
+    /**
+     * Connected store, connecting first if needed
+     */
+    private Store connectedStore() throws MessagingException {
+        ensureConnected();
+        Store current = store;
+        if (current == null) {
+            throw new MessagingException("Not connected");
+        }
+        return current;
+    }
+    
+    /**
+     * Close a folder without letting a close failure (e.g. after a timeout) mask the real error
+     */
+    private void closeQuietly(Folder folder) {
+        try {
+            if (folder.isOpen()) {
+                folder.close(false);
+            }
+        } catch (MessagingException e) {
+            // The connection is already gone; nothing to release
+        }
+    }
+    
+    /**
+     * Load envelope data, flags and UIDs for a batch of messages in one round trip
+     */
+    private void prefetchHeaders(Folder folder, Message[] messages) throws MessagingException {
+        FetchProfile profile = new FetchProfile();
+        profile.add(FetchProfile.Item.ENVELOPE);
+        profile.add(FetchProfile.Item.FLAGS);
+        profile.add(UIDFolder.FetchProfileItem.UID);
+        profile.add("In-Reply-To");
+        profile.add("References");
+        folder.fetch(messages, profile);
+    }
+    
+    private EmailMessage toEmailMessage(Folder folder, Message msg) throws MessagingException {
+        long uid = folder instanceof UIDFolder ? ((UIDFolder) folder).getUID(msg) : 0;
+        return toEmailMessage(accountId, folder.getFullName(), uid, msg);
+    }
+    
+    static EmailMessage toEmailMessage(String accountId, String folderName, long uid, Message msg) throws MessagingException {
+        return toEmailMessage(accountId, folderName, uid, msg, getTextContent(msg));
+    }
+    
+    private static EmailMessage toEmailMessage(String accountId, String folderName, long uid, Message msg, String body) throws MessagingException {
+        Address[] from = msg.getFrom();
+        EmailMessage email = new EmailMessage(
+            accountId,
+            folderName,
+            uid,
+            from != null && from.length > 0 ? from[0].toString() : "",
+            msg.getSubject(),
+            body,
+            msg.getSentDate()
+        );
+        email.setFlags(toFlags(msg.getFlags()));
+        if (msg instanceof MimeMessage) {
+            String[] inReplyTo = msg.getHeader("In-Reply-To");
+            String references = ((MimeMessage) msg).getHeader("References", " ");
+            email.setThreadHeaders(
+                ((MimeMessage) msg).getMessageID(),
+                inReplyTo != null && inReplyTo.length > 0 ? inReplyTo[0] : null,
+                references != null ? references.trim().split("\\s+") : null
+            );
+        }
+        return email;
+    }
+    
+    private static int toFlags(Flags flags) {
+        int result = 0;
+        if (flags.contains(Flags.Flag.SEEN)) {
+            result |= EmailMessage.SEEN;
+        }
+        if (flags.contains(Flags.Flag.ANSWERED)) {
+            result |= EmailMessage.ANSWERED;
+        }
+        if (flags.contains(Flags.Flag.FLAGGED)) {
+            result |= EmailMessage.FLAGGED;
+        }
+        if (flags.contains(Flags.Flag.DELETED)) {
+            result |= EmailMessage.DELETED;
+        }
+        if (flags.contains(Flags.Flag.DRAFT)) {
+            result |= EmailMessage.DRAFT;
+        }
+        return result;
     }
     
     /**
      * Extract text content from message
      */
-    private String getTextContent(Message msg) throws MessagingException {
+    private static String getTextContent(Message msg) throws MessagingException {
         try {
             Object content = msg.getContent();
             if (content instanceof String) {
@@ -156,12 +1105,28 @@ public class EmailService {
      * Send an email
      */
     public void sendEmail(String to, String subject, String body) throws MessagingException {
-        Message message = new MimeMessage(session);
-        message.setFrom(new InternetAddress(config.getEmailAddress()));
-        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
-        message.setSubject(subject);
-        message.setText(body);
-        
-        Transport.send(message);
+        onOwner(() -> doSendEmail(to, subject, body));
+    }
+    
+    /**
+     * Send an email on the account's owner thread
+     */
+    public Future<Void> sendEmailAsync(String to, String subject, String body) {
+        return owner.submit(Tracer.wrap(() -> doSendEmail(to, subject, body)));
+    }
+    
+    private Void doSendEmail(String to, String subject, String body) throws MessagingException {
+        return traced("smtp.send", null, span -> {
+            ensureConnected();
+            Message message = new MimeMessage(session);
+            message.setFrom(new InternetAddress(currentAccount().getEmailAddress()));
+            message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
+            message.setSubject(subject);
+            message.setText(body);
+            
+            checkCancelled();
+            Transport.send(message);
+            return null;
+        });
     }
 }
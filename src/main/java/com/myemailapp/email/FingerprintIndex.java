@@ -0,0 +1,293 @@
+package com.myemailapp.email;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Near-duplicate lookup for message bodies
+ *
+ * Bodies are normalized (lower case, URLs and digits collapsed, punctuation dropped) and
+ * cut into overlapping word shingles. Each body gets a 64-bit SimHash and a MinHash
+ * signature. The SimHash is split into four 16-bit bands, and a body with the same value
+ * in any band is a candidate (this catches everything within three differing bits).
+ * Candidates are confirmed with the MinHash estimate of shingle Jaccard similarity.
+ * Receipts and notifications that differ only in amounts, dates or order numbers
+ * normalize to the same text and match exactly.
+ *
+ * @param <V> what is remembered per body (a summary, for example)
+ */
+public class FingerprintIndex<V> {
+    public static final double DEFAULT_THRESHOLD = 0.85;
+    private static final Pattern URL = Pattern.compile("(?i)\\b(?:https?://|www\\.)\\S+");
+    private static final Pattern DIGITS = Pattern.compile("\\d+");
+    private static final Pattern NON_WORD = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final int SHINGLE_WORDS = 3;
+    private static final int MINHASH_SIZE = 64;
+    private static final int BANDS = 4;
+    private static final int BAND_BITS = 64 / BANDS;
+    private static final long[] SEEDS = new long[MINHASH_SIZE];
+    
+    static {
+        long seed = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < MINHASH_SIZE; i++) {
+            seed += 0x9E3779B97F4A7C15L;
+            SEEDS[i] = mix(seed);
+        }
+    }
+    
+    private final int capacity;
+    private final double threshold;
+    // Insertion order, so the oldest fingerprints are evicted first
+    private final LinkedHashMap<Long, Entry<V>> entries = new LinkedHashMap<>();
+    private final Map<Long, List<Entry<V>>> bands = new HashMap<>();
+    private long nextId;
+    private long lookups;
+    private long hits;
+    private long exactHits;
+    
+    public FingerprintIndex(int capacity) {
+        this(capacity, DEFAULT_THRESHOLD);
+    }
+    
+    public FingerprintIndex(int capacity, double threshold) {
+        this.capacity = capacity;
+        this.threshold = threshold;
+    }
+    
+    /**
+     * SimHash and MinHash signature of one body
+     */
+    public static final class Fingerprint {
+        private final long simHash;
+        private final int[] minHash;
+        
+        Fingerprint(long simHash, int[] minHash) {
+            this.simHash = simHash;
+            this.minHash = minHash;
+        }
+        
+        public long getSimHash() {
+            return simHash;
+        }
+        
+        /**
+         * Estimated Jaccard similarity of the two bodies' shingle sets
+         */
+        public double similarity(Fingerprint other) {
+            int same = 0;
+            for (int i = 0; i < MINHASH_SIZE; i++) {
+                if (minHash[i] == other.minHash[i]) {
+                    same++;
+                }
+            }
+            return same / (double) MINHASH_SIZE;
+        }
+        
+        /**
+         * True if the normalized bodies are (almost certainly) identical
+         */
+        public boolean sameAs(Fingerprint other) {
+            return simHash == other.simHash && Arrays.equals(minHash, other.minHash);
+        }
+    }
+    
+    /**
+     * Best stored match for a body
+     */
+    public static final class Match<V> {
+        private final V value;
+        private final double similarity;
+        private final boolean exact;
+        
+        Match(V value, double similarity, boolean exact) {
+            this.value = value;
+            this.similarity = similarity;
+            this.exact = exact;
+        }
+        
+        public V getValue() {
+            return value;
+        }
+        
+        public double getSimilarity() {
+            return similarity;
+        }
+        
+        /**
+         * Same text after normalization (only numbers, links or layout differ)
+         */
+        public boolean isExact() {
+            return exact;
+        }
+    }
+    
+    private static final class Entry<V> {
+        final long id;
+        final Fingerprint fingerprint;
+        final V value;
+        
+        Entry(long id, Fingerprint fingerprint, V value) {
+            this.id = id;
+            this.fingerprint = fingerprint;
+            this.value = value;
+        }
+    }
+    
+    /**
+     * Fingerprint a body; null for bodies with no words at all
+     */
+    public static Fingerprint fingerprint(String text) {
+        String[] words = normalize(text);
+        if (words.length == 0) {
+            return null;
+        }
+        int shingles = Math.max(1, words.length - SHINGLE_WORDS + 1);
+        int[] weights = new int[64];
+        int[] minHash = new int[MINHASH_SIZE];
+        Arrays.fill(minHash, Integer.MAX_VALUE);
+        for (int s = 0; s < shingles; s++) {
+            long hash = 0xCBF29CE484222325L;
+            for (int w = s; w < Math.min(words.length, s + SHINGLE_WORDS); w++) {
+                hash = (hash ^ words[w].hashCode()) * 0x100000001B3L;
+            }
+            hash = mix(hash);
+            for (int bit = 0; bit < 64; bit++) {
+                weights[bit] += (hash >>> bit & 1) != 0 ? 1 : -1;
+            }
+            for (int i = 0; i < MINHASH_SIZE; i++) {
+                int value = (int) mix(hash ^ SEEDS[i]);
+                if (value < minHash[i]) {
+                    minHash[i] = value;
+                }
+            }
+        }
+        long simHash = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                simHash |= 1L << bit;
+            }
+        }
+        return new Fingerprint(simHash, minHash);
+    }
+    
+    /**
+     * Most similar stored body at or above the threshold, or null
+     */
+    public Match<V> find(String text) {
+        Fingerprint fingerprint = fingerprint(text);
+        return fingerprint != null ? find(fingerprint) : null;
+    }
+    
+    public synchronized Match<V> find(Fingerprint fingerprint) {
+        lookups++;
+        Entry<V> best = null;
+        double bestSimilarity = 0;
+        Set<Long> checked = new HashSet<>();
+        for (int band = 0; band < BANDS; band++) {
+            List<Entry<V>> bucket = bands.get(bandKey(fingerprint.simHash, band));
+            if (bucket == null) {
+                continue;
+            }
+            for (Entry<V> entry : bucket) {
+                if (!checked.add(entry.id)) {
+                    continue;
+                }
+                if (entry.fingerprint.sameAs(fingerprint)) {
+                    hits++;
+                    exactHits++;
+                    return new Match<>(entry.value, 1.0, true);
+                }
+                double similarity = entry.fingerprint.similarity(fingerprint);
+                if (similarity > bestSimilarity) {
+                    best = entry;
+                    bestSimilarity = similarity;
+                }
+            }
+        }
+        if (best == null || bestSimilarity < threshold) {
+            return null;
+        }
+        hits++;
+        return new Match<>(best.value, bestSimilarity, false);
+    }
+    
+    /**
+     * Remember a value for a body; the oldest entries are dropped beyond capacity
+     */
+    public void put(String text, V value) {
+        Fingerprint fingerprint = fingerprint(text);
+        if (fingerprint != null) {
+            put(fingerprint, value);
+        }
+    }
+    
+    public synchronized void put(Fingerprint fingerprint, V value) {
+        Entry<V> entry = new Entry<>(nextId++, fingerprint, value);
+        entries.put(entry.id, entry);
+        for (int band = 0; band < BANDS; band++) {
+            bands.computeIfAbsent(bandKey(fingerprint.simHash, band), k -> new ArrayList<>(1)).add(entry);
+        }
+        Iterator<Entry<V>> oldest = entries.values().iterator();
+        while (entries.size() > capacity && oldest.hasNext()) {
+            Entry<V> evicted = oldest.next();
+            oldest.remove();
+            for (int band = 0; band < BANDS; band++) {
+                long key = bandKey(evicted.fingerprint.simHash, band);
+                List<Entry<V>> bucket = bands.get(key);
+                bucket.remove(evicted);
+                if (bucket.isEmpty()) {
+                    bands.remove(key);
+                }
+            }
+        }
+    }
+    
+    public synchronized int size() {
+        return entries.size();
+    }
+    
+    public synchronized long getLookups() {
+        return lookups;
+    }
+    
+    public synchronized long getHits() {
+        return hits;
+    }
+    
+    public synchronized long getExactHits() {
+        return exactHits;
+    }
+    
+    /**
+     * Fraction of lookups that found a near duplicate
+     */
+    public synchronized double getHitRate() {
+        return lookups > 0 ? hits / (double) lookups : 0;
+    }
+    
+    private static String[] normalize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+        String normalized = URL.matcher(text.toLowerCase(Locale.ROOT)).replaceAll(" url ");
+        normalized = DIGITS.matcher(normalized).replaceAll("0");
+        normalized = NON_WORD.matcher(normalized).replaceAll(" ").trim();
+        return normalized.isEmpty() ? new String[0] : normalized.split(" ");
+    }
+    
+    private static long bandKey(long simHash, int band) {
+        return (long) band << BAND_BITS | (simHash >>> band * BAND_BITS & ((1L << BAND_BITS) - 1));
+    }
+    
+    /**
+     * 64-bit finalizer from MurmurHash3
+     */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB93FE1A85EC3L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
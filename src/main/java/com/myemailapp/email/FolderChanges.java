@@ -0,0 +1,63 @@
+package com.myemailapp.email;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Flag changes and expunges found by resynchronizing a folder
+ */
+public class FolderChanges {
+    /**
+     * How the changes were obtained, cheapest first
+     */
+    public enum Mode {
+        // SELECT (QRESYNC ...): changed flags and VANISHED UIDs in the SELECT response
+        QRESYNC,
+        // UID FETCH (FLAGS) (CHANGEDSINCE ...) plus a UID SEARCH for expunges
+        CONDSTORE,
+        // Flags of every known message fetched in chunks and compared locally
+        FLAGS
+    }
+    
+    private final Mode mode;
+    private final Map<Long, Integer> flags;
+    private final UidSet vanished;
+    private final boolean uidValidityChanged;
+    
+    FolderChanges(Mode mode, Map<Long, Integer> flags, UidSet vanished, boolean uidValidityChanged) {
+        this.mode = mode;
+        this.flags = Collections.unmodifiableMap(flags);
+        this.vanished = vanished;
+        this.uidValidityChanged = uidValidityChanged;
+    }
+    
+    /**
+     * The folder was recreated on the server; everything cached for it is stale
+     */
+    static FolderChanges invalidated(Mode mode) {
+        return new FolderChanges(mode, Collections.emptyMap(), UidSet.EMPTY, true);
+    }
+    
+    public Mode getMode() {
+        return mode;
+    }
+    
+    /**
+     * Current flags (EmailMessage flag bits) by UID, for messages that changed (or, in FLAGS
+     * mode, for every known message)
+     */
+    public Map<Long, Integer> getFlags() {
+        return flags;
+    }
+    
+    /**
+     * Known UIDs that no longer exist on the server
+     */
+    public UidSet getVanished() {
+        return vanished;
+    }
+    
+    public boolean isUidValidityChanged() {
+        return uidValidityChanged;
+    }
+}
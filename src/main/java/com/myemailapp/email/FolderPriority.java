@@ -0,0 +1,44 @@
+package com.myemailapp.email;
+
+/**
+ * How often a folder is checked for new mail
+ * Derived from the folder name and the server's SPECIAL-USE attributes.
+ */
+public enum FolderPriority {
+    HIGH(60_000),
+    NORMAL(5 * 60_000),
+    LOW(30 * 60_000);
+    
+    private final long intervalMillis;
+    
+    FolderPriority(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+    
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+    
+    /**
+     * Classify a folder: INBOX is checked often, junk/trash/drafts rarely
+     */
+    public static FolderPriority of(String fullName, String[] attributes) {
+        if ("INBOX".equalsIgnoreCase(fullName)) {
+            return HIGH;
+        }
+        if (attributes != null) {
+            for (String attribute : attributes) {
+                if ("\\Junk".equalsIgnoreCase(attribute) || "\\Trash".equalsIgnoreCase(attribute) ||
+                    "\\Drafts".equalsIgnoreCase(attribute)) {
+                    return LOW;
+                }
+            }
+        }
+        String name = fullName.toLowerCase();
+        if (name.contains("spam") || name.contains("junk") || name.contains("trash") ||
+            name.contains("deleted") || name.contains("draft")) {
+            return LOW;
+        }
+        return NORMAL;
+    }
+}
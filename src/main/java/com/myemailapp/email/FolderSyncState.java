@@ -0,0 +1,188 @@
+package com.myemailapp.email;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Per-folder synchronization state: cursor, recent messages and scheduling
+ */
+public class FolderSyncState {
+    private static final long MAX_RETRY_INTERVAL_MS = 30 * 60_000;
+    
+    private final String name;
+    private final SyncCursor cursor = new SyncCursor();
+    private volatile FolderPriority priority;
+    private volatile List<EmailMessage> messages = Collections.emptyList();
+    private volatile long lastSyncAt;
+    private volatile long nextDueAt;
+    private volatile long lastDurationMillis;
+    private volatile long lastResyncAt;
+    private volatile int failures;
+    private volatile String lastError;
+    
+    FolderSyncState(String name, FolderPriority priority) {
+        this.name = name;
+        this.priority = priority;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public FolderPriority getPriority() {
+        return priority;
+    }
+    
+    void setPriority(FolderPriority priority) {
+        this.priority = priority;
+    }
+    
+    SyncCursor getCursor() {
+        return cursor;
+    }
+    
+    /**
+     * Most recent messages of this folder, newest first
+     */
+    public List<EmailMessage> getMessages() {
+        return messages;
+    }
+    
+    public long getLastSyncAt() {
+        return lastSyncAt;
+    }
+    
+    public long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+    
+    public String getLastError() {
+        return lastError;
+    }
+    
+    boolean isDue(long now) {
+        return now >= nextDueAt;
+    }
+    
+    /**
+     * When flags and expunges were last resynchronized
+     */
+    long getLastResyncAt() {
+        return lastResyncAt;
+    }
+    
+    /**
+     * Start from saved state: the folder is due at once, so the saved messages are
+     * reconciled with the server as soon as it can be reached
+     */
+    void restore(long uidValidity, long lastUid, long highestModSeq, List<EmailMessage> saved, long savedSyncAt) {
+        cursor.restore(uidValidity, lastUid, highestModSeq);
+        messages = Collections.unmodifiableList(new ArrayList<>(saved));
+        lastSyncAt = savedSyncAt;
+        nextDueAt = 0;
+    }
+    
+    /**
+     * Record a successful sync; returns true if new messages arrived
+     */
+    boolean synced(List<EmailMessage> fresh, int limit, long startedAt) {
+        long now = System.currentTimeMillis();
+        if (!fresh.isEmpty()) {
+            List<EmailMessage> combined = new ArrayList<>(fresh);
+            for (EmailMessage message : messages) {
+                if (combined.size() >= limit) {
+                    break;
+                }
+                combined.add(message);
+            }
+            messages = Collections.unmodifiableList(combined);
+        }
+        lastSyncAt = now;
+        lastDurationMillis = now - startedAt;
+        // A full batch may leave a backlog on the server (fetched oldest first); come back at once
+        nextDueAt = fresh.size() >= limit ? now : now + priority.getIntervalMillis();
+        failures = 0;
+        lastError = null;
+        return !fresh.isEmpty();
+    }
+    
+    /**
+     * UIDs of the cached messages
+     */
+    UidSet knownUids() {
+        List<EmailMessage> current = messages;
+        long[] uids = new long[current.size()];
+        for (int i = 0; i < uids.length; i++) {
+            uids[i] = current.get(i).getUid();
+        }
+        return UidSet.of(uids);
+    }
+    
+    /**
+     * Apply resync results to the cached messages; returns true if anything changed
+     */
+    boolean apply(FolderChanges changes) {
+        lastResyncAt = System.currentTimeMillis();
+        boolean changed = false;
+        for (EmailMessage message : messages) {
+            Integer flags = changes.getFlags().get(message.getUid());
+            if (flags != null && flags != message.getFlags()) {
+                message.setFlags(flags);
+                changed = true;
+            }
+        }
+        // Expunged on the server: keep the rows for history, but drop them from the folder
+        return remove(changes.getVanished(), EmailMessage.DELETED) || changed;
+    }
+    
+    /**
+     * Drop messages from the folder (expunged or moved away), adding the given flags to
+     * their rows; returns true if any were cached
+     */
+    boolean remove(UidSet uids, int flags) {
+        if (uids.isEmpty()) {
+            return false;
+        }
+        List<EmailMessage> kept = new ArrayList<>(messages.size());
+        for (EmailMessage message : messages) {
+            if (uids.contains(message.getUid())) {
+                message.setFlags(message.getFlags() | flags);
+            } else {
+                kept.add(message);
+            }
+        }
+        if (kept.size() == messages.size()) {
+            return false;
+        }
+        messages = Collections.unmodifiableList(kept);
+        return true;
+    }
+    
+    /**
+     * Record a failed sync and push the next attempt out
+     */
+    void failed(Exception e) {
+        failures++;
+        long retry = Math.min(MAX_RETRY_INTERVAL_MS, priority.getIntervalMillis() << Math.min(failures, 5));
+        nextDueAt = System.currentTimeMillis() + retry;
+        lastError = e.getMessage();
+    }
+    
+    /**
+     * Distrust the cached flags: the next resync compares all of them, not just recent changes
+     */
+    void invalidateFlags() {
+        cursor.setHighestModSeq(0);
+        lastResyncAt = 0;
+    }
+    
+    void reset() {
+        cursor.reset();
+        messages = Collections.emptyList();
+        lastResyncAt = 0;
+        nextDueAt = 0;
+        failures = 0;
+        lastError = null;
+    }
+}
@@ -0,0 +1,350 @@
+package com.myemailapp.email;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Approximate nearest-neighbour index (HNSW) over quantized, memory-mapped vectors
+ *
+ * Vectors live in a QuantizedVectors file; this class keeps the layered proximity graph
+ * in memory and saves it next to them. Inserts are incremental. A search walks down the
+ * sparse upper layers to a good entry point, then explores the dense bottom layer, so it
+ * touches a few hundred vectors instead of all of them. Similarity is cosine.
+ *
+ * If the graph file is older than the vector file (the app stopped between saves), the
+ * missing nodes are re-inserted from the stored vectors on open.
+ */
+public class HnswIndex implements Closeable {
+    private static final int MAGIC = 0x484E5357;
+    // Links per node on the upper layers; twice that on the bottom layer
+    private static final int M = 16;
+    private static final int EF_CONSTRUCTION = 100;
+    private static final int DEFAULT_EF_SEARCH = 64;
+    private static final double LEVEL_FACTOR = 1 / Math.log(M);
+    
+    private final QuantizedVectors vectors;
+    private final Path graphFile;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Random random = new Random();
+    // links.get(node)[layer] = neighbour nodes on that layer
+    private final List<int[][]> links = new ArrayList<>();
+    private int entryPoint = -1;
+    private int topLayer = -1;
+    
+    /**
+     * Neighbour found by a search
+     */
+    public static final class Neighbor {
+        private final int node;
+        private final float similarity;
+        
+        Neighbor(int node, float similarity) {
+            this.node = node;
+            this.similarity = similarity;
+        }
+        
+        public int getNode() {
+            return node;
+        }
+        
+        public float getSimilarity() {
+            return similarity;
+        }
+    }
+    
+    /**
+     * Open (or create) an index stored as &lt;dir&gt;/vectors.bin and &lt;dir&gt;/graph.bin
+     */
+    public HnswIndex(Path dir, int dimensions) throws IOException {
+        this.vectors = new QuantizedVectors(dir.resolve("vectors.bin"), dimensions);
+        this.graphFile = dir.resolve("graph.bin");
+        loadGraph();
+        for (int node = links.size(); node < vectors.size(); node++) {
+            link(node, QuantizedVectors.normalize(vectors.get(node)));
+        }
+    }
+    
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return links.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    public int dimensions() {
+        return vectors.dimensions();
+    }
+    
+    /**
+     * Insert a vector; returns its node number
+     */
+    public int add(float[] vector) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int node = vectors.add(vector);
+            link(node, QuantizedVectors.normalize(vector));
+            return node;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * The k most similar nodes, most similar first
+     */
+    public List<Neighbor> search(float[] query, int k) {
+        return search(query, k, Math.max(k, DEFAULT_EF_SEARCH));
+    }
+    
+    /**
+     * The k most similar nodes; a larger ef explores more of the graph for better recall
+     */
+    public List<Neighbor> search(float[] query, int k, int ef) {
+        float[] unit = QuantizedVectors.normalize(query);
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) {
+                return Collections.emptyList();
+            }
+            int current = entryPoint;
+            for (int layer = topLayer; layer > 0; layer--) {
+                current = greedy(unit, current, layer);
+            }
+            List<Neighbor> found = searchLayer(unit, current, ef, 0);
+            return found.subList(0, Math.min(k, found.size()));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    /**
+     * Write the graph to disk (vectors are already in their mapped file)
+     */
+    public void save() throws IOException {
+        lock.readLock().lock();
+        try {
+            vectors.force();
+            Path temp = graphFile.resolveSibling(graphFile.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(links.size());
+                out.writeInt(entryPoint);
+                out.writeInt(topLayer);
+                for (int[][] layers : links) {
+                    out.writeByte(layers.length);
+                    for (int[] neighbors : layers) {
+                        out.writeShort(neighbors.length);
+                        for (int neighbor : neighbors) {
+                            out.writeInt(neighbor);
+                        }
+                    }
+                }
+            }
+            try {
+                Files.move(temp, graphFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, graphFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+    
+    @Override
+    public void close() throws IOException {
+        save();
+        vectors.close();
+    }
+    
+    private void loadGraph() throws IOException {
+        if (!Files.exists(graphFile)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(graphFile)))) {
+            int nodes = in.readInt();
+            if (nodes != MAGIC) {
+                return;
+            }
+            nodes = in.readInt();
+            int entry = in.readInt();
+            int top = in.readInt();
+            if (nodes > vectors.size()) {
+                // Vectors were reset (e.g. new dimensions); the graph no longer applies
+                return;
+            }
+            List<int[][]> loaded = new ArrayList<>(nodes);
+            for (int node = 0; node < nodes; node++) {
+                int[][] layers = new int[in.readUnsignedByte()][];
+                for (int layer = 0; layer < layers.length; layer++) {
+                    int[] neighbors = new int[in.readUnsignedShort()];
+                    for (int i = 0; i < neighbors.length; i++) {
+                        neighbors[i] = in.readInt();
+                    }
+                    layers[layer] = neighbors;
+                }
+                loaded.add(layers);
+            }
+            links.addAll(loaded);
+            entryPoint = entry;
+            topLayer = top;
+        } catch (EOFException e) {
+            System.err.println("Vector index graph is truncated; rebuilding it");
+            links.clear();
+            entryPoint = -1;
+            topLayer = -1;
+        }
+    }
+    
+    /**
+     * Connect a stored node into the graph
+     */
+    private void link(int node, float[] unit) {
+        int level = (int) (-Math.log(1 - random.nextDouble()) * LEVEL_FACTOR);
+        int[][] layers = new int[level + 1][];
+        for (int layer = 0; layer <= level; layer++) {
+            layers[layer] = new int[0];
+        }
+        links.add(layers);
+        if (entryPoint < 0) {
+            entryPoint = node;
+            topLayer = level;
+            return;
+        }
+        
+        int current = entryPoint;
+        for (int layer = topLayer; layer > level; layer--) {
+            current = greedy(unit, current, layer);
+        }
+        for (int layer = Math.min(level, topLayer); layer >= 0; layer--) {
+            List<Neighbor> candidates = searchLayer(unit, current, EF_CONSTRUCTION, layer);
+            int[] chosen = selectNeighbors(candidates, maxLinks(layer));
+            layers[layer] = chosen;
+            for (int neighbor : chosen) {
+                connect(neighbor, node, layer);
+            }
+            current = candidates.get(0).node;
+        }
+        if (level > topLayer) {
+            entryPoint = node;
+            topLayer = level;
+        }
+    }
+    
+    /**
+     * Add a back link, pruning the neighbour's list to its most similar nodes when full
+     */
+    private void connect(int from, int to, int layer) {
+        int[] existing = links.get(from)[layer];
+        int[] grown = Arrays.copyOf(existing, existing.length + 1);
+        grown[existing.length] = to;
+        if (grown.length > maxLinks(layer)) {
+            List<Neighbor> scored = new ArrayList<>(grown.length);
+            for (int candidate : grown) {
+                scored.add(new Neighbor(candidate, vectors.similarity(from, candidate)));
+            }
+            scored.sort((a, b) -> Float.compare(b.similarity, a.similarity));
+            grown = selectNeighbors(scored, maxLinks(layer));
+        }
+        links.get(from)[layer] = grown;
+    }
+    
+    /**
+     * Pick up to max neighbours from candidates (most similar first), skipping a candidate
+     * that is closer to an already chosen neighbour than to the node itself. That keeps
+     * links spread in different directions, which keeps the graph navigable.
+     */
+    private int[] selectNeighbors(List<Neighbor> candidates, int max) {
+        int[] chosen = new int[Math.min(max, candidates.size())];
+        int count = 0;
+        List<Neighbor> skipped = new ArrayList<>();
+        for (Neighbor candidate : candidates) {
+            if (count == chosen.length) {
+                break;
+            }
+            boolean diverse = true;
+            for (int i = 0; i < count && diverse; i++) {
+                diverse = vectors.similarity(candidate.node, chosen[i]) <= candidate.similarity;
+            }
+            if (diverse) {
+                chosen[count++] = candidate.node;
+            } else {
+                skipped.add(candidate);
+            }
+        }
+        // Fill remaining slots with the best of the skipped ones
+        for (int i = 0; i < skipped.size() && count < chosen.length; i++) {
+            chosen[count++] = skipped.get(i).node;
+        }
+        return Arrays.copyOf(chosen, count);
+    }
+    
+    private int greedy(float[] unit, int start, int layer) {
+        int current = start;
+        float best = vectors.similarity(current, unit);
+        boolean improved = true;
+        while (improved) {
+            improved = false;
+            for (int neighbor : neighbors(current, layer)) {
+                float similarity = vectors.similarity(neighbor, unit);
+                if (similarity > best) {
+                    best = similarity;
+                    current = neighbor;
+                    improved = true;
+                }
+            }
+        }
+        return current;
+    }
+    
+    /**
+     * Best-first search of one layer; returns up to ef nodes, most similar first
+     */
+    private List<Neighbor> searchLayer(float[] unit, int start, int ef, int layer) {
+        BitSet visited = new BitSet(links.size());
+        // Frontier: most similar first; results: least similar first, so the worst is evicted
+        PriorityQueue<Neighbor> frontier = new PriorityQueue<>((a, b) -> Float.compare(b.similarity, a.similarity));
+        PriorityQueue<Neighbor> results = new PriorityQueue<>((a, b) -> Float.compare(a.similarity, b.similarity));
+        Neighbor first = new Neighbor(start, vectors.similarity(start, unit));
+        visited.set(start);
+        frontier.add(first);
+        results.add(first);
+        while (!frontier.isEmpty()) {
+            Neighbor current = frontier.poll();
+            if (results.size() >= ef && current.similarity < results.peek().similarity) {
+                break;
+            }
+            for (int neighbor : neighbors(current.node, layer)) {
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float similarity = vectors.similarity(neighbor, unit);
+                if (results.size() < ef || similarity > results.peek().similarity) {
+                    Neighbor candidate = new Neighbor(neighbor, similarity);
+                    frontier.add(candidate);
+                    results.add(candidate);
+                    if (results.size() > ef) {
+                        results.poll();
+                    }
+                }
+            }
+        }
+        List<Neighbor> sorted = new ArrayList<>(results);
+        sorted.sort((a, b) -> Float.compare(b.similarity, a.similarity));
+        return sorted;
+    }
+    
+    private int[] neighbors(int node, int layer) {
+        int[][] layers = links.get(node);
+        return layer < layers.length ? layers[layer] : new int[0];
+    }
+    
+    private static int maxLinks(int layer) {
+        return layer == 0 ? 2 * M : M;
+    }
+}
@@ -0,0 +1,81 @@
+package com.myemailapp.email;
+
+import javax.mail.MessagingException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the window needs from the mail side: cached folders, refreshes, conversations,
+ * read flags and sending
+ *
+ * Implemented by MailEngine in-process and by the mail daemon's client, which forwards
+ * each call to the resident background process that owns the connections.
+ */
+public interface MailAccess {
+    /**
+     * Known folder names across all accounts, higher priority first
+     */
+    List<String> getFolderNames();
+    
+    /**
+     * Last synced messages of one folder across all accounts, newest first (no network)
+     */
+    List<EmailMessage> getFolderMessages(String folderName, int perAccount);
+    
+    /**
+     * Synced messages of one folder above the last UID already seen per account (accounts
+     * not in the map start from 0), newest first (no network). An account whose folder was
+     * recreated and no longer reaches that UID comes back whole.
+     */
+    List<EmailMessage> getFolderMessagesAfter(String folderName, Map<String, Long> lastUids);
+    
+    /**
+     * A synced message by its location, or null if it is not cached
+     */
+    EmailMessage getMessage(String accountId, String folderName, long uid);
+    
+    /**
+     * Sync one folder of every account now and return the merged view
+     */
+    MailEngine.UnifiedInbox refreshFolder(String folderName, int perAccount) throws MessagingException, InterruptedException;
+    
+    /**
+     * Stable key of the conversation a message belongs to, or null if it has none
+     */
+    String getConversationKey(EmailMessage message);
+    
+    /**
+     * Number of known messages in a message's conversation (0 if it has none)
+     */
+    int getConversationSize(EmailMessage message);
+    
+    /**
+     * Messages of a message's conversation, oldest first; just the message if it has none
+     */
+    List<EmailMessage> getConversation(EmailMessage message);
+    
+    void setSeen(Collection<EmailMessage> messages, boolean seen);
+    
+    void sendEmail(String to, String subject, String body) throws MessagingException;
+    
+    /**
+     * True while no configured account can be reached; cached mail stays readable
+     */
+    boolean isOffline();
+    
+    /**
+     * When the mail shown before the first sync was saved; 0 if there is none
+     */
+    long getSnapshotSavedAt();
+    
+    /**
+     * Keep all folders current in the background; the listener hears about new mail
+     */
+    void startBackgroundSync(MailEngine.Listener listener);
+    
+    /**
+     * Let go of the mail side (an in-process engine disconnects, a client just hangs up)
+     */
+    void shutdown();
+}
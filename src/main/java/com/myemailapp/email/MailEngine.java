@@ -0,0 +1,848 @@
+package com.myemailapp.email;
+
+import com.myemailapp.config.AccountSettings;
+import com.myemailapp.config.AppConfig;
+import com.myemailapp.config.ConfigChangeListener;
+import com.myemailapp.config.ConfigSnapshot;
+import com.myemailapp.trace.Span;
+import com.myemailapp.trace.Tracer;
+
+import javax.mail.MessagingException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * Multi-account mail engine
+ * Keeps one EmailService, backoff state and a set of per-folder sync states per
+ * configured account. Work for all accounts and folders runs concurrently on one
+ * shared, bounded worker pool, so a refresh takes about as long as the slowest
+ * folder rather than the sum of all of them.
+ *
+ * Folder state is restored from a snapshot when the engine is created, so the last
+ * known mail can be shown before any server is contacted, and is saved again whenever
+ * a sync or a local change altered it. While no account can be reached the engine is
+ * offline: cached mail stays readable, but changes to it are refused.
+ */
+public class MailEngine implements MailAccess {
+    public static final String INBOX = "INBOX";
+    
+    private static final int MAX_WORKERS = 8;
+    private static final int MAX_QUEUED = 256;
+    private static final long MIN_BACKOFF_MS = 5_000;
+    private static final long MAX_BACKOFF_MS = 5 * 60_000;
+    private static final long FOLDER_DISCOVERY_INTERVAL_MS = 30 * 60_000;
+    private static final long SCHEDULER_TICK_MS = 20_000;
+    private static final int MESSAGES_PER_FOLDER = 50;
+    // Without CONDSTORE every known message's flags are re-fetched, so do it less often
+    private static final long FLAG_SCAN_INTERVAL_MS = 5 * 60_000;
+    // New table rows after which unreferenced rows are looked for
+    private static final int COMPACT_CHECK_ROWS = 2_000;
+    private static final String SNAPSHOT_FILE = System.getProperty("user.home") +
+                                                File.separator + ".myemailapp" +
+                                                File.separator + "mail-snapshot.bin";
+    
+    private final AppConfig config;
+    private final ConfigChangeListener accountsListener;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, AccountState> accounts = new ConcurrentHashMap<>();
+    private final MessageTable table = new MessageTable();
+    private final ThreadIndex threads = new ThreadIndex();
+    // Held for reading while a sync adds rows and hands them to its folder; compaction
+    // takes it for writing, so it never releases a row that is about to be referenced
+    private final ReadWriteLock rowsLock = new ReentrantReadWriteLock();
+    private int rowsAtLastCompactCheck;
+    // Sends queued flag changes and moves for every account
+    private final ScheduledExecutorService mutationTimer;
+    private ScheduledExecutorService scheduler;
+    private final Path snapshotPath;
+    private final Object snapshotLock = new Object();
+    private volatile boolean snapshotDirty;
+    private volatile long snapshotSavedAt;
+    
+    /**
+     * Notified (on a background thread) when background sync brought new mail, flag
+     * changes or expunges
+     */
+    public interface Listener {
+        void foldersUpdated(Set<String> folderNames);
+    }
+    
+    public MailEngine(AppConfig config) {
+        this(config, Paths.get(SNAPSHOT_FILE));
+    }
+    
+    public MailEngine(AppConfig config, Path snapshotPath) {
+        this.config = config;
+        this.snapshotPath = snapshotPath;
+        
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(MAX_WORKERS, MAX_WORKERS, 30, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED),
+            r -> {
+                Thread thread = new Thread(r, "mail-sync-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        mutationTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mail-mutations");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        // The primary service always exists so sending works before the first refresh
+        accounts.put(AccountSettings.PRIMARY_ID, new AccountState(new EmailService(config), table, threads, rowsLock, mutationTimer));
+        reconcileAccounts(config.snapshot());
+        restoreSnapshot();
+        accountsListener = (previous, current) -> {
+            if (current.accountsChanged(previous)) {
+                reconcileAccounts(current);
+            }
+        };
+        config.addChangeListener(accountsListener);
+    }
+    
+    /**
+     * Service for one account (the primary account's service is always available)
+     */
+    public EmailService getService(String accountId) {
+        AccountState state = accounts.get(accountId);
+        return state != null ? state.service : null;
+    }
+    
+    public EmailService getPrimaryService() {
+        return getService(AccountSettings.PRIMARY_ID);
+    }
+    
+    /**
+     * Compact store backing every cached message
+     */
+    public MessageTable getMessageTable() {
+        return table;
+    }
+    
+    /**
+     * Conversation index over every message synced so far, updated as mail arrives
+     */
+    public ThreadIndex getThreadIndex() {
+        return threads;
+    }
+    
+    /**
+     * Shared worker pool, for other per-account work that should respect the same bound
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+    
+    /**
+     * Fetch new mail for all configured accounts' inboxes in parallel and return the merged
+     * inbox, newest first, keeping up to perAccount messages from each account.
+     */
+    public UnifiedInbox refreshUnifiedInbox(int perAccount) throws MessagingException, InterruptedException {
+        return refreshFolder(INBOX, perAccount);
+    }
+    
+    /**
+     * Sync one folder (by full name) of every account now and return the merged view.
+     * Accounts that fail or are backing off contribute their last known messages.
+     */
+    @Override
+    public UnifiedInbox refreshFolder(String folderName, int perAccount) throws MessagingException, InterruptedException {
+        List<AccountSettings> configured = config.snapshot().getAccounts();
+        if (configured.isEmpty()) {
+            throw new MessagingException("No email account configured");
+        }
+        
+        long now = System.currentTimeMillis();
+        Map<AccountState, Future<?>> running = new LinkedHashMap<>();
+        for (AccountSettings settings : configured) {
+            AccountState state = accounts.get(settings.getId());
+            if (state != null && state.isDue(now)) {
+                running.put(state, executor.submit(Tracer.wrap(() -> {
+                    state.connect();
+                    FolderSyncState folder = state.folder(folderName);
+                    if (folder != null) {
+                        state.syncFolder(folder, Math.max(perAccount, MESSAGES_PER_FOLDER));
+                    }
+                    return null;
+                })));
+            }
+        }
+        
+        List<String> failures = new ArrayList<>();
+        for (Map.Entry<AccountState, Future<?>> entry : running.entrySet()) {
+            try {
+                entry.getValue().get();
+                snapshotDirty = true;
+            } catch (ExecutionException e) {
+                failures.add(entry.getKey().service.getAccountId());
+            } catch (InterruptedException e) {
+                cancelAll(running.values());
+                throw e;
+            }
+        }
+        
+        List<EmailMessage> merged = new ArrayList<>();
+        for (AccountSettings settings : configured) {
+            AccountState state = accounts.get(settings.getId());
+            if (state == null) {
+                continue;
+            }
+            FolderSyncState folder = state.folders.get(folderName);
+            if (folder != null) {
+                List<EmailMessage> messages = folder.getMessages();
+                merged.addAll(messages.subList(0, Math.min(perAccount, messages.size())));
+            }
+            if (!running.containsKey(state) && state.lastError != null) {
+                failures.add(settings.getId());
+            }
+        }
+        merged.sort(NEWEST_FIRST);
+        
+        if (merged.isEmpty() && failures.size() == configured.size()) {
+            AccountState first = accounts.get(configured.get(0).getId());
+            throw new MessagingException(first != null && first.lastError != null
+                ? first.lastError : "Could not reach any email account");
+        }
+        return new UnifiedInbox(merged, failures, configured.size());
+    }
+    
+    /**
+     * Sync every folder that is due, across all accounts, in parallel.
+     * Phase one connects and (re)discovers folders per account; phase two runs one task
+     * per due folder, so no worker ever blocks waiting on another queued task.
+     *
+     * @return names of folders that received new mail
+     */
+    public Set<String> syncDueFolders() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        List<AccountState> ready = new ArrayList<>();
+        Map<AccountState, Future<?>> connecting = new LinkedHashMap<>();
+        for (AccountSettings settings : config.snapshot().getAccounts()) {
+            AccountState state = accounts.get(settings.getId());
+            if (state != null && state.isDue(now)) {
+                connecting.put(state, executor.submit(() -> {
+                    state.connect();
+                    state.discoverFoldersIfStale();
+                    return null;
+                }));
+            }
+        }
+        for (Map.Entry<AccountState, Future<?>> entry : connecting.entrySet()) {
+            try {
+                entry.getValue().get();
+                ready.add(entry.getKey());
+            } catch (ExecutionException e) {
+                // Backoff is recorded by the account state
+            } catch (InterruptedException e) {
+                cancelAll(connecting.values());
+                throw e;
+            }
+        }
+        
+        Map<FolderSyncState, Future<Boolean>> syncing = new LinkedHashMap<>();
+        for (AccountState state : ready) {
+            for (FolderSyncState folder : state.folders.values()) {
+                if (folder.isDue(now)) {
+                    syncing.put(folder, executor.submit(() -> state.syncFolder(folder, MESSAGES_PER_FOLDER)));
+                }
+            }
+        }
+        Set<String> updated = new TreeSet<>();
+        for (Map.Entry<FolderSyncState, Future<Boolean>> entry : syncing.entrySet()) {
+            try {
+                if (entry.getValue().get()) {
+                    updated.add(entry.getKey().getName());
+                }
+            } catch (ExecutionException e) {
+                // Retry interval is recorded by the folder state
+            } catch (InterruptedException e) {
+                cancelAll(syncing.values());
+                throw e;
+            }
+        }
+        return updated;
+    }
+    
+    /**
+     * Keep all folders current in the background; the listener hears about new mail
+     */
+    @Override
+    public synchronized void startBackgroundSync(Listener listener) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "mail-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                Set<String> updated = syncDueFolders();
+                if (!updated.isEmpty()) {
+                    snapshotDirty = true;
+                    listener.foldersUpdated(updated);
+                }
+                saveSnapshotIfDirty();
+                compactTableIfSparse();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, 0, SCHEDULER_TICK_MS, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Known folder names across all accounts, higher priority first
+     */
+    @Override
+    public List<String> getFolderNames() {
+        Map<String, FolderPriority> names = new HashMap<>();
+        for (AccountState state : accounts.values()) {
+            for (FolderSyncState folder : state.folders.values()) {
+                names.merge(folder.getName(), folder.getPriority(), (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+        }
+        List<String> result = new ArrayList<>(names.keySet());
+        result.sort(Comparator.comparing((String name) -> names.get(name)).thenComparing(name -> name));
+        return result;
+    }
+    
+    /**
+     * Last synced messages of one folder across all accounts, newest first (no network)
+     */
+    @Override
+    public List<EmailMessage> getFolderMessages(String folderName, int perAccount) {
+        List<EmailMessage> merged = new ArrayList<>();
+        for (AccountState state : accounts.values()) {
+            FolderSyncState folder = state.folders.get(folderName);
+            if (folder != null) {
+                List<EmailMessage> messages = folder.getMessages();
+                merged.addAll(messages.subList(0, Math.min(perAccount, messages.size())));
+            }
+        }
+        merged.sort(NEWEST_FIRST);
+        return merged;
+    }
+    
+    @Override
+    public List<EmailMessage> getFolderMessagesAfter(String folderName, Map<String, Long> lastUids) {
+        List<EmailMessage> merged = new ArrayList<>();
+        for (Map.Entry<String, AccountState> entry : accounts.entrySet()) {
+            FolderSyncState folder = entry.getValue().folders.get(folderName);
+            if (folder == null) {
+                continue;
+            }
+            long after = lastUids.getOrDefault(entry.getKey(), 0L);
+            if (folder.getCursor().getLastUid() < after) {
+                // New UIDVALIDITY: the recreated folder numbers its messages from 1 again
+                after = 0;
+            }
+            for (EmailMessage message : folder.getMessages()) {
+                if (message.getUid() > after) {
+                    merged.add(message);
+                }
+            }
+        }
+        merged.sort(NEWEST_FIRST);
+        return merged;
+    }
+    
+    /**
+     * A synced message by its location, or null if it is not cached (no network)
+     */
+    @Override
+    public EmailMessage getMessage(String accountId, String folderName, long uid) {
+        AccountState state = accountId != null ? accounts.get(accountId) : null;
+        FolderSyncState folder = state != null ? state.folders.get(folderName) : null;
+        if (folder == null) {
+            return null;
+        }
+        for (EmailMessage message : folder.getMessages()) {
+            if (message.getUid() == uid) {
+                return message;
+            }
+        }
+        return null;
+    }
+    
+    /**
+     * Mark messages read or unread
+     */
+    @Override
+    public void setSeen(Collection<EmailMessage> messages, boolean seen) {
+        changeFlags(messages, seen ? EmailMessage.SEEN : 0, seen ? 0 : EmailMessage.SEEN);
+    }
+    
+    @Override
+    public String getConversationKey(EmailMessage message) {
+        int thread = threads.threadOf(message);
+        return thread >= 0 ? threads.getThreadKey(thread) : null;
+    }
+    
+    @Override
+    public int getConversationSize(EmailMessage message) {
+        return threads.getThreadSize(threads.threadOf(message));
+    }
+    
+    @Override
+    public List<EmailMessage> getConversation(EmailMessage message) {
+        int thread = threads.threadOf(message);
+        return thread >= 0 ? threads.getThread(thread) : Collections.singletonList(message);
+    }
+    
+    /**
+     * Send from the primary account
+     */
+    @Override
+    public void sendEmail(String to, String subject, String body) throws MessagingException {
+        getPrimaryService().sendEmail(to, subject, body);
+    }
+    
+    /**
+     * Star or unstar messages
+     */
+    public void setFlagged(Collection<EmailMessage> messages, boolean flagged) {
+        changeFlags(messages, flagged ? EmailMessage.FLAGGED : 0, flagged ? 0 : EmailMessage.FLAGGED);
+    }
+    
+    /**
+     * Delete messages permanently
+     */
+    public void delete(Collection<EmailMessage> messages) {
+        move(messages, MutationQueue.EXPUNGE, EmailMessage.DELETED);
+    }
+    
+    /**
+     * Move messages to the account's archive folder
+     */
+    public void archive(Collection<EmailMessage> messages) {
+        move(messages, MutationQueue.ARCHIVE, 0);
+    }
+    
+    /**
+     * Move messages to another folder (full name) of the same account
+     */
+    public void move(Collection<EmailMessage> messages, String targetFolder) {
+        move(messages, targetFolder, 0);
+    }
+    
+    /**
+     * Send queued flag changes and moves now instead of waiting for the next flush
+     */
+    public void flushChanges() {
+        for (AccountState state : accounts.values()) {
+            state.mutations.flush();
+        }
+    }
+    
+    /**
+     * Changes show in the cached messages immediately and reach the server with the
+     * account's next flush
+     */
+    private void changeFlags(Collection<EmailMessage> messages, int add, int remove) {
+        for (EmailMessage message : messages) {
+            AccountState state = stateOf(message);
+            FolderSyncState folder = state != null && !state.isOffline() ? state.folder(message.getFolder()) : null;
+            if (folder == null || message.getUid() <= 0) {
+                continue;
+            }
+            int flags = (message.getFlags() | add) & ~remove;
+            if (flags != message.getFlags()) {
+                message.setFlags(flags);
+                snapshotDirty = true;
+                state.mutations.changeFlags(folder.getName(), folder.getCursor().getUidValidity(), message.getUid(), add, remove);
+            }
+        }
+    }
+    
+    private void move(Collection<EmailMessage> messages, String target, int localFlags) {
+        for (EmailMessage message : messages) {
+            AccountState state = stateOf(message);
+            FolderSyncState folder = state != null && !state.isOffline() ? state.folder(message.getFolder()) : null;
+            if (folder == null || message.getUid() <= 0 || folder.getName().equals(target)) {
+                continue;
+            }
+            synchronized (folder) {
+                folder.remove(UidSet.of(message.getUid()), localFlags);
+            }
+            snapshotDirty = true;
+            state.mutations.move(folder.getName(), folder.getCursor().getUidValidity(), message.getUid(), target);
+        }
+    }
+    
+    private AccountState stateOf(EmailMessage message) {
+        String accountId = message.getAccountId() != null ? message.getAccountId() : AccountSettings.PRIMARY_ID;
+        return accounts.get(accountId);
+    }
+    
+    /**
+     * True while no configured account could be reached on its last attempt; cached mail
+     * stays readable, but flag changes, moves and deletes are ignored until one reconnects
+     */
+    @Override
+    public boolean isOffline() {
+        List<AccountSettings> configured = config.snapshot().getAccounts();
+        for (AccountSettings settings : configured) {
+            AccountState state = accounts.get(settings.getId());
+            if (state != null && !state.isOffline()) {
+                return false;
+            }
+        }
+        return !configured.isEmpty();
+    }
+    
+    /**
+     * When the restored or last saved snapshot was written; 0 if there is none
+     */
+    @Override
+    public long getSnapshotSavedAt() {
+        return snapshotSavedAt;
+    }
+    
+    /**
+     * Write the folder snapshot now if anything changed since it was last written
+     */
+    public void saveSnapshotIfDirty() {
+        synchronized (snapshotLock) {
+            if (!snapshotDirty) {
+                return;
+            }
+            // Cleared first, so a change made while writing marks it dirty again
+            snapshotDirty = false;
+            Map<String, Collection<FolderSyncState>> folders = new LinkedHashMap<>();
+            for (AccountSettings settings : config.snapshot().getAccounts()) {
+                AccountState state = accounts.get(settings.getId());
+                if (state != null) {
+                    folders.put(settings.getId(), new ArrayList<>(state.folders.values()));
+                }
+            }
+            try {
+                MailSnapshot.write(snapshotPath, folders);
+                snapshotSavedAt = System.currentTimeMillis();
+            } catch (IOException e) {
+                System.err.println("Error saving mail snapshot: " + e.getMessage());
+                snapshotDirty = true;
+            }
+        }
+    }
+    
+    /**
+     * Give back the text of rows no folder or conversation refers to any more (left behind
+     * by folder resets, refetches and trimmed folders) once they make up a quarter of the
+     * table. Skipped while a sync is adding rows; the next tick tries again.
+     */
+    private void compactTableIfSparse() {
+        int rows = table.size();
+        if (rows - rowsAtLastCompactCheck < COMPACT_CHECK_ROWS || !rowsLock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            rowsAtLastCompactCheck = rows;
+            BitSet live = new BitSet(rows);
+            Consumer<EmailMessage> mark = message -> {
+                int row = message.rowIn(table);
+                if (row >= 0) {
+                    live.set(row);
+                }
+            };
+            for (AccountState state : accounts.values()) {
+                for (FolderSyncState folder : state.folders.values()) {
+                    folder.getMessages().forEach(mark);
+                }
+            }
+            threads.forEachMessage(mark);
+            int used = table.size() - table.releasedRows();
+            if ((used - live.cardinality()) * 4 > used) {
+                table.compact(live);
+            }
+        } finally {
+            rowsLock.writeLock().unlock();
+        }
+    }
+    
+    /**
+     * Load the last snapshot into the configured accounts; the restored folders are due
+     * at once, so background sync reconciles them with the servers
+     */
+    private void restoreSnapshot() {
+        MailSnapshot snapshot = MailSnapshot.read(snapshotPath, table);
+        if (snapshot == null) {
+            return;
+        }
+        for (Map.Entry<String, List<FolderSyncState>> entry : snapshot.getAccounts().entrySet()) {
+            AccountState state = accounts.get(entry.getKey());
+            if (state == null) {
+                // Account was removed from the settings since
+                continue;
+            }
+            for (FolderSyncState folder : entry.getValue()) {
+                for (EmailMessage message : folder.getMessages()) {
+                    threads.add(message);
+                }
+                state.folders.put(folder.getName(), folder);
+            }
+        }
+        snapshotSavedAt = snapshot.getSavedAt();
+    }
+    
+    /**
+     * Send pending changes, disconnect every account and stop the worker pool
+     */
+    @Override
+    public void shutdown() {
+        config.removeChangeListener(accountsListener);
+        synchronized (this) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+            }
+        }
+        executor.shutdownNow();
+        mutationTimer.shutdownNow();
+        for (AccountState state : accounts.values()) {
+            state.mutations.flush();
+            state.service.shutdown();
+        }
+        saveSnapshotIfDirty();
+    }
+    
+    /**
+     * Cancel sibling tasks when the caller stops waiting, so no orphaned work keeps running
+     */
+    private static void cancelAll(Collection<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
+        }
+    }
+    
+    private synchronized void reconcileAccounts(ConfigSnapshot snapshot) {
+        Set<String> configuredIds = new HashSet<>();
+        for (AccountSettings settings : snapshot.getAccounts()) {
+            configuredIds.add(settings.getId());
+            AccountState state = accounts.get(settings.getId());
+            if (state == null) {
+                accounts.put(settings.getId(), new AccountState(new EmailService(config, settings.getId()), table, threads, rowsLock, mutationTimer));
+            } else if (!settings.equals(state.settings)) {
+                // Credentials or servers changed: the next sync reconnects with the new settings
+                state.reset();
+            }
+            accounts.get(settings.getId()).settings = settings;
+        }
+        for (Iterator<Map.Entry<String, AccountState>> it = accounts.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, AccountState> entry = it.next();
+            if (!configuredIds.contains(entry.getKey())) {
+                if (entry.getKey().equals(AccountSettings.PRIMARY_ID)) {
+                    entry.getValue().reset();
+                } else {
+                    entry.getValue().service.shutdown();
+                    it.remove();
+                }
+            }
+        }
+    }
+    
+    private static final Comparator<EmailMessage> NEWEST_FIRST = (a, b) -> {
+        long left = a.getDate() != null ? a.getDate().getTime() : 0;
+        long right = b.getDate() != null ? b.getDate().getTime() : 0;
+        return Long.compare(right, left);
+    };
+    
+    /**
+     * Connection, folder and retry state for one account
+     */
+    private static class AccountState {
+        private final EmailService service;
+        private final MessageTable table;
+        private final ThreadIndex threads;
+        private final ReadWriteLock rowsLock;
+        private final Map<String, FolderSyncState> folders = new ConcurrentHashMap<>();
+        private final MutationQueue mutations;
+        private final Object connectLock = new Object();
+        private volatile AccountSettings settings;
+        private volatile long foldersDiscoveredAt;
+        private volatile int failures;
+        private volatile long nextAttemptAt;
+        private volatile String lastError;
+        
+        AccountState(EmailService service, MessageTable table, ThreadIndex threads, ReadWriteLock rowsLock,
+                     ScheduledExecutorService mutationTimer) {
+            this.service = service;
+            this.table = table;
+            this.threads = threads;
+            this.rowsLock = rowsLock;
+            this.mutations = new MutationQueue(service, mutationTimer, this::mutationFailed);
+            folders.put(INBOX, new FolderSyncState(INBOX, FolderPriority.HIGH));
+        }
+        
+        boolean isDue(long now) {
+            return now >= nextAttemptAt;
+        }
+        
+        /**
+         * The last connection attempt failed
+         */
+        boolean isOffline() {
+            return lastError != null;
+        }
+        
+        FolderSyncState folder(String name) {
+            return folders.get(name);
+        }
+        
+        void connect() throws MessagingException {
+            synchronized (connectLock) {
+                try {
+                    service.connect();
+                    failures = 0;
+                    nextAttemptAt = 0;
+                    lastError = null;
+                } catch (MessagingException | RuntimeException e) {
+                    failures++;
+                    long delay = Math.min(MAX_BACKOFF_MS, MIN_BACKOFF_MS << Math.min(failures - 1, 6));
+                    nextAttemptAt = System.currentTimeMillis() + delay;
+                    lastError = e.getMessage();
+                    service.disconnect();
+                    throw e;
+                }
+            }
+        }
+        
+        void discoverFoldersIfStale() throws MessagingException {
+            long now = System.currentTimeMillis();
+            if (now - foldersDiscoveredAt < FOLDER_DISCOVERY_INTERVAL_MS) {
+                return;
+            }
+            Map<String, FolderPriority> discovered = service.listFolders();
+            for (Map.Entry<String, FolderPriority> entry : discovered.entrySet()) {
+                FolderSyncState existing = folders.get(entry.getKey());
+                if (existing == null) {
+                    folders.put(entry.getKey(), new FolderSyncState(entry.getKey(), entry.getValue()));
+                } else {
+                    existing.setPriority(entry.getValue());
+                }
+            }
+            folders.keySet().retainAll(discovered.keySet());
+            foldersDiscoveredAt = now;
+        }
+        
+        /**
+         * Sync one folder; returns true if it received new mail or cached messages changed
+         */
+        boolean syncFolder(FolderSyncState folder, int limit) throws MessagingException {
+            // Local changes still queued would be undone by the resync. Flushed before taking
+            // the folder's monitor: a failed flush takes it too (mutationFailed)
+            mutations.flush();
+            synchronized (folder) {
+                long startedAt = System.currentTimeMillis();
+                try (Span span = Tracer.start("sync").tag("account", service.getAccountId()).tag("folder", folder.getName())) {
+                    boolean changed = false;
+                    if (!folder.getMessages().isEmpty() && isResyncDue(folder)) {
+                        FolderChanges changes = service.resync(folder.getName(), folder.getCursor(), folder.knownUids());
+                        if (changes.isUidValidityChanged()) {
+                            // Folder was recreated; refetch it from scratch below
+                            folder.reset();
+                            changed = true;
+                        } else {
+                            changed = folder.apply(changes);
+                        }
+                    }
+                    rowsLock.readLock().lock();
+                    try {
+                        List<EmailMessage> fresh = Collections.emptyList();
+                        if (service.mayHaveNewMail(folder.getName(), folder.getCursor())) {
+                            // Keep only compact table rows; the fetched copies become garbage right away
+                            fresh = table.addAll(service.fetchNewEmails(folder.getName(), folder.getCursor(), limit));
+                        }
+                        for (EmailMessage message : fresh) {
+                            threads.add(message);
+                        }
+                        span.tag("new", fresh.size()).tag("changed", changed);
+                        return folder.synced(fresh, limit, startedAt) || changed;
+                    } finally {
+                        rowsLock.readLock().unlock();
+                    }
+                } catch (MessagingException | RuntimeException e) {
+                    folder.failed(e);
+                    throw e;
+                }
+            }
+        }
+        
+        /**
+         * Changes that never reached the server were already shown locally; refetch the
+         * folder so the cache matches the server again. If the connection was lost, keep
+         * the cached mail readable and compare every flag on the next resync instead.
+         */
+        private void mutationFailed(String folderName) {
+            FolderSyncState folder = folders.get(folderName);
+            if (folder != null) {
+                synchronized (folder) {
+                    if (service.isConnected()) {
+                        folder.reset();
+                    } else {
+                        folder.invalidateFlags();
+                    }
+                }
+            }
+        }
+        
+        private boolean isResyncDue(FolderSyncState folder) throws MessagingException {
+            if (service.hasCondstore()) {
+                return service.mayHaveFlagChanges(folder.getName(), folder.getCursor());
+            }
+            return System.currentTimeMillis() - folder.getLastResyncAt() >= FLAG_SCAN_INTERVAL_MS;
+        }
+        
+        void reset() {
+            synchronized (connectLock) {
+                service.disconnect();
+                for (FolderSyncState folder : folders.values()) {
+                    folder.reset();
+                }
+                foldersDiscoveredAt = 0;
+                failures = 0;
+                nextAttemptAt = 0;
+                lastError = null;
+            }
+        }
+    }
+    
+    /**
+     * Result of a unified refresh: merged messages plus the accounts that could not be synced
+     */
+    public static class UnifiedInbox {
+        private final List<EmailMessage> messages;
+        private final List<String> failedAccounts;
+        private final int accountCount;
+        
+        public UnifiedInbox(List<EmailMessage> messages, List<String> failedAccounts, int accountCount) {
+            this.messages = Collections.unmodifiableList(messages);
+            this.failedAccounts = Collections.unmodifiableList(failedAccounts);
+            this.accountCount = accountCount;
+        }
+        
+        public List<EmailMessage> getMessages() {
+            return messages;
+        }
+        
+        public List<String> getFailedAccounts() {
+            return failedAccounts;
+        }
+        
+        public int getAccountCount() {
+            return accountCount;
+        }
+    }
+}
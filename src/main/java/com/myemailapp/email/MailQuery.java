@@ -0,0 +1,107 @@
+package com.myemailapp.email;
+
+import javax.mail.Flags;
+import javax.mail.search.*;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Mail search criteria, evaluated by the IMAP server
+ *
+ * All criteria must match. Built fluently, e.g.
+ * {@code new MailQuery().from("alice").since(lastWeek).unread()}; EmailService.search
+ * compiles it into a UID SEARCH so only the matching UIDs come back.
+ */
+public class MailQuery {
+    private final List<SearchTerm> terms = new ArrayList<>();
+    
+    /**
+     * Sender name or address contains the text
+     */
+    public MailQuery from(String text) {
+        terms.add(new FromStringTerm(text));
+        return this;
+    }
+    
+    /**
+     * A To or Cc recipient contains the text
+     */
+    public MailQuery to(String text) {
+        terms.add(new OrTerm(new RecipientStringTerm(javax.mail.Message.RecipientType.TO, text),
+                             new RecipientStringTerm(javax.mail.Message.RecipientType.CC, text)));
+        return this;
+    }
+    
+    /**
+     * Subject contains the text
+     */
+    public MailQuery subject(String text) {
+        terms.add(new SubjectTerm(text));
+        return this;
+    }
+    
+    /**
+     * Body contains the text
+     */
+    public MailQuery body(String text) {
+        terms.add(new BodyTerm(text));
+        return this;
+    }
+    
+    /**
+     * Received on or after the day of the given date (IMAP compares whole days)
+     */
+    public MailQuery since(Date date) {
+        terms.add(new ReceivedDateTerm(ComparisonTerm.GE, date));
+        return this;
+    }
+    
+    /**
+     * Received before the day of the given date
+     */
+    public MailQuery before(Date date) {
+        terms.add(new ReceivedDateTerm(ComparisonTerm.LT, date));
+        return this;
+    }
+    
+    public MailQuery unread() {
+        terms.add(new FlagTerm(new Flags(Flags.Flag.SEEN), false));
+        return this;
+    }
+    
+    public MailQuery flagged() {
+        terms.add(new FlagTerm(new Flags(Flags.Flag.FLAGGED), true));
+        return this;
+    }
+    
+    /**
+     * Larger than the given size in bytes
+     */
+    public MailQuery largerThan(int bytes) {
+        terms.add(new SizeTerm(ComparisonTerm.GT, bytes));
+        return this;
+    }
+    
+    /**
+     * Smaller than the given size in bytes
+     */
+    public MailQuery smallerThan(int bytes) {
+        terms.add(new SizeTerm(ComparisonTerm.LT, bytes));
+        return this;
+    }
+    
+    public boolean isEmpty() {
+        return terms.isEmpty();
+    }
+    
+    /**
+     * The criteria as one JavaMail search term (null when there are none, meaning "all")
+     */
+    public SearchTerm toSearchTerm() {
+        if (terms.isEmpty()) {
+            return null;
+        }
+        return terms.size() == 1 ? terms.get(0) : new AndTerm(terms.toArray(new SearchTerm[0]));
+    }
+}
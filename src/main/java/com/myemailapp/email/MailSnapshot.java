@@ -0,0 +1,184 @@
+package com.myemailapp.email;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Last known folders of every account, saved so the app opens with mail on screen
+ *
+ * For each folder the snapshot keeps its priority, its sync cursor (UIDVALIDITY, last UID
+ * and HIGHESTMODSEQ) and its cached messages, in a gzip-compressed binary file. Restored
+ * folders continue from their cursors, so the first background sync after a restart only
+ * fetches what arrived while the app was closed and resyncs flags since the saved
+ * mod-sequence; until it succeeds the restored mail is all there is, which is what keeps
+ * the app usable offline.
+ */
+class MailSnapshot {
+    private static final int MAGIC = 0x4D534E50;
+    private static final int VERSION = 1;
+    
+    private final long savedAt;
+    private final Map<String, List<FolderSyncState>> accounts;
+    
+    private MailSnapshot(long savedAt, Map<String, List<FolderSyncState>> accounts) {
+        this.savedAt = savedAt;
+        this.accounts = accounts;
+    }
+    
+    /**
+     * When the snapshot was written
+     */
+    long getSavedAt() {
+        return savedAt;
+    }
+    
+    /**
+     * Restored folders per account id, messages already added to the table
+     */
+    Map<String, List<FolderSyncState>> getAccounts() {
+        return accounts;
+    }
+    
+    /**
+     * Read a snapshot; null if there is none or it cannot be used
+     */
+    static MailSnapshot read(Path file, MessageTable table) {
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(Files.newInputStream(file))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long savedAt = in.readLong();
+            Map<String, List<FolderSyncState>> accounts = new LinkedHashMap<>();
+            int accountCount = in.readInt();
+            for (int a = 0; a < accountCount; a++) {
+                String accountId = readString(in);
+                int folderCount = in.readInt();
+                List<FolderSyncState> folders = new ArrayList<>(folderCount);
+                for (int f = 0; f < folderCount; f++) {
+                    folders.add(readFolder(in, accountId, table));
+                }
+                accounts.put(accountId, folders);
+            }
+            return new MailSnapshot(savedAt, accounts);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Ignoring unreadable mail snapshot: " + e);
+            return null;
+        }
+    }
+    
+    /**
+     * Write the folders of every account, replacing the previous snapshot atomically
+     */
+    static void write(Path file, Map<String, Collection<FolderSyncState>> accounts) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(Files.newOutputStream(temp))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(accounts.size());
+            for (Map.Entry<String, Collection<FolderSyncState>> account : accounts.entrySet()) {
+                writeString(out, account.getKey());
+                out.writeInt(account.getValue().size());
+                for (FolderSyncState folder : account.getValue()) {
+                    writeFolder(out, folder);
+                }
+            }
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    private static void writeFolder(DataOutputStream out, FolderSyncState folder) throws IOException {
+        // Cursor before messages: a sync finishing in between can only make the cursor
+        // lag the messages, which restore corrects, never skip mail
+        SyncCursor cursor = folder.getCursor();
+        long uidValidity = cursor.getUidValidity();
+        long lastUid = cursor.getLastUid();
+        long highestModSeq = cursor.getHighestModSeq();
+        List<EmailMessage> messages = folder.getMessages();
+        
+        writeString(out, folder.getName());
+        out.writeByte(folder.getPriority().ordinal());
+        out.writeLong(uidValidity);
+        out.writeLong(lastUid);
+        out.writeLong(highestModSeq);
+        out.writeLong(folder.getLastSyncAt());
+        out.writeInt(messages.size());
+        for (EmailMessage message : messages) {
+            out.writeLong(message.getUid());
+            out.writeInt(message.getFlags());
+            out.writeLong(message.getDate() != null ? message.getDate().getTime() : Long.MIN_VALUE);
+            writeString(out, message.getFrom());
+            writeString(out, message.getSubject());
+            writeString(out, message.getMessageId());
+            writeString(out, message.getInReplyTo());
+            String[] references = message.getReferences();
+            writeString(out, references != null ? String.join(" ", references) : null);
+            writeString(out, message.getBody());
+        }
+    }
+    
+    private static FolderSyncState readFolder(DataInputStream in, String accountId, MessageTable table) throws IOException {
+        String name = readString(in);
+        FolderPriority priority = FolderPriority.values()[in.readUnsignedByte()];
+        long uidValidity = in.readLong();
+        long lastUid = in.readLong();
+        long highestModSeq = in.readLong();
+        long lastSyncAt = in.readLong();
+        int count = in.readInt();
+        List<EmailMessage> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            long uid = in.readLong();
+            int flags = in.readInt();
+            long date = in.readLong();
+            String from = readString(in);
+            String subject = readString(in);
+            String messageId = readString(in);
+            String inReplyTo = readString(in);
+            String references = readString(in);
+            String body = readString(in);
+            EmailMessage message = new EmailMessage(accountId, name, uid, from, subject, body,
+                                                    date != Long.MIN_VALUE ? new Date(date) : null);
+            message.setThreadHeaders(messageId, inReplyTo, references != null && !references.isEmpty() ? references.split(" ") : null);
+            message.setFlags(flags);
+            messages.add(message);
+            lastUid = Math.max(lastUid, uid);
+        }
+        FolderSyncState folder = new FolderSyncState(name, priority);
+        folder.restore(uidValidity, lastUid, highestModSeq, table.addAll(messages), lastSyncAt);
+        return folder;
+    }
+    
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
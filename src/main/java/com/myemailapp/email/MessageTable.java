@@ -0,0 +1,235 @@
+package com.myemailapp.email;
+
+import java.util.*;
+
+/**
+ * Compact store for cached messages
+ *
+ * Each message is a row across parallel primitive columns. Account, folder and sender
+ * strings are interned into dictionaries and stored as indexes; subject, threading headers
+ * and body are kept UTF-8 encoded in an off-heap TextArena. A row costs a few dozen bytes of
+ * heap no matter how long the mail is, and is read through a lightweight EmailMessage view
+ * that decodes fields on access. Rows are only ever appended; the text of rows nothing
+ * refers to any more is given back by {@link #compact}.
+ */
+public class MessageTable {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long NO_DATE = Long.MIN_VALUE;
+    private static final int SUBJECT = 0;
+    private static final int MESSAGE_ID = 1;
+    private static final int IN_REPLY_TO = 2;
+    private static final int REFERENCES = 3;
+    private static final int HEADER_VALUES = 4;
+    
+    private final Dictionary accounts = new Dictionary();
+    private final Dictionary folders = new Dictionary();
+    private final Dictionary senders = new Dictionary();
+    private TextArena arena = new TextArena();
+    private int size;
+    private int releasedRows;
+    private int[] accountColumn = new int[INITIAL_CAPACITY];
+    private int[] folderColumn = new int[INITIAL_CAPACITY];
+    private int[] senderColumn = new int[INITIAL_CAPACITY];
+    private int[] flagsColumn = new int[INITIAL_CAPACITY];
+    private long[] uidColumn = new long[INITIAL_CAPACITY];
+    private long[] dateColumn = new long[INITIAL_CAPACITY];
+    private long[] headerColumn = new long[INITIAL_CAPACITY];  // arena record: subject, ids
+    private long[] bodyColumn = new long[INITIAL_CAPACITY];    // arena record: body
+    
+    /**
+     * Copy a message into the table and return a view of the new row.
+     * Views of this table are returned unchanged.
+     */
+    public synchronized EmailMessage add(EmailMessage message) {
+        if (message.isViewOf(this)) {
+            return message;
+        }
+        ensureCapacity(size + 1);
+        int row = size;
+        accountColumn[row] = accounts.intern(message.getAccountId());
+        folderColumn[row] = folders.intern(message.getFolder());
+        senderColumn[row] = senders.intern(message.getFrom());
+        flagsColumn[row] = message.getFlags();
+        uidColumn[row] = message.getUid();
+        dateColumn[row] = message.getDate() != null ? message.getDate().getTime() : NO_DATE;
+        String[] references = message.getReferences();
+        headerColumn[row] = arena.append(message.getSubject(), message.getMessageId(), message.getInReplyTo(),
+                                         references != null ? String.join(" ", references) : null);
+        bodyColumn[row] = arena.append(message.getBody());
+        size++;
+        return new EmailMessage(this, row);
+    }
+    
+    /**
+     * Copy a batch of messages, keeping their order
+     */
+    public List<EmailMessage> addAll(List<EmailMessage> messages) {
+        List<EmailMessage> views = new ArrayList<>(messages.size());
+        for (EmailMessage message : messages) {
+            views.add(add(message));
+        }
+        return views;
+    }
+    
+    /**
+     * View of an existing row
+     */
+    public synchronized EmailMessage get(int row) {
+        checkRow(row);
+        return new EmailMessage(this, row);
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    /**
+     * Approximate heap used by the columns and dictionaries, in bytes
+     */
+    public synchronized long heapBytes() {
+        long columns = (long) accountColumn.length * (4 * Integer.BYTES + 4 * Long.BYTES);
+        return columns + accounts.heapBytes() + folders.heapBytes() + senders.heapBytes();
+    }
+    
+    /**
+     * Off-heap bytes reserved for subjects, headers and bodies
+     */
+    public synchronized long offHeapBytes() {
+        return arena.bytesReserved();
+    }
+    
+    /**
+     * Give back the text of every row not in {@code live}, copying the rest into a fresh
+     * arena. Row numbers stay valid; a released row reads as a message without subject or
+     * body. Callers must make sure no row is being added and not yet referenced meanwhile.
+     * Returns the number of released rows.
+     */
+    public synchronized int compact(BitSet live) {
+        TextArena compacted = new TextArena();
+        long emptyHeader = compacted.append("", null, null, null);
+        long emptyBody = compacted.append("");
+        int released = 0;
+        for (int row = 0; row < size; row++) {
+            if (live.get(row)) {
+                headerColumn[row] = compacted.copy(arena, headerColumn[row], HEADER_VALUES);
+                bodyColumn[row] = compacted.copy(arena, bodyColumn[row], 1);
+            } else {
+                headerColumn[row] = emptyHeader;
+                bodyColumn[row] = emptyBody;
+                released++;
+            }
+        }
+        arena = compacted;
+        releasedRows = released;
+        return released;
+    }
+    
+    /**
+     * Rows whose text was given back by the last compaction
+     */
+    public synchronized int releasedRows() {
+        return releasedRows;
+    }
+    
+    synchronized String accountId(int row) {
+        return accounts.get(accountColumn[row]);
+    }
+    
+    synchronized String folder(int row) {
+        return folders.get(folderColumn[row]);
+    }
+    
+    synchronized String from(int row) {
+        return senders.get(senderColumn[row]);
+    }
+    
+    synchronized long uid(int row) {
+        return uidColumn[row];
+    }
+    
+    synchronized Date date(int row) {
+        return dateColumn[row] != NO_DATE ? new Date(dateColumn[row]) : null;
+    }
+    
+    synchronized int flags(int row) {
+        return flagsColumn[row];
+    }
+    
+    synchronized void setFlags(int row, int flags) {
+        flagsColumn[row] = flags;
+    }
+    
+    synchronized String subject(int row) {
+        return arena.read(headerColumn[row], SUBJECT);
+    }
+    
+    synchronized String messageId(int row) {
+        return arena.read(headerColumn[row], MESSAGE_ID);
+    }
+    
+    synchronized String inReplyTo(int row) {
+        return arena.read(headerColumn[row], IN_REPLY_TO);
+    }
+    
+    synchronized String[] references(int row) {
+        String references = arena.read(headerColumn[row], REFERENCES);
+        return references != null ? references.split(" ") : null;
+    }
+    
+    synchronized String body(int row) {
+        return arena.read(bodyColumn[row], 0);
+    }
+    
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row " + row + " of " + size);
+        }
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity <= accountColumn.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, accountColumn.length * 2);
+        accountColumn = Arrays.copyOf(accountColumn, newCapacity);
+        folderColumn = Arrays.copyOf(folderColumn, newCapacity);
+        senderColumn = Arrays.copyOf(senderColumn, newCapacity);
+        flagsColumn = Arrays.copyOf(flagsColumn, newCapacity);
+        uidColumn = Arrays.copyOf(uidColumn, newCapacity);
+        dateColumn = Arrays.copyOf(dateColumn, newCapacity);
+        headerColumn = Arrays.copyOf(headerColumn, newCapacity);
+        bodyColumn = Arrays.copyOf(bodyColumn, newCapacity);
+    }
+    
+    /**
+     * Interned strings referenced by index; index 0 is null
+     */
+    private static final class Dictionary {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> values = new ArrayList<>(Collections.singletonList(null));
+        private long chars;
+        
+        int intern(String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = values.size();
+                values.add(value);
+                indexes.put(value, index);
+                chars += value.length();
+            }
+            return index;
+        }
+        
+        String get(int index) {
+            return values.get(index);
+        }
+        
+        long heapBytes() {
+            // String, backing array and map entry per value, roughly
+            return values.size() * 96L + chars;
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.myemailapp.email;
+
+import javax.mail.MessagingException;
+import java.util.*;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Pending flag changes, moves and deletes for one account, sent as UID-range commands
+ *
+ * MailEngine applies each change to the cached messages right away; the queue only has to
+ * get it to the server. Changes to the same UID are merged (read then unread cancels out),
+ * then grouped per folder and per identical change, so each group is one UID STORE or
+ * UID MOVE over compressed ranges. A bulk action on thousands of messages is a handful of
+ * round trips. The queue is flushed shortly after the first change, or at once when many
+ * messages are pending.
+ */
+class MutationQueue {
+    /**
+     * Move target meaning "expunge"
+     */
+    static final String EXPUNGE = "";
+    /**
+     * Move target meaning "the account's archive folder", resolved when sending
+     */
+    static final String ARCHIVE = "\\Archive";
+    
+    private static final long FLUSH_DELAY_MS = 500;
+    private static final int FLUSH_THRESHOLD = 1000;
+    
+    private final EmailService service;
+    private final ScheduledExecutorService timer;
+    private final Consumer<String> onFailure;
+    // Serializes flushes so a later batch never overtakes an earlier one
+    private final Object flushLock = new Object();
+    private Map<String, Pending> pending = new LinkedHashMap<>();
+    private int pendingCount;
+    private ScheduledFuture<?> scheduled;
+    
+    /**
+     * @param onFailure told the folder name when its changes could not be sent, so the
+     *                  optimistic local state can be thrown away
+     */
+    MutationQueue(EmailService service, ScheduledExecutorService timer, Consumer<String> onFailure) {
+        this.service = service;
+        this.timer = timer;
+        this.onFailure = onFailure;
+    }
+    
+    /**
+     * Queue flags to add and flags to remove (EmailMessage flag bits) for one message
+     */
+    synchronized void changeFlags(String folder, long uidValidity, long uid, int add, int remove) {
+        int[] change = pendingFor(folder, uidValidity).flags.computeIfAbsent(uid, k -> {
+            pendingCount++;
+            return new int[2];
+        });
+        change[0] = (change[0] & ~remove) | add;
+        change[1] = (change[1] & ~add) | remove;
+        scheduleFlush();
+    }
+    
+    /**
+     * Queue a move to another folder, EXPUNGE or ARCHIVE
+     */
+    synchronized void move(String folder, long uidValidity, long uid, String target) {
+        if (pendingFor(folder, uidValidity).moves.put(uid, target) == null) {
+            pendingCount++;
+        }
+        scheduleFlush();
+    }
+    
+    /**
+     * Send everything queued so far; failures are reported per folder
+     */
+    void flush() {
+        // Reported after flushLock is released, so onFailure may take other locks freely
+        List<String> failed = new ArrayList<>();
+        synchronized (flushLock) {
+            Map<String, Pending> batch;
+            synchronized (this) {
+                batch = pending;
+                pending = new LinkedHashMap<>();
+                pendingCount = 0;
+                if (scheduled != null) {
+                    scheduled.cancel(false);
+                    scheduled = null;
+                }
+            }
+            for (Map.Entry<String, Pending> entry : batch.entrySet()) {
+                try {
+                    service.mutate(entry.getKey(), entry.getValue().uidValidity, entry.getValue().toBatch());
+                } catch (MessagingException | RuntimeException e) {
+                    System.err.println("Could not update " + entry.getKey() + ": " + e.getMessage());
+                    failed.add(entry.getKey());
+                }
+            }
+        }
+        for (String folder : failed) {
+            onFailure.accept(folder);
+        }
+    }
+    
+    private Pending pendingFor(String folder, long uidValidity) {
+        Pending folderPending = pending.get(folder);
+        if (folderPending == null || folderPending.uidValidity != uidValidity) {
+            if (folderPending != null) {
+                // The folder was recreated; its old UIDs mean nothing now
+                pendingCount -= folderPending.flags.size() + folderPending.moves.size();
+            }
+            folderPending = new Pending(uidValidity);
+            pending.put(folder, folderPending);
+        }
+        return folderPending;
+    }
+    
+    private void scheduleFlush() {
+        if (pendingCount >= FLUSH_THRESHOLD) {
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            scheduled = timer.schedule(this::flush, 0, TimeUnit.MILLISECONDS);
+        } else if (scheduled == null) {
+            scheduled = timer.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+    
+    /**
+     * Merged per-UID changes for one folder
+     */
+    private static final class Pending {
+        private final long uidValidity;
+        // UID -> {flags to add, flags to remove}
+        private final Map<Long, int[]> flags = new HashMap<>();
+        // UID -> target folder
+        private final Map<Long, String> moves = new HashMap<>();
+        
+        Pending(long uidValidity) {
+            this.uidValidity = uidValidity;
+        }
+        
+        Batch toBatch() {
+            Map<Integer, List<Long>> added = new TreeMap<>();
+            Map<Integer, List<Long>> removed = new TreeMap<>();
+            for (Map.Entry<Long, int[]> entry : flags.entrySet()) {
+                if (EXPUNGE.equals(moves.get(entry.getKey()))) {
+                    // No point storing flags on a message about to be expunged
+                    continue;
+                }
+                // Flags are stored before moves, so they travel with a moved message
+                int[] change = entry.getValue();
+                if (change[0] != 0) {
+                    added.computeIfAbsent(change[0], k -> new ArrayList<>()).add(entry.getKey());
+                }
+                if (change[1] != 0) {
+                    removed.computeIfAbsent(change[1], k -> new ArrayList<>()).add(entry.getKey());
+                }
+            }
+            Map<String, List<Long>> moved = new LinkedHashMap<>();
+            for (Map.Entry<Long, String> entry : moves.entrySet()) {
+                moved.computeIfAbsent(entry.getValue(), k -> new ArrayList<>()).add(entry.getKey());
+            }
+            return new Batch(toSets(added), toSets(removed), toSets(moved));
+        }
+        
+        private static <K> Map<K, UidSet> toSets(Map<K, List<Long>> grouped) {
+            Map<K, UidSet> sets = new LinkedHashMap<>();
+            for (Map.Entry<K, List<Long>> entry : grouped.entrySet()) {
+                long[] uids = new long[entry.getValue().size()];
+                for (int i = 0; i < uids.length; i++) {
+                    uids[i] = entry.getValue().get(i);
+                }
+                sets.put(entry.getKey(), UidSet.of(uids));
+            }
+            return sets;
+        }
+    }
+    
+    /**
+     * Changes for one folder, grouped into UID sets: flags are stored before messages move
+     */
+    static final class Batch {
+        final Map<Integer, UidSet> added;
+        final Map<Integer, UidSet> removed;
+        final Map<String, UidSet> moved;
+        
+        Batch(Map<Integer, UidSet> added, Map<Integer, UidSet> removed, Map<String, UidSet> moved) {
+            this.added = added;
+            this.removed = removed;
+            this.moved = moved;
+        }
+    }
+}
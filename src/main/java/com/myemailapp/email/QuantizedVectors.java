@@ -0,0 +1,167 @@
+package com.myemailapp.email;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Append-only store of int8-quantized unit vectors in a memory-mapped file
+ *
+ * Each vector is normalized, then scaled so its largest component maps to ±127; a record
+ * is that scale (a float) followed by one byte per dimension. That is about a quarter of
+ * the size of float vectors, and the OS pages records in on demand instead of the whole
+ * index being read into the heap. Records are addressed by their insertion number.
+ */
+class QuantizedVectors implements Closeable {
+    private static final int MAGIC = 0x51564543;
+    // magic, dimensions, count, reserved
+    private static final int HEADER_BYTES = 16;
+    private static final int MIN_CAPACITY = 1024;
+    
+    private final FileChannel channel;
+    private final int dimensions;
+    private final int recordBytes;
+    private volatile MappedByteBuffer buffer;
+    private int capacity;
+    private volatile int count;
+    
+    /**
+     * Open or create the store; an existing file with other dimensions is started over
+     */
+    QuantizedVectors(Path file, int dimensions) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.dimensions = dimensions;
+        this.recordBytes = 4 + dimensions;
+        long size = channel.size();
+        boolean valid = false;
+        if (size >= HEADER_BYTES) {
+            map((int) Math.max(MIN_CAPACITY, (size - HEADER_BYTES) / recordBytes));
+            valid = buffer.getInt(0) == MAGIC && buffer.getInt(4) == dimensions &&
+                    buffer.getInt(8) >= 0 && buffer.getInt(8) <= capacity;
+        }
+        if (valid) {
+            count = buffer.getInt(8);
+        } else {
+            channel.truncate(0);
+            map(MIN_CAPACITY);
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, dimensions);
+            buffer.putInt(8, 0);
+            count = 0;
+        }
+    }
+    
+    int size() {
+        return count;
+    }
+    
+    int dimensions() {
+        return dimensions;
+    }
+    
+    /**
+     * Append a vector (any length, normalized here); returns its record number
+     */
+    synchronized int add(float[] vector) throws IOException {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("Expected " + dimensions + " dimensions, got " + vector.length);
+        }
+        if (count == capacity) {
+            map(capacity * 2);
+        }
+        float[] unit = normalize(vector);
+        float max = 0;
+        for (float value : unit) {
+            max = Math.max(max, Math.abs(value));
+        }
+        float scale = max > 0 ? max / 127f : 1f;
+        int offset = HEADER_BYTES + count * recordBytes;
+        buffer.putFloat(offset, scale);
+        for (int i = 0; i < dimensions; i++) {
+            buffer.put(offset + 4 + i, (byte) Math.round(unit[i] / scale));
+        }
+        // Count last, so a crash never exposes a half-written record
+        buffer.putInt(8, count + 1);
+        return count++;
+    }
+    
+    /**
+     * Cosine similarity between a stored vector and a normalized query
+     */
+    float similarity(int record, float[] unitQuery) {
+        MappedByteBuffer view = buffer;
+        int offset = HEADER_BYTES + record * recordBytes;
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += unitQuery[i] * view.get(offset + 4 + i);
+        }
+        return sum * view.getFloat(offset);
+    }
+    
+    /**
+     * Cosine similarity between two stored vectors, in integer arithmetic
+     */
+    float similarity(int a, int b) {
+        MappedByteBuffer view = buffer;
+        int offsetA = HEADER_BYTES + a * recordBytes;
+        int offsetB = HEADER_BYTES + b * recordBytes;
+        int sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            sum += view.get(offsetA + 4 + i) * view.get(offsetB + 4 + i);
+        }
+        return sum * view.getFloat(offsetA) * view.getFloat(offsetB);
+    }
+    
+    /**
+     * A stored vector, dequantized (used to rebuild the graph after a crash)
+     */
+    float[] get(int record) {
+        MappedByteBuffer view = buffer;
+        int offset = HEADER_BYTES + record * recordBytes;
+        float scale = view.getFloat(offset);
+        float[] vector = new float[dimensions];
+        for (int i = 0; i < dimensions; i++) {
+            vector[i] = view.get(offset + 4 + i) * scale;
+        }
+        return vector;
+    }
+    
+    /**
+     * Flush written records to disk
+     */
+    synchronized void force() {
+        buffer.force();
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+    
+    static float[] normalize(float[] vector) {
+        double norm = 0;
+        for (float value : vector) {
+            norm += value * value;
+        }
+        float[] unit = new float[vector.length];
+        if (norm == 0) {
+            return unit;
+        }
+        float inverse = (float) (1 / Math.sqrt(norm));
+        for (int i = 0; i < vector.length; i++) {
+            unit[i] = vector[i] * inverse;
+        }
+        return unit;
+    }
+    
+    private void map(int records) throws IOException {
+        capacity = records;
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) records * recordBytes);
+    }
+}
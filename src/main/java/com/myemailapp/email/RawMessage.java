@@ -0,0 +1,59 @@
+package com.myemailapp.email;
+
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.MimeMessage;
+import java.io.ByteArrayInputStream;
+import java.util.Properties;
+
+/**
+ * A message as fetched, still in RFC 822 form
+ *
+ * Fetching and decoding are separate steps so bulk jobs can download on a few network
+ * threads and parse MIME on all cores. Only the start of a very large message is kept
+ * (see EmailService.fetchRaw); the text part comes first in practically all mail, and
+ * MIME parsing tolerates the missing end boundary.
+ */
+public class RawMessage {
+    private static final Session SESSION = Session.getInstance(new Properties());
+    
+    private final String accountId;
+    private final String folder;
+    private final long uid;
+    private final int flags;
+    private final byte[] content;
+    
+    RawMessage(String accountId, String folder, long uid, int flags, byte[] content) {
+        this.accountId = accountId;
+        this.folder = folder;
+        this.uid = uid;
+        this.flags = flags;
+        this.content = content;
+    }
+    
+    public String getAccountId() {
+        return accountId;
+    }
+    
+    public String getFolder() {
+        return folder;
+    }
+    
+    public long getUid() {
+        return uid;
+    }
+    
+    public int getSize() {
+        return content.length;
+    }
+    
+    /**
+     * Parse the MIME structure into a detached message (CPU only, no network)
+     */
+    public EmailMessage decode() throws MessagingException {
+        MimeMessage mime = new MimeMessage(SESSION, new ByteArrayInputStream(content));
+        EmailMessage email = EmailService.toEmailMessage(accountId, folder, uid, mime);
+        email.setFlags(flags);
+        return email;
+    }
+}
@@ -0,0 +1,66 @@
+package com.myemailapp.email;
+
+import javax.mail.MessagingException;
+import java.util.List;
+
+/**
+ * UIDs matching a server-side search, with messages fetched a page at a time
+ *
+ * Only the UID set is held; each page is one UID FETCH of just those messages. Pages run
+ * newest first. If the folder's UIDVALIDITY changes in between, fetching a page fails and
+ * the search has to be repeated.
+ */
+public class SearchResult {
+    private final EmailService service;
+    private final String folder;
+    private final long uidValidity;
+    private final UidSet uids;
+    
+    SearchResult(EmailService service, String folder, long uidValidity, UidSet uids) {
+        this.service = service;
+        this.folder = folder;
+        this.uidValidity = uidValidity;
+        this.uids = uids;
+    }
+    
+    public String getFolder() {
+        return folder;
+    }
+    
+    public long getUidValidity() {
+        return uidValidity;
+    }
+    
+    public UidSet getUids() {
+        return uids;
+    }
+    
+    public long getCount() {
+        return uids.size();
+    }
+    
+    public int getPageCount(int pageSize) {
+        return (int) ((uids.size() + pageSize - 1) / pageSize);
+    }
+    
+    /**
+     * UIDs on one page, newest first
+     */
+    public long[] getPageUids(int page, int pageSize) {
+        long to = uids.size() - (long) page * pageSize;
+        long[] ascending = uids.slice(Math.max(0, to - pageSize), Math.max(0, to));
+        long[] newestFirst = new long[ascending.length];
+        for (int i = 0; i < ascending.length; i++) {
+            newestFirst[i] = ascending[ascending.length - 1 - i];
+        }
+        return newestFirst;
+    }
+    
+    /**
+     * Fetch one page of matching messages, newest first; messages expunged since the
+     * search are skipped
+     */
+    public List<EmailMessage> fetchPage(int page, int pageSize) throws MessagingException {
+        return service.fetchByUid(folder, uidValidity, getPageUids(page, pageSize));
+    }
+}
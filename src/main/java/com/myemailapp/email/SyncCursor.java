@@ -0,0 +1,65 @@
+package com.myemailapp.email;
+
+/**
+ * Remembers how far a folder has been synchronized: the UIDVALIDITY it was
+ * read under and the highest UID seen, so the next sync only fetches newer mail,
+ * plus the HIGHESTMODSEQ of the last flag resync (CONDSTORE servers), so the next
+ * resync only asks for flags changed since then
+ */
+public class SyncCursor {
+    private volatile long uidValidity = -1;
+    private volatile long lastUid = 0;
+    private volatile long highestModSeq = 0;
+    
+    public long getUidValidity() {
+        return uidValidity;
+    }
+    
+    public long getLastUid() {
+        return lastUid;
+    }
+    
+    /**
+     * Mod-sequence the cached flags are current as of; 0 if unknown
+     */
+    public long getHighestModSeq() {
+        return highestModSeq;
+    }
+    
+    void setHighestModSeq(long modSeq) {
+        highestModSeq = modSeq;
+    }
+    
+    /**
+     * True if the folder can be continued from this cursor
+     */
+    public boolean isValidFor(long folderUidValidity) {
+        return lastUid > 0 && uidValidity == folderUidValidity;
+    }
+    
+    public void advance(long folderUidValidity, long uid) {
+        if (uidValidity != folderUidValidity) {
+            uidValidity = folderUidValidity;
+            lastUid = 0;
+            highestModSeq = 0;
+        }
+        if (uid > lastUid) {
+            lastUid = uid;
+        }
+    }
+    
+    /**
+     * Continue from a saved position (see MailSnapshot)
+     */
+    void restore(long folderUidValidity, long uid, long modSeq) {
+        uidValidity = folderUidValidity;
+        lastUid = uid;
+        highestModSeq = modSeq;
+    }
+    
+    public void reset() {
+        uidValidity = -1;
+        lastUid = 0;
+        highestModSeq = 0;
+    }
+}
@@ -0,0 +1,130 @@
+package com.myemailapp.email;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only off-heap storage for UTF-8 text
+ *
+ * Strings are written as records of length-prefixed UTF-8 values into direct buffer
+ * segments outside the Java heap. A record is addressed by a long (segment index in the
+ * high half, offset in the low half), so callers keep one primitive per record instead of
+ * String objects. Space is reclaimed by copying the records still in use into a fresh
+ * arena and dropping the old one. Not thread-safe; the owning table synchronizes access.
+ */
+final class TextArena {
+    private static final int SEGMENT_SIZE = 4 << 20;
+    private static final int NULL_LENGTH = -1;
+    
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private int current = -1;
+    private long bytesUsed;
+    
+    /**
+     * Store values (any of which may be null) as one record and return its address
+     */
+    long append(String... values) {
+        byte[][] encoded = new byte[values.length][];
+        int recordSize = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                encoded[i] = values[i].getBytes(StandardCharsets.UTF_8);
+                recordSize += encoded[i].length;
+            }
+            recordSize += Integer.BYTES;
+        }
+        
+        int index = segmentFor(recordSize);
+        ByteBuffer segment = segments.get(index);
+        long address = ((long) index << 32) | segment.position();
+        for (byte[] bytes : encoded) {
+            if (bytes == null) {
+                segment.putInt(NULL_LENGTH);
+            } else {
+                segment.putInt(bytes.length);
+                segment.put(bytes);
+            }
+        }
+        bytesUsed += recordSize;
+        return address;
+    }
+    
+    /**
+     * Copy a record of the given number of values from another arena; returns its new address
+     */
+    long copy(TextArena source, long address, int values) {
+        ByteBuffer from = source.segments.get((int) (address >>> 32)).duplicate();
+        int start = (int) address;
+        from.position(start);
+        for (int i = 0; i < values; i++) {
+            int length = from.getInt();
+            if (length > 0) {
+                from.position(from.position() + length);
+            }
+        }
+        int recordSize = from.position() - start;
+        from.limit(start + recordSize);
+        from.position(start);
+        
+        int index = segmentFor(recordSize);
+        ByteBuffer segment = segments.get(index);
+        long copied = ((long) index << 32) | segment.position();
+        segment.put(from);
+        bytesUsed += recordSize;
+        return copied;
+    }
+    
+    /**
+     * Decode one value of a record without touching the others
+     */
+    String read(long address, int index) {
+        ByteBuffer segment = segments.get((int) (address >>> 32)).duplicate();
+        segment.position((int) address);
+        for (int i = 0; i < index; i++) {
+            int length = segment.getInt();
+            if (length > 0) {
+                segment.position(segment.position() + length);
+            }
+        }
+        int length = segment.getInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        segment.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Bytes of text stored so far
+     */
+    long bytesUsed() {
+        return bytesUsed;
+    }
+    
+    /**
+     * Off-heap bytes reserved, including unused space at the end of segments
+     */
+    long bytesReserved() {
+        long reserved = 0;
+        for (ByteBuffer segment : segments) {
+            reserved += segment.capacity();
+        }
+        return reserved;
+    }
+    
+    private int segmentFor(int recordSize) {
+        if (current >= 0 && segments.get(current).remaining() >= recordSize) {
+            return current;
+        }
+        // Oversized records get a segment of their own; the open segment stays current
+        segments.add(ByteBuffer.allocateDirect(Math.max(SEGMENT_SIZE, recordSize)));
+        int index = segments.size() - 1;
+        if (recordSize <= SEGMENT_SIZE) {
+            current = index;
+        }
+        return index;
+    }
+}
@@ -0,0 +1,336 @@
+package com.myemailapp.email;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Incremental conversation threading (JWZ-style)
+ *
+ * Every Message-ID seen, directly or through In-Reply-To/References, gets an int slot.
+ * Parent links follow the References chain; conversations are kept as disjoint sets
+ * (union-find with path compression) plus a circular member list per set, so adding a
+ * message only touches its own references and looking up a thread is a hash lookup
+ * and a near-constant find. Messages without any reference headers fall back to
+ * joining the conversation with the same normalized subject when they look like replies.
+ */
+public class ThreadIndex {
+    private static final Pattern REPLY_PREFIX =
+        Pattern.compile("^\\s*((re|fw|fwd|aw|sv|antw)(\\[\\d+\\])?\\s*:\\s*)+", Pattern.CASE_INSENSITIVE);
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final String SYNTHETIC_PREFIX = "<synthetic-";
+    
+    private final Map<String, Integer> slotsById = new HashMap<>();
+    private final Map<String, Integer> threadsBySubject = new HashMap<>();
+    private int size;
+    private int messageCount;
+    private int[] parent = new int[INITIAL_CAPACITY];      // reply parent slot, -1 for none
+    private int[] set = new int[INITIAL_CAPACITY];         // union-find link
+    private int[] next = new int[INITIAL_CAPACITY];        // circular list of set members
+    private int[] setSize = new int[INITIAL_CAPACITY];     // messages (not phantoms) per set root
+    private long[] lastDate = new long[INITIAL_CAPACITY];  // newest message date per set root
+    private EmailMessage[] messages = new EmailMessage[INITIAL_CAPACITY];
+    private String[] ids = new String[INITIAL_CAPACITY];
+    private long syntheticIds;
+    
+    /**
+     * Add a message (or fill in a placeholder created by an earlier reply) and return its thread id
+     */
+    public synchronized int add(EmailMessage message) {
+        String messageId = normalizeId(message.getMessageId());
+        if (messageId == null) {
+            // Only a slot name; never handed out as a thread key
+            messageId = SYNTHETIC_PREFIX + (++syntheticIds) + ">";
+        }
+        int slot = slot(messageId);
+        if (messages[slot] != null) {
+            return find(slot);
+        }
+        messages[slot] = message;
+        messageCount++;
+        int root = find(slot);
+        setSize[root]++;
+        long date = message.getDate() != null ? message.getDate().getTime() : 0;
+        lastDate[root] = Math.max(lastDate[root], date);
+        
+        // Link the References chain oldest to newest, then the message under its direct parent
+        List<String> references = references(message);
+        int previous = -1;
+        for (String reference : references) {
+            int current = slot(reference);
+            if (previous >= 0) {
+                link(previous, current);
+            }
+            previous = current;
+        }
+        if (previous >= 0) {
+            link(previous, slot);
+        }
+        
+        String subject = normalizeSubject(message.getSubject());
+        if (!subject.isEmpty()) {
+            Integer known = threadsBySubject.get(subject);
+            boolean looksLikeReply = isReply(message.getSubject());
+            if (known != null && references.isEmpty() && looksLikeReply) {
+                union(known, slot);
+            }
+            threadsBySubject.put(subject, find(slot));
+        }
+        return find(slot);
+    }
+    
+    /**
+     * Thread id for a Message-ID, or -1 if it is unknown
+     */
+    public synchronized int threadOf(String messageId) {
+        Integer slot = slotsById.get(normalizeId(messageId));
+        return slot != null ? find(slot) : -1;
+    }
+    
+    /**
+     * Thread id of a message that was added before, or -1
+     */
+    public int threadOf(EmailMessage message) {
+        return message.getMessageId() != null ? threadOf(message.getMessageId()) : -1;
+    }
+    
+    /**
+     * Messages of one thread, oldest first (placeholders for unseen messages are skipped)
+     */
+    public synchronized List<EmailMessage> getThread(int threadId) {
+        List<EmailMessage> result = new ArrayList<>();
+        if (threadId < 0 || threadId >= size) {
+            return result;
+        }
+        int start = find(threadId);
+        int slot = start;
+        do {
+            if (messages[slot] != null) {
+                result.add(messages[slot]);
+            }
+            slot = next[slot];
+        } while (slot != start);
+        result.sort(Comparator.comparingLong(m -> m.getDate() != null ? m.getDate().getTime() : 0));
+        return result;
+    }
+    
+    /**
+     * Visit every message added so far (not placeholders)
+     */
+    public synchronized void forEachMessage(Consumer<EmailMessage> action) {
+        for (int slot = 0; slot < size; slot++) {
+            if (messages[slot] != null) {
+                action.accept(messages[slot]);
+            }
+        }
+    }
+    
+    /**
+     * Number of real messages in a thread
+     */
+    public synchronized int getThreadSize(int threadId) {
+        return threadId >= 0 && threadId < size ? setSize[find(threadId)] : 0;
+    }
+    
+    /**
+     * Date (epoch millis) of the newest message in a thread
+     */
+    public synchronized long getLastActivity(int threadId) {
+        return threadId >= 0 && threadId < size ? lastDate[find(threadId)] : 0;
+    }
+    
+    /**
+     * Stable key for a thread, the same whatever order its messages arrived in: the
+     * Message-ID of its root (the first References entry, or the member without a parent).
+     * Several roots (threads joined by subject) go by oldest date, then by Message-ID.
+     * Null if no member has a real Message-ID.
+     */
+    public synchronized String getThreadKey(int threadId) {
+        if (threadId < 0 || threadId >= size) {
+            return null;
+        }
+        int start = find(threadId);
+        int best = -1;
+        int slot = start;
+        do {
+            if (!ids[slot].startsWith(SYNTHETIC_PREFIX) && (best < 0 || isBetterRoot(slot, best))) {
+                best = slot;
+            }
+            slot = next[slot];
+        } while (slot != start);
+        return best >= 0 ? ids[best] : null;
+    }
+    
+    /**
+     * Reply parent of a message inside its thread, or null
+     */
+    public synchronized EmailMessage getParent(EmailMessage message) {
+        Integer slot = slotsById.get(normalizeId(message.getMessageId()));
+        if (slot == null) {
+            return null;
+        }
+        for (int p = parent[slot]; p >= 0; p = parent[p]) {
+            if (messages[p] != null) {
+                return messages[p];
+            }
+        }
+        return null;
+    }
+    
+    public synchronized int messageCount() {
+        return messageCount;
+    }
+    
+    /**
+     * Subject with reply/forward prefixes removed, lower-cased, whitespace collapsed
+     */
+    public static String normalizeSubject(String subject) {
+        if (subject == null) {
+            return "";
+        }
+        String stripped = REPLY_PREFIX.matcher(subject).replaceFirst("").trim();
+        return WHITESPACE.matcher(stripped).replaceAll(" ").toLowerCase(Locale.ROOT);
+    }
+    
+    private static boolean isReply(String subject) {
+        return subject != null && REPLY_PREFIX.matcher(subject).lookingAt();
+    }
+    
+    private static List<String> references(EmailMessage message) {
+        List<String> result = new ArrayList<>();
+        String[] references = message.getReferences();
+        if (references != null) {
+            for (String reference : references) {
+                String id = normalizeId(reference);
+                if (id != null && !result.contains(id)) {
+                    result.add(id);
+                }
+            }
+        }
+        // In-Reply-To names the direct parent; make sure it ends the chain
+        String inReplyTo = normalizeId(message.getInReplyTo());
+        if (inReplyTo != null) {
+            result.remove(inReplyTo);
+            result.add(inReplyTo);
+        }
+        result.remove(normalizeId(message.getMessageId()));
+        return result;
+    }
+    
+    private static String normalizeId(String messageId) {
+        if (messageId == null) {
+            return null;
+        }
+        String id = messageId.trim();
+        int open = id.indexOf('<');
+        int close = id.indexOf('>', open + 1);
+        if (open >= 0 && close > open) {
+            id = id.substring(open, close + 1);
+        }
+        return id.isEmpty() ? null : id;
+    }
+    
+    /**
+     * Root order for thread keys: parentless first, then oldest (a placeholder counts as
+     * oldest, since a reply refers to it), then Message-ID
+     */
+    private boolean isBetterRoot(int slot, int than) {
+        boolean rootSlot = parent[slot] < 0;
+        if (rootSlot != (parent[than] < 0)) {
+            return rootSlot;
+        }
+        long date = slotDate(slot);
+        long thanDate = slotDate(than);
+        if (date != thanDate) {
+            return date < thanDate;
+        }
+        return ids[slot].compareTo(ids[than]) < 0;
+    }
+    
+    private long slotDate(int slot) {
+        EmailMessage message = messages[slot];
+        return message != null && message.getDate() != null ? message.getDate().getTime() : Long.MIN_VALUE;
+    }
+    
+    private int slot(String messageId) {
+        Integer existing = slotsById.get(messageId);
+        if (existing != null) {
+            return existing;
+        }
+        ensureCapacity(size + 1);
+        int slot = size++;
+        parent[slot] = -1;
+        set[slot] = slot;
+        next[slot] = slot;
+        ids[slot] = messageId;
+        slotsById.put(messageId, slot);
+        return slot;
+    }
+    
+    /**
+     * Make child a reply to parentSlot unless it already has a parent or that would create a loop
+     */
+    private void link(int parentSlot, int child) {
+        if (parentSlot == child || parent[child] >= 0) {
+            union(parentSlot, child);
+            return;
+        }
+        for (int p = parentSlot; p >= 0; p = parent[p]) {
+            if (p == child) {
+                union(parentSlot, child);
+                return;
+            }
+        }
+        parent[child] = parentSlot;
+        union(parentSlot, child);
+    }
+    
+    private int find(int slot) {
+        int root = slot;
+        while (set[root] != root) {
+            root = set[root];
+        }
+        while (set[slot] != root) {
+            int up = set[slot];
+            set[slot] = root;
+            slot = up;
+        }
+        return root;
+    }
+    
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB) {
+            return;
+        }
+        // Keep the larger set as root so trees stay shallow
+        if (setSize[rootA] < setSize[rootB]) {
+            int swap = rootA;
+            rootA = rootB;
+            rootB = swap;
+        }
+        set[rootB] = rootA;
+        setSize[rootA] += setSize[rootB];
+        lastDate[rootA] = Math.max(lastDate[rootA], lastDate[rootB]);
+        // Splice the two circular member lists together
+        int swap = next[rootA];
+        next[rootA] = next[rootB];
+        next[rootB] = swap;
+    }
+    
+    private void ensureCapacity(int capacity) {
+        if (capacity <= parent.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, parent.length * 2);
+        parent = Arrays.copyOf(parent, newCapacity);
+        set = Arrays.copyOf(set, newCapacity);
+        next = Arrays.copyOf(next, newCapacity);
+        setSize = Arrays.copyOf(setSize, newCapacity);
+        lastDate = Arrays.copyOf(lastDate, newCapacity);
+        messages = Arrays.copyOf(messages, newCapacity);
+        ids = Arrays.copyOf(ids, newCapacity);
+    }
+}
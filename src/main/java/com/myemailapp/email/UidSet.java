@@ -0,0 +1,259 @@
+package com.myemailapp.email;
+
+import java.util.Arrays;
+
+/**
+ * Immutable set of IMAP UIDs stored as sorted, non-overlapping ranges
+ *
+ * Search results and flag changes tend to be long runs of consecutive UIDs, so a set of
+ * 100k UIDs is often a handful of ranges. toString() gives the IMAP sequence-set form
+ * ("1:5,9,12:20") used on the wire, and parse() reads it back (ESEARCH ALL, VANISHED).
+ */
+public final class UidSet {
+    public static final UidSet EMPTY = new UidSet(new long[0], new long[0]);
+    
+    private final long[] starts;
+    private final long[] ends;
+    // Number of UIDs before each range, for positional access
+    private final long[] offsets;
+    private final long size;
+    
+    private UidSet(long[] starts, long[] ends) {
+        this.starts = starts;
+        this.ends = ends;
+        this.offsets = new long[starts.length];
+        long total = 0;
+        for (int i = 0; i < starts.length; i++) {
+            offsets[i] = total;
+            total += ends[i] - starts[i] + 1;
+        }
+        this.size = total;
+    }
+    
+    /**
+     * Set of the given UIDs (any order, duplicates allowed)
+     */
+    public static UidSet of(long... uids) {
+        long[] sorted = uids.clone();
+        Arrays.sort(sorted);
+        Builder builder = new Builder();
+        for (long uid : sorted) {
+            builder.add(uid, uid);
+        }
+        return builder.build();
+    }
+    
+    /**
+     * Parse an IMAP sequence set such as "1:5,9,20:12"; "*" is not allowed
+     */
+    public static UidSet parse(String sequenceSet) {
+        if (sequenceSet == null || sequenceSet.trim().isEmpty()) {
+            return EMPTY;
+        }
+        String[] parts = sequenceSet.trim().split(",");
+        long[][] ranges = new long[parts.length][];
+        for (int i = 0; i < parts.length; i++) {
+            int colon = parts[i].indexOf(':');
+            long first = Long.parseLong(colon < 0 ? parts[i] : parts[i].substring(0, colon));
+            long last = colon < 0 ? first : Long.parseLong(parts[i].substring(colon + 1));
+            ranges[i] = new long[] {Math.min(first, last), Math.max(first, last)};
+        }
+        Arrays.sort(ranges, (a, b) -> Long.compare(a[0], b[0]));
+        Builder builder = new Builder();
+        for (long[] range : ranges) {
+            builder.add(range[0], range[1]);
+        }
+        return builder.build();
+    }
+    
+    public long size() {
+        return size;
+    }
+    
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    public int rangeCount() {
+        return starts.length;
+    }
+    
+    public long getRangeStart(int range) {
+        return starts[range];
+    }
+    
+    public long getRangeEnd(int range) {
+        return ends[range];
+    }
+    
+    public long first() {
+        return starts[0];
+    }
+    
+    public long last() {
+        return ends[ends.length - 1];
+    }
+    
+    public boolean contains(long uid) {
+        int range = rangeOf(uid);
+        return range >= 0 && uid <= ends[range];
+    }
+    
+    /**
+     * UID at a position in ascending order
+     */
+    public long get(long index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("UID index " + index + " of " + size);
+        }
+        int range = Arrays.binarySearch(offsets, index);
+        if (range < 0) {
+            range = -range - 2;
+        }
+        return starts[range] + (index - offsets[range]);
+    }
+    
+    /**
+     * UIDs at positions [from, to) in ascending order
+     */
+    public long[] slice(long from, long to) {
+        long[] uids = new long[(int) Math.max(0, Math.min(to, size) - from)];
+        for (int i = 0; i < uids.length; i++) {
+            uids[i] = get(from + i);
+        }
+        return uids;
+    }
+    
+    public UidSet union(UidSet other) {
+        Builder builder = new Builder();
+        int i = 0;
+        int j = 0;
+        while (i < starts.length || j < other.starts.length) {
+            if (j >= other.starts.length || (i < starts.length && starts[i] <= other.starts[j])) {
+                builder.add(starts[i], ends[i]);
+                i++;
+            } else {
+                builder.add(other.starts[j], other.ends[j]);
+                j++;
+            }
+        }
+        return builder.build();
+    }
+    
+    public UidSet minus(UidSet other) {
+        Builder builder = new Builder();
+        int j = 0;
+        for (int i = 0; i < starts.length; i++) {
+            long start = starts[i];
+            long end = ends[i];
+            while (j < other.starts.length && other.ends[j] < start) {
+                j++;
+            }
+            int k = j;
+            while (start <= end && k < other.starts.length && other.starts[k] <= end) {
+                if (other.starts[k] > start) {
+                    builder.add(start, other.starts[k] - 1);
+                }
+                start = Math.max(start, other.ends[k] + 1);
+                k++;
+            }
+            if (start <= end) {
+                builder.add(start, end);
+            }
+        }
+        return builder.build();
+    }
+    
+    public UidSet intersect(UidSet other) {
+        return minus(minus(other));
+    }
+    
+    /**
+     * Split into sets of at most maxRanges ranges each, so commands stay a sane length
+     */
+    public UidSet[] chunks(int maxRanges) {
+        int count = Math.max(1, (starts.length + maxRanges - 1) / maxRanges);
+        UidSet[] chunks = new UidSet[count];
+        for (int c = 0; c < count; c++) {
+            int from = c * maxRanges;
+            int to = Math.min(starts.length, from + maxRanges);
+            chunks[c] = new UidSet(Arrays.copyOfRange(starts, from, to), Arrays.copyOfRange(ends, from, to));
+        }
+        return chunks;
+    }
+    
+    /**
+     * IMAP sequence-set form, e.g. "1:5,9"
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < starts.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(starts[i]);
+            if (ends[i] != starts[i]) {
+                sb.append(':').append(ends[i]);
+            }
+        }
+        return sb.toString();
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof UidSet)) {
+            return false;
+        }
+        UidSet other = (UidSet) o;
+        return Arrays.equals(starts, other.starts) && Arrays.equals(ends, other.ends);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(starts) + Arrays.hashCode(ends);
+    }
+    
+    private int rangeOf(long uid) {
+        int range = Arrays.binarySearch(starts, uid);
+        return range >= 0 ? range : -range - 2;
+    }
+    
+    /**
+     * Collects ranges in ascending start order, merging overlapping and adjacent ones
+     */
+    public static final class Builder {
+        private long[] starts = new long[8];
+        private long[] ends = new long[8];
+        private int count;
+        
+        /**
+         * Add a range; ranges must arrive in ascending order of their start
+         */
+        public Builder add(long start, long end) {
+            if (count > 0 && start <= ends[count - 1] + 1) {
+                ends[count - 1] = Math.max(ends[count - 1], end);
+                return this;
+            }
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = start;
+            ends[count] = end;
+            count++;
+            return this;
+        }
+        
+        public Builder add(long uid) {
+            return add(uid, uid);
+        }
+        
+        public UidSet build() {
+            return count == 0 ? EMPTY : new UidSet(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+        }
+    }
+}
@@ -2,17 +2,40 @@ package com.myemailapp.gui;
 
 import com.myemailapp.ai.AICommand;
 import com.myemailapp.ai.GeminiAIService;
+import com.myemailapp.ai.ModelRouter;
+import com.myemailapp.ai.SemanticSearch;
+import com.myemailapp.ai.ThreadSummarizer;
 import com.myemailapp.config.AppConfig;
+import com.myemailapp.config.ConfigSnapshot;
+import com.myemailapp.daemon.DaemonClient;
 import com.myemailapp.email.EmailMessage;
-import com.myemailapp.email.EmailService;
+import com.myemailapp.email.MailAccess;
+import com.myemailapp.email.MailEngine;
+import com.myemailapp.startup.StartupProbe;
+import com.myemailapp.trace.Span;
+import com.myemailapp.trace.Tracer;
 import com.myemailapp.voice.VoiceService;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
 import java.awt.*;
+import java.awt.event.ActionListener;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
  * Main GUI for the AI-powered email application
@@ -24,18 +47,51 @@ public class EmailAppGUI extends JFrame {
     private static final Color PRIMARY_COLOR = new Color(51, 122, 183);
     private static final Color SUCCESS_COLOR = new Color(92, 184, 92);
     private static final Color DANGER_COLOR = new Color(217, 83, 79);
+    private static final String STATUS_PROCESSING = "Processing your command...";
+    private static final String STATUS_COMMAND_DONE = "Command understood. Ready for next action.";
+    private static final String STATUS_CHECKING = "Checking emails...";
+    private static final String STATUS_COMPOSING = "AI is composing your email...";
+    private static final String STATUS_COMPOSED = "Email composed by AI. You can edit it before sending.";
+    private static final String STATUS_SENDING = "Sending email...";
+    private static final String STATUS_SENT = "Email sent successfully!";
+    private static final String STATUS_SETTINGS_SAVED = "Settings saved!";
+    private static final String STATUS_SUMMARIZING = "Summarizing your latest conversation...";
+    private static final String STATUS_SEARCHING = "Looking for matching emails...";
+    private static final String STATUS_MARKED_READ = "Emails marked as read.";
+    private static final int SEARCH_RESULTS = 10;
+    // -Dmyemailapp.ai.routes=true prints per-model latency and failures on exit
+    private static final boolean PRINT_AI_ROUTES = Boolean.getBoolean("myemailapp.ai.routes");
+    // Fixed phrases that are spoken often; synthesized at startup so they play at once
+    private static final List<String> COMMON_PHRASES = Arrays.asList(
+        STATUS_PROCESSING, STATUS_COMMAND_DONE, STATUS_CHECKING, STATUS_COMPOSING,
+        STATUS_COMPOSED, STATUS_SENDING, STATUS_SENT, STATUS_SETTINGS_SAVED, STATUS_SUMMARIZING, STATUS_SEARCHING,
+        STATUS_MARKED_READ);
     
     private AppConfig config;
-    private EmailService emailService;
-    private GeminiAIService aiService;
+    // Swapped for the daemon client once it connects
+    private volatile MailAccess mail;
+    private volatile GeminiAIService aiService;
     private VoiceService voiceService;
+    private ThreadSummarizer threadSummarizer;
+    private SemanticSearch semanticSearch;
     
     private JTextArea emailDisplayArea;
+    private JComboBox<String> folderSelector;
+    private SwingWorker<?, ?> emailWorker;
     private JTextField recipientField;
     private JTextField subjectField;
     private JTextArea messageArea;
     private JButton voiceButton;
     private JLabel statusLabel;
+    // Unread messages currently on screen; marked read only when the user asks
+    private List<EmailMessage> shownUnread = Collections.emptyList();
+    
+    // Updates from background threads reach the window through here, batched per frame
+    private final UiEventBus events = new UiEventBus();
+    private final UiEventBus.Topic<String> statusUpdates = UiEventBus.Topic.latest(this::showStatus);
+    private final UiEventBus.Topic<Set<String>> folderUpdates = UiEventBus.Topic.union(this::foldersUpdated);
+    // Per folder, the newest UID per account already handed to the search index
+    private final Map<String, Map<String, Long>> indexedUids = new HashMap<>();
     
     public EmailAppGUI() {
         config = new AppConfig();
@@ -45,40 +101,101 @@ public class EmailAppGUI extends JFrame {
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLocationRelativeTo(null);
         
-        // Check if first run - show setup dialog
-        if (config.getEmailAddress().isEmpty() || config.getGeminiApiKey().isEmpty()) {
+        // Check if first run - show setup dialog (never block a startup measurement)
+        if (!StartupProbe.isEnabled() &&
+            (config.getEmailAddress().isEmpty() || config.getGeminiApiKey().isEmpty())) {
             showSetupDialog();
         }
         
         // Initialize services
         initializeServices();
         
+        // Apply later settings changes (dialog or hand-edited file) to the running services
+        config.addChangeListener((previous, current) ->
+            events.run(() -> applyConfigChange(previous, current)));
+        config.startWatching();
+        
         // Create UI
         createUI();
         
+        // Show the mail saved at the last exit right away; sync reconciles it in the background
+        if (mail != null && mail.getSnapshotSavedAt() > 0) {
+            foldersUpdated(new HashSet<>(mail.getFolderNames()));
+            statusLabel.setText("Showing emails saved " +
+                DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT).format(new Date(mail.getSnapshotSavedAt())) +
+                ". Updating...");
+        }
+        
+        // Keep every folder current while the app is open
+        if (!StartupProbe.isEnabled()) {
+            connectMailDaemon();
+        }
+        
         // Add window listener for cleanup
         addWindowListener(new WindowAdapter() {
             @Override
             public void windowClosing(WindowEvent e) {
-                if (emailService != null) {
-                    emailService.disconnect();
+                if (emailWorker != null) {
+                    emailWorker.cancel(true);
+                }
+                if (mail != null) {
+                    // With the daemon this only hangs up; sync goes on without the window
+                    mail.shutdown();
+                }
+                if (voiceService != null) {
+                    voiceService.shutdown();
+                }
+                if (semanticSearch != null) {
+                    semanticSearch.close();
                 }
+                if (aiService != null && PRINT_AI_ROUTES) {
+                    System.err.println("AI routes:\n" + aiService.getRouter().describe());
+                }
+                Tracer.exportSession();
+                config.flush();
             }
         });
     }
     
     private void initializeServices() {
         try {
-            emailService = new EmailService(config);
+            // The in-app engine shows the saved snapshot at once; connectMailDaemon swaps in
+            // the resident daemon when it answers, and otherwise this engine keeps the mail
+            mail = new MailEngine(config);
             if (!config.getGeminiApiKey().isEmpty()) {
-                aiService = new GeminiAIService(config.getGeminiApiKey());
+                aiService = new GeminiAIService(config.getGeminiApiKey(), ModelRouter.fromConfig(config.snapshot()));
+            }
+            threadSummarizer = new ThreadSummarizer();
+            try {
+                semanticSearch = new SemanticSearch();
+                semanticSearch.setAIService(aiService);
+            } catch (IOException e) {
+                System.err.println("Semantic search unavailable: " + e.getMessage());
             }
             voiceService = new VoiceService();
+            if (config.isVoiceEnabled()) {
+                voiceService.prewarmPhrases(COMMON_PHRASES);
+            }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
     
+    /**
+     * Update only the services affected by a configuration change
+     */
+    private void applyConfigChange(ConfigSnapshot previous, ConfigSnapshot current) {
+        if (current.changed(previous, ConfigSnapshot.GEMINI_API_KEY) ||
+            current.changed(previous, ModelRouter.configKeys())) {
+            String apiKey = current.getGeminiApiKey();
+            aiService = apiKey.isEmpty() ? null : new GeminiAIService(apiKey, ModelRouter.fromConfig(current));
+            if (semanticSearch != null) {
+                semanticSearch.setAIService(aiService);
+            }
+        }
+        // Account changes are picked up by MailEngine itself
+    }
+    
     private void createUI() {
         JPanel mainPanel = new JPanel(new BorderLayout(10, 10));
         mainPanel.setBorder(new EmptyBorder(20, 20, 20, 20));
@@ -146,9 +263,22 @@ public class EmailAppGUI extends JFrame {
         JScrollPane displayScroll = new JScrollPane(emailDisplayArea);
         displayPanel.add(displayScroll, BorderLayout.CENTER);
         
+        folderSelector = new JComboBox<>(new String[] {MailEngine.INBOX});
+        folderSelector.setFont(new Font("Arial", Font.PLAIN, LARGE_FONT_SIZE));
+        folderSelector.addActionListener(e -> {
+            showCachedFolder(false);
+            checkEmails();
+        });
+        displayPanel.add(folderSelector, BorderLayout.NORTH);
+        
         JButton checkEmailBtn = createLargeButton("📧 Check New Emails", PRIMARY_COLOR);
         checkEmailBtn.addActionListener(e -> checkEmails());
-        displayPanel.add(checkEmailBtn, BorderLayout.SOUTH);
+        JButton markReadBtn = createLargeButton("✅ Mark as Read", SUCCESS_COLOR);
+        markReadBtn.addActionListener(e -> markShownAsRead());
+        JPanel displayButtons = new JPanel(new GridLayout(1, 2, 5, 5));
+        displayButtons.add(checkEmailBtn);
+        displayButtons.add(markReadBtn);
+        displayPanel.add(displayButtons, BorderLayout.SOUTH);
         
         // Right side - Compose email
         JPanel composePanel = new JPanel(new BorderLayout(5, 5));
@@ -252,53 +382,199 @@ public class EmailAppGUI extends JFrame {
     }
     
     private void processVoiceCommand(String command) {
-        setStatus("Processing your command...");
+        setStatus(STATUS_PROCESSING);
         
-        new SwingWorker<Void, Void>() {
-            @Override
-            protected Void doInBackground() {
+        // One trace per spoken command, following it through the AI call and the action it triggers
+        try (Span action = Tracer.start("voice-command")) {
+            action.tag("words", command.trim().split("\\s+").length);
+            Runnable interpret = Tracer.wrap("interpret", () -> {
                 try {
                     AICommand aiCommand = aiService.processVoiceCommand(command);
-                    SwingUtilities.invokeLater(() -> executeAICommand(aiCommand));
+                    Tracer.current().tag("action", aiCommand.getAction());
+                    events.run(Tracer.wrap(() -> executeAICommand(aiCommand)));
                 } catch (Exception e) {
-                    SwingUtilities.invokeLater(() -> showError("Error processing command: " + e.getMessage()));
+                    Tracer.fail(e);
+                    events.run(() -> showError("Error processing command: " + e.getMessage()));
                 }
-                return null;
-            }
-        }.execute();
+            });
+            new SwingWorker<Void, Void>() {
+                @Override
+                protected Void doInBackground() {
+                    interpret.run();
+                    return null;
+                }
+            }.execute();
+        }
     }
     
     private void executeAICommand(AICommand command) {
+        try (Span span = Tracer.start("execute").tag("action", command.getAction())) {
+            try {
+                dispatchAICommand(command);
+            } catch (RuntimeException e) {
+                span.fail(e);
+                throw e;
+            }
+        }
+    }
+    
+    private void dispatchAICommand(AICommand command) {
         switch (command.getAction()) {
             case "READ_EMAIL":
                 checkEmails();
                 break;
+            case "SUMMARIZE_EMAIL":
+                summarizeLatestConversation();
+                break;
             case "COMPOSE_EMAIL":
                 String recipient = command.getParameter("recipient");
                 String subject = command.getParameter("subject");
                 if (recipient != null) recipientField.setText(recipient);
                 if (subject != null) subjectField.setText(subject);
+                String message = command.getParameter("message");
+                if (message != null) messageArea.setText(message);
                 break;
             case "CHECK_NEW":
                 checkEmails();
                 break;
+            case "FIND_EMAIL":
+                findEmails(command.getParameter("query"));
+                break;
             case "HELP":
                 showHelp();
                 break;
             default:
-                setStatus("Command understood. Ready for next action.");
+                setStatus(STATUS_COMMAND_DONE);
+        }
+    }
+    
+    private String selectedFolder() {
+        Object selected = folderSelector.getSelectedItem();
+        return selected != null ? selected.toString() : MailEngine.INBOX;
+    }
+    
+    /**
+     * Connect to (or start) the resident mail daemon off the event thread, then sync through
+     * whichever engine won: the daemon if it answered, the in-app engine otherwise
+     */
+    private void connectMailDaemon() {
+        Thread connector = new Thread(() -> {
+            MailAccess daemon = DaemonClient.connectOrStart();
+            SwingUtilities.invokeLater(() -> {
+                if (daemon != null) {
+                    MailAccess local = mail;
+                    mail = daemon;
+                    // Nothing synced through it yet, so closing only drops the snapshot copy
+                    Thread closer = new Thread(local::shutdown, "mail-engine-close");
+                    closer.setDaemon(true);
+                    closer.start();
+                    foldersUpdated(new HashSet<>(mail.getFolderNames()));
+                }
+                mail.startBackgroundSync(updated -> events.publish(folderUpdates, updated));
+            });
+        }, "mail-daemon-connect");
+        connector.setDaemon(true);
+        connector.start();
+    }
+    
+    /**
+     * Background sync found new or changed mail: refresh the folder list and the visible folder
+     */
+    private void foldersUpdated(Set<String> updated) {
+        String selected = selectedFolder();
+        updateFolderList(mail.getFolderNames(), selected);
+        if (updated.contains(selected)) {
+            // Someone may be reading: update in place rather than jumping to the top
+            showCachedFolder(true);
+        }
+        if (semanticSearch != null) {
+            // Only mail that arrived since the last update, loaded off the event thread
+            new SwingWorker<Void, Void>() {
+                @Override
+                protected Void doInBackground() {
+                    synchronized (indexedUids) {
+                        for (String folder : updated) {
+                            Map<String, Long> lastUids = indexedUids.computeIfAbsent(folder, k -> new HashMap<>());
+                            List<EmailMessage> fresh = mail.getFolderMessagesAfter(folder, lastUids);
+                            Map<String, Long> newest = new HashMap<>();
+                            for (EmailMessage message : fresh) {
+                                newest.merge(message.getAccountId(), message.getUid(), Math::max);
+                            }
+                            lastUids.putAll(newest);
+                            semanticSearch.enqueue(fresh);
+                        }
+                    }
+                    return null;
+                }
+            }.execute();
+        }
+    }
+    
+    /**
+     * Bring the folder list in line with the known folders by inserting and removing
+     * only the entries that differ, keeping the selection and not firing folder changes
+     */
+    private void updateFolderList(List<String> names, String selected) {
+        DefaultComboBoxModel<String> model = (DefaultComboBoxModel<String>) folderSelector.getModel();
+        boolean same = model.getSize() == names.size();
+        for (int i = 0; same && i < names.size(); i++) {
+            same = names.get(i).equals(model.getElementAt(i));
+        }
+        if (same) {
+            return;
+        }
+        ActionListener[] listeners = folderSelector.getActionListeners();
+        for (ActionListener listener : listeners) {
+            folderSelector.removeActionListener(listener);
+        }
+        Set<String> wanted = new HashSet<>(names);
+        for (int i = model.getSize() - 1; i >= 0; i--) {
+            if (!wanted.contains(model.getElementAt(i))) {
+                model.removeElementAt(i);
+            }
+        }
+        for (int i = 0; i < names.size(); i++) {
+            String name = names.get(i);
+            if (i < model.getSize() && name.equals(model.getElementAt(i))) {
+                continue;
+            }
+            int at = model.getIndexOf(name);
+            if (at >= 0) {
+                model.removeElementAt(at);
+            }
+            model.insertElementAt(name, i);
+        }
+        folderSelector.setSelectedItem(selected);
+        for (ActionListener listener : listeners) {
+            folderSelector.addActionListener(listener);
+        }
+    }
+    
+    private void showCachedFolder(boolean keepPosition) {
+        List<EmailMessage> cached = mail.getFolderMessages(selectedFolder(), 10);
+        if (!cached.isEmpty()) {
+            displayEmails(cached, config.snapshot().getAccounts().size() > 1, keepPosition);
         }
     }
     
     private void checkEmails() {
-        setStatus("Checking emails...");
+        setStatus(STATUS_CHECKING);
+        String folder = selectedFolder();
+        
+        // A newer request supersedes one that is still waiting on the server
+        if (emailWorker != null && !emailWorker.isDone()) {
+            emailWorker.cancel(true);
+        }
         
-        new SwingWorker<List<EmailMessage>, Void>() {
+        Callable<MailEngine.UnifiedInbox> refresh = Tracer.wrap("check-emails", () -> mail.refreshFolder(folder, 10));
+        emailWorker = new SwingWorker<MailEngine.UnifiedInbox, Void>() {
             @Override
-            protected List<EmailMessage> doInBackground() {
+            protected MailEngine.UnifiedInbox doInBackground() {
                 try {
-                    emailService.connect();
-                    return emailService.fetchRecentEmails(10);
+                    return refresh.call();
+                } catch (InterruptedException e) {
+                    // Superseded by a newer request
+                    return null;
                 } catch (Exception e) {
                     e.printStackTrace();
                     return null;
@@ -307,11 +583,24 @@ public class EmailAppGUI extends JFrame {
             
             @Override
             protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
                 try {
-                    List<EmailMessage> emails = get();
-                    if (emails != null) {
-                        displayEmails(emails);
-                        setStatus("Loaded " + emails.size() + " emails");
+                    MailEngine.UnifiedInbox inbox = get();
+                    if (inbox != null) {
+                        List<EmailMessage> emails = inbox.getMessages();
+                        displayEmails(emails, inbox.getAccountCount() > 1, false);
+                        if (semanticSearch != null) {
+                            semanticSearch.enqueue(emails);
+                        }
+                        String status = "Loaded " + emails.size() + " emails";
+                        if (mail.isOffline()) {
+                            status = "Offline: showing saved emails. Changes wait until you are back online";
+                        } else if (!inbox.getFailedAccounts().isEmpty()) {
+                            status += " (could not reach: " + String.join(", ", inbox.getFailedAccounts()) + ")";
+                        }
+                        setStatus(status);
                     } else {
                         showError("Could not connect to email. Check your settings.");
                     }
@@ -319,23 +608,187 @@ public class EmailAppGUI extends JFrame {
                     showError("Error loading emails: " + e.getMessage());
                 }
             }
-        }.execute();
+        };
+        emailWorker.execute();
     }
     
-    private void displayEmails(List<EmailMessage> emails) {
+    private void displayEmails(List<EmailMessage> emails, boolean showAccount, boolean keepPosition) {
         StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < emails.size(); i++) {
-            EmailMessage email = emails.get(i);
+        Set<String> shownConversations = new HashSet<>();
+        List<EmailMessage> unread = new ArrayList<>();
+        int shown = 0;
+        for (EmailMessage email : emails) {
+            // Show each conversation once, at its newest message
+            String conversation = mail.getConversationKey(email);
+            if (conversation != null && !shownConversations.add(conversation)) {
+                continue;
+            }
             sb.append("═══════════════════════════════════\n");
-            sb.append("Email ").append(i + 1).append(":\n");
+            sb.append("Email ").append(++shown).append(":\n");
+            int conversationSize = mail.getConversationSize(email);
+            if (conversationSize > 1) {
+                sb.append("Conversation: ").append(conversationSize).append(" messages\n");
+            }
+            if (showAccount && email.getAccountId() != null) {
+                sb.append("Account: ").append(email.getAccountId()).append("\n");
+            }
             sb.append("From: ").append(email.getFrom()).append("\n");
             sb.append("Subject: ").append(email.getSubject()).append("\n");
             sb.append("Date: ").append(email.getDate()).append("\n");
             sb.append("───────────────────────────────────\n");
             sb.append(email.getBody()).append("\n\n");
+            if (!email.isSeen()) {
+                unread.add(email);
+            }
+        }
+        updateDisplay(sb.toString(), keepPosition);
+        shownUnread = unread;
+    }
+    
+    /**
+     * Mark the unread messages on screen as read, on the server too (one batch)
+     */
+    private void markShownAsRead() {
+        mail.setSeen(shownUnread, true);
+        shownUnread = Collections.emptyList();
+        setStatus(STATUS_MARKED_READ);
+    }
+    
+    /**
+     * Replace the email view's text, editing only the span that differs, so an update
+     * that changes one message does not re-layout the rest. Background updates keep the
+     * scroll position; explicit requests show the top.
+     */
+    private void updateDisplay(String text, boolean keepPosition) {
+        String current = emailDisplayArea.getText();
+        JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, emailDisplayArea);
+        Point position = viewport != null ? viewport.getViewPosition() : null;
+        if (!current.equals(text)) {
+            int shorter = Math.min(current.length(), text.length());
+            int prefix = 0;
+            while (prefix < shorter && current.charAt(prefix) == text.charAt(prefix)) {
+                prefix++;
+            }
+            int suffix = 0;
+            while (suffix < shorter - prefix &&
+                   current.charAt(current.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+                suffix++;
+            }
+            try {
+                ((AbstractDocument) emailDisplayArea.getDocument()).replace(prefix, current.length() - prefix - suffix,
+                    text.substring(prefix, text.length() - suffix), null);
+            } catch (BadLocationException e) {
+                emailDisplayArea.setText(text);
+            }
+        }
+        if (keepPosition && position != null) {
+            // After the caret's own scrolling, which is also queued on the event thread
+            SwingUtilities.invokeLater(() -> viewport.setViewPosition(position));
+        } else {
+            emailDisplayArea.setCaretPosition(0);
+        }
+    }
+    
+    /**
+     * Show the emails closest in meaning to a spoken query, from the local semantic index
+     */
+    private void findEmails(String query) {
+        if (query == null || query.trim().isEmpty()) {
+            showHelp();
+            return;
+        }
+        if (semanticSearch == null || aiService == null) {
+            showError("Searching needs a Gemini API key. Add one in Settings.");
+            return;
+        }
+        setStatus(STATUS_SEARCHING);
+        Callable<List<SemanticSearch.Hit>> search = Tracer.wrap("find-emails", () -> semanticSearch.search(query, SEARCH_RESULTS));
+        new SwingWorker<List<SemanticSearch.Hit>, Void>() {
+            @Override
+            protected List<SemanticSearch.Hit> doInBackground() throws Exception {
+                return search.call();
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    List<EmailMessage> found = new ArrayList<>();
+                    for (SemanticSearch.Hit hit : get()) {
+                        EmailMessage message = mail.getMessage(hit.getAccountId(), hit.getFolder(), hit.getUid());
+                        if (message != null) {
+                            found.add(message);
+                        }
+                    }
+                    if (found.isEmpty()) {
+                        setStatus("No matching emails found" +
+                                  (semanticSearch.getPending() > 0 ? " yet; still indexing your mail" : ""));
+                        return;
+                    }
+                    displayEmails(found, config.snapshot().getAccounts().size() > 1, false);
+                    setStatus("Found " + found.size() + " matching emails, best match first");
+                } catch (Exception e) {
+                    showError("Error searching emails: " + e.getMessage());
+                }
+            }
+        }.execute();
+    }
+    
+    /**
+     * Summarize the newest conversation in the selected folder; only replies that arrived
+     * since the last summary are sent to the AI
+     */
+    private void summarizeLatestConversation() {
+        List<EmailMessage> newest = mail.getFolderMessages(selectedFolder(), 1);
+        if (newest.isEmpty()) {
+            showError("There are no emails to summarize yet. Check your emails first.");
+            return;
         }
-        emailDisplayArea.setText(sb.toString());
-        emailDisplayArea.setCaretPosition(0);
+        EmailMessage email = newest.get(0);
+        String conversation = mail.getConversationKey(email);
+        String threadKey = conversation != null ? conversation : ThreadSummarizer.messageKey(email);
+        List<EmailMessage> messages = conversation != null ? mail.getConversation(email) : Collections.singletonList(email);
+        GeminiAIService ai = aiService;
+        setStatus(STATUS_SUMMARIZING);
+        
+        Callable<String> summarize = Tracer.wrap("summarize", () -> threadSummarizer.summarize(ai, threadKey, messages));
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() throws Exception {
+                return summarize.call();
+            }
+            
+            @Override
+            protected void done() {
+                try {
+                    String summary = get();
+                    statusLabel.setText(STATUS_COMMAND_DONE);
+                    if (voiceService != null && config.isVoiceEnabled()) {
+                        voiceService.textToSpeechNow(summary);
+                    }
+                    showSummary(email.getSubject(), messages.size(), summary);
+                } catch (Exception e) {
+                    showError("Error summarizing email: " + e.getMessage());
+                }
+            }
+        }.execute();
+    }
+    
+    private void showSummary(String subject, int messageCount, String summary) {
+        JTextArea textArea = new JTextArea(summary);
+        textArea.setFont(new Font("Arial", Font.PLAIN, LARGE_FONT_SIZE));
+        textArea.setEditable(false);
+        textArea.setLineWrap(true);
+        textArea.setWrapStyleWord(true);
+        
+        JScrollPane scrollPane = new JScrollPane(textArea);
+        scrollPane.setPreferredSize(new Dimension(600, 400));
+        
+        JOptionPane.showMessageDialog(
+            this,
+            scrollPane,
+            subject + (messageCount > 1 ? " (" + messageCount + " messages)" : ""),
+            JOptionPane.INFORMATION_MESSAGE
+        );
     }
     
     private void aiComposeEmail() {
@@ -352,13 +805,14 @@ public class EmailAppGUI extends JFrame {
         );
         
         if (instructions != null && !instructions.trim().isEmpty()) {
-            setStatus("AI is composing your email...");
+            setStatus(STATUS_COMPOSING);
             
+            Callable<String> compose = Tracer.wrap("compose", () -> aiService.composeEmail(instructions));
             new SwingWorker<String, Void>() {
                 @Override
                 protected String doInBackground() {
                     try {
-                        return aiService.composeEmail(instructions);
+                        return compose.call();
                     } catch (Exception e) {
                         return "Error: " + e.getMessage();
                     }
@@ -369,7 +823,7 @@ public class EmailAppGUI extends JFrame {
                     try {
                         String emailText = get();
                         messageArea.setText(emailText);
-                        setStatus("Email composed by AI. You can edit it before sending.");
+                        setStatus(STATUS_COMPOSED);
                     } catch (Exception e) {
                         showError("Error composing email: " + e.getMessage());
                     }
@@ -388,22 +842,26 @@ public class EmailAppGUI extends JFrame {
             return;
         }
         
-        setStatus("Sending email...");
+        setStatus(STATUS_SENDING);
         
+        Callable<Void> send = Tracer.wrap("send-email", () -> {
+            mail.sendEmail(to, subject, body);
+            return null;
+        });
         new SwingWorker<Void, Void>() {
             @Override
             protected Void doInBackground() {
                 try {
-                    emailService.sendEmail(to, subject, body);
+                    send.call();
                 } catch (Exception e) {
-                    SwingUtilities.invokeLater(() -> showError("Error sending email: " + e.getMessage()));
+                    events.run(() -> showError("Error sending email: " + e.getMessage()));
                 }
                 return null;
             }
             
             @Override
             protected void done() {
-                setStatus("Email sent successfully!");
+                setStatus(STATUS_SENT);
                 recipientField.setText("");
                 subjectField.setText("");
                 messageArea.setText("");
@@ -459,10 +917,7 @@ public class EmailAppGUI extends JFrame {
             config.setGeminiApiKey(apiKeyField.getText());
             config.saveConfig();
             
-            // Reinitialize services with new config
-            initializeServices();
-            
-            setStatus("Settings saved!");
+            setStatus(STATUS_SETTINGS_SAVED);
         }
     }
     
@@ -470,6 +925,8 @@ public class EmailAppGUI extends JFrame {
         String helpText = "AI Email Assistant Help\n\n" +
             "VOICE COMMANDS:\n" +
             "• 'Check my emails' - View recent messages\n" +
+            "• 'Summarize my email' - Hear what the latest conversation is about\n" +
+            "• 'Find the email about...' - Search your mail by what it says\n" +
             "• 'Compose email to [name]' - Start new email\n" +
             "• 'Help me write...' - AI assists with writing\n\n" +
             "BUTTONS:\n" +
@@ -501,8 +958,20 @@ public class EmailAppGUI extends JFrame {
         );
     }
     
+    /**
+     * Show a status, spoken if it is a fixed phrase; several set within one frame show only the last
+     */
     private void setStatus(String message) {
+        events.publish(statusUpdates, message);
+    }
+    
+    private void showStatus(String message) {
         statusLabel.setText(message);
+        // Only the fixed phrases are spoken; counts and error details are just shown
+        if (voiceService != null && config.isVoiceEnabled() && COMMON_PHRASES.contains(message)) {
+            // A newer status makes the previous one stale, so cut it off
+            voiceService.textToSpeechNow(message);
+        }
     }
     
     private void showError(String message) {
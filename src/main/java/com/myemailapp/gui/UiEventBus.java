@@ -0,0 +1,165 @@
+package com.myemailapp.gui;
+
+import javax.swing.*;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.function.BinaryOperator;
+import java.util.function.Consumer;
+
+/**
+ * Hands updates from background threads to the event dispatch thread in batches
+ *
+ * Instead of one invokeLater per update, updates wait for the next frame tick and are
+ * applied together. Values posted to a topic are merged while they wait (a status keeps
+ * only the newest text, folder updates are combined into one set), so a burst of
+ * thousands costs one repaint. Topics are applied first, then one-off tasks in the order
+ * they were posted, up to a time budget per tick. Producers block while too many tasks
+ * are waiting, so a flood slows the senders down rather than the window.
+ */
+class UiEventBus {
+    static final int FRAME_MS = 16;
+    private static final int MAX_PENDING_TASKS = 1_000;
+    // Leave the rest of the frame for painting and input
+    private static final long TICK_BUDGET_NANOS = 8_000_000;
+    
+    private final Map<Topic<?>, Object> values = new LinkedHashMap<>();
+    private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+    private final Semaphore taskSlots = new Semaphore(MAX_PENDING_TASKS);
+    private final Timer timer;
+    private boolean scheduled;
+    
+    /**
+     * A kind of update: how waiting values combine and what applies them on the EDT
+     */
+    static final class Topic<T> {
+        private final BinaryOperator<T> merge;
+        private final Consumer<T> apply;
+        
+        Topic(BinaryOperator<T> merge, Consumer<T> apply) {
+            this.merge = merge;
+            this.apply = apply;
+        }
+        
+        /**
+         * Only the newest value matters (last writer wins)
+         */
+        static <T> Topic<T> latest(Consumer<T> apply) {
+            return new Topic<>((older, newer) -> newer, apply);
+        }
+        
+        /**
+         * Waiting sets are combined into one
+         */
+        static <E> Topic<Set<E>> union(Consumer<Set<E>> apply) {
+            return new Topic<>((older, newer) -> {
+                Set<E> merged = new HashSet<>(older);
+                merged.addAll(newer);
+                return merged;
+            }, apply);
+        }
+    }
+    
+    /**
+     * A queued one-off task; posts from the EDT itself never wait for a slot
+     */
+    private static final class Task {
+        final Runnable runnable;
+        final boolean holdsSlot;
+        
+        Task(Runnable runnable, boolean holdsSlot) {
+            this.runnable = runnable;
+            this.holdsSlot = holdsSlot;
+        }
+    }
+    
+    UiEventBus() {
+        timer = new Timer(FRAME_MS, e -> flush());
+        timer.setRepeats(false);
+    }
+    
+    /**
+     * Post a value to a topic, merging it with one that is still waiting (any thread)
+     */
+    @SuppressWarnings("unchecked")
+    <T> void publish(Topic<T> topic, T value) {
+        synchronized (this) {
+            values.merge(topic, value, (older, newer) -> topic.merge.apply((T) older, (T) newer));
+            schedule();
+        }
+    }
+    
+    /**
+     * Run a task on the EDT with the next batch (any thread). Blocks while the queue is
+     * full; a producer interrupted while waiting gives up on the task.
+     */
+    void run(Runnable task) {
+        boolean holdsSlot = false;
+        if (!SwingUtilities.isEventDispatchThread()) {
+            try {
+                taskSlots.acquire();
+                holdsSlot = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        synchronized (this) {
+            tasks.add(new Task(task, holdsSlot));
+            schedule();
+        }
+    }
+    
+    private void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            timer.restart();
+        }
+    }
+    
+    /**
+     * One tick on the EDT: apply every topic, then tasks until the budget is used up
+     */
+    @SuppressWarnings("unchecked")
+    private void flush() {
+        Map<Topic<?>, Object> due;
+        synchronized (this) {
+            scheduled = false;
+            due = new LinkedHashMap<>(values);
+            values.clear();
+        }
+        for (Map.Entry<Topic<?>, Object> entry : due.entrySet()) {
+            try {
+                ((Topic<Object>) entry.getKey()).apply.accept(entry.getValue());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        long deadline = System.nanoTime() + TICK_BUDGET_NANOS;
+        while (System.nanoTime() < deadline) {
+            Task task;
+            synchronized (this) {
+                task = tasks.poll();
+            }
+            if (task == null) {
+                return;
+            }
+            if (task.holdsSlot) {
+                taskSlots.release();
+            }
+            try {
+                task.runnable.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        synchronized (this) {
+            if (!tasks.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
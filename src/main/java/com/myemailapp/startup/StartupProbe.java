@@ -0,0 +1,49 @@
+package com.myemailapp.startup;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Startup measurement hook used by the CDS training run and the startup benchmark.
+ * Enabled with -Dmyemailapp.startupProbe=true: the app skips first-run side effects,
+ * reports the time from process start until the main window is shown, then exits.
+ */
+public class StartupProbe {
+    private static final String PROPERTY = "myemailapp.startupProbe";
+    
+    /**
+     * Check if this launch is a measurement/training launch
+     */
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+    
+    /**
+     * Report time-to-window and exit (no-op unless the probe is enabled)
+     */
+    public static void windowShown() {
+        if (!isEnabled()) {
+            return;
+        }
+        System.out.println("time-to-window-ms=" + millisSinceProcessStart());
+        System.exit(0);
+    }
+    
+    /**
+     * Report that no window could be created (e.g. headless training run) and exit.
+     * Classes loaded up to this point still end up in the CDS archive.
+     */
+    public static void windowUnavailable(Throwable cause) {
+        if (!isEnabled()) {
+            return;
+        }
+        System.out.println("time-to-window-ms=-1 (" + cause + ")");
+        System.exit(0);
+    }
+    
+    private static long millisSinceProcessStart() {
+        return ProcessHandle.current().info().startInstant()
+            .map(start -> Duration.between(start, Instant.now()).toMillis())
+            .orElse(-1L);
+    }
+}
@@ -0,0 +1,141 @@
+package com.myemailapp.trace;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One timed step of a traced action, e.g. a Gemini call or an IMAP fetch
+ *
+ * Started with Tracer.start and closed with try-with-resources; while open it is the
+ * current span of the thread that started it, so spans started below it become its children.
+ */
+public class Span implements AutoCloseable {
+    final Tracer.Trace trace;
+    private final long spanId;
+    private final long parentId;
+    private final String name;
+    private final String threadName;
+    private final long threadId;
+    private final long startNanos;
+    private final Span parent;
+    private final Map<String, String> tags = new LinkedHashMap<>();
+    private volatile long durationNanos = -1;
+    private volatile String error;
+    
+    Span(Tracer.Trace trace, long spanId, Span parent, String name) {
+        this.trace = trace;
+        this.spanId = spanId;
+        this.parentId = parent != null ? parent.spanId : 0;
+        this.name = name;
+        this.threadName = Thread.currentThread().getName();
+        this.threadId = Thread.currentThread().getId();
+        this.startNanos = System.nanoTime();
+        this.parent = parent;
+    }
+    
+    /**
+     * Attach a detail (folder, model, result size...) to the span
+     */
+    public Span tag(String key, Object value) {
+        synchronized (tags) {
+            tags.put(key, String.valueOf(value));
+        }
+        return this;
+    }
+    
+    /**
+     * Record that the step failed; the exception is logged once, with its trace id
+     */
+    public Span fail(Throwable cause) {
+        error = cause.toString();
+        Tracer.logError(this, cause);
+        return this;
+    }
+    
+    @Override
+    public void close() {
+        if (durationNanos >= 0) {
+            return;
+        }
+        durationNanos = System.nanoTime() - startNanos;
+        Tracer.finished(this);
+    }
+    
+    public long getTraceId() {
+        return trace.id;
+    }
+    
+    public long getSpanId() {
+        return spanId;
+    }
+    
+    /**
+     * Parent span id, 0 for the root of a trace
+     */
+    public long getParentId() {
+        return parentId;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public String getThreadName() {
+        return threadName;
+    }
+    
+    public long getThreadId() {
+        return threadId;
+    }
+    
+    /**
+     * Start time in microseconds since the epoch
+     */
+    public long getStartMicros() {
+        return Tracer.toEpochMicros(startNanos);
+    }
+    
+    long getStartNanos() {
+        return startNanos;
+    }
+    
+    /**
+     * Duration in nanoseconds, -1 while the span is still open
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+    
+    public long getDurationMillis() {
+        return durationNanos / 1_000_000;
+    }
+    
+    public String getError() {
+        return error;
+    }
+    
+    public Map<String, String> getTags() {
+        synchronized (tags) {
+            return Collections.unmodifiableMap(new LinkedHashMap<>(tags));
+        }
+    }
+    
+    Span getParent() {
+        return parent;
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(name).append(' ').append(getDurationMillis()).append(" ms");
+        Map<String, String> snapshot = getTags();
+        for (Map.Entry<String, String> tag : snapshot.entrySet()) {
+            sb.append(' ').append(tag.getKey()).append('=').append(tag.getValue());
+        }
+        if (error != null) {
+            sb.append(" FAILED: ").append(error);
+        }
+        sb.append(" [").append(threadName).append(']');
+        return sb.toString();
+    }
+}
@@ -0,0 +1,390 @@
+package com.myemailapp.trace;
+
+import com.google.gson.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lightweight tracing of user actions across threads
+ *
+ * A trace is one user action (a voice command, a refresh); its spans are the steps, from
+ * the Gemini call to each IMAP command. The current span is kept per thread and carried
+ * across SwingWorker, invokeLater and executor hops by wrapping the task with
+ * {@link #wrap(Runnable)} / {@link #wrap(Callable)}. A trace is complete when its last
+ * span ends and no wrapped task is still pending, so its duration covers the whole
+ * action however often it changed threads.
+ *
+ * Finished spans go to an in-memory ring buffer. Traces slower than
+ * -Dmyemailapp.trace.slowMs (default 2000) are printed as a tree and exported to
+ * ~/.myemailapp/traces/ in Chrome trace format (open in chrome://tracing or Perfetto).
+ */
+public class Tracer {
+    private static final int RING_CAPACITY = 4096;
+    private static final int MAX_ACTIVE_TRACES = 256;
+    private static final int MAX_SPANS_PER_TRACE = 512;
+    private static final int MAX_SLOW_EXPORTS = 20;
+    private static final long SLOW_TRACE_MS = Long.getLong("myemailapp.trace.slowMs", 2000);
+    private static final String TRACE_DIR = System.getProperty("user.home") +
+                                            File.separator + ".myemailapp" +
+                                            File.separator + "traces";
+    
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    // An exception failing several nested spans is logged once
+    private static final Set<Throwable> LOGGED = Collections.newSetFromMap(new WeakHashMap<>());
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+    private static final Map<Long, Trace> ACTIVE = new ConcurrentHashMap<>();
+    private static final Span[] RING = new Span[RING_CAPACITY];
+    private static long ringWrites;
+    // Anchor for turning nanoTime into wall-clock time
+    private static final long BASE_NANOS = System.nanoTime();
+    private static final long BASE_EPOCH_MICROS = System.currentTimeMillis() * 1000;
+    private static final ExecutorService EXPORTER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "trace-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private Tracer() {
+    }
+    
+    /**
+     * Start a span as a child of the current one, or as the root of a new trace
+     */
+    public static Span start(String name) {
+        Span parent = CURRENT.get();
+        Trace trace;
+        if (parent != null) {
+            trace = parent.trace;
+        } else {
+            trace = new Trace(NEXT_ID.incrementAndGet(), name);
+            ACTIVE.put(trace.id, trace);
+            if (ACTIVE.size() > MAX_ACTIVE_TRACES) {
+                // Traces whose wrapped tasks never ran would otherwise pile up
+                ACTIVE.keySet().stream().min(Long::compare).ifPresent(ACTIVE::remove);
+            }
+        }
+        trace.hold();
+        Span span = new Span(trace, NEXT_ID.incrementAndGet(), parent, name);
+        CURRENT.set(span);
+        return span;
+    }
+    
+    /**
+     * The span open on this thread, or null
+     */
+    public static Span current() {
+        return CURRENT.get();
+    }
+    
+    /**
+     * Mark the current span (if any) as failed
+     */
+    public static void fail(Throwable cause) {
+        Span span = CURRENT.get();
+        if (span != null) {
+            span.fail(cause);
+        } else {
+            cause.printStackTrace();
+        }
+    }
+    
+    /**
+     * Carry the current span over to wherever the task runs
+     */
+    public static Runnable wrap(Runnable task) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return task;
+        }
+        parent.trace.hold();
+        return () -> {
+            Span previous = CURRENT.get();
+            CURRENT.set(parent);
+            try {
+                task.run();
+            } finally {
+                CURRENT.set(previous);
+                release(parent.trace);
+            }
+        };
+    }
+    
+    /**
+     * Carry the current span over to wherever the task runs
+     */
+    public static <T> Callable<T> wrap(Callable<T> task) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return task;
+        }
+        parent.trace.hold();
+        return () -> {
+            Span previous = CURRENT.get();
+            CURRENT.set(parent);
+            try {
+                return task.call();
+            } finally {
+                CURRENT.set(previous);
+                release(parent.trace);
+            }
+        };
+    }
+    
+    /**
+     * Run the task in its own span wherever it runs, as a child of the current span
+     */
+    public static Runnable wrap(String name, Runnable task) {
+        return wrap(() -> {
+            try (Span span = start(name)) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    span.fail(e);
+                    throw e;
+                }
+            }
+        });
+    }
+    
+    /**
+     * Run the task in its own span wherever it runs, as a child of the current span
+     */
+    public static <T> Callable<T> wrap(String name, Callable<T> task) {
+        return wrap(() -> {
+            try (Span span = start(name)) {
+                try {
+                    return task.call();
+                } catch (Exception e) {
+                    span.fail(e);
+                    throw e;
+                }
+            }
+        });
+    }
+    
+    /**
+     * Finished spans still in the ring buffer, oldest first
+     */
+    public static List<Span> recent() {
+        synchronized (RING) {
+            int count = (int) Math.min(ringWrites, RING_CAPACITY);
+            List<Span> spans = new ArrayList<>(count);
+            for (long i = ringWrites - count; i < ringWrites; i++) {
+                spans.add(RING[(int) (i % RING_CAPACITY)]);
+            }
+            return spans;
+        }
+    }
+    
+    /**
+     * Write the ring buffer to a file in Chrome trace format
+     */
+    public static void export(Path file) throws IOException {
+        write(file, recent());
+    }
+    
+    /**
+     * Export the ring buffer next to the slow-trace files; errors are only logged
+     */
+    public static void exportSession() {
+        try {
+            export(Paths.get(TRACE_DIR, "last-session.json"));
+        } catch (IOException e) {
+            System.err.println("Error exporting traces: " + e.getMessage());
+        }
+    }
+    
+    static long toEpochMicros(long nanos) {
+        return BASE_EPOCH_MICROS + (nanos - BASE_NANOS) / 1000;
+    }
+    
+    static void finished(Span span) {
+        if (CURRENT.get() == span) {
+            CURRENT.set(span.getParent());
+        }
+        synchronized (RING) {
+            RING[(int) (ringWrites % RING_CAPACITY)] = span;
+            ringWrites++;
+        }
+        span.trace.add(span);
+        release(span.trace);
+    }
+    
+    static void logError(Span span, Throwable cause) {
+        synchronized (LOGGED) {
+            if (!LOGGED.add(cause)) {
+                return;
+            }
+        }
+        System.err.println("[trace " + span.getTraceId() + "] " + span.trace.name + " > " + span.getName() + " failed:");
+        cause.printStackTrace();
+    }
+    
+    private static void release(Trace trace) {
+        if (trace.release() == 0 && ACTIVE.remove(trace.id) != null) {
+            completed(trace);
+        }
+    }
+    
+    private static void completed(Trace trace) {
+        List<Span> spans = trace.snapshot();
+        if (spans.isEmpty()) {
+            return;
+        }
+        long start = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (Span span : spans) {
+            start = Math.min(start, span.getStartNanos());
+            end = Math.max(end, span.getStartNanos() + span.getDurationNanos());
+        }
+        long millis = (end - start) / 1_000_000;
+        if (millis < SLOW_TRACE_MS) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("[trace ").append(trace.id).append("] slow: ").append(trace.name)
+          .append(" took ").append(millis).append(" ms\n");
+        appendTree(sb, spans, 0, 1);
+        System.err.print(sb);
+        try {
+            EXPORTER.execute(() -> exportSlow(trace, spans));
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+        }
+    }
+    
+    private static void appendTree(StringBuilder sb, List<Span> spans, long parentId, int depth) {
+        for (Span span : spans) {
+            if (span.getParentId() == parentId ||
+                (parentId == 0 && !containsSpan(spans, span.getParentId()))) {
+                for (int i = 0; i < depth; i++) {
+                    sb.append("  ");
+                }
+                sb.append(span).append('\n');
+                appendTree(sb, spans, span.getSpanId(), depth + 1);
+            }
+        }
+    }
+    
+    private static boolean containsSpan(List<Span> spans, long spanId) {
+        for (Span span : spans) {
+            if (span.getSpanId() == spanId) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    private static void exportSlow(Trace trace, List<Span> spans) {
+        try {
+            String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+            String name = trace.name.replaceAll("[^A-Za-z0-9.-]", "_");
+            write(Paths.get(TRACE_DIR, "slow-" + stamp + "-" + trace.id + "-" + name + ".json"), spans);
+            File[] files = new File(TRACE_DIR).listFiles((dir, file) -> file.startsWith("slow-"));
+            if (files != null && files.length > MAX_SLOW_EXPORTS) {
+                Arrays.sort(files, Comparator.comparing(File::getName));
+                for (int i = 0; i < files.length - MAX_SLOW_EXPORTS; i++) {
+                    files[i].delete();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error exporting trace: " + e.getMessage());
+        }
+    }
+    
+    private static void write(Path file, List<Span> spans) throws IOException {
+        JsonArray events = new JsonArray();
+        Set<Long> namedThreads = new HashSet<>();
+        for (Span span : spans) {
+            if (namedThreads.add(span.getThreadId())) {
+                JsonObject args = new JsonObject();
+                args.addProperty("name", span.getThreadName());
+                JsonObject meta = new JsonObject();
+                meta.addProperty("name", "thread_name");
+                meta.addProperty("ph", "M");
+                meta.addProperty("pid", 1);
+                meta.addProperty("tid", span.getThreadId());
+                meta.add("args", args);
+                events.add(meta);
+            }
+            JsonObject args = new JsonObject();
+            args.addProperty("trace", span.getTraceId());
+            args.addProperty("span", span.getSpanId());
+            args.addProperty("parent", span.getParentId());
+            for (Map.Entry<String, String> tag : span.getTags().entrySet()) {
+                args.addProperty(tag.getKey(), tag.getValue());
+            }
+            if (span.getError() != null) {
+                args.addProperty("error", span.getError());
+            }
+            JsonObject event = new JsonObject();
+            event.addProperty("name", span.getName());
+            event.addProperty("cat", span.trace.name);
+            event.addProperty("ph", "X");
+            event.addProperty("ts", span.getStartMicros());
+            event.addProperty("dur", Math.max(0, span.getDurationNanos() / 1000));
+            event.addProperty("pid", 1);
+            event.addProperty("tid", span.getThreadId());
+            event.add("args", args);
+            events.add(event);
+        }
+        JsonObject root = new JsonObject();
+        root.add("traceEvents", events);
+        root.addProperty("displayTimeUnit", "ms");
+        
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+            new GsonBuilder().setPrettyPrinting().create().toJson(root, writer);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+    
+    /**
+     * Spans of one action, with a count of open spans and pending hops
+     */
+    static final class Trace {
+        final long id;
+        final String name;
+        private final AtomicInteger open = new AtomicInteger();
+        private final List<Span> spans = new ArrayList<>();
+        
+        Trace(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+        
+        void hold() {
+            open.incrementAndGet();
+        }
+        
+        int release() {
+            return open.decrementAndGet();
+        }
+        
+        synchronized void add(Span span) {
+            if (spans.size() < MAX_SPANS_PER_TRACE) {
+                spans.add(span);
+            }
+        }
+        
+        synchronized List<Span> snapshot() {
+            List<Span> sorted = new ArrayList<>(spans);
+            sorted.sort(Comparator.comparingLong(Span::getStartNanos));
+            return sorted;
+        }
+    }
+}
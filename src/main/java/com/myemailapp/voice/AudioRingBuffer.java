@@ -0,0 +1,74 @@
+package com.myemailapp.voice;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer byte ring buffer for captured audio
+ *
+ * The capture thread writes and one processing thread reads. Positions only ever grow;
+ * each side publishes its own position through an AtomicLong, so neither side takes a
+ * lock and the reader never sees bytes the writer has not finished. When the reader
+ * falls behind, new audio is dropped and counted rather than overwriting unread data.
+ */
+public class AudioRingBuffer {
+    private final byte[] buffer;
+    private final int mask;
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+    private final AtomicLong droppedBytes = new AtomicLong();
+    
+    /**
+     * @param capacity size in bytes, rounded up to a power of two
+     */
+    public AudioRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+    
+    /**
+     * Append bytes (producer side); returns how many fit, the rest are dropped
+     */
+    public int write(byte[] data, int offset, int length) {
+        long write = writePosition.get();
+        int free = buffer.length - (int) (write - readPosition.get());
+        int count = Math.min(length, free);
+        int start = (int) (write & mask);
+        int first = Math.min(count, buffer.length - start);
+        System.arraycopy(data, offset, buffer, start, first);
+        System.arraycopy(data, offset + first, buffer, 0, count - first);
+        writePosition.lazySet(write + count);
+        if (count < length) {
+            droppedBytes.addAndGet(length - count);
+        }
+        return count;
+    }
+    
+    /**
+     * Take up to length bytes (consumer side); returns how many were read
+     */
+    public int read(byte[] data, int offset, int length) {
+        long read = readPosition.get();
+        int count = Math.min(length, (int) (writePosition.get() - read));
+        int start = (int) (read & mask);
+        int first = Math.min(count, buffer.length - start);
+        System.arraycopy(buffer, start, data, offset, first);
+        System.arraycopy(buffer, 0, data, offset + first, count - first);
+        readPosition.lazySet(read + count);
+        return count;
+    }
+    
+    /**
+     * Bytes written but not read yet
+     */
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+    
+    /**
+     * Bytes lost because the reader fell behind
+     */
+    public long getDroppedBytes() {
+        return droppedBytes.get();
+    }
+}
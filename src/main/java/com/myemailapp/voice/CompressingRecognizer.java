@@ -0,0 +1,128 @@
+package com.myemailapp.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Recognizer front end that trims silence and FLAC-encodes audio as it is captured
+ *
+ * Leading and trailing silence is cut down to a short pad and long pauses inside the
+ * utterance are shortened; everything else is losslessly compressed frame by frame and
+ * handed to the sink as soon as an encoded frame is complete, so the upload runs
+ * alongside the speaker instead of after them.
+ */
+public class CompressingRecognizer implements SpeechRecognizer {
+    private static final int FRAME_MILLIS = 20;
+    private static final double SILENCE_RMS = 250;
+    private static final int PAD_FRAMES = 5;              // silence kept around speech
+    private static final int MAX_PAUSE_FRAMES = 15;       // longest pause kept inside speech
+    
+    private final EncodedAudioSink sink;
+    private final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream silence = new ByteArrayOutputStream();
+    private FlacEncoder encoder;
+    private int frameBytes;
+    private boolean heardSpeech;
+    private long rawBytes;
+    private long trimmedBytes;
+    
+    public CompressingRecognizer(EncodedAudioSink sink) {
+        this.sink = sink;
+    }
+    
+    @Override
+    public void utteranceStarted(AudioFormat format) {
+        int sampleRate = (int) format.getSampleRate();
+        frameBytes = sampleRate / 1000 * FRAME_MILLIS * format.getFrameSize();
+        encoded.reset();
+        silence.reset();
+        heardSpeech = false;
+        rawBytes = 0;
+        trimmedBytes = 0;
+        encoder = new FlacEncoder(encoded, sampleRate);
+        sink.begin(FlacEncoder.CONTENT_TYPE, sampleRate);
+    }
+    
+    @Override
+    public void audioChunk(byte[] pcm) {
+        rawBytes += pcm.length;
+        for (int offset = 0; offset < pcm.length; offset += frameBytes) {
+            int length = Math.min(frameBytes, pcm.length - offset);
+            if (VoiceActivityDetector.rms(pcm, offset, length) < SILENCE_RMS) {
+                holdSilence(pcm, offset, length);
+            } else {
+                releaseSilence(heardSpeech ? MAX_PAUSE_FRAMES : PAD_FRAMES);
+                heardSpeech = true;
+                encode(pcm, offset, length);
+            }
+        }
+        sendEncoded();
+    }
+    
+    @Override
+    public String utteranceEnded() {
+        releaseSilence(PAD_FRAMES);
+        try {
+            encoder.finish();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        sendEncoded();
+        return sink.complete();
+    }
+    
+    /**
+     * PCM bytes received for the last utterance
+     */
+    public long getRawBytes() {
+        return rawBytes;
+    }
+    
+    /**
+     * PCM bytes of silence cut from the last utterance
+     */
+    public long getTrimmedBytes() {
+        return trimmedBytes;
+    }
+    
+    /**
+     * Compressed bytes produced for the last utterance
+     */
+    public long getEncodedBytes() {
+        return encoder != null ? encoder.getBytesWritten() : 0;
+    }
+    
+    private void holdSilence(byte[] pcm, int offset, int length) {
+        silence.write(pcm, offset, length);
+    }
+    
+    /**
+     * Encode held silence, keeping only the last maxFrames frames of it
+     */
+    private void releaseSilence(int maxFrames) {
+        byte[] held = silence.toByteArray();
+        int keep = Math.min(held.length, maxFrames * frameBytes);
+        trimmedBytes += held.length - keep;
+        if (keep > 0) {
+            encode(held, held.length - keep, keep);
+        }
+        silence.reset();
+    }
+    
+    private void encode(byte[] pcm, int offset, int length) {
+        try {
+            encoder.write(pcm, offset, length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+    
+    private void sendEncoded() {
+        if (encoded.size() > 0) {
+            sink.send(encoded.toByteArray());
+            encoded.reset();
+        }
+    }
+}
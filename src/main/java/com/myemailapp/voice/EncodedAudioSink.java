@@ -0,0 +1,24 @@
+package com.myemailapp.voice;
+
+/**
+ * Destination for a compressed utterance, e.g. a chunked HTTP upload to a speech API
+ *
+ * Pieces arrive in stream order while the user is still speaking; concatenated they form
+ * one valid file of the announced content type.
+ */
+public interface EncodedAudioSink {
+    /**
+     * A new encoded stream begins
+     */
+    void begin(String contentType, int sampleRate);
+    
+    /**
+     * Next piece of the encoded stream
+     */
+    void send(byte[] data);
+    
+    /**
+     * The stream is complete; return the transcript (or null if nothing was recognized)
+     */
+    String complete();
+}
@@ -0,0 +1,140 @@
+package com.myemailapp.voice;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Random;
+
+/**
+ * Throughput and size benchmark for the speech upload encoder
+ *
+ *   java -cp target/classes com.myemailapp.voice.EncoderBenchmark [seconds | recording.wav]
+ *
+ * Without a file it synthesizes speech-like audio (voiced harmonics with a moving pitch,
+ * syllable envelopes, pauses and background noise). WAV input must be 16 kHz 16-bit mono.
+ */
+public class EncoderBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int CHUNK_BYTES = 6400;
+    private static final int ROUNDS = 5;
+    
+    public static void main(String[] args) throws Exception {
+        byte[] pcm = args.length > 0 && new File(args[0]).isFile()
+            ? readWav(new File(args[0]))
+            : synthesize(args.length > 0 ? Integer.parseInt(args[0]) : 30);
+        double seconds = pcm.length / 2.0 / SAMPLE_RATE;
+        System.out.printf("input: %.1f s of audio, %d bytes PCM%n", seconds, pcm.length);
+        
+        // Warm up the JIT before measuring
+        for (int i = 0; i < 3; i++) {
+            encode(pcm);
+        }
+        long best = Long.MAX_VALUE;
+        int flacBytes = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            flacBytes = encode(pcm);
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        double millis = best / 1e6;
+        System.out.printf("flac:      %d bytes, ratio %.2fx, %.1f ms, %.1f MB/s, %.0fx realtime%n",
+                          flacBytes, (double) pcm.length / flacBytes, millis,
+                          pcm.length / 1e6 / (millis / 1000), seconds * 1000 / millis);
+        
+        CountingSink sink = new CountingSink();
+        CompressingRecognizer recognizer = new CompressingRecognizer(sink);
+        long start = System.nanoTime();
+        recognizer.utteranceStarted(new AudioFormat(SAMPLE_RATE, 16, 1, true, false));
+        for (int offset = 0; offset < pcm.length; offset += CHUNK_BYTES) {
+            int length = Math.min(CHUNK_BYTES, pcm.length - offset);
+            byte[] chunk = new byte[length];
+            System.arraycopy(pcm, offset, chunk, 0, length);
+            recognizer.audioChunk(chunk);
+        }
+        recognizer.utteranceEnded();
+        millis = (System.nanoTime() - start) / 1e6;
+        System.out.printf("trim+flac: %d bytes in %d pieces, ratio %.2fx, %d bytes of silence cut, %.1f ms%n",
+                          sink.bytes, sink.pieces, (double) pcm.length / sink.bytes,
+                          recognizer.getTrimmedBytes(), millis);
+    }
+    
+    private static int encode(byte[] pcm) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(pcm.length / 2);
+        FlacEncoder encoder = new FlacEncoder(out, SAMPLE_RATE);
+        for (int offset = 0; offset < pcm.length; offset += CHUNK_BYTES) {
+            encoder.write(pcm, offset, Math.min(CHUNK_BYTES, pcm.length - offset));
+        }
+        encoder.finish();
+        return out.size();
+    }
+    
+    private static byte[] readWav(File file) throws Exception {
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file)) {
+            AudioFormat format = in.getFormat();
+            if (format.getSampleRate() != SAMPLE_RATE || format.getSampleSizeInBits() != 16
+                    || format.getChannels() != 1 || format.isBigEndian()) {
+                throw new IllegalArgumentException("Expected 16 kHz 16-bit mono little-endian, got " + format);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+    }
+    
+    private static byte[] synthesize(int seconds) {
+        Random random = new Random(42);
+        int samples = seconds * SAMPLE_RATE;
+        byte[] pcm = new byte[samples * 2];
+        double phase = 0;
+        int syllableLeft = 0;
+        int syllableLength = 1;
+        boolean voiced = false;
+        double pitch = 120;
+        for (int i = 0; i < samples; i++) {
+            if (syllableLeft-- <= 0) {
+                voiced = random.nextDouble() < 0.7;
+                syllableLength = SAMPLE_RATE / 10 + random.nextInt(SAMPLE_RATE / 4);
+                syllableLeft = syllableLength;
+                pitch = 100 + random.nextInt(120);
+            }
+            double value = random.nextGaussian() * 30;
+            if (voiced) {
+                double envelope = Math.sin(Math.PI * (syllableLength - syllableLeft) / syllableLength);
+                phase += 2 * Math.PI * pitch / SAMPLE_RATE;
+                for (int harmonic = 1; harmonic <= 8; harmonic++) {
+                    value += envelope * 4000 / harmonic * Math.sin(harmonic * phase);
+                }
+            }
+            int sample = (int) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value));
+            pcm[2 * i] = (byte) sample;
+            pcm[2 * i + 1] = (byte) (sample >> 8);
+        }
+        return pcm;
+    }
+    
+    private static class CountingSink implements EncodedAudioSink {
+        private long bytes;
+        private int pieces;
+        
+        @Override
+        public void begin(String contentType, int sampleRate) {
+        }
+        
+        @Override
+        public void send(byte[] data) {
+            bytes += data.length;
+            pieces++;
+        }
+        
+        @Override
+        public String complete() {
+            return null;
+        }
+    }
+}
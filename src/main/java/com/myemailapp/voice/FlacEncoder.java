@@ -0,0 +1,445 @@
+package com.myemailapp.voice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Streaming lossless FLAC encoder for 16-bit mono PCM
+ *
+ * Samples are buffered into fixed-size blocks; every completed block is encoded and
+ * written out as one self-contained FLAC frame right away, so the output can be uploaded
+ * chunk by chunk while audio is still being captured. Each frame picks the cheapest of a
+ * constant, fixed-predictor (orders 0-4) or verbatim subframe, with Rice-coded residuals
+ * partitioned adaptively. Total length and MD5 are left "unknown" in STREAMINFO, which
+ * the format allows for streams.
+ */
+public class FlacEncoder {
+    public static final String CONTENT_TYPE = "audio/flac";
+    
+    private static final int BITS_PER_SAMPLE = 16;
+    private static final int DEFAULT_BLOCK_SIZE = 4096;
+    private static final int MAX_FIXED_ORDER = 4;
+    private static final int MAX_PARTITION_ORDER = 8;
+    private static final int MAX_RICE_PARAMETER = 14;
+    
+    private final OutputStream out;
+    private final int sampleRate;
+    private final int blockSize;
+    private final int[] block;
+    private final int[][] residuals = new int[MAX_FIXED_ORDER + 1][];
+    private final BitWriter frame = new BitWriter();
+    private int buffered;
+    private int pendingByte = -1;
+    private long frameNumber;
+    private long samplesWritten;
+    private long bytesWritten;
+    private boolean headerWritten;
+    
+    public FlacEncoder(OutputStream out, int sampleRate) {
+        this(out, sampleRate, DEFAULT_BLOCK_SIZE);
+    }
+    
+    public FlacEncoder(OutputStream out, int sampleRate, int blockSize) {
+        if (blockSize < 16 || blockSize > 65535) {
+            throw new IllegalArgumentException("Block size out of range: " + blockSize);
+        }
+        this.out = out;
+        this.sampleRate = sampleRate;
+        this.blockSize = blockSize;
+        this.block = new int[blockSize];
+        for (int order = 0; order <= MAX_FIXED_ORDER; order++) {
+            residuals[order] = new int[blockSize];
+        }
+    }
+    
+    /**
+     * Add little-endian 16-bit PCM; completed blocks are encoded and written immediately
+     */
+    public void write(byte[] pcm, int offset, int length) throws IOException {
+        writeHeaderIfNeeded();
+        int end = offset + length;
+        int i = offset;
+        if (pendingByte >= 0 && i < end) {
+            addSample((short) (pendingByte | (pcm[i++] << 8)));
+            pendingByte = -1;
+        }
+        for (; i + 1 < end; i += 2) {
+            addSample((short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8)));
+        }
+        if (i < end) {
+            pendingByte = pcm[i] & 0xff;
+        }
+    }
+    
+    /**
+     * Encode the partial last block and flush; the stream is complete afterwards
+     */
+    public void finish() throws IOException {
+        writeHeaderIfNeeded();
+        if (buffered > 0) {
+            encodeBlock(buffered);
+        }
+        out.flush();
+    }
+    
+    public long getSamplesWritten() {
+        return samplesWritten;
+    }
+    
+    /**
+     * Encoded bytes written so far, including the stream header
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+    
+    private void addSample(int sample) throws IOException {
+        block[buffered++] = sample;
+        if (buffered == blockSize) {
+            encodeBlock(blockSize);
+        }
+    }
+    
+    private void writeHeaderIfNeeded() throws IOException {
+        if (headerWritten) {
+            return;
+        }
+        headerWritten = true;
+        BitWriter header = new BitWriter();
+        header.write('f', 8);
+        header.write('L', 8);
+        header.write('a', 8);
+        header.write('C', 8);
+        header.write(1, 1);                     // last metadata block
+        header.write(0, 7);                     // STREAMINFO
+        header.write(34, 24);
+        header.write(blockSize, 16);            // min block size
+        header.write(blockSize, 16);            // max block size
+        header.write(0, 24);                    // min frame size unknown
+        header.write(0, 24);                    // max frame size unknown
+        header.write(sampleRate, 20);
+        header.write(0, 3);                     // mono
+        header.write(BITS_PER_SAMPLE - 1, 5);
+        header.write(0, 4);                     // total samples unknown (36 bits)
+        header.write(0, 32);
+        for (int i = 0; i < 4; i++) {
+            header.write(0, 32);                // MD5 unknown
+        }
+        emit(header);
+    }
+    
+    private void encodeBlock(int count) throws IOException {
+        frame.reset();
+        writeFrameHeader(count);
+        writeSubframe(count);
+        frame.alignToByte();
+        frame.write(frame.crc16(), 16);
+        emit(frame);
+        frameNumber++;
+        samplesWritten += count;
+        buffered = 0;
+    }
+    
+    private void writeFrameHeader(int count) {
+        frame.write(0x3FFE, 14);                // sync code
+        frame.write(0, 1);
+        frame.write(0, 1);                      // fixed block size stream
+        boolean standard = count == blockSize && blockSizeCode(count) != 0;
+        frame.write(standard ? blockSizeCode(count) : (count <= 256 ? 0b0110 : 0b0111), 4);
+        frame.write(sampleRateCode(), 4);
+        frame.write(0, 4);                      // mono
+        frame.write(0b100, 3);                  // 16 bits per sample
+        frame.write(0, 1);
+        writeUtf8Number(frameNumber);
+        if (!standard) {
+            frame.write(count - 1, count <= 256 ? 8 : 16);
+        }
+        if (sampleRateCode() == 0b1100) {
+            frame.write(sampleRate / 1000, 8);
+        }
+        frame.write(frame.crc8(), 8);
+    }
+    
+    private void writeSubframe(int count) {
+        boolean constant = true;
+        for (int i = 1; i < count && constant; i++) {
+            constant = block[i] == block[0];
+        }
+        if (constant) {
+            frame.write(0, 1);
+            frame.write(0b000000, 6);
+            frame.write(0, 1);
+            frame.writeSigned(block[0], BITS_PER_SAMPLE);
+            return;
+        }
+        
+        // Pick the fixed predictor order with the smallest residual magnitude
+        int maxOrder = Math.min(MAX_FIXED_ORDER, count - 1);
+        int bestOrder = 0;
+        long bestSum = Long.MAX_VALUE;
+        for (int order = 0; order <= maxOrder; order++) {
+            long sum = computeResiduals(order, count);
+            if (sum < bestSum) {
+                bestSum = sum;
+                bestOrder = order;
+            }
+        }
+        RicePlan plan = planRice(residuals[bestOrder], bestOrder, count);
+        long fixedBits = 8 + (long) bestOrder * BITS_PER_SAMPLE + 6 + plan.bits;
+        long verbatimBits = 8 + (long) count * BITS_PER_SAMPLE;
+        if (verbatimBits <= fixedBits) {
+            frame.write(0, 1);
+            frame.write(0b000001, 6);
+            frame.write(0, 1);
+            for (int i = 0; i < count; i++) {
+                frame.writeSigned(block[i], BITS_PER_SAMPLE);
+            }
+            return;
+        }
+        
+        frame.write(0, 1);
+        frame.write(0b001000 | bestOrder, 6);
+        frame.write(0, 1);
+        for (int i = 0; i < bestOrder; i++) {
+            frame.writeSigned(block[i], BITS_PER_SAMPLE);
+        }
+        frame.write(0b00, 2);                   // Rice coding, 4-bit parameters
+        frame.write(plan.partitionOrder, 4);
+        int[] residual = residuals[bestOrder];
+        int partitionSize = count >> plan.partitionOrder;
+        int index = bestOrder;
+        for (int p = 0; p < plan.parameters.length; p++) {
+            int k = plan.parameters[p];
+            frame.write(k, 4);
+            int end = (p + 1) * partitionSize;
+            for (; index < end; index++) {
+                frame.writeRice(residual[index], k);
+            }
+        }
+    }
+    
+    /**
+     * Fill residuals[order] and return the sum of absolute residuals
+     */
+    private long computeResiduals(int order, int count) {
+        int[] r = residuals[order];
+        int[] s = block;
+        long sum = 0;
+        for (int i = order; i < count; i++) {
+            int value;
+            switch (order) {
+                case 0: value = s[i]; break;
+                case 1: value = s[i] - s[i - 1]; break;
+                case 2: value = s[i] - 2 * s[i - 1] + s[i - 2]; break;
+                case 3: value = s[i] - 3 * s[i - 1] + 3 * s[i - 2] - s[i - 3]; break;
+                default: value = s[i] - 4 * s[i - 1] + 6 * s[i - 2] - 4 * s[i - 3] + s[i - 4]; break;
+            }
+            r[i] = value;
+            sum += Math.abs(value);
+        }
+        return sum;
+    }
+    
+    /**
+     * Choose the partition order and per-partition Rice parameters with the fewest bits
+     */
+    private RicePlan planRice(int[] residual, int order, int count) {
+        RicePlan best = null;
+        for (int partitionOrder = 0; partitionOrder <= MAX_PARTITION_ORDER; partitionOrder++) {
+            if (partitionOrder > 0 && ((count >> partitionOrder) << partitionOrder != count
+                                       || (count >> partitionOrder) <= order)) {
+                break;
+            }
+            int partitions = 1 << partitionOrder;
+            int partitionSize = count >> partitionOrder;
+            int[] parameters = new int[partitions];
+            long bits = 0;
+            for (int p = 0; p < partitions; p++) {
+                int start = p == 0 ? order : p * partitionSize;
+                int end = (p + 1) * partitionSize;
+                long sum = 0;
+                for (int i = start; i < end; i++) {
+                    sum += zigzag(residual[i]);
+                }
+                int n = end - start;
+                int k = 0;
+                if (n > 0 && sum > n) {
+                    k = Math.min(MAX_RICE_PARAMETER, 63 - Long.numberOfLeadingZeros(sum / n));
+                }
+                // The mean-based estimate can be off by one; keep the cheaper neighbour
+                long cost = riceBits(residual, start, end, k);
+                if (k > 0) {
+                    long lower = riceBits(residual, start, end, k - 1);
+                    if (lower < cost) {
+                        cost = lower;
+                        k--;
+                    }
+                }
+                parameters[p] = k;
+                bits += 4 + cost;
+            }
+            if (best == null || bits < best.bits) {
+                best = new RicePlan(partitionOrder, parameters, bits);
+            }
+        }
+        return best;
+    }
+    
+    private static long riceBits(int[] residual, int start, int end, int k) {
+        long bits = (long) (end - start) * (k + 1);
+        for (int i = start; i < end; i++) {
+            bits += zigzag(residual[i]) >>> k;
+        }
+        return bits;
+    }
+    
+    private static long zigzag(int value) {
+        return value >= 0 ? 2L * value : -2L * value - 1;
+    }
+    
+    private void writeUtf8Number(long value) {
+        if (value < 0x80) {
+            frame.write((int) value, 8);
+            return;
+        }
+        int bytes = 2;
+        while (bytes < 7 && value >= 1L << (5 * bytes + 1)) {
+            bytes++;
+        }
+        int shift = (bytes - 1) * 6;
+        frame.write((int) ((0xFF00 >> bytes) & 0xFF | (value >> shift)), 8);
+        for (shift -= 6; shift >= 0; shift -= 6) {
+            frame.write((int) (0x80 | ((value >> shift) & 0x3F)), 8);
+        }
+    }
+    
+    private static int blockSizeCode(int size) {
+        switch (size) {
+            case 192: return 0b0001;
+            case 576: return 0b0010;
+            case 1152: return 0b0011;
+            case 2304: return 0b0100;
+            case 4608: return 0b0101;
+            case 256: return 0b1000;
+            case 512: return 0b1001;
+            case 1024: return 0b1010;
+            case 2048: return 0b1011;
+            case 4096: return 0b1100;
+            case 8192: return 0b1101;
+            case 16384: return 0b1110;
+            case 32768: return 0b1111;
+            default: return 0;
+        }
+    }
+    
+    private int sampleRateCode() {
+        switch (sampleRate) {
+            case 8000: return 0b0100;
+            case 16000: return 0b0101;
+            case 22050: return 0b0110;
+            case 24000: return 0b0111;
+            case 32000: return 0b1000;
+            case 44100: return 0b1001;
+            case 48000: return 0b1010;
+            case 96000: return 0b1011;
+            default: return sampleRate % 1000 == 0 && sampleRate / 1000 < 256 ? 0b1100 : 0b0000;
+        }
+    }
+    
+    private void emit(BitWriter bits) throws IOException {
+        out.write(bits.buffer, 0, bits.length);
+        bytesWritten += bits.length;
+    }
+    
+    private static final class RicePlan {
+        final int partitionOrder;
+        final int[] parameters;
+        final long bits;
+        
+        RicePlan(int partitionOrder, int[] parameters, long bits) {
+            this.partitionOrder = partitionOrder;
+            this.parameters = parameters;
+            this.bits = bits;
+        }
+    }
+    
+    /**
+     * MSB-first bit packer with the CRCs FLAC frames need
+     */
+    private static final class BitWriter {
+        private byte[] buffer = new byte[16384];
+        private int length;
+        private long bits;
+        private int bitCount;
+        
+        void reset() {
+            length = 0;
+            bits = 0;
+            bitCount = 0;
+        }
+        
+        void write(int value, int count) {
+            bits = (bits << count) | (value & ((1L << count) - 1));
+            bitCount += count;
+            while (bitCount >= 8) {
+                bitCount -= 8;
+                put((byte) (bits >>> bitCount));
+            }
+        }
+        
+        void writeSigned(int value, int count) {
+            write(value, count);
+        }
+        
+        void writeRice(int value, int k) {
+            long u = zigzag(value);
+            long quotient = u >>> k;
+            while (quotient >= 32) {
+                write(0, 32);
+                quotient -= 32;
+            }
+            write(1, (int) quotient + 1);
+            if (k > 0) {
+                write((int) (u & ((1L << k) - 1)), k);
+            }
+        }
+        
+        void alignToByte() {
+            if (bitCount > 0) {
+                write(0, 8 - bitCount);
+            }
+        }
+        
+        int crc8() {
+            int crc = 0;
+            for (int i = 0; i < length; i++) {
+                crc ^= buffer[i] & 0xff;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+                }
+                crc &= 0xff;
+            }
+            return crc;
+        }
+        
+        int crc16() {
+            int crc = 0;
+            for (int i = 0; i < length; i++) {
+                crc ^= (buffer[i] & 0xff) << 8;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x8005 : crc << 1;
+                }
+                crc &= 0xffff;
+            }
+            return crc;
+        }
+        
+        private void put(byte b) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[length++] = b;
+        }
+    }
+}
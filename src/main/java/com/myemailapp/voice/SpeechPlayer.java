@@ -0,0 +1,242 @@
+package com.myemailapp.voice;
+
+import javax.sound.sampled.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous speech output
+ *
+ * Phrases are queued and played in order on one playback thread through a SourceDataLine
+ * that stays open between phrases. Synthesis runs ahead on its own thread, so the next
+ * phrase is usually ready when the current one finishes. Short phrases are kept in an LRU
+ * cache of synthesized PCM; pre-warming the cache with the app's fixed confirmations lets
+ * them start playing immediately. cancel() stops the current phrase within one small
+ * write and drops everything queued (barge-in).
+ */
+public class SpeechPlayer {
+    private static final int MAX_CACHED_PHRASE_LENGTH = 160;
+    private static final long MAX_CACHE_BYTES = 16L << 20;
+    private static final int WRITE_MILLIS = 40;
+    
+    private final SpeechSynthesizer synthesizer;
+    private final AudioFormat format;
+    private final Map<String, byte[]> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private final BlockingQueue<Utterance> queue = new LinkedBlockingQueue<>();
+    private final ExecutorService synthesis;
+    private final Thread playback;
+    private final AtomicInteger generation = new AtomicInteger();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private long cacheBytes;
+    private SourceDataLine line;
+    private boolean lineUnavailable;
+    private volatile boolean running = true;
+    
+    public SpeechPlayer(SpeechSynthesizer synthesizer) {
+        this.synthesizer = synthesizer;
+        this.format = synthesizer.getFormat();
+        synthesis = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "speech-synthesis");
+            thread.setDaemon(true);
+            return thread;
+        });
+        playback = new Thread(this::playLoop, "speech-playback");
+        playback.setDaemon(true);
+        playback.start();
+    }
+    
+    /**
+     * Queue a phrase behind anything already playing
+     */
+    public void speak(String text) {
+        if (text == null || text.trim().isEmpty() || !running) {
+            return;
+        }
+        Future<byte[]> audio;
+        byte[] cached = cached(text);
+        if (cached != null) {
+            audio = CompletableFuture.completedFuture(cached);
+        } else {
+            audio = synthesis.submit(() -> synthesizeAndCache(text));
+        }
+        queue.add(new Utterance(text, audio, generation.get()));
+    }
+    
+    /**
+     * Interrupt whatever is playing and say this instead
+     */
+    public void speakNow(String text) {
+        cancel();
+        speak(text);
+    }
+    
+    /**
+     * Stop the current phrase and drop everything queued
+     */
+    public void cancel() {
+        generation.incrementAndGet();
+        List<Utterance> dropped = new ArrayList<>();
+        queue.drainTo(dropped);
+        for (Utterance utterance : dropped) {
+            utterance.audio.cancel(false);
+        }
+    }
+    
+    /**
+     * Synthesize phrases into the cache in the background, ahead of their first use
+     */
+    public void prewarm(Collection<String> phrases) {
+        if (!running) {
+            return;
+        }
+        List<String> copy = new ArrayList<>(phrases);
+        synthesis.submit(() -> {
+            for (String phrase : copy) {
+                if (cached(phrase) == null) {
+                    try {
+                        synthesizeAndCache(phrase);
+                    } catch (IOException e) {
+                        System.err.println("Could not pre-synthesize \"" + phrase + "\": " + e.getMessage());
+                    }
+                }
+            }
+        });
+    }
+    
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+    
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+    
+    /**
+     * Stop playback and release the audio line
+     */
+    public void shutdown() {
+        running = false;
+        cancel();
+        synthesis.shutdownNow();
+        playback.interrupt();
+    }
+    
+    private byte[] cached(String text) {
+        synchronized (cache) {
+            byte[] audio = cache.get(text);
+            if (audio != null) {
+                cacheHits.incrementAndGet();
+            }
+            return audio;
+        }
+    }
+    
+    private byte[] synthesizeAndCache(String text) throws IOException {
+        cacheMisses.incrementAndGet();
+        byte[] audio = synthesizer.synthesize(text);
+        if (text.length() <= MAX_CACHED_PHRASE_LENGTH) {
+            synchronized (cache) {
+                byte[] previous = cache.put(text, audio);
+                cacheBytes += audio.length - (previous != null ? previous.length : 0);
+                Iterator<byte[]> eldest = cache.values().iterator();
+                while (cacheBytes > MAX_CACHE_BYTES && eldest.hasNext()) {
+                    cacheBytes -= eldest.next().length;
+                    eldest.remove();
+                }
+            }
+        }
+        return audio;
+    }
+    
+    private void playLoop() {
+        try {
+            while (running) {
+                Utterance next = queue.take();
+                if (next.generation != generation.get()) {
+                    continue;
+                }
+                byte[] audio;
+                try {
+                    audio = next.audio.get();
+                } catch (CancellationException e) {
+                    continue;
+                } catch (ExecutionException e) {
+                    System.err.println("Speech synthesis failed: " + e.getCause());
+                    System.out.println("AI Speaking: " + next.text);
+                    continue;
+                }
+                play(next, audio);
+            }
+        } catch (InterruptedException e) {
+            // Shutting down
+        } finally {
+            if (line != null) {
+                line.close();
+            }
+        }
+    }
+    
+    private void play(Utterance utterance, byte[] audio) {
+        SourceDataLine output = openLine();
+        if (output == null) {
+            // No audio device (headless, CI): keep the old console behaviour
+            System.out.println("AI Speaking: " + utterance.text);
+            return;
+        }
+        int chunk = Math.max(format.getFrameSize(),
+            (int) (format.getFrameRate() * WRITE_MILLIS / 1000) * format.getFrameSize());
+        for (int offset = 0; offset < audio.length; offset += chunk) {
+            if (utterance.generation != generation.get() || !running) {
+                // Barge-in: throw away what the device still holds
+                output.flush();
+                return;
+            }
+            output.write(audio, offset, Math.min(chunk, audio.length - offset));
+        }
+        // Like drain(), but still interruptible by barge-in
+        while (output.available() < output.getBufferSize()) {
+            if (utterance.generation != generation.get() || !running) {
+                output.flush();
+                return;
+            }
+            try {
+                Thread.sleep(WRITE_MILLIS / 4);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                output.flush();
+                return;
+            }
+        }
+    }
+    
+    private SourceDataLine openLine() {
+        if (line != null || lineUnavailable) {
+            return line;
+        }
+        try {
+            SourceDataLine opened = AudioSystem.getSourceDataLine(format);
+            opened.open(format);
+            opened.start();
+            line = opened;
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            lineUnavailable = true;
+        }
+        return line;
+    }
+    
+    private static final class Utterance {
+        final String text;
+        final Future<byte[]> audio;
+        final int generation;
+        
+        Utterance(String text, Future<byte[]> audio, int generation) {
+            this.text = text;
+            this.audio = audio;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.myemailapp.voice;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Streaming speech recognizer
+ *
+ * VoiceService calls these from its processing thread while the user is still speaking,
+ * so an implementation can upload or decode chunks as they arrive and only has to
+ * finish the tail when the utterance ends.
+ */
+public interface SpeechRecognizer {
+    /**
+     * A new utterance begins; chunks of the given format follow
+     */
+    void utteranceStarted(AudioFormat format);
+    
+    /**
+     * Next fixed-size chunk of PCM audio (the last chunk of an utterance may be shorter).
+     * The array is not reused by the caller.
+     */
+    void audioChunk(byte[] pcm);
+    
+    /**
+     * The utterance is over; return the transcript (or null if nothing was recognized)
+     */
+    String utteranceEnded();
+}
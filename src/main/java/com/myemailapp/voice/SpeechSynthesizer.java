@@ -0,0 +1,19 @@
+package com.myemailapp.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+
+/**
+ * Text-to-speech engine producing raw PCM for SpeechPlayer
+ */
+public interface SpeechSynthesizer {
+    /**
+     * Format of the PCM returned by {@link #synthesize}; must not change between calls
+     */
+    AudioFormat getFormat();
+    
+    /**
+     * Synthesize one phrase. May block on a remote service.
+     */
+    byte[] synthesize(String text) throws IOException;
+}
@@ -0,0 +1,43 @@
+package com.myemailapp.voice;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * Local stand-in for a real TTS backend: one short tone per word
+ *
+ * Good enough to exercise queueing, caching and barge-in without network access; the
+ * pitch of each tone is derived from the word, so repeated phrases sound the same.
+ */
+public class StubSynthesizer implements SpeechSynthesizer {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int TONE_MILLIS = 110;
+    private static final int GAP_MILLIS = 40;
+    private static final double AMPLITUDE = 6000;
+    
+    private final AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+    
+    @Override
+    public AudioFormat getFormat() {
+        return format;
+    }
+    
+    @Override
+    public byte[] synthesize(String text) {
+        String[] words = text.trim().isEmpty() ? new String[0] : text.trim().split("\\s+");
+        int toneSamples = SAMPLE_RATE * TONE_MILLIS / 1000;
+        int gapSamples = SAMPLE_RATE * GAP_MILLIS / 1000;
+        byte[] pcm = new byte[words.length * (toneSamples + gapSamples) * 2];
+        int index = 0;
+        for (String word : words) {
+            double frequency = 180 + Math.floorMod(word.toLowerCase().hashCode(), 160);
+            for (int i = 0; i < toneSamples; i++) {
+                double envelope = Math.sin(Math.PI * i / toneSamples);
+                int sample = (int) (AMPLITUDE * envelope * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+                pcm[index++] = (byte) sample;
+                pcm[index++] = (byte) (sample >> 8);
+            }
+            index += gapSamples * 2;
+        }
+        return pcm;
+    }
+}
@@ -0,0 +1,114 @@
+package com.myemailapp.voice;
+
+/**
+ * Energy and zero-crossing voice activity detection on 16-bit little-endian PCM frames
+ *
+ * A frame counts as speech when its RMS energy is well above the tracked noise floor and
+ * its zero-crossing rate is in the range of voiced or fricative sounds (steady hum has very
+ * few crossings, hiss has too many). An utterance starts after a few consecutive speech
+ * frames and ends after a stretch of silence, or when it reaches the maximum length.
+ */
+public class VoiceActivityDetector {
+    public enum State { SILENCE, SPEECH_STARTED, SPEECH, SPEECH_ENDED }
+    
+    private static final double SPEECH_TO_NOISE_RATIO = 3.0;
+    private static final double MIN_SPEECH_RMS = 300;
+    private static final double MIN_CROSSING_RATE = 0.02;
+    private static final double MAX_CROSSING_RATE = 0.5;
+    private static final double NOISE_ADAPTATION = 0.05;
+    private static final int START_FRAMES = 3;
+    
+    private final int endSilenceFrames;
+    private final int maxUtteranceFrames;
+    private double noiseFloor = MIN_SPEECH_RMS / SPEECH_TO_NOISE_RATIO;
+    private boolean inSpeech;
+    private int speechRun;
+    private int silenceRun;
+    private int utteranceFrames;
+    
+    /**
+     * @param frameMillis duration of one frame passed to {@link #process}
+     * @param endSilenceMillis silence that ends an utterance
+     * @param maxUtteranceMillis hard limit for one utterance
+     */
+    public VoiceActivityDetector(int frameMillis, int endSilenceMillis, int maxUtteranceMillis) {
+        this.endSilenceFrames = Math.max(1, endSilenceMillis / frameMillis);
+        this.maxUtteranceFrames = Math.max(1, maxUtteranceMillis / frameMillis);
+    }
+    
+    /**
+     * Classify one frame and report the utterance state after it
+     */
+    public State process(byte[] pcm, int offset, int length) {
+        int samples = length / 2;
+        if (samples == 0) {
+            return inSpeech ? State.SPEECH : State.SILENCE;
+        }
+        double energy = 0;
+        int crossings = 0;
+        int previous = 0;
+        for (int i = 0; i < samples; i++) {
+            int sample = (short) ((pcm[offset + 2 * i] & 0xff) | (pcm[offset + 2 * i + 1] << 8));
+            energy += (double) sample * sample;
+            if (i > 0 && (sample >= 0) != (previous >= 0)) {
+                crossings++;
+            }
+            previous = sample;
+        }
+        double rms = Math.sqrt(energy / samples);
+        double crossingRate = (double) crossings / samples;
+        boolean speech = rms >= Math.max(MIN_SPEECH_RMS, noiseFloor * SPEECH_TO_NOISE_RATIO) &&
+                         crossingRate >= MIN_CROSSING_RATE && crossingRate <= MAX_CROSSING_RATE;
+        
+        if (!inSpeech) {
+            if (!speech) {
+                // Only learn the noise floor from non-speech frames
+                noiseFloor += (rms - noiseFloor) * NOISE_ADAPTATION;
+                speechRun = 0;
+                return State.SILENCE;
+            }
+            if (++speechRun < START_FRAMES) {
+                return State.SILENCE;
+            }
+            inSpeech = true;
+            silenceRun = 0;
+            utteranceFrames = speechRun;
+            return State.SPEECH_STARTED;
+        }
+        
+        utteranceFrames++;
+        silenceRun = speech ? 0 : silenceRun + 1;
+        if (silenceRun >= endSilenceFrames || utteranceFrames >= maxUtteranceFrames) {
+            reset();
+            return State.SPEECH_ENDED;
+        }
+        return State.SPEECH;
+    }
+    
+    /**
+     * RMS level of a 16-bit little-endian PCM frame
+     */
+    public static double rms(byte[] pcm, int offset, int length) {
+        int samples = length / 2;
+        if (samples == 0) {
+            return 0;
+        }
+        double energy = 0;
+        for (int i = 0; i < samples; i++) {
+            int sample = (short) ((pcm[offset + 2 * i] & 0xff) | (pcm[offset + 2 * i + 1] << 8));
+            energy += (double) sample * sample;
+        }
+        return Math.sqrt(energy / samples);
+    }
+    
+    public boolean isInSpeech() {
+        return inSpeech;
+    }
+    
+    public void reset() {
+        inSpeech = false;
+        speechRun = 0;
+        silenceRun = 0;
+        utteranceFrames = 0;
+    }
+}
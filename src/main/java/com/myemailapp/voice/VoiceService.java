@@ -2,65 +2,136 @@ package com.myemailapp.voice;
 
 import javax.sound.sampled.*;
 import java.io.*;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Voice service for speech recognition and text-to-speech
- * Simplified version using basic audio capture
+ *
+ * While recording, a capture thread reads the microphone continuously into a lock-free
+ * ring buffer so the line never overflows. A processing thread takes 20 ms frames from
+ * the buffer, runs voice activity detection and streams fixed-size chunks of each
+ * utterance to the SpeechRecognizer as it is spoken, so recognition overlaps with speaking.
+ * Spoken output goes through a SpeechPlayer queue when a speech engine is configured
+ * (starting to record cuts it off); without one it is printed to the console.
  */
 public class VoiceService {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int FRAME_MILLIS = 20;
+    private static final int FRAME_BYTES = SAMPLE_RATE / 1000 * FRAME_MILLIS * 2;
+    private static final int CHUNK_BYTES = FRAME_BYTES * 10;         // 200 ms per recognizer chunk
+    private static final int PRE_ROLL_FRAMES = 15;                   // audio kept from before speech starts
+    private static final int RING_BYTES = SAMPLE_RATE * 2 * 16;      // 16 seconds of slack
+    private static final int END_SILENCE_MILLIS = 800;
+    private static final int MAX_UTTERANCE_MILLIS = 15_000;
+    
     private TargetDataLine microphone;
     private AudioFormat audioFormat;
-    private boolean isRecording;
+    private volatile boolean isRecording;
+    private volatile SpeechRecognizer recognizer = new CompressingRecognizer(new PlaceholderSink());
+    private Thread captureThread;
+    private Thread processorThread;
+    private AudioRingBuffer ring;
+    private ByteArrayOutputStream recorded;
+    private volatile String lastTranscript;
+    // Null without a speech engine
+    private final SpeechPlayer speechPlayer;
     
+    /**
+     * Notified on the voice processing thread when an utterance has been recognized
+     */
+    public interface UtteranceListener {
+        void utteranceRecognized(String transcript, byte[] audio);
+    }
+    
+    /**
+     * Voice service without a speech engine; spoken output goes to the console
+     */
     public VoiceService() {
+        this(null);
+    }
+    
+    /**
+     * Voice service speaking through the given engine (StubSynthesizer for testing)
+     */
+    public VoiceService(SpeechSynthesizer synthesizer) {
+        speechPlayer = synthesizer != null ? new SpeechPlayer(synthesizer) : null;
         // CD quality audio
         audioFormat = new AudioFormat(
             AudioFormat.Encoding.PCM_SIGNED,
-            16000, // sample rate
+            SAMPLE_RATE, // sample rate
             16,    // sample size in bits
             1,     // channels (mono)
             2,     // frame size
-            16000, // frame rate
+            SAMPLE_RATE, // frame rate
             false  // big endian
         );
     }
     
     /**
-     * Start recording audio
+     * Replace the recognizer that receives streamed audio chunks
+     */
+    public void setSpeechRecognizer(SpeechRecognizer recognizer) {
+        this.recognizer = recognizer;
+    }
+    
+    public AudioFormat getAudioFormat() {
+        return audioFormat;
+    }
+    
+    /**
+     * Start recording audio; utterances are recognized as they happen until stopRecording
      */
     public void startRecording() throws LineUnavailableException {
-        DataLine.Info info = new DataLine.Info(TargetDataLine.class, audioFormat);
-        microphone = (TargetDataLine) AudioSystem.getLine(info);
-        microphone.open(audioFormat);
-        microphone.start();
-        isRecording = true;
+        start(null);
+    }
+    
+    /**
+     * Record a single utterance: capture stops on its own once the speaker goes quiet,
+     * and the listener receives the transcript
+     */
+    public void listen(UtteranceListener listener) throws LineUnavailableException {
+        start(listener);
     }
     
     /**
      * Stop recording and return audio data
      */
     public byte[] stopRecording() {
-        if (microphone != null) {
+        Thread processor;
+        synchronized (this) {
+            if (processorThread == null) {
+                return new byte[0];
+            }
             isRecording = false;
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            byte[] buffer = new byte[4096];
-            
+            processor = processorThread;
+        }
+        if (processor != Thread.currentThread()) {
             try {
-                while (microphone.available() > 0) {
-                    int count = microphone.read(buffer, 0, buffer.length);
-                    if (count > 0) {
-                        out.write(buffer, 0, count);
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
+                processor.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-            
-            microphone.stop();
-            microphone.close();
-            return out.toByteArray();
         }
-        return new byte[0];
+        synchronized (this) {
+            byte[] audio = recorded.toByteArray();
+            processorThread = null;
+            captureThread = null;
+            return audio;
+        }
+    }
+    
+    public boolean isRecording() {
+        return isRecording;
+    }
+    
+    /**
+     * Transcript of the most recent utterance recognized while recording (null if none)
+     */
+    public String getLastTranscript() {
+        return lastTranscript;
     }
     
     /**
@@ -68,19 +139,67 @@ public class VoiceService {
      * For this demo, we'll use a simple approach
      */
     public String speechToText(byte[] audioData) {
-        // In a real implementation, this would use Google Cloud Speech-to-Text API
-        // For now, return a message indicating voice input was received
-        return "[Voice input captured - " + audioData.length + " bytes. " +
-               "In production, this would use Google Speech-to-Text API]";
+        SpeechRecognizer offline = new CompressingRecognizer(new PlaceholderSink());
+        offline.utteranceStarted(audioFormat);
+        for (int offset = 0; offset < audioData.length; offset += CHUNK_BYTES) {
+            int length = Math.min(CHUNK_BYTES, audioData.length - offset);
+            byte[] chunk = new byte[length];
+            System.arraycopy(audioData, offset, chunk, 0, length);
+            offline.audioChunk(chunk);
+        }
+        return offline.utteranceEnded();
     }
     
     /**
-     * Convert text to speech and play it
+     * Convert text to speech and play it (queued behind anything already playing)
      */
     public void textToSpeech(String text) {
-        // In a real implementation, this would use Google Cloud Text-to-Speech API
-        // For this demo, we'll print to console
-        System.out.println("AI Speaking: " + text);
+        if (speechPlayer == null) {
+            System.out.println("AI Speaking: " + text);
+            return;
+        }
+        speechPlayer.speak(text);
+    }
+    
+    /**
+     * Interrupt current speech and say this instead
+     */
+    public void textToSpeechNow(String text) {
+        if (speechPlayer == null) {
+            System.out.println("AI Speaking: " + text);
+            return;
+        }
+        speechPlayer.speakNow(text);
+    }
+    
+    /**
+     * Stop speaking and drop queued phrases
+     */
+    public void stopSpeaking() {
+        if (speechPlayer != null) {
+            speechPlayer.cancel();
+        }
+    }
+    
+    /**
+     * Synthesize frequently spoken phrases in the background so they play without delay
+     */
+    public void prewarmPhrases(Collection<String> phrases) {
+        if (speechPlayer != null) {
+            speechPlayer.prewarm(phrases);
+        }
+    }
+    
+    /**
+     * Stop recording and speech output
+     */
+    public void shutdown() {
+        if (isRecording) {
+            stopRecording();
+        }
+        if (speechPlayer != null) {
+            speechPlayer.shutdown();
+        }
     }
     
     /**
@@ -94,4 +213,181 @@ public class VoiceService {
             return false;
         }
     }
+    
+    private synchronized void start(UtteranceListener listener) throws LineUnavailableException {
+        if (processorThread != null && processorThread.isAlive()) {
+            throw new IllegalStateException("Already recording");
+        }
+        // Barge-in: the user talking means they no longer want to hear us
+        stopSpeaking();
+        DataLine.Info info = new DataLine.Info(TargetDataLine.class, audioFormat);
+        microphone = (TargetDataLine) AudioSystem.getLine(info);
+        microphone.open(audioFormat);
+        microphone.start();
+        ring = new AudioRingBuffer(RING_BYTES);
+        recorded = new ByteArrayOutputStream();
+        lastTranscript = null;
+        isRecording = true;
+        
+        processorThread = new Thread(new Processor(listener), "voice-processor");
+        processorThread.setDaemon(true);
+        captureThread = new Thread(this::capture, "voice-capture");
+        captureThread.setDaemon(true);
+        captureThread.setPriority(Thread.MAX_PRIORITY);
+        processorThread.start();
+        captureThread.start();
+    }
+    
+    /**
+     * Capture loop: keep the line drained so the device buffer never overflows
+     */
+    private void capture() {
+        TargetDataLine line = microphone;
+        AudioRingBuffer buffer = ring;
+        Thread processor = processorThread;
+        byte[] frame = new byte[FRAME_BYTES];
+        try {
+            while (isRecording) {
+                int count = line.read(frame, 0, frame.length);
+                if (count > 0) {
+                    buffer.write(frame, 0, count);
+                    LockSupport.unpark(processor);
+                }
+            }
+        } finally {
+            line.stop();
+            line.close();
+            LockSupport.unpark(processor);
+            if (buffer.getDroppedBytes() > 0) {
+                System.err.println("Voice capture dropped " + buffer.getDroppedBytes() + " bytes");
+            }
+        }
+    }
+    
+    /**
+     * Processing loop: voice activity detection and chunked streaming to the recognizer
+     */
+    private class Processor implements Runnable {
+        private final UtteranceListener listener;
+        private final VoiceActivityDetector detector =
+            new VoiceActivityDetector(FRAME_MILLIS, END_SILENCE_MILLIS, MAX_UTTERANCE_MILLIS);
+        private final ArrayDeque<byte[]> preRoll = new ArrayDeque<>();
+        private final ByteArrayOutputStream chunk = new ByteArrayOutputStream(CHUNK_BYTES);
+        private ByteArrayOutputStream utterance;
+        private SpeechRecognizer active;
+        private boolean done;
+        
+        Processor(UtteranceListener listener) {
+            this.listener = listener;
+        }
+        
+        @Override
+        public void run() {
+            AudioRingBuffer buffer = ring;
+            Thread capture = captureThread;
+            byte[] frame = new byte[FRAME_BYTES];
+            while (isRecording || capture.isAlive() || buffer.available() > 0) {
+                if (buffer.available() < FRAME_BYTES && (isRecording || capture.isAlive())) {
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(FRAME_MILLIS));
+                    continue;
+                }
+                int count = buffer.read(frame, 0, FRAME_BYTES);
+                recorded.write(frame, 0, count);
+                if (!done) {
+                    process(frame, count);
+                }
+            }
+            if (active != null) {
+                finishUtterance();
+            }
+        }
+        
+        private void process(byte[] frame, int count) {
+            byte[] copy = new byte[count];
+            System.arraycopy(frame, 0, copy, 0, count);
+            switch (detector.process(copy, 0, count)) {
+                case SILENCE:
+                    preRoll.addLast(copy);
+                    if (preRoll.size() > PRE_ROLL_FRAMES) {
+                        preRoll.removeFirst();
+                    }
+                    break;
+                case SPEECH_STARTED:
+                    active = recognizer;
+                    active.utteranceStarted(audioFormat);
+                    utterance = new ByteArrayOutputStream();
+                    while (!preRoll.isEmpty()) {
+                        append(preRoll.removeFirst());
+                    }
+                    append(copy);
+                    break;
+                case SPEECH:
+                    append(copy);
+                    break;
+                case SPEECH_ENDED:
+                    append(copy);
+                    finishUtterance();
+                    if (listener != null) {
+                        // Single-utterance mode: the speaker is done, stop capturing
+                        done = true;
+                        isRecording = false;
+                    }
+                    break;
+            }
+        }
+        
+        private void append(byte[] frame) {
+            utterance.write(frame, 0, frame.length);
+            chunk.write(frame, 0, frame.length);
+            if (chunk.size() >= CHUNK_BYTES) {
+                active.audioChunk(chunk.toByteArray());
+                chunk.reset();
+            }
+        }
+        
+        private void finishUtterance() {
+            if (chunk.size() > 0) {
+                active.audioChunk(chunk.toByteArray());
+                chunk.reset();
+            }
+            String transcript;
+            try {
+                transcript = active.utteranceEnded();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                transcript = null;
+            }
+            lastTranscript = transcript;
+            byte[] audio = utterance.toByteArray();
+            active = null;
+            utterance = null;
+            if (listener != null) {
+                listener.utteranceRecognized(transcript, audio);
+            }
+        }
+    }
+    
+    /**
+     * Stand-in until a real speech-to-text backend is plugged in
+     */
+    private static class PlaceholderSink implements EncodedAudioSink {
+        private long bytes;
+        
+        @Override
+        public void begin(String contentType, int sampleRate) {
+            bytes = 0;
+        }
+        
+        @Override
+        public void send(byte[] data) {
+            bytes += data.length;
+        }
+        
+        @Override
+        public String complete() {
+            // In a real implementation, this would upload to Google Cloud Speech-to-Text API
+            return "[Voice input captured - " + bytes + " bytes FLAC. " +
+                   "In production, this would use Google Speech-to-Text API]";
+        }
+    }
 }